@@ -54,21 +54,28 @@ public class MainView extends PageView {
 
 	private static final int INSET = 10;
 	private static final Font SEARCH_FONT = new Font("Times New Roman", Font.PLAIN, 13),
-			SORT_FONT = new Font("Georgia", Font.PLAIN, 14);
+			SORT_FONT = new Font("Georgia", Font.PLAIN, 14),
+			TITLE_FONT = new Font("Times New Roman", Font.BOLD, 15),
+			TEXT_FONT = new Font("Times New Roman", Font.PLAIN, 13);
+	private static final Color PANEL_COLOR = new Color(0, 0, 120, 180),
+			PRESSED_COLOR = new Color(255, 255, 150, 200),
+			HOVER_COLOR = new Color(Color.DARK_GRAY.getRed(), Color.DARK_GRAY.getBlue(), Color.DARK_GRAY.getGreen(), 210);
 
 	private CollectionsApplet context;
 	private Artifact[] data, set;
 
 	JPanel searchPanel, sortPanel;
 	JScrollPane scrolls;
-	Box main, dataList;
+	Box main;
+	JList dataList;
 
 	JTextField search;
 	JComboBox searchFields, sortType, sortBy;
 
 	ArtifactSorter sorter = new ArtifactSorter();
 
-	HashMap<JPanel, Artifact> selectionMap = new HashMap<JPanel, Artifact>();
+	SearchSession session;
+	ArtifactListListener listListener;
 
 	public MainView(CollectionsApplet context) {
 		super();
@@ -114,8 +121,21 @@ public class MainView extends PageView {
 		sortPanel.add(sortBy);
 		sortPanel.add(sortType);
 
-		dataList = new Box(BoxLayout.Y_AXIS);
+		ArtifactCellRenderer renderer = new ArtifactCellRenderer();
+		listListener = new ArtifactListListener();
+		dataList = new JList();
+		dataList.addMouseListener(listListener);
+		dataList.addMouseMotionListener(listListener);
 		dataList.setOpaque(false);
+		dataList.setCellRenderer(renderer);
+		// fixed cell sizes keep the list from measuring every row; the width is only a minimum
+		// since the list stretches to fill the viewport
+		Artifact proto = Artifact.createGenericArtifact();
+		proto.title = proto.donor = proto.accNum = "X";
+		dataList.setFixedCellWidth(1);
+		dataList.setFixedCellHeight(renderer.getListCellRendererComponent(dataList,
+				proto, -1, false, false).getPreferredSize().height);
+		dataList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 
 		scrolls = new JScrollPane(dataList);
 		scrolls.setOpaque(false);
@@ -131,128 +151,88 @@ public class MainView extends PageView {
 	}
 
 	public void initData() {
+		if(session != null)
+			session.close();
+		session = new SearchSession(context.getDatabase(), new SearchSession.Listener() {
+
+			@Override
+			public void searchCompleted(SearchSession.Query query, Artifact[] results) {
+				fillData(results, false);
+			}
+
+		});
 		data = context.getDatabase().getData();
 		set = data;
 		fillData(data, true);
 	}
 
-	private void applySorting(Artifact[] data) {
+	private void updateSorter() {
 		int fieldInd = sortBy.getSelectedIndex();
 		int sortInd = sortType.getSelectedIndex();
 		sorter.setVar(getSortingVar(fieldInd));
 		sorter.setMode(getSortingMode(sortInd));
-		Arrays.sort(data, sorter);
 	}
 
-	private void fillData(Artifact[] data, boolean sort) {
-
-		if(sort)
-			applySorting(data);
-
-		dataList = new Box(BoxLayout.Y_AXIS);
-		dataList.setOpaque(false);
-		scrolls.setViewportView(dataList);
+	private void applySorting(Artifact[] data) {
+		updateSorter();
+		sorter.sort(context.getDatabase().snapshot(), data);
+	}
 
-		for(int i = 0 ; i < data.length ; i++) {
-			Artifact a = data[i];
-			JPanel panel = new JPanel(new BorderLayout());
-			Color panelColor = new Color(0, 0, 120, 180);
-			panel.setBackground(panelColor);
-			panel.setBorder(new MatteBorder(2,2,2,2,Color.BLACK));
+	private void fillData(Artifact[] data, boolean sort) {
 
-			Font tfont = new Font("Times New Roman", Font.BOLD, 15);
-			Font txtfont = new Font("Times New Roman", Font.PLAIN, 13);
-			Color fontColor = Color.WHITE;
-			Box west = new Box(BoxLayout.Y_AXIS);
-			JLabel title = new JLabel(a.title);
-			title.setFont(tfont);
-			title.setForeground(fontColor);
-			JLabel donor = new JLabel(a.donor);
-			donor.setFont(txtfont);
-			donor.setForeground(fontColor);
-			JLabel accNum = new JLabel(a.accNum);
-			accNum.setFont(txtfont);
-			accNum.setForeground(fontColor);
-			west.add(title);
-			west.add(donor);
-			west.add(accNum);
-			Box east = new Box(BoxLayout.Y_AXIS);
-			JLabel objDate = new JLabel(a.objDate.toString());
-			objDate.setFont(txtfont);
-			objDate.setForeground(fontColor);
-			JLabel subDate = new JLabel(a.subDate.toString());
-			subDate.setFont(txtfont);
-			subDate.setForeground(fontColor);
-			east.add(objDate);
-			east.add(subDate);
-			panel.add(BorderLayout.EAST, east);
-			panel.add(BorderLayout.WEST, west);
-			panel.addMouseListener(new ArtifactPanelListener(panelColor));
-			panel.setMaximumSize(new Dimension(Integer.MAX_VALUE, panel
-					.getPreferredSize().height));
-			dataList.add(panel);
-			dataList.add(Box.createVerticalStrut(10));
-			selectionMap.put(panel, a);
+		java.util.List<Artifact> list;
+		if(sort && data == this.data) {
+			// the whole collection is shown from the Database's cached order rather than sorted
+			updateSorter();
+			list = sorter.getSorted(context.getDatabase().snapshot());
+		} else {
+			if(sort)
+				applySorting(data);
+			list = Arrays.asList(data);
 		}
 
-		dataList.add(Box.createVerticalGlue());
+		dataList.setModel(new ArtifactListModel(list));
+		dataList.ensureIndexIsVisible(0);
 
 		validate();
 	}
 
-	private void startSearch(Artifact[] data) {
-		Database db = context.getDatabase();
-		Artifact[] resArr = data;
+	private void startSearch() {
+		String text = search.getText();
+		SearchSession.Query query = null;
 		switch(searchFields.getSelectedIndex()) {
 		case 0:
-			Artifact a = Artifact.createGenericArtifact();
-			a.title = search.getText();
-			resArr = db.searchByField(StringField.TITLE, a);
+			query = SearchSession.Query.forString(StringField.TITLE, text);
 			break;
 		case 1:
-			a = Artifact.createGenericArtifact();
-			a.donor = search.getText();
-			resArr = db.searchByField(StringField.DONOR, a);
+			query = SearchSession.Query.forString(StringField.DONOR, text);
 			break;
 		case 2:
-			a = Artifact.createGenericArtifact();
-			a.medium = search.getText();
-			resArr = db.searchByField(StringField.MEDIUM, a);
+			query = SearchSession.Query.forString(StringField.MEDIUM, text);
 			break;
 		case 3:
-			a = Artifact.createGenericArtifact();
-			TimeSpec ts = parseStandardTimeString(search.getText());
+			TimeSpec ts = parseStandardTimeString(text);
 			if(ts == null) {
-				DateTime dt = new DateTime(Calendar.getInstance().getTime(), DateFormat.getDateInstance());
-				dt.forcedValue = search.getText();
-				a.objDate = dt;
-				resArr = db.searchByFieldHybrid(TimeField.OBJECT_DATE, a);
+				query = SearchSession.Query.forTimeText(TimeField.OBJECT_DATE, text);
 			} else {
-				a.objDate = ts;
-				resArr = db.searchByField(TimeField.OBJECT_DATE, a);
+				query = SearchSession.Query.forTime(TimeField.OBJECT_DATE, ts);
 			}
 			break;
 		case 4:
-			a = Artifact.createGenericArtifact();
-			ts = parseStandardTimeString(search.getText());
+			ts = parseStandardTimeString(text);
 			if(ts == null) {
-				DateTime dt = new DateTime(Calendar.getInstance().getTime(), DateFormat.getDateInstance());
-				dt.forcedValue = search.getText();
-				a.subDate = dt;
-				resArr = db.searchByFieldHybrid(TimeField.SUBMISSION_DATE, a);
+				query = SearchSession.Query.forTimeText(TimeField.SUBMISSION_DATE, text);
 			} else {
-				a.subDate = ts;
-				resArr = db.searchByField(TimeField.SUBMISSION_DATE, a);
+				query = SearchSession.Query.forTime(TimeField.SUBMISSION_DATE, ts);
 			}
 			break;
 		case 5:
-			a = Artifact.createGenericArtifact();
-			a.accNum = search.getText();
-			resArr = db.searchByField(StringField.ACCESSION_NUMBER, a);
+			query = SearchSession.Query.forString(StringField.ACCESSION_NUMBER, text);
 			break;
 		}
 
-		fillData(resArr, false);
+		if(query != null)
+			session.submit(query);
 	}
 	
 	private TimeSpec parseStandardTimeString(String str) {
@@ -309,36 +289,133 @@ public class MainView extends PageView {
 		return var;
 	}
 
-	private class ArtifactPanelListener implements MouseListener {
+	/**
+	 * List model over an array of search results.
+	 */
+	private static class ArtifactListModel extends AbstractListModel {
 
-		Color pressed = new Color(255, 255, 150, 200),
-				hover = new Color(Color.DARK_GRAY.getRed(), Color.DARK_GRAY.getBlue(), Color.DARK_GRAY.getGreen(), 210),
-				hprev;
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 3012734850716283907L;
 
-		boolean inside;
+		private final java.util.List<Artifact> data;
 
-		ArtifactPanelListener(Color def) {
-			hprev = def;
+		ArtifactListModel(java.util.List<Artifact> data) {
+			this.data = data;
 		}
 
 		@Override
-		public void mouseClicked(MouseEvent e) {
+		public int getSize() {
+			return data.size();
+		}
+
+		@Override
+		public Object getElementAt(int index) {
+			return data.get(index);
+		}
+	}
+
+	/**
+	 * Renders each result as a panel with the Artifact's title, donor and accession number on the
+	 * left and its dates on the right. A single set of components is reused for every row.
+	 */
+	private class ArtifactCellRenderer implements ListCellRenderer {
+
+		JPanel cell, panel;
+		JLabel title, donor, accNum, objDate, subDate;
+
+		ArtifactCellRenderer() {
+			panel = new JPanel(new BorderLayout());
+			panel.setBorder(new MatteBorder(2,2,2,2,Color.BLACK));
+			Box west = new Box(BoxLayout.Y_AXIS);
+			title = label(TITLE_FONT);
+			donor = label(TEXT_FONT);
+			accNum = label(TEXT_FONT);
+			west.add(title);
+			west.add(donor);
+			west.add(accNum);
+			Box east = new Box(BoxLayout.Y_AXIS);
+			objDate = label(TEXT_FONT);
+			subDate = label(TEXT_FONT);
+			east.add(objDate);
+			east.add(subDate);
+			panel.add(BorderLayout.EAST, east);
+			panel.add(BorderLayout.WEST, west);
+
+			// transparent gap between rows
+			cell = new JPanel(new BorderLayout());
+			cell.setOpaque(false);
+			cell.setBorder(new EmptyBorder(0, 0, 10, 0));
+			cell.add(BorderLayout.CENTER, panel);
+		}
+
+		private JLabel label(Font font) {
+			JLabel label = new JLabel(" ");
+			label.setFont(font);
+			label.setForeground(Color.WHITE);
+			return label;
+		}
+
+		@Override
+		public Component getListCellRendererComponent(JList list, Object value,
+				int index, boolean isSelected, boolean cellHasFocus) {
+			Artifact a = (Artifact) value;
+			title.setText(a.title);
+			donor.setText(a.donor);
+			accNum.setText(a.accNum);
+			objDate.setText((a.objDate != null) ? a.objDate.toString() : "");
+			subDate.setText((a.subDate != null) ? a.subDate.toString() : "");
+			if(index == listListener.pressed) {
+				panel.setBackground(PRESSED_COLOR);
+			} else if(index == listListener.hover) {
+				panel.setBackground(HOVER_COLOR);
+			} else {
+				panel.setBackground(PANEL_COLOR);
+			}
+			return cell;
+		}
+	}
+
+	/**
+	 * Highlights the row under the mouse and opens an Artifact's page when its row is clicked.
+	 */
+	private class ArtifactListListener extends MouseAdapter {
+
+		int hover = -1, pressed = -1;
+
+		/**
+		 * @return the index of the row under the point, or -1 if there is none.
+		 */
+		private int rowAt(Point p) {
+			int index = dataList.locationToIndex(p);
+			if(index >= 0 && !dataList.getCellBounds(index, index).contains(p))
+				index = -1;
+			return index;
+		}
+
+		private void setHover(int index) {
+			if(index != hover) {
+				hover = index;
+				dataList.repaint();
+			}
 		}
 
 		@Override
 		public void mousePressed(MouseEvent e) {
-			e.getComponent().setBackground(pressed);
-			context.repaint();
+			pressed = rowAt(e.getPoint());
+			dataList.repaint();
 		}
 
 		@Override
 		public void mouseReleased(MouseEvent e) {
-			e.getComponent().setBackground(hprev);
-			context.repaint();
-			if(inside) {
+			int index = pressed;
+			pressed = -1;
+			dataList.repaint();
+			if(index >= 0 && index == rowAt(e.getPoint())) {
 				PageQueue pq = context.getPageQueue();
 				PageView prev = pq.getCurrent();
-				Artifact a = selectionMap.get(e.getComponent());
+				Artifact a = (Artifact) dataList.getModel().getElementAt(index);
 				PageView pv = new ArtifactPageView(new ArtifactView(a, context.getProvider()), context);
 				pq.addNew(pv);
 				context.updateView(prev);
@@ -347,18 +424,18 @@ public class MainView extends PageView {
 		}
 
 		@Override
-		public void mouseEntered(MouseEvent e) {
-			e.getComponent().setBackground(hover);
-			inside = true;
-			context.repaint();
+		public void mouseMoved(MouseEvent e) {
+			setHover(rowAt(e.getPoint()));
+		}
+
+		@Override
+		public void mouseDragged(MouseEvent e) {
+			setHover(rowAt(e.getPoint()));
 		}
 
 		@Override
 		public void mouseExited(MouseEvent e) {
-			e.getComponent().setBackground(hprev);
-			inside = false;
-			e.getComponent().repaint();
-			context.repaint();
+			setHover(-1);
 		}
 
 	}
@@ -367,11 +444,14 @@ public class MainView extends PageView {
 
 		@Override
 		public void caretUpdate(CaretEvent e) {
-			if(search.getText() == null || search.getText().isEmpty()) {
+			if(session == null) {
+				return;
+			} else if(search.getText() == null || search.getText().isEmpty()) {
+				session.cancel();
 				fillData(data, true);
 				validate();
 			} else {
-				startSearch(data);
+				startSearch();
 			}
 		}
 	}
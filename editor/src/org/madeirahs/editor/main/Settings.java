@@ -21,6 +21,8 @@ package org.madeirahs.editor.main;
 
 import java.util.prefs.*;
 
+import org.madeirahs.shared.database.*;
+
 /**
  * Uses the Java preferences API to store user settings.  The caller is responsible for calling the 'put' commands
  * on the fetched Preferences node.  After data is stored, a call to sync() and save() should follow.
@@ -30,7 +32,8 @@ import java.util.prefs.*;
 public final class Settings {
 
 	public static final String NODE = "mhseditor", USER_KEY = "user", ARCHIVE_LIMIT_KEY = "archiveLimit", UPDATE_CHECK_KEY = "updateCheck",
-			UPDATE_INTERVAL_KEY = "updateInterval", INIT_LOGIN_KEY = "initLogin";
+			UPDATE_INTERVAL_KEY = "updateInterval", INIT_LOGIN_KEY = "initLogin", STORE_COMPRESSION_KEY = "storeCompression",
+			STORE_CHUNK_SIZE_KEY = "storeChunkSize", COMPACT_RATIO_KEY = "compactRatio", MAX_DELTAS_KEY = "maxDeltas";
 
 	public static String usr;
 	public static int archiveLimit;
@@ -63,6 +66,17 @@ public final class Settings {
 		updateCheck = prefs.getBoolean(UPDATE_CHECK_KEY, true);
 		interval = prefs.getLong(UPDATE_INTERVAL_KEY, Long.MIN_VALUE);
 		initLogin = prefs.getBoolean(INIT_LOGIN_KEY, true);
+		// store-file tuning is only applied if explicitly set; otherwise Database defaults are used
+		int level = prefs.getInt(STORE_COMPRESSION_KEY, -1);
+		if(level >= 0 && level <= 9)
+			Database.setStoreCompressionLevel(level);
+		int chunkSize = prefs.getInt(STORE_CHUNK_SIZE_KEY, -1);
+		if(chunkSize > 0)
+			Database.setStoreChunkSize(chunkSize);
+		double ratio = prefs.getDouble(COMPACT_RATIO_KEY, -1);
+		int maxDeltas = prefs.getInt(MAX_DELTAS_KEY, -1);
+		if(ratio > 0 && maxDeltas >= 0)
+			Database.setCompactionThreshold(ratio, maxDeltas);
 	}
 	
 	public enum UpdateInterval {
@@ -30,6 +30,7 @@ import javax.swing.*;
 import javax.swing.border.*;
 
 import org.madeirahs.editor.main.*;
+import org.madeirahs.shared.database.*;
 import org.madeirahs.shared.provider.*;
 
 /**
@@ -68,7 +69,8 @@ public class ServerFTP {
 	static final int SHIFT_THRESHOLD = 24;
 	static final File LOGIN_SAVE = new File(AppSupport.SYS_DIR + File.separator
 			+ "login"), SERVER_SAVE = new File(AppSupport.SYS_DIR + File.separator
-					+ "server"), ADV_CONFIG_SAVE = new File(AppSupport.SYS_DIR + File.separator + "xconfig");
+					+ "server"), ADV_CONFIG_SAVE = new File(AppSupport.SYS_DIR + File.separator + "xconfig"),
+					TRANSFER_SAVE = new File(AppSupport.SYS_DIR + File.separator + "transfers");
 	@Deprecated
 	static final File NAME_SAVE = new File(AppSupport.SYS_DIR + File.separator
 			+ "usr");
@@ -458,27 +460,36 @@ public class ServerFTP {
 
 	/**
 	 * Check the database archives and compare the backup count to the limit set locally.
-	 * If the current size of the archives exceeds the limit, all excess STORE files
-	 * (starting with the oldest) will be deleted.
+	 * If the current size of the archives exceeds the limit, all excess archives
+	 * (starting with the oldest) will be deleted.  Since a delta archive can only be
+	 * restored on top of the full STORE archive preceding it, that STORE file and the
+	 * deltas in between are kept as well.
 	 */
 	public static void checkArchiveLimit() {
 		int limit = Settings.archiveLimit;
 		if(limit < 0)
 			return;
 		String[] backups = prov.listNames(dbArchiveDir);
-		while(backups.length > limit) {
-			String oldest = null;
-			Calendar oldestTime = Calendar.getInstance();
-			for(String s:backups) {
-				Calendar time = prov.getLastModified(s);
-				if(time.before(oldestTime)) {
-					oldestTime = time;
-					oldest = s;
+		if(backups == null || backups.length <= limit)
+			return;
+		Arrays.sort(backups, new Comparator<String>() {
+			@Override
+			public int compare(String o1, String o2) {
+				long t1 = Database.archiveTime(o1), t2 = Database.archiveTime(o2);
+				return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+			}
+		});
+		int keepFrom = backups.length - limit;
+		if(limit > 0 && !backups[keepFrom].endsWith(Database.DB_SUFFIX)) {
+			for(int i = keepFrom - 1; i >= 0; i--) {
+				if(backups[i].endsWith(Database.DB_SUFFIX)) {
+					keepFrom = i;
+					break;
 				}
 			}
-			prov.delete(oldest);
-
-			backups = prov.listNames(dbArchiveDir);
+		}
+		for(int i = 0; i < keepFrom; i++) {
+			prov.delete(backups[i]);
 		}
 	}
 
@@ -547,6 +558,7 @@ public class ServerFTP {
 				if(addr != null && !addr.isEmpty())
 					ftpServerUrl = addr;
 				prov = new FTPProvider(ftpServerUrl, usr, pass);
+				prov.setTransferManifest(TRANSFER_SAVE);
 				prov.setWorkingDir(rootDir);
 				checkDirs();
 				if (window != null) {
@@ -152,14 +152,14 @@ public class LoadUI extends JDialog {
 					JOptionPane.showMessageDialog(inst, "Please select a file");
 				}
 			} else if (views.getSelectedIndex() == 1) { // Server
-				if (sfiles.selected == null) {
+				Artifact a = sfiles.getSelected();
+				if (a == null) {
 					JOptionPane.showMessageDialog(inst,
 							"Please select an Artifact");
 					return;
 				}
 
-				loadRemote(sfiles.pamap.get(sfiles.selected),
-						ServerFTP.getProvider());
+				loadRemote(a, ServerFTP.getProvider());
 			}
 		}
 
@@ -187,7 +187,8 @@ public class LoadUI extends JDialog {
 							"Please select a file");
 				}
 			} else if (views.getSelectedIndex() == 1) { // Server
-				if (sfiles.selected == null) {
+				Artifact a = sfiles.getSelected();
+				if (a == null) {
 					JOptionPane.showMessageDialog(parent,
 							"Please select an Artifact");
 					return;
@@ -200,7 +201,6 @@ public class LoadUI extends JDialog {
 					return;
 				}
 
-				Artifact a = sfiles.pamap.get(sfiles.selected);
 				db.remove(a);
 
 				FTPProvider prov = ServerFTP.getProvider();
@@ -228,16 +228,20 @@ public class LoadUI extends JDialog {
 
 	private class ServerView extends JPanel {
 
+		/*
+		 * Number of rows added to the list at a time as it is scrolled.
+		 */
+		static final int PAGE_SIZE = 200;
+
 		final String[] qstr = new String[] {"Title", "Donor", "Description", "Medium", "Accession Number"},
 				qtime = new String[] {"Submission Date", "Object Date"};
 
-		Box list;
+		JList list;
+		ArtifactListListener listListener;
 		JTextField searchField;
 		JScrollPane listScroll;
 		JComboBox qtype;
 		JLabel dbinf;
-		JPanel selected;
-		HashMap<JPanel, Artifact> pamap = new HashMap<JPanel, Artifact>();
 		HashMap<String, StringField> fmap1 = new HashMap<String, StringField>();
 		HashMap<String, TimeField> fmap2 = new HashMap<String, TimeField>();
 		private Runnable runLoader;
@@ -248,6 +252,14 @@ public class LoadUI extends JDialog {
 			searchField = new JTextField(20);
 			listScroll = new JScrollPane();
 			initList();
+			listScroll.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener() {
+
+				@Override
+				public void adjustmentValueChanged(AdjustmentEvent e) {
+					((ArtifactListModel) list.getModel()).pageIn(list.getLastVisibleIndex());
+				}
+
+			});
 			initComboBox();
 			JPanel north = new JPanel(new BorderLayout());
 			JPanel txthld = new JPanel();
@@ -285,6 +297,10 @@ public class LoadUI extends JDialog {
 								ServerFTP.getProvider(), prog);
 						dbinf.setText("Database last edited by \"" + ((db.getUser() == null) ? "Unknown":db.getUser()) + "\" on " + new Date(db.getTimestamp()).toString());
 
+						if (scl != null) {
+							searchField.removeCaretListener(scl);
+							scl.session.close();
+						}
 						scl = new SearchChangeListener(db);
 						searchField.addCaretListener(scl);
 					} catch (ClassCastException e) {
@@ -315,8 +331,6 @@ public class LoadUI extends JDialog {
 		final Font ssf = new Font("Terminal", Font.PLAIN, 10);
 
 		public void loadList() {
-			initList();
-			pamap.clear();
 
 			if (db == null) {
 				ProgressMonitor prog = new ProgressMonitor(inst,
@@ -339,100 +353,198 @@ public class LoadUI extends JDialog {
 				return;
 			}
 
-			Artifact[] data = db.getData();
-			for (Artifact a : data) {
-				JPanel pan = buildArtifactInfo(a);
-				list.add(pan);
-				pamap.put(pan, a);
-				list.add(Box.createVerticalStrut(5));
-			}
+			showResults(db.getData());
+		}
 
-			list.add(Box.createVerticalGlue());
-			list.validate();
+		/**
+		 * @return the selected Artifact, or null if none is selected.
+		 */
+		Artifact getSelected() {
+			return (Artifact) list.getSelectedValue();
 		}
 
-		private JPanel buildArtifactInfo(Artifact a) {
-			JPanel panel = new JPanel(new BorderLayout());
-			panel.setOpaque(true);
-			panel.setBackground(list.getBackground());
-			panel.addMouseListener(new MouseListener() {
+		private void showResults(Artifact[] data) {
+			list.setModel(new ArtifactListModel(data));
+			list.ensureIndexIsVisible(0);
+		}
 
-				Color pressed = Color.GRAY, sel = Color.LIGHT_GRAY,
-						hover = Color.ORANGE, prev, hprev;
-				boolean inside;
+		private void initList() {
+			ArtifactCellRenderer renderer = new ArtifactCellRenderer();
+			listListener = new ArtifactListListener();
+			list = new JList(new ArtifactListModel(new Artifact[0]));
+			list.addMouseListener(listListener);
+			list.addMouseMotionListener(listListener);
+			list.setOpaque(true);
+			list.setBackground(Color.WHITE);
+			list.setBorder(new EmptyBorder(10, 5, 5, 5));
+			list.setCellRenderer(renderer);
+			list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+			// fixed cell sizes keep the list from measuring every row; the width is only a minimum
+			// since the list stretches to fill the viewport
+			Artifact proto = Artifact.createGenericArtifact();
+			proto.title = proto.donor = proto.accNum = "X";
+			list.setFixedCellWidth(1);
+			list.setFixedCellHeight(renderer.getListCellRendererComponent(list,
+					proto, -1, false, false).getPreferredSize().height);
+			listScroll.setViewportView(list);
+		}
 
-				@Override
-				public void mouseClicked(MouseEvent e) {
-					//
-				}
+		/**
+		 * List model over an array of Artifacts. Rows are added a page at a time as the list is
+		 * scrolled toward the end of the rows added so far, so the list only grows as far as the
+		 * user actually browses.
+		 */
+		private class ArtifactListModel extends AbstractListModel {
 
-				@Override
-				public void mousePressed(MouseEvent e) {
-					prev = e.getComponent().getBackground();
-					e.getComponent().setBackground(pressed);
+			/**
+			 * 
+			 */
+			private static final long serialVersionUID = -2684135390514672047L;
+
+			private final Artifact[] data;
+			private int size;
+
+			ArtifactListModel(Artifact[] data) {
+				this.data = data;
+				this.size = Math.min(data.length, PAGE_SIZE);
+			}
+
+			/**
+			 * Adds the next page of rows if the given row is within half a page of the end.
+			 * @param lastVisible
+			 */
+			void pageIn(int lastVisible) {
+				if (size < data.length && lastVisible >= size - PAGE_SIZE / 2) {
+					int from = size;
+					size = Math.min(data.length, size + PAGE_SIZE);
+					fireIntervalAdded(this, from, size - 1);
 				}
+			}
 
-				@Override
-				public void mouseReleased(MouseEvent e) {
-					e.getComponent().setBackground((inside) ? sel : hprev);
-					if (selected != null) {
-						selected.setBackground(hprev);
-					}
-					selected = (JPanel) e.getComponent();
+			@Override
+			public int getSize() {
+				return size;
+			}
+
+			@Override
+			public Object getElementAt(int index) {
+				return data[index];
+			}
+		}
+
+		/**
+		 * Renders each Artifact as a panel with its title, donor and accession number on the left
+		 * and its dates on the right. A single set of components is reused for every row.
+		 */
+		private class ArtifactCellRenderer implements ListCellRenderer {
+
+			JPanel cell, panel;
+			JLabel title, donor, accNum, sd, od;
+
+			ArtifactCellRenderer() {
+				panel = new JPanel(new BorderLayout());
+				Box west = new Box(BoxLayout.Y_AXIS);
+				Box east = new Box(BoxLayout.Y_AXIS);
+				title = label(lf);
+				donor = label(sf);
+				accNum = label(ssf);
+				sd = label(sf);
+				od = label(sf);
+				west.add(title);
+				west.add(donor);
+				west.add(accNum);
+				east.add(sd);
+				east.add(od);
+				panel.add(BorderLayout.WEST, west);
+				panel.add(BorderLayout.EAST, east);
+
+				// gap between rows
+				cell = new JPanel(new BorderLayout());
+				cell.setOpaque(false);
+				cell.setBorder(new EmptyBorder(0, 0, 5, 0));
+				cell.add(BorderLayout.CENTER, panel);
+			}
+
+			private JLabel label(Font font) {
+				JLabel label = new JLabel(" ");
+				label.setFont(font);
+				return label;
+			}
+
+			@Override
+			public Component getListCellRendererComponent(JList list, Object value,
+					int index, boolean isSelected, boolean cellHasFocus) {
+				Artifact a = (Artifact) value;
+				title.setText(a.title);
+				donor.setText(a.donor);
+				accNum.setText(a.accNum);
+				sd.setText((a.subDate != null) ? a.subDate.toString() : "");
+				od.setText((a.objDate != null) ? a.objDate.toString() : "");
+				if (index == listListener.pressed) {
+					panel.setBackground(Color.GRAY);
+				} else if (isSelected) {
+					panel.setBackground(Color.LIGHT_GRAY);
+				} else if (index == listListener.hover) {
+					panel.setBackground(Color.ORANGE);
+				} else {
+					panel.setBackground(list.getBackground());
 				}
+				return cell;
+			}
+		}
 
-				@Override
-				public void mouseEntered(MouseEvent e) {
-					hprev = e.getComponent().getBackground();
-					if (e.getComponent() != selected) {
-						e.getComponent().setBackground(hover);
-					}
-					inside = true;
+		/**
+		 * Tracks the row under the mouse and the row being pressed, for highlighting.
+		 */
+		private class ArtifactListListener extends MouseAdapter {
+
+			int hover = -1, pressed = -1;
+
+			/**
+			 * @return the index of the row under the point, or -1 if there is none.
+			 */
+			private int rowAt(Point p) {
+				int index = list.locationToIndex(p);
+				if (index >= 0 && !list.getCellBounds(index, index).contains(p)) {
+					index = -1;
 				}
+				return index;
+			}
 
-				@Override
-				public void mouseExited(MouseEvent e) {
-					if (e.getComponent() != selected) {
-						e.getComponent().setBackground(hprev);
-					}
-					inside = false;
+			private void setHover(int index) {
+				if (index != hover) {
+					hover = index;
+					list.repaint();
 				}
+			}
 
-			});
-			Box west = new Box(BoxLayout.Y_AXIS);
-			west.setFocusable(false);
-			Box east = new Box(BoxLayout.Y_AXIS);
-			east.setFocusable(false);
-			JLabel title = new JLabel(a.title);
-			title.setFont(lf);
-			JLabel donor = new JLabel(a.donor);
-			donor.setFont(sf);
-			JLabel sd = new JLabel(a.subDate.toString());
-			sd.setFont(sf);
-			JLabel od = new JLabel(a.objDate.toString());
-			od.setFont(sf);
-			JLabel accNum = new JLabel(a.accNum);
-			accNum.setFont(ssf);
-			west.add(title);
-			west.add(donor);
-			west.add(accNum);
-			east.add(sd);
-			east.add(od);
-			panel.add(BorderLayout.WEST, west);
-			panel.add(BorderLayout.EAST, east);
-			panel.setMaximumSize(new Dimension(Integer.MAX_VALUE, panel
-					.getPreferredSize().height));
-			panel.validate();
-			return panel;
-		}
+			@Override
+			public void mousePressed(MouseEvent e) {
+				pressed = rowAt(e.getPoint());
+				list.repaint();
+			}
+
+			@Override
+			public void mouseReleased(MouseEvent e) {
+				pressed = -1;
+				list.repaint();
+			}
+
+			@Override
+			public void mouseMoved(MouseEvent e) {
+				setHover(rowAt(e.getPoint()));
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				setHover(rowAt(e.getPoint()));
+			}
+
+			@Override
+			public void mouseExited(MouseEvent e) {
+				setHover(-1);
+			}
 
-		private void initList() {
-			list = new Box(BoxLayout.Y_AXIS);
-			list.setOpaque(true);
-			list.setBackground(Color.WHITE);
-			list.setBorder(new EmptyBorder(10, 5, 5, 5));
-			listScroll.setViewportView(list);
-			validate();
 		}
 
 		private void initComboBox() {
@@ -489,15 +601,15 @@ public class LoadUI extends JDialog {
 			return fmap2.get(sel);
 		}
 
-		private class SearchChangeListener implements CaretListener {
+		private class SearchChangeListener implements CaretListener, SearchSession.Listener {
 
-			Database db;
+			SearchSession session;
 			String before;
 
 			public SearchChangeListener(Database db) {
 				if(db == null)
 					throw(new NullPointerException("database cannot be null"));
-				this.db = db;
+				session = new SearchSession(db, this);
 			}
 
 			@Override
@@ -508,6 +620,7 @@ public class LoadUI extends JDialog {
 			public void update(String now, boolean ignoreLast) {
 
 				if(before != null && now.isEmpty()) {
+					session.cancel();
 					loadList();
 					before = now;
 					return;
@@ -523,44 +636,15 @@ public class LoadUI extends JDialog {
 				String sel = (String) qtype.getSelectedItem();
 				StringField sf = getStringType(sel);
 				TimeField tf = getTimeType(sel);
-				String fieldName = (sf == null) ? tf.getFieldName():sf.getFieldName();
-				Object qobj = now;
-				if(sf == null) {
-					DateTime dt = new DateTime(Calendar.getInstance().getTime(), DateFormat.getDateInstance());
-					dt.forcedValue = now;
-					qobj = dt;
-				}
-				
-				Artifact query = Artifact.createGenericArtifact();
-				try {
-					query.getClass().getField(fieldName).set(query, qobj);
-				} catch (IllegalArgumentException e1) {
-					e1.printStackTrace();
-				} catch (SecurityException e1) {
-					e1.printStackTrace();
-				} catch (IllegalAccessException e1) {
-					e1.printStackTrace();
-				} catch (NoSuchFieldException e1) {
-					e1.printStackTrace();
-				}
-
-				Artifact[] results = null;
 				if(sf != null)
-					results = db.searchByField(sf, query);
+					session.submit(SearchSession.Query.forString(sf, now));
 				else if(tf != null)
-					results = db.searchByFieldHybrid(tf, query);
-
-				initList();
-				pamap.clear();
-				for (Artifact a : results) {
-					JPanel pan = buildArtifactInfo(a);
-					list.add(pan);
-					pamap.put(pan, a);
-					list.add(Box.createVerticalStrut(5));
-				}
+					session.submit(SearchSession.Query.forTimeText(tf, now));
+			}
 
-				list.add(Box.createVerticalGlue());
-				list.validate();
+			@Override
+			public void searchCompleted(SearchSession.Query query, Artifact[] results) {
+				showResults(results);
 			}
 		}
 
@@ -890,6 +890,7 @@ public class MainUI extends JFrame {
 					preview.elem.subDate = time;
 				}
 			}
+			preview.elem.invalidateSearchKeys();
 			preview.rebuild();
 			docState = CHANGED_STATE;
 			setTitle(title + " *Unsaved*");
@@ -23,7 +23,6 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.util.*;
-import java.util.zip.*;
 
 import javax.swing.*;
 import javax.swing.event.*;
@@ -443,15 +442,7 @@ public class ManageUI extends JDialog {
 							ProgressMonitor prog = new ProgressMonitor(inst, "Restoring Database", "Reading store file...", 0, 101);
 							prog.setMillisToPopup(0);
 							prog.setMillisToDecideToPopup(0);
-							ZipInputStream zipin = new ZipInputStream(new FileInputStream(f));
-							ZipEntry ze = zipin.getNextEntry();
-							if(!ze.getName().endsWith(Database.DB_ENTRY_SUFFIX)) {
-								zipin.close();
-								return;
-							}
-							ObjectInputStream objIn = new ObjectInputStream(new MonitoredInStream(zipin, prog, f.length()));
-							Database db = (Database) objIn.readObject();
-							objIn.close();
+							Database db = Database.readStore(new MonitoredInStream(new FileInputStream(f), prog, f.length()));
 							db.sync(ServerFTP.dbDir, ServerFTP.dbArchiveDir, ServerFTP.getProvider(), Settings.usr, prog);
 							prog.close();
 							JOptionPane.showMessageDialog(inst, "Successfully restored database");
@@ -472,13 +463,7 @@ public class ManageUI extends JDialog {
 						prog.setMillisToDecideToPopup(0);
 						prog.setMillisToPopup(0);
 						try {
-							ZipInputStream zipin = new ZipInputStream(prov.getInputStream(path));
-							ZipEntry ze = zipin.getNextEntry();
-							if(!ze.getName().endsWith(Database.DB_ENTRY_SUFFIX))
-								throw(new DatabaseException("found invalid entry: " + ze.getName()));
-							ObjectInputStream objIn = new ObjectInputStream(new MonitoredInStream(zipin, prog, prov.sizeOf(path)));
-							Database db = (Database) objIn.readObject();
-							objIn.close();
+							Database db = Database.readArchive(archiveMap.values().toArray(new String[archiveMap.size()]), path, prov, prog);
 							db.sync(ServerFTP.dbDir, ServerFTP.dbArchiveDir, ServerFTP.getProvider(), Settings.usr, prog);
 							prog.close();
 							JOptionPane.showMessageDialog(inst, "Successfully restored database");
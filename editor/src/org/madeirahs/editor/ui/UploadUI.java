@@ -145,16 +145,13 @@ public class UploadUI {
 					return;
 				}
 			}
-			OutputStream os = ftp.getOutputStream(name);
-			if (os == null) {
-				throw (new IOException("Unable to establish data streams"));
-			}
-
-			obj = new ObjectOutputStream(new OutStreamWrapper(os, Utils.sizeof(a)));
 			prog.setNote("<html>Writing artifact data...<br/></html>");
-
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			obj = new ObjectOutputStream(bytes);
 			obj.writeObject(a);
 			obj.close();
+			ftp.upload(name, new Progress(FTPProvider.source(bytes.toByteArray()), 0,
+					bytes.size()));
 
 			prog.setNote("Evaluating resources...");
 			prog.setProgress(0);
@@ -165,15 +162,19 @@ public class UploadUI {
 
 			prog.setNote("Finalizing upload...");
 			if (!prog.isCanceled()) {
-				ftp.rename(name, rname);
+				if (!ftp.rename(name, rname)) {
+					throw (new IOException("server refused rename of " + name));
+				}
 				JOptionPane.showMessageDialog(null,
 						"Successfully uploaded artifact.");
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
-			JOptionPane.showMessageDialog(null,
-					"Upload failed: " + e.toString(), "I/O Error",
-					JOptionPane.ERROR_MESSAGE);
+			if (!prog.isCanceled()) {
+				JOptionPane.showMessageDialog(null,
+						"Upload failed: " + e.toString(), "I/O Error",
+						JOptionPane.ERROR_MESSAGE);
+			}
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		} finally {
@@ -184,78 +185,98 @@ public class UploadUI {
 	}
 
 	private static final String PTH = ServerFTP.rscDir;
-	private static final int BUFF_SIZE = 0x4000; //16kB
 
-	private void uploadResources() {
+	/**
+	 * Uploads each resource to a partial file, then renames them all once every upload is
+	 * complete. Uploads resume if the connection drops, and partial files are kept if one
+	 * fails, so that uploading the Artifact again continues where it left off. Resources
+	 * already on the server are only skipped if their size matches the local copy.
+	 * @throws IOException if any resource could not be uploaded; resources that failed are
+	 * not given their final names.
+	 */
+	private void uploadResources() throws IOException {
 		String[] filenames = fileArrCopy;
 		if (filenames == null || filenames.length == 0) {
 			prog.setProgress(101);
 			return;
 		}
 
-		long combo = 0;
-		double total = 0;
-		for (String f : filenames) {
-			combo += (prov.sizeOf(f) > 0 && !ftp.exists(PTH + f)) ? prov
-					.sizeOf(f) : 0;
-		}
-
+		ArrayList<String> pending = new ArrayList<String>();
+		long combo = 0, done = 0;
 		for (String s : filenames) {
-			if (!prov.exists(s) || ftp.exists(PTH + s)) {
-				continue;
+			if (prov.exists(s) && !isUploaded(s)) {
+				pending.add(s);
+				combo += Math.max(prov.sizeOf(s), 0);
 			}
+		}
+
+		ArrayList<String> uploaded = new ArrayList<String>(), failed = new ArrayList<String>();
+		IOException cause = null;
+		for (String s : pending) {
 			prog.setNote("<html>Uploading resource <br>" + s + "</html>");
-			String[] pts = s.split("/");
-			String prt = pts[pts.length - 1];
-			prt = PTH + prt + PAR_EXT;
+			String prt = remoteName(s) + PAR_EXT;
 			try {
-				BufferedOutputStream out = new BufferedOutputStream(ftp.getOutputStream(prt));
-				BufferedInputStream in = new BufferedInputStream(prov.getInputStream(s));
-				byte[] buff = new byte[BUFF_SIZE];
-				int len;
-				while ((len = in.read(buff)) >= 0 && !prog.isCanceled()) {
-					out.write(buff, 0, len);
-					total += len;
-					prog.setProgress((int) (Math.round((total / combo) * 100)));
-				}
-
-				in.close();
-				out.close();
+				FTPProvider.Source src = FTPProvider.source(prov, s);
+				ftp.upload(prt, new Progress(src, done, combo));
+				done += src.length();
+				uploaded.add(s);
+			} catch (IOException e) {
+				e.printStackTrace();
+				failed.add(s);
+				cause = e;
+			}
 
-				if (prog.isCanceled()) {
-					prog.setNote("Cancelling...");
-					for (String str : a.filenames) {
-						if (ftp.exists(str + PAR_EXT)) {
-							ftp.delete(str + PAR_EXT);
-						}
+			if (prog.isCanceled()) {
+				prog.setNote("Cancelling...");
+				for (String str : a.filenames) {
+					if (ftp.exists(str + PAR_EXT)) {
+						ftp.delete(str + PAR_EXT);
 					}
-					break;
-				}
-
-			} catch (IOException e) {
-				JOptionPane.showMessageDialog(
-						null,
-						"Failed to upload artifact resource " + s + "\n"
-								+ e.toString(), "I/O Error",
-						JOptionPane.ERROR_MESSAGE);
-			} finally {
-				if (prog.isCanceled()) {
-					return;
 				}
+				return;
 			}
 		}
 
 		prog.setNote("Finalizing resources...");
 
-		for (String str : a.filenames) {
-			if (ftp.exists(str + PAR_EXT)) {
-				try {
-					ftp.rename(str + PAR_EXT, str);
-				} catch (IOException e) {
-					e.printStackTrace();
+		for (String s : uploaded) {
+			String str = remoteName(s);
+			try {
+				if (ftp.exists(str)) {
+					ftp.delete(str);
+				}
+				if (!ftp.rename(str + PAR_EXT, str)) {
+					throw (new IOException("server refused rename of " + str));
 				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				failed.add(s);
+				cause = e;
 			}
 		}
+
+		if (!failed.isEmpty()) {
+			IOException ex = new IOException("failed to upload resources " + failed);
+			ex.initCause(cause);
+			throw ex;
+		}
+	}
+
+	/**
+	 * <Internal Method> Returns the server path of the given local resource.
+	 */
+	private static String remoteName(String local) {
+		String[] pts = local.replaceAll("\\\\", "/").split("/");
+		return PTH + pts[pts.length - 1];
+	}
+
+	/**
+	 * <Internal Method> True if the resource is already on the server with the same size as
+	 * the local copy.
+	 */
+	private boolean isUploaded(String local) {
+		String remote = remoteName(local);
+		return ftp.exists(remote) && ftp.sizeOf(remote) == prov.sizeOf(local);
 	}
 
 	/**
@@ -423,31 +444,61 @@ public class UploadUI {
 	}
 
 	/**
-	 * Wraps any OutputStream and updates the UI with progress values.
-	 * @author Brian Groenke
-	 *
+	 * Reports an upload's progress as part of everything being uploaded, and stops it if the
+	 * user cancels.
 	 */
-	private class OutStreamWrapper extends OutputStream {
+	private class Progress implements FTPProvider.Source {
 
-		OutputStream stream;
-		int total, max;
+		final FTPProvider.Source src;
+		final long base;
+		final double total;
 
-		OutStreamWrapper(OutputStream out, int max) {
-			this.stream = out;
-			this.max = max;
+		/**
+		 * @param src the data being uploaded
+		 * @param base the number of bytes uploaded before this data
+		 * @param total the number of bytes being uploaded in all
+		 */
+		Progress(FTPProvider.Source src, long base, long total) {
+			this.src = src;
+			this.base = base;
+			this.total = total;
 		}
 
 		@Override
-		public void write(int b) throws IOException {
-			stream.write(b);
-			total++;
-			int p = (int) Math.round(((double) total / max) * 100);
-			prog.setProgress(p);
+		public String id() {
+			return src.id();
 		}
 
 		@Override
-		public void close() throws IOException {
-			stream.close();
+		public long length() {
+			return src.length();
+		}
+
+		@Override
+		public InputStream open(final long offset) throws IOException {
+			return new FilterInputStream(src.open(offset)) {
+
+				long sent = offset;
+
+				@Override
+				public int read() throws IOException {
+					byte[] b = new byte[1];
+					return (read(b, 0, 1) > 0) ? (b[0] & 0xff) : -1;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (prog.isCanceled()) {
+						throw (new InterruptedIOException("upload cancelled"));
+					}
+					int n = super.read(b, off, len);
+					if (n > 0) {
+						sent += n;
+						prog.setProgress((int) Math.round(((base + sent) / total) * 100));
+					}
+					return n;
+				}
+			};
 		}
 	}
 }
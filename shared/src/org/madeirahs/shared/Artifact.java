@@ -59,6 +59,11 @@ public class Artifact implements Serializable, Comparable<Artifact> {
 
 	private boolean v3d;
 
+	/*
+	 * Normalized search forms of the fields above, built on first use.
+	 */
+	private transient volatile SearchKeys keys;
+
 	/**
 	 * 
 	 * @param objDate
@@ -150,6 +155,29 @@ public class Artifact implements Serializable, Comparable<Artifact> {
 	public boolean is3DSupported() {
 		return v3d;
 	}
+
+	/**
+	 * Returns the normalized forms of this Artifact's searchable fields. They are computed once
+	 * and cached; code that assigns a searchable field directly (rather than through
+	 * {@link StringField#set(Artifact, String)} or {@link TimeField#set(Artifact, TimeSpec)})
+	 * must call {@link #invalidateSearchKeys()} afterward.
+	 * @return
+	 */
+	public SearchKeys searchKeys() {
+		SearchKeys sk = keys;
+		if (sk == null) {
+			sk = new SearchKeys(this);
+			keys = sk;
+		}
+		return sk;
+	}
+
+	/**
+	 * Discards the cached search keys so that they are recomputed from the current field values.
+	 */
+	public void invalidateSearchKeys() {
+		keys = null;
+	}
 	
 	@Override
 	public String toString() {
@@ -166,14 +194,41 @@ public class Artifact implements Serializable, Comparable<Artifact> {
 
 	/*
 	 * \\***----------------------------------------***\\ 
-	 * Make sure to update the constructors for each field in the following two enums if Artifact's
-	 * field names are changed. Failure to do this will cause catastrophic
+	 * Make sure to update the constructors and accessors for each field in the following two enums
+	 * if Artifact's field names are changed. Failure to do this will cause catastrophic
 	 * problems with the Database search algorithms.
 	 * \\***----------------------------------------***\\
 	 */
 
+	/**
+	 * The time-related attributes of an Artifact. Each constant reads and writes its field
+	 * directly, so searching and sorting by field don't need reflection.
+	 */
 	public static enum TimeField {
-		OBJECT_DATE("objDate"), SUBMISSION_DATE("subDate");
+		OBJECT_DATE("objDate") {
+			@Override
+			public TimeSpec get(Artifact a) {
+				return a.objDate;
+			}
+
+			@Override
+			public void set(Artifact a, TimeSpec value) {
+				a.objDate = value;
+				a.invalidateSearchKeys();
+			}
+		},
+		SUBMISSION_DATE("subDate") {
+			@Override
+			public TimeSpec get(Artifact a) {
+				return a.subDate;
+			}
+
+			@Override
+			public void set(Artifact a, TimeSpec value) {
+				a.subDate = value;
+				a.invalidateSearchKeys();
+			}
+		};
 
 		private String fieldName;
 
@@ -184,11 +239,86 @@ public class Artifact implements Serializable, Comparable<Artifact> {
 		public String getFieldName() {
 			return fieldName;
 		}
+
+		/**
+		 * @param a
+		 * @return the value of this field in the given Artifact.
+		 */
+		public abstract TimeSpec get(Artifact a);
+
+		/**
+		 * Sets the value of this field in the given Artifact.
+		 * @param a
+		 * @param value
+		 */
+		public abstract void set(Artifact a, TimeSpec value);
 	}
 
+	/**
+	 * The String attributes of an Artifact. Each constant reads and writes its field directly, so
+	 * searching and sorting by field don't need reflection.
+	 */
 	public static enum StringField {
-		DONOR("donor"), TITLE("title"), DESCRIPTION("desc"), MEDIUM("medium"), ACCESSION_NUMBER(
-				"accNum");
+		DONOR("donor") {
+			@Override
+			public String get(Artifact a) {
+				return a.donor;
+			}
+
+			@Override
+			public void set(Artifact a, String value) {
+				a.donor = value;
+				a.invalidateSearchKeys();
+			}
+		},
+		TITLE("title") {
+			@Override
+			public String get(Artifact a) {
+				return a.title;
+			}
+
+			@Override
+			public void set(Artifact a, String value) {
+				a.title = value;
+				a.invalidateSearchKeys();
+			}
+		},
+		DESCRIPTION("desc") {
+			@Override
+			public String get(Artifact a) {
+				return a.desc;
+			}
+
+			@Override
+			public void set(Artifact a, String value) {
+				a.desc = value;
+				a.invalidateSearchKeys();
+			}
+		},
+		MEDIUM("medium") {
+			@Override
+			public String get(Artifact a) {
+				return a.medium;
+			}
+
+			@Override
+			public void set(Artifact a, String value) {
+				a.medium = value;
+				a.invalidateSearchKeys();
+			}
+		},
+		ACCESSION_NUMBER("accNum") {
+			@Override
+			public String get(Artifact a) {
+				return a.accNum;
+			}
+
+			@Override
+			public void set(Artifact a, String value) {
+				a.accNum = value;
+				a.invalidateSearchKeys();
+			}
+		};
 
 		private String fieldName;
 
@@ -199,6 +329,19 @@ public class Artifact implements Serializable, Comparable<Artifact> {
 		public String getFieldName() {
 			return fieldName;
 		}
+
+		/**
+		 * @param a
+		 * @return the value of this field in the given Artifact.
+		 */
+		public abstract String get(Artifact a);
+
+		/**
+		 * Sets the value of this field in the given Artifact.
+		 * @param a
+		 * @param value
+		 */
+		public abstract void set(Artifact a, String value);
 	}
 
 	/**
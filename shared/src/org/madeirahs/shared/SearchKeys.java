@@ -0,0 +1,129 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared;
+
+import java.util.ArrayList;
+
+import org.madeirahs.shared.Artifact.StringField;
+import org.madeirahs.shared.Artifact.TimeField;
+import org.madeirahs.shared.time.TimeSpec;
+
+/**
+ * The normalized forms of an Artifact's searchable fields, as compared by the Database searches:
+ * each value lowercased with runs of whitespace collapsed, and split into whitespace-separated
+ * tokens. Time fields are normalized from their String representation.
+ * <br/><br/>
+ * SearchKeys are computed from the field values at the time they are created and don't change
+ * afterward; obtain them with {@link Artifact#searchKeys()}, which caches them until a field is
+ * changed.
+ */
+public final class SearchKeys {
+
+	private static final String[] NONE = new String[0];
+
+	private final String[] strings = new String[StringField.values().length];
+	private final String[][] tokens = new String[StringField.values().length][];
+	private final String[] times = new String[TimeField.values().length];
+
+	SearchKeys(Artifact a) {
+		for (StringField f : StringField.values()) {
+			String val = f.get(a);
+			if (val != null) {
+				strings[f.ordinal()] = normalize(val);
+				tokens[f.ordinal()] = tokenize(strings[f.ordinal()]);
+			} else {
+				tokens[f.ordinal()] = NONE;
+			}
+		}
+		for (TimeField f : TimeField.values()) {
+			TimeSpec val = f.get(a);
+			if (val != null) {
+				times[f.ordinal()] = normalize(val.toString());
+			}
+		}
+	}
+
+	/**
+	 * @param field
+	 * @return the normalized value of the field, or null if it has no value.
+	 */
+	public String normalized(StringField field) {
+		return strings[field.ordinal()];
+	}
+
+	/**
+	 * @param field
+	 * @return the normalized String representation of the field, or null if it has no value.
+	 */
+	public String normalized(TimeField field) {
+		return times[field.ordinal()];
+	}
+
+	/**
+	 * Returns the tokens of the field's normalized value, in order. The array is shared and must
+	 * not be modified.
+	 * @param field
+	 * @return
+	 */
+	public String[] tokens(StringField field) {
+		return tokens[field.ordinal()];
+	}
+
+	/**
+	 * Lowercases the String and collapses runs of whitespace.
+	 * @param str
+	 * @return
+	 */
+	public static String normalize(String str) {
+		str = str.toLowerCase();
+		StringBuilder sb = new StringBuilder(str.length());
+		boolean lsw = false;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			boolean ws = Character.isWhitespace(c);
+			if (!ws || !lsw) {
+				sb.append(c);
+			}
+			lsw = ws;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Splits a String into its whitespace-separated tokens.
+	 * @param norm
+	 * @return
+	 */
+	public static String[] tokenize(String norm) {
+		ArrayList<String> toks = new ArrayList<String>();
+		int start = -1;
+		for (int i = 0; i <= norm.length(); i++) {
+			boolean ws = i == norm.length()
+					|| Character.isWhitespace(norm.charAt(i));
+			if (ws && start >= 0) {
+				toks.add(norm.substring(start, i));
+				start = -1;
+			} else if (!ws && start < 0) {
+				start = i;
+			}
+		}
+		return toks.toArray(new String[toks.size()]);
+	}
+}
@@ -0,0 +1,378 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.madeirahs.shared.Artifact;
+
+/**
+ * Ordered index of Artifacts keyed by accession number. The index is a balanced (AVL) binary
+ * tree in which every node also records the size of its subtree, so lookups, inserts, removals
+ * and rank queries are all O(log n), and ranges of accession numbers (including every number with
+ * a given prefix, since numbers sharing a prefix are contiguous in accession order) are found in
+ * O(log n + k) for k results.
+ * <br/><br/>
+ * Indexes are immutable: <code>put</code> and <code>remove</code> return a new index that
+ * shares all untouched nodes with the old one, copying only the O(log n) nodes along the
+ * modified path. An index can therefore be handed out and read without any locking while
+ * newer versions are being built from it.
+ */
+final class AccessionIndex {
+
+	static final AccessionIndex EMPTY = new AccessionIndex(null);
+
+	private final Node root;
+
+	/*
+	 * In-order copy of the index, built on first use.
+	 */
+	private volatile Artifact[] array;
+
+	private AccessionIndex(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * Builds a balanced index from Artifacts that are already in accession order. If the array
+	 * contains more than one Artifact with the same accession number, the last one is kept.
+	 * @param sorted
+	 * @return
+	 */
+	static AccessionIndex build(Artifact[] sorted) {
+		int n = 0;
+		Artifact[] unique = new Artifact[sorted.length];
+		for (Artifact a : sorted) {
+			if (n > 0 && unique[n - 1].accNum.equals(a.accNum)) {
+				unique[n - 1] = a;
+			} else {
+				unique[n++] = a;
+			}
+		}
+		return new AccessionIndex(build(unique, 0, n));
+	}
+
+	int size() {
+		return size(root);
+	}
+
+	/**
+	 * @param accNum
+	 * @return the Artifact with the given accession number, or null if there is none.
+	 */
+	Artifact get(String accNum) {
+		Node n = root;
+		while (n != null) {
+			int c = accNum.compareTo(n.val.accNum);
+			if (c == 0) {
+				return n.val;
+			}
+			n = (c < 0) ? n.left : n.right;
+		}
+		return null;
+	}
+
+	/**
+	 * @param rank
+	 * @return the Artifact at the given position in accession order.
+	 * @throws IndexOutOfBoundsException
+	 */
+	Artifact get(int rank) {
+		if (rank < 0 || rank >= size()) {
+			throw (new IndexOutOfBoundsException(String.valueOf(rank)));
+		}
+		Node n = root;
+		while (true) {
+			int lsize = size(n.left);
+			if (rank == lsize) {
+				return n.val;
+			} else if (rank < lsize) {
+				n = n.left;
+			} else {
+				rank -= lsize + 1;
+				n = n.right;
+			}
+		}
+	}
+
+	/**
+	 * Finds the position of the given accession number in accession order. Follows the
+	 * conventions of <code>Arrays.binarySearch</code>.
+	 * @param accNum
+	 * @return the position of the matching Artifact if found, otherwise
+	 *         <code>(-(insertion point) - 1)</code>.
+	 */
+	int rank(String accNum) {
+		int before = 0;
+		Node n = root;
+		while (n != null) {
+			int c = accNum.compareTo(n.val.accNum);
+			if (c == 0) {
+				return before + size(n.left);
+			} else if (c < 0) {
+				n = n.left;
+			} else {
+				before += size(n.left) + 1;
+				n = n.right;
+			}
+		}
+		return -before - 1;
+	}
+
+	/**
+	 * @param accNum
+	 * @return the position in accession order of the first Artifact whose accession number is not
+	 *         less than the given one, or the size of the index if accNum is null.
+	 */
+	int lowerBound(String accNum) {
+		if (accNum == null) {
+			return size();
+		}
+		int r = rank(accNum);
+		return (r >= 0) ? r : -r - 1;
+	}
+
+	/**
+	 * Finds the Artifacts whose accession numbers are in the range [from, to).
+	 * @param from the smallest accession number to include, or null for no lower bound
+	 * @param to the accession number to stop before, or null for no upper bound
+	 * @param found receives the Artifacts in accession order
+	 */
+	void range(String from, String to, ArrayList<Artifact> found) {
+		Iterator<Artifact> it = iterator(from, to);
+		while (it.hasNext()) {
+			found.add(it.next());
+		}
+	}
+
+	/**
+	 * Returns an iterator over the Artifacts whose accession numbers are in the range [from, to),
+	 * in accession order. The iterator walks the tree as it goes, so it costs O(log n) to create
+	 * and O(1) amortized per Artifact, and doesn't copy the index.
+	 * @param from the smallest accession number to include, or null for no lower bound
+	 * @param to the accession number to stop before, or null for no upper bound
+	 * @return
+	 */
+	Iterator<Artifact> iterator(String from, String to) {
+		return new RangeIterator(root, from, to);
+	}
+
+	/**
+	 * Returns the least String greater than every String that starts with the prefix, for use as
+	 * the exclusive end of a prefix range.
+	 * @param prefix
+	 * @return the bound, or null if there is none (the prefix is empty or made up of
+	 *         Character.MAX_VALUE).
+	 */
+	static String prefixEnd(String prefix) {
+		int end = prefix.length();
+		while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+			end--;
+		}
+		if (end == 0) {
+			return null;
+		}
+		return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+	}
+
+	/**
+	 * @param a
+	 * @return an index containing the given Artifact in place of any other Artifact with the
+	 *         same accession number.
+	 */
+	AccessionIndex put(Artifact a) {
+		return new AccessionIndex(put(root, a));
+	}
+
+	/**
+	 * @param accNum
+	 * @return an index without the Artifact with the given accession number, or this index if
+	 *         there is no such Artifact.
+	 */
+	AccessionIndex remove(String accNum) {
+		if (get(accNum) == null) {
+			return this;
+		}
+		return new AccessionIndex(remove(root, accNum));
+	}
+
+	/**
+	 * Returns the Artifacts in accession order. The array is built once and shared between
+	 * callers, so it must not be modified.
+	 * @return
+	 */
+	Artifact[] toArray() {
+		Artifact[] arr = array;
+		if (arr == null) {
+			arr = new Artifact[size()];
+			fill(root, arr, 0);
+			array = arr;
+		}
+		return arr;
+	}
+
+	private static Node build(Artifact[] sorted, int from, int to) {
+		if (from >= to) {
+			return null;
+		}
+		int mid = (from + to) >>> 1;
+		return new Node(sorted[mid], build(sorted, from, mid), build(sorted,
+				mid + 1, to));
+	}
+
+	private static int fill(Node n, Artifact[] arr, int pos) {
+		while (n != null) {
+			pos = fill(n.left, arr, pos);
+			arr[pos++] = n.val;
+			n = n.right;
+		}
+		return pos;
+	}
+
+	private static Node put(Node n, Artifact a) {
+		if (n == null) {
+			return new Node(a, null, null);
+		}
+		int c = a.accNum.compareTo(n.val.accNum);
+		if (c == 0) {
+			return new Node(a, n.left, n.right);
+		} else if (c < 0) {
+			return balance(n.val, put(n.left, a), n.right);
+		} else {
+			return balance(n.val, n.left, put(n.right, a));
+		}
+	}
+
+	private static Node remove(Node n, String accNum) {
+		int c = accNum.compareTo(n.val.accNum);
+		if (c < 0) {
+			return balance(n.val, remove(n.left, accNum), n.right);
+		} else if (c > 0) {
+			return balance(n.val, n.left, remove(n.right, accNum));
+		}
+		if (n.left == null) {
+			return n.right;
+		} else if (n.right == null) {
+			return n.left;
+		}
+		Node min = n.right;
+		while (min.left != null) {
+			min = min.left;
+		}
+		return balance(min.val, n.left, remove(n.right, min.val.accNum));
+	}
+
+	/**
+	 * <Internal Method> Creates a node from the given parts, applying a single or double
+	 * rotation if the subtree heights differ by more than one.
+	 */
+	private static Node balance(Artifact val, Node left, Node right) {
+		int lh = height(left), rh = height(right);
+		if (lh > rh + 1) {
+			if (height(left.left) >= height(left.right)) {
+				return new Node(left.val, left.left, new Node(val, left.right, right));
+			}
+			return new Node(left.right.val, new Node(left.val, left.left,
+					left.right.left), new Node(val, left.right.right, right));
+		} else if (rh > lh + 1) {
+			if (height(right.right) >= height(right.left)) {
+				return new Node(right.val, new Node(val, left, right.left), right.right);
+			}
+			return new Node(right.left.val, new Node(val, left, right.left.left),
+					new Node(right.val, right.left.right, right.right));
+		}
+		return new Node(val, left, right);
+	}
+
+	private static int height(Node n) {
+		return (n == null) ? 0 : n.height;
+	}
+
+	private static int size(Node n) {
+		return (n == null) ? 0 : n.size;
+	}
+
+	/**
+	 * In-order traversal of the nodes in a key range, keeping the path of pending ancestors on a
+	 * stack.
+	 */
+	private static final class RangeIterator implements Iterator<Artifact> {
+
+		private final String to;
+		private final ArrayList<Node> stack = new ArrayList<Node>();
+
+		RangeIterator(Node root, String from, String to) {
+			this.to = to;
+			// descend to the first node >= from, keeping the ancestors still to be visited
+			Node n = root;
+			while (n != null) {
+				if (from == null || n.val.accNum.compareTo(from) >= 0) {
+					stack.add(n);
+					n = n.left;
+				} else {
+					n = n.right;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (stack.isEmpty()) {
+				return false;
+			}
+			Node n = stack.get(stack.size() - 1);
+			return to == null || n.val.accNum.compareTo(to) < 0;
+		}
+
+		@Override
+		public Artifact next() {
+			if (!hasNext()) {
+				throw (new NoSuchElementException());
+			}
+			Node n = stack.remove(stack.size() - 1);
+			for (Node c = n.right; c != null; c = c.left) {
+				stack.add(c);
+			}
+			return n.val;
+		}
+
+		@Override
+		public void remove() {
+			throw (new UnsupportedOperationException());
+		}
+	}
+
+	private static final class Node {
+
+		final Artifact val;
+		final Node left, right;
+		final int height, size;
+
+		Node(Artifact val, Node left, Node right) {
+			this.val = val;
+			this.left = left;
+			this.right = right;
+			this.height = Math.max(height(left), height(right)) + 1;
+			this.size = size(left) + size(right) + 1;
+		}
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import static org.madeirahs.shared.database.ArtifactEncoder.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+
+import org.madeirahs.shared.Artifact;
+import org.madeirahs.shared.time.DateTime;
+import org.madeirahs.shared.time.TimeFrame;
+import org.madeirahs.shared.time.TimeSpec;
+import org.madeirahs.shared.v3d.V3DBundle;
+import org.madeirahs.shared.v3d.V3DException;
+
+/**
+ * Reads Artifacts written by {@link ArtifactEncoder}. Each block's schema is read before its
+ * records, and every field is decoded according to the type recorded in the schema. Fields
+ * that this version doesn't know about are skipped, and known fields missing from the
+ * schema are left at their default values.
+ */
+public class ArtifactDecoder {
+
+	private static final HashMap<String, Integer> FIELD_IDS = new HashMap<String, Integer>();
+
+	static {
+		for (int i = 0; i < FIELD_NAMES.length; i++) {
+			FIELD_IDS.put(FIELD_NAMES[i], i);
+		}
+	}
+
+	private DataInputStream in;
+	private ArrayList<SimpleDateFormat> formats = new ArrayList<SimpleDateFormat>();
+	private int version = -1;
+	private long timestamp = -1;
+	private String user;
+
+	public ArtifactDecoder(InputStream in) {
+		if (in == null) {
+			throw (new IllegalArgumentException("stream cannot be null"));
+		}
+		this.in = (in instanceof DataInputStream) ? (DataInputStream) in
+				: new DataInputStream(in);
+	}
+
+	/**
+	 * Reads and validates the store header. The metadata it contains is available from
+	 * {@link #getTimestamp()} and {@link #getUser()} afterwards.
+	 * @throws IOException
+	 * @throws DatabaseException if the stream isn't a compact store or was written by a
+	 * newer, incompatible version.
+	 */
+	public void readHeader() throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw (new DatabaseException("not a compact database store"));
+		}
+		version = in.readUnsignedShort();
+		if (version > FORMAT_VERSION) {
+			throw (new DatabaseException("unsupported store format version: "
+					+ version));
+		}
+		timestamp = in.readLong();
+		user = readString();
+	}
+
+	/**
+	 * Reads one block of records (schema, count and records).
+	 * @return the decoded Artifacts in the order they were written.
+	 * @throws IOException
+	 */
+	public Artifact[] readRecords() throws IOException {
+		formats.clear();
+		int nfields = in.readUnsignedByte();
+		int[] ids = new int[nfields], types = new int[nfields];
+		for (int i = 0; i < nfields; i++) {
+			Integer id = FIELD_IDS.get(readString());
+			types[i] = in.readUnsignedByte();
+			ids[i] = (id != null && FIELD_TYPES[id] == types[i]) ? id : -1;
+		}
+		int count = readVarInt();
+		Artifact[] data = new Artifact[count];
+		for (int i = 0; i < count; i++) {
+			data[i] = readArtifact(ids, types);
+		}
+		return data;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	/**
+	 * <Internal Method> Reads a single record laid out by the given schema.
+	 * @param ids the known field index for each schema entry, or -1 if it should be skipped
+	 * @param types the value type of each schema entry
+	 * @return
+	 * @throws IOException
+	 */
+	private Artifact readArtifact(int[] ids, int[] types) throws IOException {
+		Artifact a = new Artifact(null, null, null, null, null, null, null);
+		boolean v3d = false;
+		for (int i = 0; i < ids.length; i++) {
+			Object val = readValue(types[i]);
+			switch (ids[i]) {
+			case 0:
+				a.accNum = (String) val;
+				break;
+			case 1:
+				a.title = (String) val;
+				break;
+			case 2:
+				a.donor = (String) val;
+				break;
+			case 3:
+				a.medium = (String) val;
+				break;
+			case 4:
+				a.desc = (String) val;
+				break;
+			case 5:
+				a.objDate = (TimeSpec) val;
+				break;
+			case 6:
+				a.subDate = (TimeSpec) val;
+				break;
+			case 7:
+				a.filenames = (String[]) val;
+				break;
+			case 8:
+				a.fieldValues = (String[]) val;
+				break;
+			case 9:
+				a.bundle = (V3DBundle) val;
+				break;
+			case 10:
+				v3d = (Boolean) val;
+				break;
+			default:
+				// unknown field; value has been skipped
+			}
+		}
+		if (v3d && a.bundle != null) {
+			try {
+				a.configure3D(a.bundle);
+			} catch (V3DException e) {
+				throw (new DatabaseException("invalid V3D bundle for artifact "
+						+ a.accNum, e));
+			}
+		}
+		return a;
+	}
+
+	private Object readValue(int type) throws IOException {
+		switch (type) {
+		case TYPE_STRING:
+			return readString();
+		case TYPE_STRING_ARRAY:
+			return readStringArray();
+		case TYPE_TIME:
+			return readTime();
+		case TYPE_BUNDLE:
+			return readBundle();
+		case TYPE_BOOLEAN:
+			return in.readBoolean();
+		default:
+			throw (new DatabaseException("unknown field type in schema: " + type));
+		}
+	}
+
+	private TimeSpec readTime() throws IOException {
+		int kind = in.readUnsignedByte();
+		if (kind == TIME_NULL) {
+			return null;
+		}
+		DateFormat format = readFormat();
+		TimeSpec ts;
+		switch (kind) {
+		case TIME_DATETIME:
+			ts = new DateTime(readDate(), format);
+			break;
+		case TIME_FRAME:
+			TimeFrame tf = new TimeFrame(null, null, format);
+			tf.start = readDate();
+			tf.end = readDate();
+			ts = tf;
+			break;
+		default:
+			throw (new DatabaseException("unknown TimeSpec kind: " + kind));
+		}
+		ts.forcedValue = readString();
+		ts.syntaxString = readString();
+		return ts;
+	}
+
+	private Date readDate() throws IOException {
+		return in.readBoolean() ? new Date(in.readLong()) : null;
+	}
+
+	/**
+	 * <Internal Method> Resolves a format id, reading the pattern if this is its first use in
+	 * the block. Each TimeSpec gets its own copy since DateFormat isn't thread-safe.
+	 * @return
+	 * @throws IOException
+	 */
+	private DateFormat readFormat() throws IOException {
+		int id = readVarInt();
+		if (id == 0) {
+			return null;
+		}
+		if (id == formats.size() + 1) {
+			formats.add(new SimpleDateFormat(readString()));
+		} else if (id > formats.size()) {
+			throw (new DatabaseException("undefined date format id: " + id));
+		}
+		return (DateFormat) formats.get(id - 1).clone();
+	}
+
+	private V3DBundle readBundle() throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		int type = readVarInt();
+		String[] imgs = readStringArray();
+		V3DBundle bundle;
+		try {
+			bundle = (type == V3DBundle.BUNDLE_TYPE_LEVEL) ? new V3DBundle(
+					imgs[0], imgs[1], imgs[2], imgs[3]) : new V3DBundle(imgs,
+					type);
+		} catch (RuntimeException e) {
+			throw (new DatabaseException("invalid V3D bundle", e));
+		}
+		bundle.lock();
+		return bundle;
+	}
+
+	private String[] readStringArray() throws IOException {
+		int len = readVarInt();
+		if (len == 0) {
+			return null;
+		}
+		String[] arr = new String[len - 1];
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = readString();
+		}
+		return arr;
+	}
+
+	private String readString() throws IOException {
+		int len = readVarInt();
+		if (len == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[len - 1];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private int readVarInt() throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return v;
+			}
+		}
+		throw (new DatabaseException("malformed variable-length integer"));
+	}
+}
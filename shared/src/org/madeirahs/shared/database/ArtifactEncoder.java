@@ -0,0 +1,244 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+
+import org.madeirahs.shared.Artifact;
+import org.madeirahs.shared.time.DateTime;
+import org.madeirahs.shared.time.TimeFrame;
+import org.madeirahs.shared.time.TimeSpec;
+import org.madeirahs.shared.v3d.V3DBundle;
+
+/**
+ * Writes Artifacts in the compact binary store format read by {@link ArtifactDecoder}. The
+ * format is laid out as follows (all multi-byte values are big-endian):
+ * <pre>
+ * header:  int magic ('MHSD'), short version, long timestamp, string user
+ * block:   schema, varint count, record[count]
+ * schema:  u8 field count, then (string name, u8 type) for each field in record order
+ * string:  varint (byte length + 1; 0 denotes null), UTF-8 bytes
+ * time:    u8 kind, varint format id, kind-specific epoch longs, string forced, string syntax
+ * </pre>
+ * Date formats are written once per block as a pattern string the first time they are
+ * referenced and by id afterwards, so a block can be decoded on its own. Because the schema
+ * is stored with the data, fields may be added or removed in later versions without breaking
+ * older stores; the decoder simply skips fields it doesn't recognize.
+ */
+public class ArtifactEncoder {
+
+	public static final int MAGIC = 0x4D485344, FORMAT_VERSION = 1;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final int TYPE_STRING = 1, TYPE_STRING_ARRAY = 2, TYPE_TIME = 3,
+			TYPE_BUNDLE = 4, TYPE_BOOLEAN = 5;
+
+	static final int TIME_NULL = 0, TIME_DATETIME = 1, TIME_FRAME = 2;
+
+	/*
+	 * Record layout written by this version. Names match the Artifact field names.
+	 */
+	static final String[] FIELD_NAMES = new String[] { "accNum", "title",
+			"donor", "medium", "desc", "objDate", "subDate", "filenames",
+			"fieldValues", "bundle", "v3d" };
+	static final int[] FIELD_TYPES = new int[] { TYPE_STRING, TYPE_STRING,
+			TYPE_STRING, TYPE_STRING, TYPE_STRING, TYPE_TIME, TYPE_TIME,
+			TYPE_STRING_ARRAY, TYPE_STRING_ARRAY, TYPE_BUNDLE, TYPE_BOOLEAN };
+
+	private DataOutputStream out;
+	private HashMap<String, Integer> formatIds = new HashMap<String, Integer>();
+
+	public ArtifactEncoder(OutputStream out) {
+		if (out == null) {
+			throw (new IllegalArgumentException("stream cannot be null"));
+		}
+		this.out = (out instanceof DataOutputStream) ? (DataOutputStream) out
+				: new DataOutputStream(out);
+	}
+
+	/**
+	 * Writes the store header identifying the format version and Database metadata.
+	 * @param timestamp the Database's last sync time
+	 * @param user the last user to commit to the Database; may be null
+	 * @throws IOException
+	 */
+	public void writeHeader(long timestamp, String user) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeShort(FORMAT_VERSION);
+		out.writeLong(timestamp);
+		writeString(user);
+	}
+
+	/**
+	 * Writes a self-contained block of records: the schema, the record count and then each
+	 * Artifact in the given range.
+	 * @param data
+	 * @param off index of the first Artifact to write
+	 * @param len number of Artifacts to write
+	 * @throws IOException
+	 */
+	public void writeRecords(Artifact[] data, int off, int len)
+			throws IOException {
+		formatIds.clear();
+		out.writeByte(FIELD_NAMES.length);
+		for (int i = 0; i < FIELD_NAMES.length; i++) {
+			writeString(FIELD_NAMES[i]);
+			out.writeByte(FIELD_TYPES[i]);
+		}
+		writeVarInt(len);
+		for (int i = off; i < off + len; i++) {
+			writeArtifact(data[i]);
+		}
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * <Internal Method> Writes the fields of the Artifact in the order given by FIELD_NAMES.
+	 * @param a
+	 * @throws IOException
+	 */
+	private void writeArtifact(Artifact a) throws IOException {
+		writeString(a.accNum);
+		writeString(a.title);
+		writeString(a.donor);
+		writeString(a.medium);
+		writeString(a.desc);
+		writeTime(a.objDate);
+		writeTime(a.subDate);
+		writeStringArray(a.filenames);
+		writeStringArray(a.fieldValues);
+		writeBundle(a.bundle);
+		out.writeBoolean(a.is3DSupported());
+	}
+
+	private void writeTime(TimeSpec ts) throws IOException {
+		if (ts == null) {
+			out.writeByte(TIME_NULL);
+			return;
+		}
+		if (ts instanceof DateTime) {
+			out.writeByte(TIME_DATETIME);
+			writeFormat(ts.format);
+			writeDate(((DateTime) ts).date);
+		} else if (ts instanceof TimeFrame) {
+			TimeFrame tf = (TimeFrame) ts;
+			out.writeByte(TIME_FRAME);
+			writeFormat(ts.format);
+			writeDate(tf.start);
+			writeDate(tf.end);
+		} else {
+			throw (new DatabaseException("unsupported TimeSpec type: "
+					+ ts.getClass().getName()));
+		}
+		writeString(ts.forcedValue);
+		writeString(ts.syntaxString);
+	}
+
+	/**
+	 * <Internal Method> Dates are written as a presence flag followed by epoch millis.
+	 * @param d
+	 * @throws IOException
+	 */
+	private void writeDate(Date d) throws IOException {
+		out.writeBoolean(d != null);
+		if (d != null) {
+			out.writeLong(d.getTime());
+		}
+	}
+
+	/**
+	 * <Internal Method> Writes the id of the format's pattern, defining the pattern inline
+	 * the first time it's seen in this block. Id 0 denotes no format.
+	 * @param format
+	 * @throws IOException
+	 */
+	private void writeFormat(DateFormat format) throws IOException {
+		if (format == null) {
+			writeVarInt(0);
+			return;
+		}
+		SimpleDateFormat sdf = (format instanceof SimpleDateFormat) ? (SimpleDateFormat) format
+				: (SimpleDateFormat) DateFormat.getDateInstance(DateFormat.MEDIUM);
+		String pattern = sdf.toPattern();
+		Integer id = formatIds.get(pattern);
+		if (id != null) {
+			writeVarInt(id);
+		} else {
+			id = formatIds.size() + 1;
+			formatIds.put(pattern, id);
+			writeVarInt(id);
+			writeString(pattern);
+		}
+	}
+
+	private void writeBundle(V3DBundle bundle) throws IOException {
+		out.writeBoolean(bundle != null);
+		if (bundle != null) {
+			writeVarInt(bundle.getBundleType());
+			writeStringArray(bundle.getFinalImageArray());
+		}
+	}
+
+	private void writeStringArray(String[] arr) throws IOException {
+		if (arr == null) {
+			writeVarInt(0);
+			return;
+		}
+		writeVarInt(arr.length + 1);
+		for (String s : arr) {
+			writeString(s);
+		}
+	}
+
+	private void writeString(String s) throws IOException {
+		if (s == null) {
+			writeVarInt(0);
+			return;
+		}
+		byte[] bytes = s.getBytes(UTF8);
+		writeVarInt(bytes.length + 1);
+		out.write(bytes);
+	}
+
+	/**
+	 * <Internal Method> Writes an unsigned integer seven bits at a time, low-order group
+	 * first, with the high bit of each byte set if more bytes follow.
+	 * @param v
+	 * @throws IOException
+	 */
+	private void writeVarInt(int v) throws IOException {
+		while ((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+}
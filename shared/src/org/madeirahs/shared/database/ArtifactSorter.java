@@ -22,12 +22,24 @@ package org.madeirahs.shared.database;
 import java.util.*;
 
 import org.madeirahs.shared.*;
+import org.madeirahs.shared.Artifact.StringField;
+import org.madeirahs.shared.Artifact.TimeField;
 import org.madeirahs.shared.time.*;
 
 /**
  * Implementation of Comparator (generic type Artifact) that sorts Artifacts by
  * set variable and mode.  Variable specifies field and mode specifies order (i.e 
- * Newest -> Oldest vs. Oldest -> Newest).
+ * Newest -> Oldest vs. Oldest -> Newest).  Artifacts without a value for the variable
+ * come first in FORWARD mode.  Further keys can be added with
+ * {@link #thenBy(Variable, Mode)} to order Artifacts that tie on the first, e.g. by medium,
+ * then newest object date first, then title.  Artifacts that tie on every key are ordered
+ * by accession number, in reverse if the first key is REVERSE, so that reversing the first
+ * key's mode reverses the whole order.
+ * <br/><br/>
+ * Artifacts taken from a Database are better sorted with
+ * {@link #sort(DatabaseSnapshot, Artifact[])} or {@link #getSorted(DatabaseSnapshot)}, which use
+ * the snapshot's precomputed sort order instead of comparing fields, and other arrays with
+ * {@link #sort(Artifact[])}, which extracts each key once and sorts large arrays in parallel.
  * @author Brian Groenke
  *
  */
@@ -36,72 +48,170 @@ public class ArtifactSorter implements Comparator<Artifact> {
 	Mode mode = Mode.FORWARD;
 	Variable var = Variable.TITLE;
 
+	/*
+	 * Keys that order Artifacts tying on the first, in order.
+	 */
+	private final ArrayList<Variable> thenVars = new ArrayList<Variable>();
+	private final ArrayList<Mode> thenModes = new ArrayList<Mode>();
+
+	public ArtifactSorter() {
+	}
+
+	public ArtifactSorter(Variable var, Mode mode) {
+		setVar(var);
+		setMode(mode);
+	}
+
 	@Override
 	public int compare(Artifact o1, Artifact o2) {
-		int res = 0;
-		switch (var) {
-		case TITLE:
-			res = compare(o1.title, o2.title);
-			break;
-		case DONOR:
-			res = compare(o1.donor, o2.donor);
-			break;
-		case MEDIUM:
-			res = compare(o1.medium, o2.medium);
-			break;
-		case OBJ_DATE:
-			res = compare(o1.objDate, o2.objDate);
-			break;
-		case SUB_DATE:
-			res = compare(o1.subDate, o2.subDate);
+		for (int k = 0; k < keys(); k++) {
+			int res = compare(var(k), mode(k), o1, o2);
+			if (res != 0) {
+				return res;
+			}
+		}
+		String a1 = o1.accNum, a2 = o2.accNum;
+		int res;
+		if (a1 == null || a2 == null) {
+			res = (a1 == a2) ? 0 : ((a1 == null) ? -1 : 1);
+		} else {
+			res = a1.compareTo(a2);
+		}
+		return (mode == Mode.REVERSE) ? -res : res;
+	}
+
+	/**
+	 * Adds a key that orders Artifacts tying on every key so far.
+	 * @param var
+	 * @param mode
+	 * @return this sorter
+	 */
+	public ArtifactSorter thenBy(Variable var, Mode mode) {
+		if (var == null || mode == null) {
+			throw (new IllegalArgumentException("sort variable and mode cannot be null"));
 		}
-		return res;
+		thenVars.add(var);
+		thenModes.add(mode);
+		return this;
 	}
 
 	/**
-	 * Compares two String attributes of an Artifact.
-	 * Accepts sorting modes ALPHABETICAL and REVERSE_ALPHABETICAL.
+	 * Removes the keys added by {@link #thenBy(Variable, Mode)}.
+	 */
+	public void clearThenBy() {
+		thenVars.clear();
+		thenModes.clear();
+	}
+
+	/**
+	 * Sorts Artifacts of a Database by the current keys.
+	 * @param snap the snapshot the Artifacts were taken from
+	 * @param data
+	 * @see DatabaseSnapshot#sort(Artifact[], ArtifactSorter)
+	 */
+	public void sort(DatabaseSnapshot snap, Artifact[] data) {
+		snap.sort(data, this);
+	}
+
+	/**
+	 * @param snap
+	 * @return every Artifact of the snapshot sorted by the current variable and mode. Keys added
+	 *         by {@link #thenBy(Variable, Mode)} are ignored.
+	 * @see DatabaseSnapshot#getSorted(Variable, Mode)
+	 */
+	public List<Artifact> getSorted(DatabaseSnapshot snap) {
+		return snap.getSorted(var, mode);
+	}
+
+	/**
+	 * Sorts the Artifacts in the same order as {@link #compare(Artifact, Artifact)}, reading each
+	 * Artifact's keys only once. Large arrays are sorted in parallel.
+	 * @param data
+	 */
+	public void sort(Artifact[] data) {
+		SortKeys keys = new SortKeys(data.length, keys() + 1);
+		for (int k = 0; k < keys(); k++) {
+			Variable v = var(k);
+			boolean reverse = mode(k) == Mode.REVERSE;
+			if (v.string != null) {
+				String[] col = new String[data.length];
+				for (int i = 0; i < data.length; i++) {
+					col[i] = SortIndex.fold(v.string.get(data[i]));
+				}
+				keys.set(k, col, reverse);
+			} else {
+				long[] col = new long[data.length];
+				for (int i = 0; i < data.length; i++) {
+					long t = SortIndex.start(v.time.get(data[i]));
+					col[i] = reverse ? ~t : t;
+				}
+				keys.set(k, col);
+			}
+		}
+		String[] acc = new String[data.length];
+		for (int i = 0; i < data.length; i++) {
+			acc[i] = data[i].accNum;
+		}
+		keys.set(keys(), acc, mode == Mode.REVERSE);
+		int[] order = keys.sort();
+		Artifact[] sorted = new Artifact[data.length];
+		for (int i = 0; i < order.length; i++) {
+			sorted[i] = data[order[i]];
+		}
+		System.arraycopy(sorted, 0, data, 0, data.length);
+	}
+
+	/**
+	 * @return the number of keys, including the first.
+	 */
+	int keys() {
+		return 1 + thenVars.size();
+	}
+
+	Variable var(int key) {
+		return (key == 0) ? var : thenVars.get(key - 1);
+	}
+
+	Mode mode(int key) {
+		return (key == 0) ? mode : thenModes.get(key - 1);
+	}
+
+	private int compare(Variable v, Mode m, Artifact o1, Artifact o2) {
+		if (v.string != null) {
+			return compare(v.string.get(o1), v.string.get(o2), m == Mode.REVERSE);
+		} else {
+			return compare(v.time.get(o1), v.time.get(o2), m == Mode.REVERSE);
+		}
+	}
+
+	/**
+	 * Compares two String attributes of an Artifact, ignoring case.
 	 * @param s1
 	 * @param s2
+	 * @param reverse
 	 * @return
 	 */
-	private int compare(String s1, String s2) {
+	private static int compare(String s1, String s2, boolean reverse) {
 		int res = 0;
-		switch (mode) {
-		case FORWARD:
+		if (s1 == null || s2 == null) {
+			res = (s1 == s2) ? 0 : ((s1 == null) ? -1 : 1);
+		} else {
 			res = s1.compareToIgnoreCase(s2);
-			break;
-		case REVERSE:
-			res = s2.compareToIgnoreCase(s1);
-			break;
-		default:
-			throw (new IllegalArgumentException(
-					"illegal sorting mode for strings"));
 		}
-
-		return res;
+		return reverse ? -res : res;
 	}
 
 	/**
-	 * Compares two TimeSpec attributes of an Artifact.
-	 * Accepts sorting modes NEWEST and OLDEST.
+	 * Compares two TimeSpec attributes of an Artifact by their start.
 	 * @param t1
 	 * @param t2
+	 * @param reverse
 	 * @return
 	 */
-	private int compare(TimeSpec t1, TimeSpec t2) {
-		int res = 0;
-		switch (mode) {
-		case FORWARD:
-			res = t1.getStartDate().compareTo(t2.getStartDate());
-			break;
-		case REVERSE:
-			res = t2.getStartDate().compareTo(t1.getStartDate());
-			break;
-		default:
-			throw(new IllegalArgumentException("illegal sorting mode for TimeSpec"));
-		}
-		return res;
+	private static int compare(TimeSpec t1, TimeSpec t2, boolean reverse) {
+		long s1 = SortIndex.start(t1), s2 = SortIndex.start(t2);
+		int res = (s1 < s2) ? -1 : ((s1 == s2) ? 0 : 1);
+		return reverse ? -res : res;
 	}
 
 	public void setMode(Mode mode) {
@@ -123,7 +233,25 @@ public class ArtifactSorter implements Comparator<Artifact> {
 
 	public enum Variable {
 
-		TITLE, DONOR, MEDIUM, OBJ_DATE, SUB_DATE;
+		TITLE(StringField.TITLE), DONOR(StringField.DONOR), MEDIUM(
+				StringField.MEDIUM), OBJ_DATE(TimeField.OBJECT_DATE), SUB_DATE(
+				TimeField.SUBMISSION_DATE);
+
+		/*
+		 * The Artifact field sorted by; exactly one of these is set.
+		 */
+		final StringField string;
+		final TimeField time;
+
+		Variable(StringField field) {
+			this.string = field;
+			this.time = null;
+		}
+
+		Variable(TimeField field) {
+			this.string = null;
+			this.time = field;
+		}
 	}
 
 }
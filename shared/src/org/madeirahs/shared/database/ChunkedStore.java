@@ -0,0 +1,352 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.madeirahs.shared.Artifact;
+
+/**
+ * Reads and writes the chunked store-file container. Artifacts are split into fixed-size
+ * chunks, each of which is a self-contained record block (see {@link ArtifactEncoder})
+ * compressed on its own. This lets chunks be compressed and decompressed in parallel on the
+ * given executor. Layout:
+ * <pre>
+ * int magic ('MHSC'), short version, int chunk size
+ * store header (as written by ArtifactEncoder.writeHeader)
+ * frame*:  int compressed length, int record count, deflated record block
+ * int -1   (end of frames)
+ * index:   int chunk count, then (long offset, int compressed length, int count) per chunk
+ * trailer: long index offset, int magic ('MHSI')
+ * </pre>
+ * Frames are length-prefixed so the store can be read front to back from a stream; the index
+ * footer allows readers with random access to locate chunks directly, and is used to verify
+ * the store when streaming: every offset, length and count it lists must match the frames read.
+ */
+class ChunkedStore {
+
+	static final int MAGIC = 0x4D485343, INDEX_MAGIC = 0x4D485349, VERSION = 1;
+
+	private static final int END_OF_FRAMES = -1, BUFF_SIZE = 0x2000;
+
+	private int level, chunkSize, window;
+	private ExecutorService exec;
+
+	/**
+	 * @param level Deflater compression level (0-9)
+	 * @param chunkSize number of Artifacts per chunk
+	 * @param exec executor that chunks are compressed/decompressed on
+	 * @param parallelism number of threads in <code>exec</code>; bounds how many chunks are
+	 * held in memory at once.
+	 */
+	ChunkedStore(int level, int chunkSize, ExecutorService exec, int parallelism) {
+		if (chunkSize < 1) {
+			throw (new IllegalArgumentException("chunk size must be positive"));
+		}
+		this.level = level;
+		this.chunkSize = chunkSize;
+		this.exec = exec;
+		this.window = Math.max(2, parallelism * 2);
+	}
+
+	/**
+	 * Writes the given Artifacts (which should already be in accession order) to the stream.
+	 * The stream is flushed but not closed.
+	 * @param out
+	 * @param data
+	 * @param timestamp
+	 * @param user
+	 * @throws IOException
+	 */
+	void write(OutputStream out, Artifact[] data, long timestamp, String user)
+			throws IOException {
+		DataOutputStream dout = new DataOutputStream(out);
+		dout.writeInt(MAGIC);
+		dout.writeShort(VERSION);
+		dout.writeInt(chunkSize);
+		ArtifactEncoder header = new ArtifactEncoder(dout);
+		header.writeHeader(timestamp, user);
+		long offset = dout.size();
+
+		int nchunks = (data.length + chunkSize - 1) / chunkSize;
+		long[] offsets = new long[nchunks];
+		int[] lengths = new int[nchunks], counts = new int[nchunks];
+		LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+		int next = 0, written = 0;
+		while (written < nchunks) {
+			while (next < nchunks && pending.size() < window) {
+				int off = next * chunkSize;
+				pending.add(exec.submit(new CompressTask(data, off, Math.min(
+						chunkSize, data.length - off))));
+				next++;
+			}
+			byte[] chunk = await(pending.removeFirst());
+			counts[written] = Math.min(chunkSize, data.length - written
+					* chunkSize);
+			lengths[written] = chunk.length;
+			offsets[written] = offset;
+			dout.writeInt(chunk.length);
+			dout.writeInt(counts[written]);
+			dout.write(chunk);
+			offset += 8 + chunk.length;
+			written++;
+		}
+		dout.writeInt(END_OF_FRAMES);
+		offset += 4;
+
+		dout.writeInt(nchunks);
+		for (int i = 0; i < nchunks; i++) {
+			dout.writeLong(offsets[i]);
+			dout.writeInt(lengths[i]);
+			dout.writeInt(counts[i]);
+		}
+		dout.writeLong(offset);
+		dout.writeInt(INDEX_MAGIC);
+		dout.flush();
+	}
+
+	/**
+	 * Reads a chunked store from the stream, which must be positioned at the container's
+	 * magic number. Chunks are handed to the executor as soon as their compressed bytes have
+	 * been read, so decompression overlaps with the transfer.
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	Contents read(InputStream in) throws IOException {
+		CountingInputStream cin = new CountingInputStream(in);
+		DataInputStream din = new DataInputStream(cin);
+		if (din.readInt() != MAGIC) {
+			throw (new DatabaseException("not a chunked database store"));
+		}
+		int version = din.readUnsignedShort();
+		if (version > VERSION) {
+			throw (new DatabaseException("unsupported store container version: "
+					+ version));
+		}
+		din.readInt(); // chunk size used by the writer; informational
+		ArtifactDecoder header = new ArtifactDecoder(din);
+		header.readHeader();
+
+		ArrayList<Artifact[]> chunks = new ArrayList<Artifact[]>();
+		ArrayList<Integer> counts = new ArrayList<Integer>(), lengths = new ArrayList<Integer>();
+		ArrayList<Long> offsets = new ArrayList<Long>();
+		LinkedList<Future<Artifact[]>> pending = new LinkedList<Future<Artifact[]>>();
+		long offset = cin.count;
+		int len;
+		while ((len = din.readInt()) != END_OF_FRAMES) {
+			if (len < 0) {
+				throw (new DatabaseException("corrupt chunk length: " + len));
+			}
+			offsets.add(offset);
+			lengths.add(len);
+			int count = din.readInt();
+			byte[] chunk = new byte[len];
+			din.readFully(chunk);
+			counts.add(count);
+			pending.add(exec.submit(new DecompressTask(chunk)));
+			if (pending.size() >= window) {
+				chunks.add(await(pending.removeFirst()));
+			}
+			offset = cin.count;
+		}
+		long indexOffset = cin.count;
+		while (!pending.isEmpty()) {
+			chunks.add(await(pending.removeFirst()));
+		}
+
+		int nchunks = din.readInt();
+		if (nchunks != chunks.size()) {
+			throw (new DatabaseException("store index lists " + nchunks
+					+ " chunks but " + chunks.size() + " were read"));
+		}
+		int total = 0;
+		for (int i = 0; i < nchunks; i++) {
+			long off = din.readLong();
+			int length = din.readInt();
+			int count = din.readInt();
+			if (off != offsets.get(i) || length != lengths.get(i)) {
+				throw (new DatabaseException("store index doesn't match chunk " + i));
+			}
+			if (count != counts.get(i) || count != chunks.get(i).length) {
+				throw (new DatabaseException("record count mismatch in chunk " + i));
+			}
+			total += count;
+		}
+		long trailerOffset = din.readLong();
+		if (din.readInt() != INDEX_MAGIC) {
+			throw (new DatabaseException("missing store index trailer"));
+		}
+		if (trailerOffset != indexOffset) {
+			throw (new DatabaseException("store index offset doesn't match"));
+		}
+
+		Artifact[] data = new Artifact[total];
+		int pos = 0;
+		for (Artifact[] chunk : chunks) {
+			System.arraycopy(chunk, 0, data, pos, chunk.length);
+			pos += chunk.length;
+		}
+		return new Contents(header.getTimestamp(), header.getUser(), data);
+	}
+
+	/**
+	 * <Internal Method> Waits for the task and unwraps any failure into an IOException.
+	 * @param f
+	 * @return
+	 * @throws IOException
+	 */
+	private static <T> T await(Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			throw (new DatabaseException("interrupted while processing store", e));
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw (new DatabaseException("failed to process store chunk", cause));
+		}
+	}
+
+	/**
+	 * Metadata and Artifacts read from a store.
+	 */
+	static class Contents {
+
+		final long timestamp;
+		final String user;
+		final Artifact[] data;
+
+		Contents(long timestamp, String user, Artifact[] data) {
+			this.timestamp = timestamp;
+			this.user = user;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Counts the bytes read so that the frame offsets can be checked against the index.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+
+	private class CompressTask implements Callable<byte[]> {
+
+		Artifact[] data;
+		int off, len;
+
+		CompressTask(Artifact[] data, int off, int len) {
+			this.data = data;
+			this.off = off;
+			this.len = len;
+		}
+
+		@Override
+		public byte[] call() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			Deflater def = new Deflater(level);
+			try {
+				DeflaterOutputStream defout = new DeflaterOutputStream(bytes, def);
+				ArtifactEncoder enc = new ArtifactEncoder(new BufferedOutputStream(
+						defout, BUFF_SIZE));
+				enc.writeRecords(data, off, len);
+				enc.flush();
+				defout.finish();
+			} finally {
+				def.end();
+			}
+			return bytes.toByteArray();
+		}
+	}
+
+	private static class DecompressTask implements Callable<Artifact[]> {
+
+		byte[] chunk;
+
+		DecompressTask(byte[] chunk) {
+			this.chunk = chunk;
+		}
+
+		@Override
+		public Artifact[] call() throws IOException {
+			Inflater inf = new Inflater();
+			try {
+				ArtifactDecoder dec = new ArtifactDecoder(new BufferedInputStream(
+						new InflaterInputStream(new ByteArrayInputStream(chunk), inf),
+						BUFF_SIZE));
+				return dec.readRecords();
+			} finally {
+				inf.end();
+			}
+		}
+	}
+}
@@ -21,41 +21,56 @@ package org.madeirahs.shared.database;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 import javax.swing.ProgressMonitor;
 
 import org.madeirahs.shared.Artifact;
 import org.madeirahs.shared.Artifact.StringField;
 import org.madeirahs.shared.Artifact.TimeField;
+import org.madeirahs.shared.database.ArtifactSorter.Mode;
+import org.madeirahs.shared.database.ArtifactSorter.Variable;
 import org.madeirahs.shared.misc.MonitoredInStream;
 import org.madeirahs.shared.misc.MonitoredOutStream;
-import org.madeirahs.shared.misc.PushNullComparator;
+import org.madeirahs.shared.misc.Threads;
 import org.madeirahs.shared.provider.DataProvider;
+import org.madeirahs.shared.provider.FTPProvider;
 import org.madeirahs.shared.time.TimeSpec;
 
 /**
  * Shared class representing the artifact database for the MHS-Collections project. Database class
  * provides all the means necessary for creating, editing, and searching the database.  The actual
- * data is stored in an Artifact array within this class.
+ * data is stored in an ordered index keyed by accession number (see {@link AccessionIndex}), so
+ * adding, finding and removing Artifacts takes logarithmic time.
+ * <br/><br/>
+ * Reads never lock. Each change builds the next version of the index and publishes it atomically
+ * as an immutable {@link DatabaseSnapshot}; <code>getData</code>, <code>getSize</code>,
+ * <code>contains</code> and the search methods all read the snapshot that is current when they are
+ * called, so they can run concurrently with writers.  Use {@link #snapshot()} to make several reads
+ * against the same version.
  * 
  * @author Brian Groenke
  * 
@@ -68,22 +83,51 @@ public class Database implements Serializable {
 	private static final long serialVersionUID = 1996081993674943784L;
 
 	public static String DB_SUFFIX = ".store", DATABASE = "database" + DB_SUFFIX,
-			DB_ENTRY_SUFFIX = ".database", DB_TMP_STORE = "tmpstore", DB_ARCHIVE_NAME_SEP = "_", UNIQUE_ID_FLAG = "#%%#";
+			DB_DELTA_SUFFIX = ".delta", DELTA = "database" + DB_DELTA_SUFFIX,
+			DB_MANIFEST = "database.manifest", DB_ENTRY_SUFFIX = ".database", DB_TMP_STORE = "tmpstore", DB_ARCHIVE_NAME_SEP = "_", UNIQUE_ID_FLAG = "#%%#";
 
-	private static int DL_BUFF_SIZE = 5120, DB_STORE_COMPRESSION_LEVEL = 9; // 0-9; 9 being max
-	// compression
+	private static int DL_BUFF_SIZE = 5120, DB_STORE_COMPRESSION_LEVEL = 9, // 0-9; 9 being max
+			// compression
+			DB_STORE_CHUNK_SIZE = 2048, // artifacts per independently compressed chunk
+			STORE_PARALLELISM = Runtime.getRuntime().availableProcessors(),
+			DB_MAX_DELTAS = 32; // deltas published before compacting into a new base
 
-	private Artifact[] data;
-	private long timestamp = -1;
-	private String user;
-	private transient Object dataLock = new Object();
+	private static double DB_COMPACT_RATIO = 0.5; // delta bytes relative to base that trigger compaction
+
+	private static ExecutorService storeExec;
+
+	/*
+	 * The index replaced the original serialized Artifact array; the array is still what goes
+	 * into the stream so that serialized Databases stay compatible.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("data", Artifact[].class),
+			new ObjectStreamField("timestamp", Long.TYPE),
+			new ObjectStreamField("user", String.class) };
+
+	private transient volatile DatabaseSnapshot snapshot = DatabaseSnapshot.EMPTY;
+	private volatile long timestamp = -1;
+	private volatile String user;
+
+	/*
+	 * Accession numbers added/edited and removed since the Database was loaded or last synced,
+	 * each with the number of the change that last touched it, and the manifest version it was
+	 * loaded from (-1 if it wasn't loaded from a manifest). Changes are numbered so that a sync
+	 * only clears the ones it published. Guarded by this Database's monitor, like all writes.
+	 */
+	private transient HashMap<String, Long> dirty = new HashMap<String, Long>(),
+			removed = new HashMap<String, Long>();
+	private transient long changes, publishedVersion = -1;
+
+	private transient QueryCache cache = new QueryCache();
 
 	protected Database() {
-		data = new Artifact[0];
 	}
 
 	/**
 	 * Downloads, extracts, and creates an instance of Database currently published on the FTP server.
+	 * If the location has a manifest, the base store-file it lists is loaded and each of the delta
+	 * segments published since is applied to it in order.  Otherwise the full store-file is loaded.
 	 * @param loc
 	 *            the relative directory location of the Database file.
 	 * @param prov DataProvider able to locate the database store file.
@@ -98,47 +142,355 @@ public class Database implements Serializable {
 			ClassCastException {
 		if(!prov.isAvailable())
 			throw(new IOException("provider not available"));
-		long size = prov.sizeOf(loc + "/" + DATABASE);
-		InputStream in = prov.getInputStream(loc + "/" + DATABASE);
+		StoreManifest manifest = readManifest(loc, prov);
+		String basePath = loc + "/" + ((manifest != null) ? manifest.base.name : DATABASE);
+		if (prog != null) {
+			prog.setNote("Downloading and extracting database...");
+		}
+		// Progress is measured against the compressed bytes pulled from the
+		// provider, since the inflated size isn't known until we're done.
+		InputStream in = openMonitored(basePath, prov, prog);
 		if (in == null) {
+			if (manifest != null) {
+				throw (new DatabaseException("base store listed in manifest is missing: "
+						+ basePath));
+			}
 			return new Database();
 		}
-		if (prog != null) {
-			prog.setNote("Downloading database store-file...");
-			in = new MonitoredInStream(in, prog, size);
+		Database loaded = readStore(in);
+		if (manifest != null) {
+			long baseTime = loaded.timestamp;
+			for (int i = 0; i < manifest.deltas.size(); i++) {
+				String deltaPath = loc + "/" + manifest.deltas.get(i).name;
+				if (prog != null) {
+					prog.setNote("Applying database changes (" + (i + 1) + " of "
+							+ manifest.deltas.size() + ")...");
+				}
+				DeltaSegment delta = readDelta(openMonitored(deltaPath, prov, prog));
+				if (delta == null) {
+					throw (new DatabaseException("delta listed in manifest is missing: "
+							+ deltaPath));
+				}
+				// A delta published against a different base was superseded by compaction.
+				if (delta.baseTimestamp == baseTime) {
+					loaded.apply(delta);
+				}
+			}
 		}
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		BufferedInputStream buffin = new BufferedInputStream(in);
-		byte[] buff = new byte[DL_BUFF_SIZE];
-		int len = 0;
-		while ((len = buffin.read(buff)) >= 0) {
-			bos.write(buff, 0, len);
+		// A store without a manifest has to be republished in full on the next sync.
+		loaded.markPublished((manifest != null) ? manifest.version() : -1, Long.MAX_VALUE);
+		return loaded;
+	}
+
+	/**
+	 * Reconstructs the Database as it was at the given archive. Archives are either full store-files
+	 * or delta segments; a delta is restored by loading the most recent full archive that precedes it
+	 * and applying every archived delta up to and including the requested one.
+	 * @param archives paths of all archives in the archive directory, as listed by the provider.
+	 * @param target path of the archive to restore; must be one of <code>archives</code>.
+	 * @param prov
+	 * @param prog ProgressMonitor that will be given progress updates.  May be null.
+	 * @return
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static Database readArchive(String[] archives, String target,
+			DataProvider prov, ProgressMonitor prog) throws IOException,
+			ClassNotFoundException {
+		long targetTime = archiveTime(target);
+		if (targetTime < 0) {
+			throw (new DatabaseException("not a database archive: " + target));
+		}
+		String base = null;
+		long baseTime = -1;
+		if (target.endsWith(DB_SUFFIX)) {
+			base = target;
+			baseTime = targetTime;
+		} else {
+			for (String s : archives) {
+				long t = archiveTime(s);
+				if (s.endsWith(DB_SUFFIX) && t <= targetTime && t > baseTime) {
+					base = s;
+					baseTime = t;
+				}
+			}
+			if (base == null) {
+				throw (new DatabaseException("no full archive precedes " + target));
+			}
 		}
-		bos.flush();
-		buffin.close();
+		ArrayList<String> deltas = new ArrayList<String>();
+		for (String s : archives) {
+			long t = archiveTime(s);
+			if (s.endsWith(DB_DELTA_SUFFIX) && t > baseTime && t <= targetTime) {
+				deltas.add(s);
+			}
+		}
+		Collections.sort(deltas, new Comparator<String>() {
+			@Override
+			public int compare(String o1, String o2) {
+				long t1 = archiveTime(o1), t2 = archiveTime(o2);
+				return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+			}
+		});
+
 		if (prog != null) {
-			prog.setNote("Extracting database...");
+			prog.setNote("Downloading archived database...");
 		}
-		ZipInputStream zipin = new ZipInputStream(new ByteArrayInputStream(
-				bos.toByteArray()));
-		ZipEntry dbentry = zipin.getNextEntry();
-		if (!dbentry.getName().endsWith(DB_ENTRY_SUFFIX)) {
-			zipin.close();
-			throw (new DatabaseException("found invalid entry: " + dbentry.getName()));
-		}
-		InputStream instream = (prog != null) ? new MonitoredInStream(zipin,
-				prog, (dbentry.getSize() > 0) ? dbentry.getSize():bos.size()) : zipin;
-				ObjectInputStream objIn = new ObjectInputStream(instream);
-				Database loaded = (Database) objIn.readObject();
-				objIn.close();
-				Arrays.sort(loaded.data, new ArtifactComparator());
+		InputStream in = openMonitored(base, prov, prog);
+		if (in == null) {
+			throw (new IOException("provider returned null input stream"));
+		}
+		Database loaded = readStore(in);
+		for (int i = 0; i < deltas.size(); i++) {
+			if (prog != null) {
+				prog.setNote("Applying archived changes (" + (i + 1) + " of "
+						+ deltas.size() + ")...");
+			}
+			DeltaSegment delta = readDelta(openMonitored(deltas.get(i), prov, prog));
+			if (delta == null) {
+				throw (new IOException("provider returned null input stream"));
+			}
+			loaded.apply(delta);
+		}
+		loaded.markPublished(-1, Long.MAX_VALUE);
+		return loaded;
+	}
+
+	/**
+	 * Parses the sync time from an archive name of the form
+	 * <code>&lt;time&gt;_&lt;file&gt;</code>.  Any leading directories
+	 * are ignored.
+	 * @param path
+	 * @return the archive's sync time, or -1 if the name isn't in archive form.
+	 */
+	public static long archiveTime(String path) {
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		int sep = name.indexOf(DB_ARCHIVE_NAME_SEP);
+		if (sep <= 0) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(name.substring(0, sep));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Reads a Database directly from a store-file stream. The archive is inflated and
+	 * decoded as it is read, so only a fixed-size buffer of compressed data is held
+	 * in memory at any point (rather than a copy of the entire store). Both the compact
+	 * record format and legacy stores containing a serialized Database are recognized.
+	 * The returned Database is always in accession order.
+	 * The given stream is closed once the Database has been read.
+	 * @param in stream positioned at the start of the store-file.
+	 * @return the decoded Database
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 * @throws ClassCastException if a legacy store doesn't contain a Database
+	 * @see ArtifactDecoder
+	 */
+	public static Database readStore(InputStream in) throws IOException,
+			ClassNotFoundException, ClassCastException {
+		return decodeStore(in);
+	}
+
+	/**
+	 * <Internal Method> Decodes a store-file in any supported format.
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 * @throws ClassCastException
+	 */
+	private static Database decodeStore(InputStream in) throws IOException,
+			ClassNotFoundException, ClassCastException {
+		BufferedInputStream buffin = new BufferedInputStream(in, DL_BUFF_SIZE);
+		if (peekMagic(buffin) == ChunkedStore.MAGIC) {
+			try {
+				ChunkedStore.Contents contents = newChunkedStore().read(buffin);
+				Database loaded = new Database();
+				loaded.timestamp = contents.timestamp;
+				loaded.user = contents.user;
+				loaded.snapshot = new DatabaseSnapshot(buildIndex(contents.data), 0);
 				return loaded;
+			} finally {
+				buffin.close();
+			}
+		}
+
+		ZipInputStream zipin = new ZipInputStream(buffin);
+		try {
+			ZipEntry dbentry = zipin.getNextEntry();
+			if (dbentry == null) {
+				throw (new DatabaseException("store file is empty"));
+			}
+			if (!dbentry.getName().endsWith(DB_ENTRY_SUFFIX)) {
+				throw (new DatabaseException("found invalid entry: "
+						+ dbentry.getName()));
+			}
+			BufferedInputStream entryIn = new BufferedInputStream(zipin,
+					DL_BUFF_SIZE);
+			if (peekMagic(entryIn) != ArtifactEncoder.MAGIC) {
+				ObjectInputStream objIn = new ObjectInputStream(entryIn);
+				return (Database) objIn.readObject();
+			}
+			ArtifactDecoder dec = new ArtifactDecoder(entryIn);
+			dec.readHeader();
+			Database loaded = new Database();
+			loaded.timestamp = dec.getTimestamp();
+			loaded.user = dec.getUser();
+			loaded.snapshot = new DatabaseSnapshot(buildIndex(dec.readRecords()), 0);
+			return loaded;
+		} finally {
+			zipin.close();
+		}
+	}
+
+	/**
+	 * Writes this Database as a store-file to the given stream. Artifacts are written in
+	 * accession order, split into chunks that are compressed in parallel.  The stream is
+	 * closed when finished.
+	 * @param out
+	 * @throws IOException
+	 * @see #setStoreCompressionLevel(int)
+	 * @see #setStoreChunkSize(int)
+	 */
+	public void writeStore(OutputStream out) throws IOException {
+		writeStore(out, snapshot.index);
+	}
+
+	/**
+	 * <Internal Method> Writes the given index rather than the current snapshot, so that sync
+	 * publishes exactly the state it captured.
+	 */
+	private void writeStore(OutputStream out, AccessionIndex index) throws IOException {
+		try {
+			newChunkedStore().write(out, index.toArray(), timestamp, user);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Sets the compression level used for store-files written by this class. Lower levels
+	 * trade transfer size for less CPU time when syncing.
+	 * @param level 0-9; 9 being max compression
+	 */
+	public static void setStoreCompressionLevel(int level) {
+		if (level < 0 || level > 9) {
+			throw (new IllegalArgumentException("compression level must be 0-9"));
+		}
+		DB_STORE_COMPRESSION_LEVEL = level;
+	}
+
+	/**
+	 * Sets the number of Artifacts in each independently compressed chunk of store-files
+	 * written by this class. Smaller chunks parallelize better but compress less well.
+	 * @param artifacts
+	 */
+	public static void setStoreChunkSize(int artifacts) {
+		if (artifacts < 1) {
+			throw (new IllegalArgumentException("chunk size must be positive"));
+		}
+		DB_STORE_CHUNK_SIZE = artifacts;
+	}
+
+	/**
+	 * Sets the number of threads that searches without an index (such as
+	 * {@link #searchByFieldHybrid(TimeField, Artifact)}) split their scan across, including the
+	 * calling thread. Large sorts (see {@link ArtifactSorter}) use the same threads. Defaults to
+	 * the number of available processors.
+	 * @param nthreads
+	 */
+	public static void setSearchParallelism(int nthreads) {
+		ParallelScan.setParallelism(nthreads);
 	}
 
 	/**
-	 * Synchronize the provider with this Database. The object is serialized and added both to the
-	 * archives and currently active database object. The data is written to a temporary "partial"
-	 * file which is then renamed to the actual file upon completion.<br/>
+	 * Sets the size of each Database's search result cache. A limit of 0 disables caching.
+	 * Defaults to 256 results and 8 MB.
+	 * @param maxEntries the maximum number of cached results
+	 * @param maxBytes the approximate maximum memory used by cached results
+	 * @see #getQueryCache()
+	 */
+	public static void setQueryCacheLimits(int maxEntries, long maxBytes) {
+		QueryCache.setLimits(maxEntries, maxBytes);
+	}
+
+	/**
+	 * <Internal Method> Creates a ChunkedStore with the current settings, sharing one
+	 * thread pool between all store reads and writes.
+	 * @return
+	 */
+	private static synchronized ChunkedStore newChunkedStore() {
+		if (storeExec == null) {
+			storeExec = Threads.newDaemonPool("Database_store", STORE_PARALLELISM);
+		}
+		return new ChunkedStore(DB_STORE_COMPRESSION_LEVEL, DB_STORE_CHUNK_SIZE,
+				storeExec, STORE_PARALLELISM);
+	}
+
+	/**
+	 * <Internal Method> Peeks at the first four bytes of the stream as a big-endian int.
+	 * The stream position is left unchanged.
+	 * @param in
+	 * @return the value read, or -1 if the stream has fewer than four bytes.
+	 * @throws IOException
+	 */
+	private static int peekMagic(BufferedInputStream in) throws IOException {
+		in.mark(4);
+		int magic = 0;
+		for (int i = 0; i < 4; i++) {
+			int b = in.read();
+			if (b < 0) {
+				in.reset();
+				return -1;
+			}
+			magic = (magic << 8) | b;
+		}
+		in.reset();
+		return magic;
+	}
+
+	/**
+	 * <Internal Method> Builds an index from the given Artifacts, sorting them first unless
+	 * they are already in accession order (stores are usually written sorted).
+	 * @param data
+	 * @return
+	 */
+	private static AccessionIndex buildIndex(Artifact[] data) {
+		if (!isSorted(data)) {
+			data = Arrays.copyOf(data, data.length);
+			Arrays.sort(data, new ArtifactComparator());
+		}
+		return AccessionIndex.build(data);
+	}
+
+	/**
+	 * <Internal Method> Checks whether the given data is already in accession order.
+	 * @param data
+	 * @return true if no adjacent pair is out of order.
+	 */
+	private static boolean isSorted(Artifact[] data) {
+		ArtifactComparator comp = new ArtifactComparator();
+		for (int i = 1; i < data.length; i++) {
+			if (comp.compare(data[i - 1], data[i]) > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Synchronize the provider with this Database. Only the Artifacts added, edited or removed
+	 * since the Database was loaded are uploaded, as a delta segment that is listed in the location's
+	 * manifest and added to the archives.  A full store-file (base) is published instead if the location
+	 * has no manifest, if this Database wasn't loaded from the location, or if the accumulated deltas
+	 * have grown past the compaction threshold; the base replaces the previous base and its deltas.
+	 * Nothing is written if the Database was loaded from the location and hasn't changed since.
+	 * Files are written to a temporary "partial" file which is then renamed to the actual file upon
+	 * completion.<br/>
 	 * <br/>
 	 * N.B: Forward slashes ('/') are automatically added between directories and output files. It
 	 * is the responsibility of the caller to prevent occurrences of double or triple slashes ("//")
@@ -153,73 +505,334 @@ public class Database implements Serializable {
 	 *            the DataProvider to which data will be written.
 	 * @throws IOException
 	 *             if the DataProvider fails or returns null streams.
+	 * @see #setCompactionThreshold(double, int)
 	 */
 	public void sync(String loc, String archiveDir, DataProvider prov, String usr,
 			ProgressMonitor prog) throws IOException {
 		if(!prov.isAvailable())
 			throw(new IOException("provider not available"));
+		StoreManifest manifest = readManifest(loc, prov);
+		// Writers may continue during the upload; only the changes captured here are published.
+		Pending pending = pending();
+		if (manifest != null && publishedVersion >= 0 && pending.isEmpty()) {
+			// Nothing to publish; an empty delta would only count toward DB_MAX_DELTAS.
+			return;
+		}
 		long currTime = System.currentTimeMillis();
 		this.timestamp = currTime;
 		this.user = usr;
 		if(this.user != null && this.user.isEmpty())
 			this.user = null;
-		OutputStream a = prov.getOutputStream(loc + "/" + currTime + DB_TMP_STORE + ".part");
-		if (a == null) {
-			throw (new IOException("provider returned null output stream"));
+
+		boolean upToDate = false;
+		byte[] delta = null;
+		if (manifest != null && publishedVersion >= 0) {
+			if (prog != null) {
+				prog.setNote("Compressing database changes... Please wait");
+			}
+			delta = encodeDelta(pending, manifest.base.timestamp);
+			// Only compact if nobody else has published since we loaded; otherwise our copy
+			// is missing their changes and a base written from it would discard them.
+			upToDate = manifest.version() == publishedVersion;
+			if (upToDate
+					&& (manifest.deltas.size() >= DB_MAX_DELTAS || manifest
+							.deltaBytes() + delta.length > DB_COMPACT_RATIO
+							* manifest.base.size)) {
+				delta = null;
+			}
 		}
 
-		if (prog != null) {
-			prog.setNote("Compressing database... Please wait");
-		}
-		ByteArrayOutputStream storeStream = new ByteArrayOutputStream();
-		ZipOutputStream zipout = new ZipOutputStream(
-				(prog != null) ? new MonitoredOutStream(storeStream, prog,
-						Integer.MAX_VALUE) : storeStream);
-		zipout.setLevel(DB_STORE_COMPRESSION_LEVEL);
-		ZipEntry dbentry = new ZipEntry(currTime + DB_ENTRY_SUFFIX);
-		zipout.putNextEntry(dbentry);
-		ObjectOutputStream objOut = new ObjectOutputStream(zipout);
-		objOut.writeObject(this);
-		dbentry.setSize(storeStream.size());
-		objOut.close();
-		if (prog != null) {
-			prog.setNote("Uploading database store-file...");
-		}
-		OutputStream curr = (prog != null) ? new MonitoredOutStream(
-				new BufferedOutputStream(a), prog, storeStream.size())
-		: new BufferedOutputStream(a);
-				ByteArrayInputStream fromStore = new ByteArrayInputStream(
-						storeStream.toByteArray());
-				byte[] buff = new byte[DL_BUFF_SIZE];
-				int len = 0;
-				while ((len = fromStore.read(buff)) > 0) {
-					curr.write(buff, 0, len);
+		if (delta != null) {
+			String name = currTime + DB_DELTA_SUFFIX;
+			if (prog != null) {
+				prog.setNote("Uploading database changes...");
+			}
+			upload(prov, loc + "/" + name + ".part", delta, prog);
+			prov.rename(loc + "/" + name + ".part", loc + "/" + name);
+			manifest.deltas.add(new StoreManifest.Entry(name, currTime,
+					delta.length));
+			writeManifest(loc, prov, manifest, currTime);
+
+			// ------ Write to archives -------//
+			if (prog != null) {
+				prog.setNote("Archiving database changes...");
+			}
+			upload(prov, archiveDir + "/" + currTime + DB_ARCHIVE_NAME_SEP + DELTA,
+					delta, prog);
+		} else {
+			upToDate = true;
+			if (prog != null) {
+				prog.setNote("Compressing database... Please wait");
+			}
+			ByteArrayOutputStream storeStream = new ByteArrayOutputStream();
+			writeStore((prog != null) ? new MonitoredOutStream(storeStream, prog,
+					Integer.MAX_VALUE) : storeStream, pending.index);
+			byte[] store = storeStream.toByteArray();
+			if (prog != null) {
+				prog.setNote("Uploading database store-file...");
+			}
+			upload(prov, loc + "/" + currTime + DB_TMP_STORE + ".part", store, prog);
+			prov.rename(loc + "/" + currTime + DB_TMP_STORE + ".part", loc + "/"
+					+ DATABASE);
+			writeManifest(loc, prov, new StoreManifest(new StoreManifest.Entry(
+					DATABASE, currTime, store.length)), currTime);
+			// Deltas against the old base are no longer listed in the manifest.
+			if (manifest != null) {
+				for (StoreManifest.Entry e : manifest.deltas) {
+					prov.delete(loc + "/" + e.name);
 				}
+			}
+
+			// ------ Write to archives -------//
+			if (prog != null) {
+				prog.setNote("Archiving database store-file...");
+			}
+			upload(prov, archiveDir + "/" + currTime + DB_ARCHIVE_NAME_SEP + DATABASE,
+					store, prog);
+		}
+		// If another client published before us, keep our old version so that we never
+		// compact from this (incomplete) copy.
+		markPublished(upToDate ? currTime : publishedVersion, pending.changes);
+	}
+
+	/**
+	 * Sets when sync publishes a new base store-file instead of another delta segment. A base is
+	 * published once the location has <code>maxDeltas</code> deltas, or once the total size of the
+	 * deltas would exceed <code>ratio</code> times the size of the current base.
+	 * @param ratio size of all deltas relative to the base that triggers compaction; must be positive
+	 * @param maxDeltas number of deltas that triggers compaction; 0 publishes a base on every sync
+	 */
+	public static void setCompactionThreshold(double ratio, int maxDeltas) {
+		if (ratio <= 0 || maxDeltas < 0) {
+			throw (new IllegalArgumentException("invalid compaction threshold"));
+		}
+		DB_COMPACT_RATIO = ratio;
+		DB_MAX_DELTAS = maxDeltas;
+	}
+
+	/**
+	 * The local changes to publish, captured at one point in time.
+	 */
+	private static final class Pending {
+
+		final AccessionIndex index;
+		final Artifact[] upserts;
+		final String[] removed;
+		final long changes;
+
+		Pending(AccessionIndex index, Artifact[] upserts, String[] removed, long changes) {
+			this.index = index;
+			this.upserts = upserts;
+			this.removed = removed;
+			this.changes = changes;
+		}
+
+		boolean isEmpty() {
+			return upserts.length == 0 && removed.length == 0;
+		}
+	}
+
+	/**
+	 * <Internal Method> Captures the current contents and the Artifacts added, edited and
+	 * removed since the last load or sync.
+	 */
+	private synchronized Pending pending() {
+		AccessionIndex index = snapshot.index;
+		ArrayList<Artifact> upserts = new ArrayList<Artifact>();
+		for (String acc : dirty.keySet()) {
+			Artifact a = index.get(acc);
+			if (a != null) {
+				upserts.add(a);
+			}
+		}
+		return new Pending(index, upserts.toArray(new Artifact[upserts.size()]), removed
+				.keySet().toArray(new String[removed.size()]), changes);
+	}
+
+	/**
+	 * <Internal Method> Encodes the captured changes as a delta segment.
+	 * @param pending
+	 * @param baseTimestamp timestamp of the base store the delta will be listed against.
+	 * @return
+	 * @throws IOException
+	 */
+	private byte[] encodeDelta(Pending pending, long baseTimestamp) throws IOException {
+		Artifact[] changed = pending.upserts.clone();
+		String[] removedAccs = pending.removed.clone();
+		Arrays.sort(changed, new ArtifactComparator());
+		Arrays.sort(removedAccs);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DeltaSegment.write(bytes, newChunkedStore(), baseTimestamp, removedAccs,
+				changed, timestamp, user);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * <Internal Method> Applies a delta segment as a single new version, then takes the delta's
+	 * sync time and user as this Database's own.
+	 * @param delta
+	 */
+	private synchronized void apply(DeltaSegment delta) {
+		AccessionIndex index = snapshot.index;
+		String[] changed = new String[delta.removed.length
+				+ delta.upserts.data.length];
+		int c = 0;
+		for (String acc : delta.removed) {
+			index = index.remove(acc);
+			changed[c++] = acc;
+		}
+		for (Artifact a : delta.upserts.data) {
+			index = index.put(a);
+			changed[c++] = a.accNum;
+		}
+		snapshot = snapshot.next(index, changed);
+		timestamp = delta.upserts.timestamp;
+		user = delta.upserts.user;
+	}
+
+	/**
+	 * <Internal Method> Records that this Database matches the given published version and
+	 * clears the record of the local changes that were published. Changes made since they were
+	 * captured are kept for the next sync.
+	 * @param version the manifest version, or -1 if the next sync should publish a full base.
+	 * @param published the number of the last change published
+	 */
+	private synchronized void markPublished(long version, long published) {
+		clearThrough(dirty, published);
+		clearThrough(removed, published);
+		publishedVersion = version;
+	}
 
-				curr.close();
+	private static void clearThrough(HashMap<String, Long> changes, long published) {
+		for (Iterator<Long> it = changes.values().iterator(); it.hasNext();) {
+			if (it.next() <= published) {
+				it.remove();
+			}
+		}
+	}
 
-				prov.rename(loc + "/" + currTime + DB_TMP_STORE + ".part", loc
-						+ "/" + DATABASE);
+	/**
+	 * <Internal Method> Reads the manifest from the given location.
+	 * @param loc
+	 * @param prov
+	 * @return the manifest, or null if the location doesn't have one.
+	 * @throws IOException
+	 */
+	private static StoreManifest readManifest(String loc, DataProvider prov)
+			throws IOException {
+		InputStream in;
+		try {
+			in = prov.getInputStream(loc + "/" + DB_MANIFEST);
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+		return (in != null) ? StoreManifest.read(in) : null;
+	}
 
-				// ------ Write to archives -------//
-				fromStore.reset(); // reset byte-array stream's buffer pos
-				OutputStream b = prov.getOutputStream(archiveDir + "/" + currTime + DB_ARCHIVE_NAME_SEP
-						+ DATABASE);
-				if (b == null) {
-					throw (new IOException("provider returned null output stream"));
+	/**
+	 * <Internal Method> Uploads the manifest to a temporary file and renames it over the current
+	 * manifest.
+	 * @param loc
+	 * @param prov
+	 * @param manifest
+	 * @param currTime
+	 * @throws IOException
+	 */
+	private static void writeManifest(String loc, DataProvider prov,
+			StoreManifest manifest, long currTime) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		manifest.write(bytes);
+		String part = loc + "/" + currTime + DB_MANIFEST + ".part";
+		upload(prov, part, bytes.toByteArray(), null);
+		prov.rename(part, loc + "/" + DB_MANIFEST);
+	}
+
+	/**
+	 * <Internal Method> Reads a delta segment and closes the stream.
+	 * @param in
+	 * @return the delta, or null if <code>in</code> is null.
+	 * @throws IOException
+	 */
+	private static DeltaSegment readDelta(InputStream in) throws IOException {
+		if (in == null) {
+			return null;
+		}
+		try {
+			return DeltaSegment.read(new BufferedInputStream(in, DL_BUFF_SIZE),
+					newChunkedStore());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * <Internal Method> Opens the given file, reporting progress against its size if a
+	 * ProgressMonitor is given.
+	 * @param path
+	 * @param prov
+	 * @param prog
+	 * @return the stream, or null if the provider couldn't open it.
+	 * @throws IOException
+	 */
+	private static InputStream openMonitored(String path, DataProvider prov,
+			ProgressMonitor prog) throws IOException {
+		long size = prov.sizeOf(path);
+		InputStream in = prov.getInputStream(path);
+		if (in != null && prog != null) {
+			in = new MonitoredInStream(in, prog, size);
+		}
+		return in;
+	}
+
+	/**
+	 * <Internal Method> Writes the bytes to the given file. FTP uploads are resumed if the
+	 * connection drops (see {@link FTPProvider#upload(String, FTPProvider.Source)}).
+	 * @param prov
+	 * @param path
+	 * @param bytes
+	 * @param prog
+	 * @throws IOException if the provider returns a null stream.
+	 */
+	private static void upload(DataProvider prov, String path, final byte[] bytes,
+			final ProgressMonitor prog) throws IOException {
+		if (prov instanceof FTPProvider) {
+			final FTPProvider.Source src = FTPProvider.source(bytes);
+			((FTPProvider) prov).upload(path, (prog == null) ? src : new FTPProvider.Source() {
+
+				@Override
+				public String id() {
+					return src.id();
 				}
-				if (prog != null) {
-					prog.setNote("Archiving database store-file...");
+
+				@Override
+				public long length() {
+					return src.length();
 				}
-				OutputStream archives = (prog != null) ? new MonitoredOutStream(
-						new BufferedOutputStream(b), prog, storeStream.size())
-				: new BufferedOutputStream(b);
-						buff = new byte[DL_BUFF_SIZE];
-						while ((len = fromStore.read(buff)) > 0) {
-							archives.write(buff, 0, len);
-						}
 
-						archives.close();
+				@Override
+				public InputStream open(long offset) throws IOException {
+					// count the bytes already uploaded, so progress continues where it stopped
+					InputStream in = new MonitoredInStream(src.open(0), prog, bytes.length);
+					in.skip(offset);
+					return in;
+				}
+			});
+			return;
+		}
+		OutputStream a = prov.getOutputStream(path);
+		if (a == null) {
+			throw (new IOException("provider returned null output stream"));
+		}
+		OutputStream out = (prog != null) ? new MonitoredOutStream(
+				new BufferedOutputStream(a), prog, bytes.length)
+				: new BufferedOutputStream(a);
+		try {
+			for (int off = 0; off < bytes.length; off += DL_BUFF_SIZE) {
+				out.write(bytes, off, Math.min(DL_BUFF_SIZE, bytes.length - off));
+			}
+		} finally {
+			out.close();
+		}
 	}
 
 	/**
@@ -229,36 +842,44 @@ public class Database implements Serializable {
 	 */
 	public void writeLocal(String dir) throws IOException {
 		long currTime = System.currentTimeMillis();
+		writeStore(new BufferedOutputStream(new FileOutputStream(dir
+				+ File.separator + currTime + DB_SUFFIX), DL_BUFF_SIZE));
+	}
 
-		ByteArrayOutputStream storeStream = new ByteArrayOutputStream();
-		ZipOutputStream zipout = new ZipOutputStream(storeStream);
-		zipout.setLevel(DB_STORE_COMPRESSION_LEVEL);
-		zipout.putNextEntry(new ZipEntry(currTime + DB_ENTRY_SUFFIX));
-		ObjectOutputStream objOut = new ObjectOutputStream(zipout);
-		objOut.writeObject(this);
-		objOut.close();
-
-		FileOutputStream fileOut = new FileOutputStream(dir + File.separator + currTime + DB_SUFFIX);
-		ByteArrayInputStream storeIn = new ByteArrayInputStream(storeStream.toByteArray());
-		byte[] buff = new byte[DL_BUFF_SIZE];
-		int len = 0;
-		while((len=storeIn.read(buff)) > 0) {
-			fileOut.write(buff, 0, len);
-		}
-		fileOut.close();
-		storeIn.close();
+	/**
+	 * Implicitly overridden method that the JVM looks for when serializing.  Writes the index
+	 * as the Artifact array that older versions of this class serialized.
+	 * @param out
+	 * @throws IOException
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("data", getData());
+		fields.put("timestamp", timestamp);
+		fields.put("user", user);
+		out.writeFields();
 	}
 
 	/**
-	 * Implicitly overridden method that the JVM looks for when deserializing.  Instantiates the lock Object.
+	 * Implicitly overridden method that the JVM looks for when deserializing.  Rebuilds the index from the
+	 * serialized Artifact array.
 	 * @param in
 	 * @throws IOException
 	 * @throws ClassNotFoundException
 	 */
 	private void readObject(java.io.ObjectInputStream in) throws IOException,
 	ClassNotFoundException {
-		in.defaultReadObject();
-		dataLock = new Object();
+		ObjectInputStream.GetField fields = in.readFields();
+		Artifact[] data = (Artifact[]) fields.get("data", null);
+		timestamp = fields.get("timestamp", -1L);
+		user = (String) fields.get("user", null);
+		snapshot = new DatabaseSnapshot(buildIndex((data != null) ? data
+				: new Artifact[0]), 0);
+		dirty = new HashMap<String, Long>();
+		removed = new HashMap<String, Long>();
+		changes = 0;
+		publishedVersion = -1;
+		cache = new QueryCache();
 	}
 
 	/**
@@ -318,7 +939,7 @@ public class Database implements Serializable {
 
 	/**
 	 * <Internal Method>
-	 * Actually performs action of synchronizing on the object lock and putting the Artifact into the Database.
+	 * Actually performs action of putting the Artifact into the Database and publishing the new version.
 	 * @param e
 	 * @param forceOverwrite
 	 * @throws DuplicateArtifactException
@@ -329,27 +950,14 @@ public class Database implements Serializable {
 			return;
 		}
 
-		int ind = contains(e);
-		boolean overwrite = false;
-		if (ind >= 0) {
-			if (forceOverwrite) {
-				synchronized (dataLock) {
-					data[ind] = e;
-					overwrite = true;
-					return;
-				}
-			} else {
-				throw (new DuplicateArtifactException(
-						"Artifact already exists in Database"));
-			}
-		}
-
-		if(!overwrite) {
-			synchronized (dataLock) {
-				data = Arrays.copyOf(data, data.length + 1);
-				data[data.length - 1] = e;
-			}
+		DatabaseSnapshot curr = snapshot;
+		if (!forceOverwrite && curr.index.get(e.accNum) != null) {
+			throw (new DuplicateArtifactException(
+					"Artifact already exists in Database"));
 		}
+		snapshot = curr.next(curr.index.put(e), e.accNum);
+		dirty.put(e.accNum, ++changes);
+		removed.remove(e.accNum);
 	}
 
 	/**
@@ -365,61 +973,121 @@ public class Database implements Serializable {
 			return false;
 		}
 
-		synchronized (dataLock) {
-			int pos = contains(e);
-			if (pos >= 0) {
-				data[pos] = null;
-				Arrays.sort(data, new PushNullComparator<Artifact>());
-				data = Arrays.copyOf(data, data.length - 1);
-				Arrays.sort(data, new ArtifactComparator());
-				return true;
-			}
-
+		DatabaseSnapshot curr = snapshot;
+		AccessionIndex next = curr.index.remove(e.accNum);
+		if (next == curr.index) {
 			return false;
 		}
+		snapshot = curr.next(next, e.accNum);
+		dirty.remove(e.accNum);
+		removed.put(e.accNum, ++changes);
+		return true;
+	}
+
+	/**
+	 * Returns the current snapshot of the Database: an immutable view of its contents that
+	 * doesn't change when Artifacts are later added or removed. Use this to make several reads
+	 * (e.g. a search followed by <code>getData</code>) that are guaranteed to be consistent
+	 * with each other.
+	 * @return
+	 */
+	public DatabaseSnapshot snapshot() {
+		return snapshot;
 	}
 
 	/**
-	 * Uses a binary search algorithm to find the specified Artifact in the database. The value
+	 * Returns the cache of this Database's search results. Results of
+	 * {@link #searchByField(StringField, Artifact)}, {@link #searchByField(TimeField, Artifact)},
+	 * {@link #searchByFieldHybrid(TimeField, Artifact)} and of {@link SearchSession}s are cached
+	 * until the Database next changes.
+	 * @return
+	 * @see #setQueryCacheLimits(int, long)
+	 */
+	public QueryCache getQueryCache() {
+		return cache;
+	}
+
+	/**
+	 * Looks up the specified Artifact's accession number in the database index. The value
 	 * returned will be < 0 if nothing was found.
 	 * 
 	 * @param e
-	 * @return a value >= 0 that represents the Artifact's position in the database array or < 0 if
-	 *         no match was found.
+	 * @return a value >= 0 that represents the Artifact's position in accession order (as in
+	 *         <code>getData()</code>) or < 0 if no match was found.
+	 * @see DatabaseSnapshot#contains(Artifact)
 	 */
-	public synchronized int contains(Artifact e) {
-		int pos = -1;
-		if (e == null) {
-			return pos;
-		}
-		synchronized (dataLock) {
-			ArtifactComparator comp = new ArtifactComparator();
-			Artifact[] wcpy = Arrays.copyOf(data, data.length);
-			Arrays.sort(wcpy, comp);
-			pos = Arrays.binarySearch(wcpy, e, comp);
-		}
+	public int contains(Artifact e) {
+		return snapshot.contains(e);
+	}
 
-		return pos;
+	/**
+	 * Returns the Artifacts whose accession numbers are in the range [from, to), in accession
+	 * order.
+	 * @param from the smallest accession number to include, or null for no lower bound
+	 * @param to the accession number to stop before, or null for no upper bound
+	 * @return
+	 * @see DatabaseSnapshot#getRange(String, String)
+	 */
+	public Artifact[] getRange(String from, String to) {
+		return snapshot.getRange(from, to);
 	}
 
 	/**
-	 * Returns an array that is a direct copy of the Database's Artifact array.
+	 * Returns the Artifacts whose accession numbers start with the prefix, in accession order.
+	 * @param prefix
+	 * @return
+	 * @see DatabaseSnapshot#getByPrefix(String)
+	 */
+	public Artifact[] getByPrefix(String prefix) {
+		return snapshot.getByPrefix(prefix);
+	}
+
+	/**
+	 * Returns a copy of the Database's Artifacts in accession order.
 	 * 
 	 * @return
 	 */
-	public synchronized Artifact[] getData() {
-		Artifact[] copy = new Artifact[data.length];
-		synchronized (dataLock) {
-			System.arraycopy(data, 0, copy, 0, data.length);
-		}
-		return copy;
+	public Artifact[] getData() {
+		return snapshot.getData();
 	}
 
 	/**
-	 * @return the size of the database's Artifact array (int value).
+	 * @return the number of Artifacts in the database.
 	 */
 	public int getSize() {
-		return data.length;
+		return snapshot.getSize();
+	}
+
+	/**
+	 * Returns the Database's Artifacts sorted by the given variable, as a read-only list.
+	 * @param var
+	 * @param mode
+	 * @return
+	 * @see DatabaseSnapshot#getSorted(Variable, Mode)
+	 */
+	public List<Artifact> getSorted(Variable var, Mode mode) {
+		return snapshot.getSorted(var, mode);
+	}
+
+	/**
+	 * Sorts the given Artifacts in place by the given variable.
+	 * @param data
+	 * @param var
+	 * @param mode
+	 * @see DatabaseSnapshot#sort(Artifact[], Variable, Mode)
+	 */
+	public void sort(Artifact[] data, Variable var, Mode mode) {
+		snapshot.sort(data, var, mode);
+	}
+
+	/**
+	 * Sorts the given Artifacts in place by the sorter's keys.
+	 * @param data
+	 * @param sorter
+	 * @see DatabaseSnapshot#sort(Artifact[], ArtifactSorter)
+	 */
+	public void sort(Artifact[] data, ArtifactSorter sorter) {
+		snapshot.sort(data, sorter);
 	}
 
 	/**
@@ -427,81 +1095,60 @@ public class Database implements Serializable {
 	 * @param field denotes which time-related Artifact attribute to obtain.
 	 * @param query the Artifact to be used as the query; only the specified field will be evaluated
 	 * @return an array of relevant search results.
+	 * @see DatabaseSnapshot#searchByField(TimeField, Artifact)
 	 */
-	public Artifact[] searchByField(TimeField field, Artifact query) {
-		Artifact[] found = null;
-		String fieldName = field.getFieldName();
-		synchronized (dataLock) {
-			// Create a map so we can identify the orignal Artifacts after
-			// searching the values.
-			HashMap<TimeSpec, Artifact> mapvals = new HashMap<TimeSpec, Artifact>();
-			for (Artifact a : data) {
-				mapvals.put(timefield(a, fieldName), a);
-			}
+	public Artifact[] searchByField(final TimeField field, final Artifact query) {
+		TimeSpec qspec = field.get(query);
+		if (qspec == null) {
+			throw (new IllegalArgumentException(
+					"initialized query value cannot be null"));
+		}
+		return cache.get(QueryCache.timeKey(field, qspec), snapshot, new QueryCache.Search() {
 
-			TimeSpec qspec = timefield(query, fieldName);
-			TimeValueCrawler tvc = new TimeValueCrawler(qspec);
-			TimeSpec[] specs = mapvals.keySet().toArray(
-					new TimeSpec[mapvals.size()]);
-			Arrays.sort(specs, tvc);
-			found = new Artifact[specs.length];
-
-			// Copy into the result array top-down so that most relevant results
-			// are at front of array.
-			// Irrelevant results are weeded out by the call to isRelevant()
-			int fc = 0;
-			for (int i = specs.length - 1; i >= 0; i--) {
-				if (tvc.isRelevant(specs[i])) {
-					found[fc] = mapvals.get(specs[i]);
-					fc++;
-				}
+			@Override
+			public Artifact[] run(DatabaseSnapshot snap) {
+				return snap.searchByField(field, query);
 			}
-			found = Arrays.copyOf(found, fc);
-		}
-		return found;
+
+		});
 	}
 
 	/**
 	 * Search the database for the specified time attribute of the given Artifact, using
-	 * the String representation of the time instead of absolute time comparison.  This search method will
-	 * use the StringCrawler (like {@link searchByField(StringField, Artifact)}) to find results that are relevant
-	 * to the time representation.
+	 * the String representation of the time instead of absolute time comparison.
 	 * @param field denotes which time-related Artifact attribute to obtain.
 	 * @param query the Artifact to be used as the query; only the specified field will be evaluated
 	 * @return an array of relevant search results.
-	 * @see #StringCrawler #searchByField(TimeField, Artifact) #searchByField(StringField, Artifact)
-	 */
-	public Artifact[] searchByFieldHybrid(TimeField field, Artifact query) {
-		Artifact[] found = null;
-		String fieldName = field.getFieldName();
-		synchronized (dataLock) {
-			// Create a map so we can identify the orignal Artifacts after
-			// searching the values.
-			HashMap<String, Artifact> mapvals = new HashMap<String, Artifact>();
-			for (Artifact a : data) {
-				mapvals.put(timefield(a, fieldName).toString(), a);
-			}
-
-			TimeSpec qspec = timefield(query, fieldName);
-			StringCrawler strc = new StringCrawler(qspec.toString());
-			String[] specs = mapvals.keySet().toArray(
-					new String[mapvals.size()]);
-			Arrays.sort(specs, strc);
-			found = new Artifact[specs.length];
-
-			// Copy into the result array top-down so that most relevant results
-			// are at front of array.
-			// Irrelevant results are weeded out by the call to isRelevant()
-			int fc = 0;
-			for (int i = specs.length - 1; i >= 0; i--) {
-				if (strc.isRelevant(specs[i])) {
-					found[fc] = mapvals.get(specs[i]);
-					fc++;
-				}
-			}
-			found = Arrays.copyOf(found, fc);
+	 * @see DatabaseSnapshot#searchByFieldHybrid(TimeField, Artifact)
+	 */
+	public Artifact[] searchByFieldHybrid(final TimeField field, final Artifact query) {
+		TimeSpec qspec = field.get(query);
+		if (qspec == null) {
+			throw (new IllegalArgumentException(
+					"initialized query value cannot be null"));
 		}
-		return found;
+		return cache.get(QueryCache.timeTextKey(field, TextIndex.terms(qspec.toString())),
+				snapshot, new QueryCache.Search() {
+
+					@Override
+					public Artifact[] run(DatabaseSnapshot snap) {
+						return snap.searchByFieldHybrid(field, query);
+					}
+
+				});
+	}
+
+	/**
+	 * Returns the first <code>limit</code> results of
+	 * {@link #searchByFieldHybrid(TimeField, Artifact)}.
+	 * @param field denotes which time-related Artifact attribute to obtain.
+	 * @param query the Artifact to be used as the query; only the specified field will be evaluated
+	 * @param limit the maximum number of results to return
+	 * @return the most relevant results.
+	 * @see DatabaseSnapshot#searchByFieldHybrid(TimeField, Artifact, int)
+	 */
+	public Artifact[] searchByFieldHybrid(TimeField field, Artifact query, int limit) {
+		return snapshot.searchByFieldHybrid(field, query, limit);
 	}
 
 	/**
@@ -509,230 +1156,91 @@ public class Database implements Serializable {
 	 * @param field denotes which Artifact String attribute to obtain.
 	 * @param query the Artifact to be used as the query; only the specified field will be evaluated
 	 * @return
+	 * @see DatabaseSnapshot#searchByField(StringField, Artifact)
 	 */
-	// Yes I copy/pasted again.
-	public Artifact[] searchByField(StringField field, Artifact query) {
-		Artifact[] found = null;
-		String fieldName = field.getFieldName();
-		synchronized (dataLock) {
-			// Create a map so we can identify the original Artifacts after
-			// searching the values.
-			HashMap<String, Artifact> mapvals = new HashMap<String, Artifact>();
-			for (int i = 0; i < data.length;i++) {
-				Artifact a = data[i];
-				mapvals.put(strfield(a, fieldName) + UNIQUE_ID_FLAG + i, a);
-			}
-
-			String qstr = strfield(query, fieldName);
-			StringCrawler tvc = new StringCrawler(qstr);
-			String[] strs = mapvals.keySet()
-					.toArray(new String[mapvals.size()]);
-			Arrays.sort(strs, tvc);
-			found = new Artifact[strs.length];
-
-			// Copy into the result array top-down so that most relevant results
-			// are at front of array.
-			// Irrelevant results are weeded out by the call to isRelevant()
-			int fc = 0;
-			for (int i = strs.length - 1; i >= 0; i--) {
-				if (tvc.isRelevant(strs[i])) {
-					found[fc] = mapvals.get(strs[i]);
-					fc++;
-				}
-			}
-			found = Arrays.copyOf(found, fc);
+	public Artifact[] searchByField(final StringField field, final Artifact query) {
+		String qstr = field.get(query);
+		if (qstr == null) {
+			throw (new IllegalArgumentException(
+					"initialized query value cannot be null"));
 		}
+		return cache.get(QueryCache.stringKey(field, TextIndex.terms(qstr)), snapshot,
+				new QueryCache.Search() {
+
+					@Override
+					public Artifact[] run(DatabaseSnapshot snap) {
+						return snap.searchByField(field, query);
+					}
 
-		return found;
+				});
 	}
 
 	/**
-	 * <Internal Method> Convenience method to fetch field value from object.
-	 * 
-	 * @param a
-	 * @param name
-	 *            name of the field
-	 * @return value of the field
+	 * Search the database with a query combining several fields.
+	 * @param query
+	 * @return the matching Artifacts, most relevant first.
+	 * @see DatabaseSnapshot#search(SearchQuery)
 	 */
-	private TimeSpec timefield(Artifact a, String name) {
-		TimeSpec ts = null;
-		try {
-			ts = (TimeSpec) a.getClass().getField(name).get(a);
-		} catch (SecurityException e) {
-			e.printStackTrace();
-		} catch (NoSuchFieldException e) {
-			e.printStackTrace();
-		} catch (IllegalArgumentException e) {
-			e.printStackTrace();
-		} catch (IllegalAccessException e) {
-			e.printStackTrace();
-		}
-		return ts;
+	public Artifact[] search(SearchQuery query) {
+		return snapshot.search(query);
 	}
 
 	/**
-	 * <Internal Method> Convenience method to fetch field value from object.
-	 * 
-	 * @param a
-	 * @param name
-	 *            name of the field
-	 * @return value of the field
+	 * Search the database with a query combining several fields, returning only the first page of
+	 * results.
+	 * @param query
+	 * @param limit the maximum number of results on the page
+	 * @return
+	 * @see DatabaseSnapshot#search(SearchQuery, int)
 	 */
-	private String strfield(Artifact a, String name) {
-		String str = null;
-		try {
-			str = (String) a.getClass().getField(name).get(a);
-		} catch (SecurityException e) {
-			e.printStackTrace();
-		} catch (NoSuchFieldException e) {
-			e.printStackTrace();
-		} catch (IllegalArgumentException e) {
-			e.printStackTrace();
-		} catch (IllegalAccessException e) {
-			e.printStackTrace();
-		}
-		return str;
+	public SearchPage search(SearchQuery query, int limit) {
+		return snapshot.search(query, limit);
 	}
 
 	/**
-	 * Compares Artifact objects by accession number. No other fields are checked.
-	 * 
-	 * @author Brian Groenke
-	 * 
+	 * Counts the Artifacts in the database with each value of the facet.
+	 * @param facet
+	 * @return
+	 * @see DatabaseSnapshot#facets(Facet)
 	 */
-	private static class ArtifactComparator implements Comparator<Artifact> {
-
-		@Override
-		public int compare(Artifact o1, Artifact o2) {
-			return o1.accNum.compareTo(o2.accNum);
-		}
-
+	public FacetCounts facets(Facet facet) {
+		return snapshot.facets(facet);
 	}
 
 	/**
-	 * Provides a String evaluation and 2v1 comparison algorithm for finding relevant String based search results.
-	 * @author Brian Groenke
-	 *
+	 * Counts the results of the query with each value of the facet.
+	 * @param facet
+	 * @param query
+	 * @return
+	 * @see DatabaseSnapshot#facets(Facet, SearchQuery)
 	 */
-	private static class StringCrawler extends DatabaseCrawler<String> {
-
-		private final String[] COMMON = new String[] { "the", "a", "of", "an",
-				"and", "but" };
-
-		protected StringCrawler(String a) {
-			super(a);
-			Arrays.sort(COMMON);
-		}
-
-		/**
-		 * Uses <code>_compare(String)</code> to see which String has a greater number of
-		 * patterns in the query.
-		 */
-		@Override
-		public int compare(String a, String b) {
-			a = a.substring(0, a.indexOf(UNIQUE_ID_FLAG));
-			b = b.substring(0, b.indexOf(UNIQUE_ID_FLAG));
-			int aptn = 0, bptn = 0;
-			aptn = _compare(a);
-			bptn = _compare(b);
-
-			if (aptn > bptn) {
-				return 1;
-			} else if (aptn == bptn) {
-				return 0;
-			} else {
-				return -1;
-			}
-		}
-
-		@Override
-		public boolean isRelevant(String a) {
-			a = a.substring(0, a.indexOf(UNIQUE_ID_FLAG));
-			int aptn = _compare(a);
-			return aptn >= 1;
-		}
-
-		/**
-		 * Search algorithm that compares the given String value to the query.
-		 * The query is split up by whitespace into separate words.  Then <code>indexOf</code> is
-		 * called repeatedly on <code>a</code> to find each occurrence.  The total number of recorded
-		 * occurrences for each part of the query is returned.
-		 * @param a
-		 * @return
-		 */
-		private int _compare(String a) {
-			String query = removeDoubleWhitespace(this.query.toLowerCase());
-			a = removeDoubleWhitespace(a.toLowerCase());
-
-			int aptn = 0;
-			String[] qpts = query.split("\\s+");
-			for(String s:qpts) {
-				if(Arrays.binarySearch(COMMON, s) >= 0)
-					continue;
-				int next = -1;
-				while((next=a.indexOf(s, next + 1)) >= 0) {
-					aptn++;
-				}
-			}
-
-			return aptn;
-		}
-
-		/**
-		 * Removes double whitespace from the String to prevent the algorithm from getting messed up.
-		 * @param str
-		 * @return
-		 */
-		private String removeDoubleWhitespace(String str) {
-			StringBuilder sb = new StringBuilder();
-			boolean lsw = false;
-			for (char c : str.toCharArray()) {
-				if (!lsw) {
-					sb.append(c);
-				}
-				if (Character.isWhitespace(c) && (c != '\n' && c != '\r')) {
-					lsw = true;
-				} else if (lsw) {
-					lsw = false;
-					sb.append(c);
-				}
-			}
-
-			return sb.toString();
-		}
+	public FacetCounts facets(Facet facet, SearchQuery query) {
+		return snapshot.facets(facet, query);
+	}
 
+	/**
+	 * Returns the page of search results that follows the cursor.
+	 * @param cursor
+	 * @return
+	 * @see SearchPage#getNext()
+	 */
+	public SearchPage search(SearchPage.Cursor cursor) {
+		return snapshot.search(cursor);
 	}
 
 	/**
-	 * Provides a simple method for comparing time related aspects of Artifacts and searching the Database for relevant results.
+	 * Compares Artifact objects by accession number. No other fields are checked.
+	 * 
 	 * @author Brian Groenke
-	 *
+	 * 
 	 */
-	private static class TimeValueCrawler extends DatabaseCrawler<TimeSpec> {
-
-		protected TimeValueCrawler(TimeSpec a) {
-			super(a);
-		}
+	static class ArtifactComparator implements Comparator<Artifact> {
 
 		@Override
-		public int compare(TimeSpec a, TimeSpec b) {
-			long adiff = a.getStartDate().compareTo(query.getStartDate())
-					+ a.getEndDate().compareTo(query.getEndDate());
-			long bdiff = b.getStartDate().compareTo(query.getStartDate())
-					+ b.getEndDate().compareTo(query.getEndDate());
-			if (adiff == bdiff) {
-				return 0;
-			} else if (adiff < bdiff) {
-				return 1;
-			} else {
-				return -1;
-			}
+		public int compare(Artifact o1, Artifact o2) {
+			return o1.accNum.compareTo(o2.accNum);
 		}
 
-		@Override
-		public boolean isRelevant(TimeSpec a) {
-			return a.contains(query) || query.contains(a);
-		}
 	}
 
 	public static enum TimeSearchFormat {
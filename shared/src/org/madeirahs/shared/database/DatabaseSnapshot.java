@@ -0,0 +1,908 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.madeirahs.shared.Artifact;
+import org.madeirahs.shared.Artifact.StringField;
+import org.madeirahs.shared.Artifact.TimeField;
+import org.madeirahs.shared.database.ArtifactSorter.Mode;
+import org.madeirahs.shared.database.ArtifactSorter.Variable;
+import org.madeirahs.shared.time.TimeSpec;
+
+/**
+ * An immutable, consistent view of a Database at one point in time. Every change to a Database
+ * builds a new version of its index and publishes it as a new snapshot, so a snapshot never
+ * changes once it has been obtained and can be read and searched from any thread without locking,
+ * concurrently with writers.
+ * <br/><br/>
+ * Searches are answered from per-field indexes (see {@link FieldIndexes}). Rather than rebuilding
+ * them for every version, a snapshot reuses the indexes of an earlier version together with the
+ * list of accession numbers changed since then: indexed entries for those Artifacts are ignored
+ * and their current versions are checked directly. A new set of indexes is started once the
+ * number of changes passes a fraction of the Database size.
+ * 
+ * @see Database#snapshot()
+ */
+public final class DatabaseSnapshot {
+
+	static final DatabaseSnapshot EMPTY = new DatabaseSnapshot(AccessionIndex.EMPTY, 0);
+
+	/*
+	 * Minimum number of changes that may be layered over shared indexes; above this, the limit
+	 * is a fraction (1/OVERLAY_DIVISOR) of the Database size.
+	 */
+	private static final int OVERLAY_MIN = 256, OVERLAY_DIVISOR = 32;
+
+	final AccessionIndex index;
+	private final long version;
+
+	private final FieldIndexes base;
+	private final Change changes;
+	private final int nchanges;
+	private volatile Overlay overlay;
+	private final AtomicReferenceArray<FacetCounts> facets = new AtomicReferenceArray<FacetCounts>(
+			Facet.values().length);
+	private final AtomicReferenceArray<Artifact[]> sorted = new AtomicReferenceArray<Artifact[]>(
+			Variable.values().length);
+
+	DatabaseSnapshot(AccessionIndex index, long version) {
+		this(index, version, new FieldIndexes(index), null, 0);
+	}
+
+	private DatabaseSnapshot(AccessionIndex index, long version,
+			FieldIndexes base, Change changes, int nchanges) {
+		this.index = index;
+		this.version = version;
+		this.base = base;
+		this.changes = changes;
+		this.nchanges = nchanges;
+	}
+
+	/**
+	 * <Internal Method> Creates the snapshot that follows this one.
+	 * @param next the index of the new version
+	 * @param changed accession numbers of the Artifacts added, replaced or removed
+	 * @return
+	 */
+	DatabaseSnapshot next(AccessionIndex next, String... changed) {
+		int n = nchanges + changed.length;
+		if (n > Math.max(OVERLAY_MIN, next.size() / OVERLAY_DIVISOR)) {
+			return new DatabaseSnapshot(next, version + 1);
+		}
+		Change c = changes;
+		for (String acc : changed) {
+			c = new Change(acc, c);
+		}
+		return new DatabaseSnapshot(next, version + 1, base, c, n);
+	}
+
+	/**
+	 * Returns the version of this snapshot. Versions increase by one with every change made to the
+	 * Database since it was loaded, so two snapshots with the same version have the same contents.
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the number of Artifacts in this snapshot.
+	 */
+	public int getSize() {
+		return index.size();
+	}
+
+	/**
+	 * Returns a copy of this snapshot's Artifacts in accession order.
+	 * @return
+	 */
+	public Artifact[] getData() {
+		Artifact[] data = index.toArray();
+		return Arrays.copyOf(data, data.length);
+	}
+
+	/**
+	 * @param accNum
+	 * @return the Artifact with the given accession number, or null if there is none.
+	 */
+	public Artifact get(String accNum) {
+		return (accNum != null) ? index.get(accNum) : null;
+	}
+
+	/**
+	 * Returns the Artifacts whose accession numbers are in the range [from, to), in accession
+	 * order. Accession numbers compare as Strings, so "1998.2" comes after "1998.10".
+	 * @param from the smallest accession number to include, or null for no lower bound
+	 * @param to the accession number to stop before, or null for no upper bound
+	 * @return
+	 */
+	public Artifact[] getRange(String from, String to) {
+		ArrayList<Artifact> found = new ArrayList<Artifact>();
+		index.range(from, to, found);
+		return found.toArray(new Artifact[found.size()]);
+	}
+
+	/**
+	 * Returns the Artifacts whose accession numbers start with the prefix, in accession order. A
+	 * prefix such as "1998." selects every item of a year, or "1998.4." every item of a lot.
+	 * @param prefix
+	 * @return
+	 */
+	public Artifact[] getByPrefix(String prefix) {
+		return getRange(prefix, AccessionIndex.prefixEnd(prefix));
+	}
+
+	/**
+	 * Returns an iterator over this snapshot's Artifacts in accession order, starting at the first
+	 * accession number not less than <code>from</code>. Unlike {@link #getData()}, the iterator
+	 * doesn't copy the snapshot, which suits exporting a large Database. The iterator doesn't
+	 * support <code>remove</code>.
+	 * @param from the accession number to start at, or null to start at the beginning
+	 * @return
+	 */
+	public Iterator<Artifact> iterator(String from) {
+		return index.iterator(from, null);
+	}
+
+	/**
+	 * Looks up the specified Artifact's accession number in this snapshot. The value
+	 * returned will be < 0 if nothing was found.
+	 * 
+	 * @param e
+	 * @return a value >= 0 that represents the Artifact's position in accession order (as in
+	 *         <code>getData()</code>) or < 0 if no match was found.
+	 */
+	public int contains(Artifact e) {
+		return (e != null) ? index.rank(e.accNum) : -1;
+	}
+
+	/**
+	 * Returns this snapshot's Artifacts sorted by the given variable, as a read-only list. The
+	 * order is computed once per snapshot and variable from the shared indexes' sort order (see
+	 * {@link SortIndex}), adjusted for the Artifacts changed since, and REVERSE is a view of the
+	 * same order read backward, so switching between modes costs nothing.
+	 * @param var
+	 * @param mode
+	 * @return
+	 * @see ArtifactSorter
+	 */
+	public List<Artifact> getSorted(Variable var, Mode mode) {
+		if (var == null || mode == null) {
+			throw (new IllegalArgumentException("sort variable and mode cannot be null"));
+		}
+		Artifact[] all = sorted.get(var.ordinal());
+		if (all == null) {
+			Overlay ov = overlay();
+			SortIndex si = base.sort(var);
+			BitSet ranks = new BitSet(si.size());
+			ranks.set(0, si.size());
+			for (String acc : ov.stale) {
+				int id = base.id(acc);
+				if (id >= 0) {
+					ranks.clear(si.rank(id));
+				}
+			}
+			all = new Artifact[index.size()];
+			merge(all, si, ranks, var, ov.fresh.clone());
+			sorted.compareAndSet(var.ordinal(), null, all);
+			all = sorted.get(var.ordinal());
+		}
+		return new SortedList(all, mode == Mode.REVERSE);
+	}
+
+	/**
+	 * Sorts the given Artifacts in place as {@link ArtifactSorter} would, but without comparing
+	 * their fields: Artifacts of this snapshot are put in order by marking their positions in the
+	 * shared sort order, and any others (such as results of an earlier snapshot) are sorted on
+	 * their own and merged in. Artifacts with equal keys are kept in accession order, reversed
+	 * along with everything else in REVERSE mode.
+	 * @param data
+	 * @param var
+	 * @param mode
+	 */
+	public void sort(Artifact[] data, Variable var, Mode mode) {
+		if (var == null || mode == null) {
+			throw (new IllegalArgumentException("sort variable and mode cannot be null"));
+		}
+		Overlay ov = overlay();
+		SortIndex si = base.sort(var);
+		BitSet ranks = new BitSet(si.size());
+		ArrayList<Artifact> others = new ArrayList<Artifact>();
+		for (Artifact a : data) {
+			int id = base.find(a);
+			if (id >= 0 && !ranks.get(si.rank(id)) && !ov.stale.contains(a.accNum)) {
+				ranks.set(si.rank(id));
+			} else {
+				others.add(a);
+			}
+		}
+		merge(data, si, ranks, var, others.toArray(new Artifact[others.size()]));
+		if (mode == Mode.REVERSE) {
+			for (int i = 0, j = data.length - 1; i < j; i++, j--) {
+				Artifact a = data[i];
+				data[i] = data[j];
+				data[j] = a;
+			}
+		}
+	}
+
+	/**
+	 * Sorts the given Artifacts in place by the sorter's keys, as {@link #sort(Artifact[],
+	 * Variable, Mode)} does for a single key. Each Artifact's keys are reduced to longs: time
+	 * fields to their start, and String fields to their place among the distinct values of the
+	 * shared sort order (see {@link SortIndex#group(int)}), so the sort compares no Strings.
+	 * Large arrays are sorted in parallel.
+	 * @param data
+	 * @param sorter
+	 */
+	public void sort(Artifact[] data, ArtifactSorter sorter) {
+		if (sorter.keys() == 1) {
+			sort(data, sorter.var(0), sorter.mode(0));
+			return;
+		}
+		Overlay ov = overlay();
+		Artifact[] docs = base.docs();
+		// shared documents get their id; others get -1 - their position among the others in
+		// accession order
+		int[] ids = new int[data.length];
+		ArrayList<Artifact> others = new ArrayList<Artifact>();
+		ArrayList<Integer> positions = new ArrayList<Integer>();
+		for (int i = 0; i < data.length; i++) {
+			Artifact a = data[i];
+			ids[i] = base.find(a);
+			if (ids[i] < 0 || ov.stale.contains(a.accNum)) {
+				others.add(a);
+				positions.add(i);
+			}
+		}
+		Artifact[] other = new Artifact[others.size()];
+		SortKeys byAcc = new SortKeys(other.length, 1);
+		String[] accNums = new String[other.length];
+		for (int j = 0; j < other.length; j++) {
+			accNums[j] = others.get(j).accNum;
+		}
+		byAcc.set(0, accNums, false);
+		int[] accOrder = byAcc.sort();
+		for (int j = 0; j < other.length; j++) {
+			other[j] = others.get(accOrder[j]);
+			ids[positions.get(accOrder[j])] = -1 - j;
+		}
+
+		SortKeys keys = new SortKeys(data.length, sorter.keys() + 1);
+		for (int k = 0; k < sorter.keys(); k++) {
+			Variable var = sorter.var(k);
+			long[] col = new long[data.length];
+			if (var.time != null) {
+				for (int i = 0; i < data.length; i++) {
+					col[i] = SortIndex.start(var.time.get(data[i]));
+				}
+			} else {
+				SortIndex si = base.sort(var), oi = new SortIndex(var, other);
+				for (int i = 0; i < data.length; i++) {
+					int id = ids[i];
+					col[i] = (id >= 0) ? 2L * si.group(id) : si.position(oi, -1 - id);
+				}
+			}
+			if (sorter.mode(k) == Mode.REVERSE) {
+				for (int i = 0; i < col.length; i++) {
+					col[i] = ~col[i];
+				}
+			}
+			keys.set(k, col);
+		}
+		// ties in accession order: others go in the gap after the shared document before them
+		// (or with the same number), ordered among themselves
+		long gap = other.length + 1;
+		long[] acc = new long[data.length];
+		for (int i = 0; i < data.length; i++) {
+			int id = ids[i];
+			if (id >= 0) {
+				acc[i] = id * gap;
+			} else {
+				String accNum = other[-1 - id].accNum;
+				int lb = base.lowerBound(accNum);
+				if (lb == docs.length || !docs[lb].accNum.equals(accNum)) {
+					lb--;
+				}
+				acc[i] = lb * gap - id;
+			}
+			if (sorter.mode(0) == Mode.REVERSE) {
+				acc[i] = ~acc[i];
+			}
+		}
+		keys.set(sorter.keys(), acc);
+
+		int[] order = keys.sort();
+		Artifact[] sorted = new Artifact[data.length];
+		for (int i = 0; i < order.length; i++) {
+			sorted[i] = data[order[i]];
+		}
+		System.arraycopy(sorted, 0, data, 0, data.length);
+	}
+
+	/**
+	 * <Internal Method> Writes the shared documents at the marked positions of the sort order,
+	 * merged with the other Artifacts, to <code>out</code> in ascending order. The others are
+	 * reordered.
+	 */
+	private void merge(Artifact[] out, SortIndex si, BitSet ranks, Variable var,
+			Artifact[] others) {
+		Artifact[] docs = base.docs();
+		// ties are broken by id, which is then accession order as for the shared documents
+		Arrays.sort(others, new Database.ArtifactComparator());
+		SortIndex oi = new SortIndex(var, others);
+		int n = 0, j = 0;
+		for (int r = ranks.nextSetBit(0); r >= 0; r = ranks.nextSetBit(r + 1)) {
+			int id = si.doc(r);
+			while (j < oi.size()) {
+				Artifact o = others[oi.doc(j)];
+				int c = oi.compare(oi.doc(j), si, id);
+				if (c > 0 || (c == 0 && o.accNum.compareTo(docs[id].accNum) >= 0)) {
+					break;
+				}
+				out[n++] = o;
+				j++;
+			}
+			out[n++] = docs[id];
+		}
+		while (j < oi.size()) {
+			out[n++] = others[oi.doc(j++)];
+		}
+	}
+
+	/**
+	 * Search the database for the specified time attribute of the given Artifact. An Artifact is
+	 * relevant if its time span contains the query's or lies within it; a DateTime is a single
+	 * instant, and a TimeFrame without a start or end is open-ended on that side.  Results that
+	 * fit the query on both ends come first, then those that extend past it on one end, then those
+	 * inside it; ties are ranked by how far their start and end are from the query's.  Results are
+	 * looked up in the field's interval index.
+	 * @param field denotes which time-related Artifact attribute to obtain.
+	 * @param query the Artifact to be used as the query; only the specified field will be evaluated
+	 * @return an array of relevant search results.
+	 * @see IntervalIndex
+	 */
+	public Artifact[] searchByField(TimeField field, Artifact query) {
+		TimeSpec qspec = field.get(query);
+		if (qspec == null) {
+			throw (new IllegalArgumentException(
+					"initialized query value cannot be null"));
+		}
+		long qs = IntervalIndex.start(qspec), qe = IntervalIndex.end(qspec);
+		Overlay ov = overlay();
+		Artifact[] docs = base.docs();
+		IntervalIndex ii = base.time(field);
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		ii.related(qs, qe, ids);
+
+		ArrayList<TimeHit> hits = new ArrayList<TimeHit>(ids.size());
+		for (int id : ids) {
+			Artifact a = docs[id];
+			if (!ov.stale.contains(a.accNum)) {
+				hits.add(new TimeHit(a, ii.start(id), ii.end(id), qs, qe));
+			}
+		}
+		for (Artifact a : ov.fresh) {
+			TimeSpec ts = field.get(a);
+			if (ts == null) {
+				continue;
+			}
+			long as = IntervalIndex.start(ts), ae = IntervalIndex.end(ts);
+			if (IntervalIndex.related(as, ae, qs, qe)) {
+				hits.add(new TimeHit(a, as, ae, qs, qe));
+			}
+		}
+		Collections.sort(hits);
+		Artifact[] found = new Artifact[hits.size()];
+		for (int i = 0; i < found.length; i++) {
+			found[i] = hits.get(i).artifact;
+		}
+		return found;
+	}
+
+	/**
+	 * Search the database for the specified time attribute of the given Artifact, using
+	 * the String representation of the time instead of absolute time comparison.  Results are
+	 * found and ranked the same way as by {@link #searchByField(StringField, Artifact)}, matching
+	 * the words of the query's time representation against each Artifact's.  No index applies, so
+	 * every Artifact is checked; large Databases are scanned in parallel.
+	 * @param field denotes which time-related Artifact attribute to obtain.
+	 * @param query the Artifact to be used as the query; only the specified field will be evaluated
+	 * @return an array of relevant search results.
+	 * @see #searchByField(TimeField, Artifact) #searchByField(StringField, Artifact)
+	 */
+	public Artifact[] searchByFieldHybrid(TimeField field, Artifact query) {
+		TimeSpec qspec = field.get(query);
+		if (qspec == null) {
+			throw (new IllegalArgumentException(
+					"initialized query value cannot be null"));
+		}
+		return rank(index.toArray(), field, TextIndex.terms(qspec.toString()),
+				Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the first <code>limit</code> results of
+	 * {@link #searchByFieldHybrid(TimeField, Artifact)}. The scan keeps only the best results of
+	 * each slice, so this is cheaper than taking the first results of the full array.
+	 * @param field denotes which time-related Artifact attribute to obtain.
+	 * @param query the Artifact to be used as the query; only the specified field will be evaluated
+	 * @param limit the maximum number of results to return; must be at least 1.
+	 * @return the most relevant results, most relevant first.
+	 */
+	public Artifact[] searchByFieldHybrid(TimeField field, Artifact query, int limit) {
+		TimeSpec qspec = field.get(query);
+		if (qspec == null) {
+			throw (new IllegalArgumentException(
+					"initialized query value cannot be null"));
+		}
+		if (limit < 1) {
+			throw (new IllegalArgumentException("limit must be at least 1"));
+		}
+		return rank(index.toArray(), field, TextIndex.terms(qspec.toString()), limit);
+	}
+
+	/**
+	 * Search the database for the specified String attribute of the given Artifact. The query is
+	 * split into words (ignoring common words such as "the" and "of"), and an Artifact is relevant
+	 * if any word occurs in its value.  Results are ranked by the total number of occurrences,
+	 * most relevant first, and are looked up in the field's inverted index.
+	 * @param field denotes which Artifact String attribute to obtain.
+	 * @param query the Artifact to be used as the query; only the specified field will be evaluated
+	 * @return
+	 * @see TextIndex
+	 */
+	public Artifact[] searchByField(StringField field, Artifact query) {
+		String qstr = field.get(query);
+		if (qstr == null) {
+			throw (new IllegalArgumentException(
+					"initialized query value cannot be null"));
+		}
+		String[] terms = TextIndex.terms(qstr);
+		Overlay ov = overlay();
+		Artifact[] docs = base.docs();
+		HashMap<Integer, int[]> scores = new HashMap<Integer, int[]>();
+		base.text(field).score(terms, scores);
+
+		ArrayList<Hit> hits = new ArrayList<Hit>(scores.size());
+		for (Map.Entry<Integer, int[]> e : scores.entrySet()) {
+			Artifact a = docs[e.getKey()];
+			if (!ov.stale.contains(a.accNum)) {
+				hits.add(new Hit(a, e.getValue()[0]));
+			}
+		}
+		for (Artifact a : ov.fresh) {
+			int score = TextIndex.count(a.searchKeys().normalized(field), terms);
+			if (score > 0) {
+				hits.add(new Hit(a, score));
+			}
+		}
+		return Hit.toArray(hits);
+	}
+
+	/**
+	 * Runs a boolean query against the snapshot. Results are ranked by their combined score (see
+	 * {@link SearchQuery}), most relevant first, then in accession order.
+	 * @param query
+	 * @return the matching Artifacts.
+	 */
+	public Artifact[] search(SearchQuery query) {
+		Overlay ov = overlay();
+		QueryContext ctx = new QueryContext(base, ov.stale, ov.fresh);
+		QueryContext.Matches m = query.evaluate(ctx);
+		ArrayList<Hit> hits = new ArrayList<Hit>(m.size());
+		for (int i = 0; i < m.size(); i++) {
+			hits.add(new Hit(ctx.doc(m.id(i)), m.score(i)));
+		}
+		return Hit.toArray(hits);
+	}
+
+	/**
+	 * Runs a boolean query against the snapshot and returns only the first <code>limit</code>
+	 * results, ranked as by {@link #search(SearchQuery)}. The best results are kept in a bounded
+	 * heap as the matches are scored, so the cost of ranking grows with the page size rather than
+	 * with the number of matches.
+	 * @param query
+	 * @param limit the maximum number of results on the page; must be at least 1.
+	 * @return the first page of results.
+	 */
+	public SearchPage search(SearchQuery query, int limit) {
+		if (limit < 1) {
+			throw (new IllegalArgumentException("limit must be at least 1"));
+		}
+		return page(query, limit, null);
+	}
+
+	/**
+	 * Returns the page of results that follows the cursor, with the same query and page size as
+	 * the page it was obtained from.
+	 * @param cursor
+	 * @return
+	 * @see SearchPage#getNext()
+	 */
+	public SearchPage search(SearchPage.Cursor cursor) {
+		return page(cursor.query, cursor.limit, cursor);
+	}
+
+	/**
+	 * <Internal Method> Selects the best <code>limit</code> matches that rank after the cursor (if
+	 * any) with a heap whose head is the worst result kept so far.
+	 */
+	private SearchPage page(SearchQuery query, int limit, SearchPage.Cursor after) {
+		Overlay ov = overlay();
+		QueryContext ctx = new QueryContext(base, ov.stale, ov.fresh);
+		QueryContext.Matches m = query.evaluate(ctx);
+		PriorityQueue<Hit> heap = new PriorityQueue<Hit>(limit + 1,
+				Collections.reverseOrder());
+		int remaining = 0;
+		for (int i = 0; i < m.size(); i++) {
+			Artifact a = ctx.doc(m.id(i));
+			int score = m.score(i);
+			if (after != null && !after.ranksAfter(score, a.accNum)) {
+				continue;
+			}
+			remaining++;
+			if (heap.size() < limit) {
+				heap.add(new Hit(a, score));
+			} else if (heap.peek().ranksAfter(score, a)) {
+				heap.poll();
+				heap.add(new Hit(a, score));
+			}
+		}
+		Hit[] top = heap.toArray(new Hit[heap.size()]);
+		Arrays.sort(top);
+		Artifact[] results = new Artifact[top.length];
+		for (int i = 0; i < top.length; i++) {
+			results[i] = top[i].artifact;
+		}
+		SearchPage.Cursor next = null;
+		if (remaining > top.length) {
+			Hit last = top[top.length - 1];
+			next = new SearchPage.Cursor(query, limit, last.score, last.artifact.accNum);
+		}
+		return new SearchPage(results, m.size(), next);
+	}
+
+	/**
+	 * Counts the Artifacts in this snapshot with each value of the facet. Counts are computed once
+	 * per snapshot: the groups of the shared indexes (see {@link FacetIndex}) are counted when they
+	 * are built, and each snapshot only adjusts them for the Artifacts changed since.
+	 * @param facet
+	 * @return
+	 */
+	public FacetCounts facets(Facet facet) {
+		FacetCounts fc = facets.get(facet.ordinal());
+		if (fc == null) {
+			facets.compareAndSet(facet.ordinal(), null, countFacet(facet, null));
+			fc = facets.get(facet.ordinal());
+		}
+		return fc;
+	}
+
+	/**
+	 * Counts the results of a query with each value of the facet, in one pass over the matching
+	 * documents.
+	 * @param facet
+	 * @param query
+	 * @return
+	 */
+	public FacetCounts facets(Facet facet, SearchQuery query) {
+		if (query == null) {
+			throw (new IllegalArgumentException("query cannot be null"));
+		}
+		return countFacet(facet, query);
+	}
+
+	/**
+	 * <Internal Method> Counts the matches of the query, or the whole snapshot if the query is
+	 * null. Changed Artifacts may have values the shared index hasn't seen; they're counted
+	 * separately and appended.
+	 */
+	private FacetCounts countFacet(Facet facet, SearchQuery query) {
+		Overlay ov = overlay();
+		QueryContext ctx = new QueryContext(base, ov.stale, ov.fresh);
+		FacetIndex fi = base.facet(facet);
+		int[] counts;
+		ArrayList<Artifact> fresh = new ArrayList<Artifact>();
+		if (query == null) {
+			counts = fi.counts();
+			for (int id = ctx.nextStale(0); id >= 0; id = ctx.nextStale(id + 1)) {
+				fi.uncount(id, counts);
+			}
+			fresh.addAll(Arrays.asList(ov.fresh));
+		} else {
+			QueryContext.Matches m = query.evaluate(ctx);
+			counts = new int[fi.size()];
+			for (int i = 0; i < m.size(); i++) {
+				int id = m.id(i);
+				if (id < ctx.docs.length) {
+					fi.count(id, counts);
+				} else {
+					fresh.add(ctx.doc(id));
+				}
+			}
+		}
+
+		ArrayList<String> keys = new ArrayList<String>(), labels = new ArrayList<String>();
+		for (int g = 0; g < fi.size(); g++) {
+			keys.add(fi.key(g));
+			labels.add(fi.label(g));
+		}
+		HashMap<String, Integer> added = new HashMap<String, Integer>();
+		ArrayList<String> found = new ArrayList<String>();
+		Calendar cal = new GregorianCalendar();
+		for (Artifact a : fresh) {
+			found.clear();
+			facet.keys(a, cal, found);
+			for (String k : found) {
+				int g = fi.group(k);
+				if (g < 0) {
+					Integer n = added.get(k);
+					if (n == null) {
+						n = keys.size();
+						added.put(k, n);
+						keys.add(k);
+						labels.add(facet.label(k, a));
+					}
+					g = n;
+				}
+				if (g >= counts.length) {
+					counts = Arrays.copyOf(counts, Math.max(g + 1, counts.length * 2));
+				}
+				counts[g]++;
+			}
+		}
+		return new FacetCounts(facet, keys.toArray(new String[keys.size()]),
+				labels.toArray(new String[labels.size()]), counts);
+	}
+
+	/**
+	 * <Internal Method> Scores the given Artifacts against the query terms without using an
+	 * index, ranking them as {@link #searchByField(StringField, Artifact)} does. Large arrays are
+	 * scanned in parallel (see {@link ParallelScan}).
+	 * @param candidates
+	 * @param field
+	 * @param terms query terms, as returned by {@link TextIndex#terms(String)}
+	 * @return the relevant candidates, most relevant first.
+	 */
+	static Artifact[] rank(Artifact[] candidates, final StringField field,
+			final String[] terms) {
+		return ParallelScan.rank(candidates, new ParallelScan.Scorer() {
+
+			@Override
+			public int score(Artifact a) {
+				return TextIndex.count(a.searchKeys().normalized(field), terms);
+			}
+
+		}, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * <Internal Method> Scores the String representations of the given Artifacts' time field
+	 * against the query terms, ranking them as {@link #searchByFieldHybrid(TimeField, Artifact)}
+	 * does. Large arrays are scanned in parallel (see {@link ParallelScan}).
+	 * @param candidates
+	 * @param field
+	 * @param terms query terms, as returned by {@link TextIndex#terms(String)}
+	 * @param limit the maximum number of results to return
+	 * @return the relevant candidates, most relevant first.
+	 */
+	static Artifact[] rank(Artifact[] candidates, final TimeField field,
+			final String[] terms, int limit) {
+		return ParallelScan.rank(candidates, new ParallelScan.Scorer() {
+
+			@Override
+			public int score(Artifact a) {
+				return TextIndex.count(a.searchKeys().normalized(field), terms);
+			}
+
+		}, limit);
+	}
+
+	/**
+	 * <Internal Method> Resolves the changes layered over the shared indexes into the set of
+	 * accession numbers whose indexed entries are out of date, and the current versions of those
+	 * Artifacts that still exist.
+	 * @return
+	 */
+	private Overlay overlay() {
+		Overlay ov = overlay;
+		if (ov == null) {
+			HashSet<String> stale = new HashSet<String>();
+			for (Change c = changes; c != null; c = c.next) {
+				stale.add(c.accNum);
+			}
+			ArrayList<Artifact> fresh = new ArrayList<Artifact>();
+			for (String acc : stale) {
+				Artifact a = index.get(acc);
+				if (a != null) {
+					fresh.add(a);
+				}
+			}
+			ov = new Overlay(stale, fresh.toArray(new Artifact[fresh.size()]));
+			overlay = ov;
+		}
+		return ov;
+	}
+
+	/**
+	 * Node of the list of accession numbers changed since the shared indexes were built.
+	 */
+	private static final class Change {
+
+		final String accNum;
+		final Change next;
+
+		Change(String accNum, Change next) {
+			this.accNum = accNum;
+			this.next = next;
+		}
+	}
+
+	private static final class Overlay {
+
+		final HashSet<String> stale;
+		final Artifact[] fresh;
+
+		Overlay(HashSet<String> stale, Artifact[] fresh) {
+			this.stale = stale;
+			this.fresh = fresh;
+		}
+	}
+
+	/**
+	 * Read-only view of a sorted array, optionally read from the end.
+	 */
+	private static final class SortedList extends AbstractList<Artifact> implements
+			RandomAccess {
+
+		private final Artifact[] sorted;
+		private final boolean reverse;
+
+		SortedList(Artifact[] sorted, boolean reverse) {
+			this.sorted = sorted;
+			this.reverse = reverse;
+		}
+
+		@Override
+		public Artifact get(int i) {
+			if (i < 0 || i >= sorted.length) {
+				throw (new IndexOutOfBoundsException(String.valueOf(i)));
+			}
+			return sorted[reverse ? sorted.length - 1 - i : i];
+		}
+
+		@Override
+		public int size() {
+			return sorted.length;
+		}
+	}
+
+	/**
+	 * A search result and its relevance score. Hits sort by descending score, then in accession
+	 * order.
+	 */
+	static final class Hit implements Comparable<Hit> {
+
+		final Artifact artifact;
+		final int score;
+
+		Hit(Artifact artifact, int score) {
+			this.artifact = artifact;
+			this.score = score;
+		}
+
+		@Override
+		public int compareTo(Hit o) {
+			if (score != o.score) {
+				return (score > o.score) ? -1 : 1;
+			}
+			return artifact.accNum.compareTo(o.artifact.accNum);
+		}
+
+		/**
+		 * Tests whether this hit ranks after a result with the given score, without creating a Hit
+		 * for it.
+		 */
+		boolean ranksAfter(int score, Artifact a) {
+			if (score != this.score) {
+				return score > this.score;
+			}
+			return a.accNum.compareTo(artifact.accNum) < 0;
+		}
+
+		static Artifact[] toArray(ArrayList<Hit> hits) {
+			Collections.sort(hits);
+			Artifact[] found = new Artifact[hits.size()];
+			for (int i = 0; i < found.length; i++) {
+				found[i] = hits.get(i).artifact;
+			}
+			return found;
+		}
+	}
+
+	/**
+	 * A time search result. Hits sort by how the result's span lines up with the query's (the sum
+	 * of the signs of start - query start and end - query end, lowest first), then by the total
+	 * distance between the two spans' ends, then in accession order.
+	 */
+	private static final class TimeHit implements Comparable<TimeHit> {
+
+		final Artifact artifact;
+		final int rank;
+		final double dist;
+
+		TimeHit(Artifact artifact, long start, long end, long qs, long qe) {
+			this.artifact = artifact;
+			this.rank = sign(start, qs) + sign(end, qe);
+			this.dist = distance(start, qs) + distance(end, qe);
+		}
+
+		@Override
+		public int compareTo(TimeHit o) {
+			if (rank != o.rank) {
+				return (rank < o.rank) ? -1 : 1;
+			}
+			if (dist != o.dist) {
+				return (dist < o.dist) ? -1 : 1;
+			}
+			return artifact.accNum.compareTo(o.artifact.accNum);
+		}
+
+		private static int sign(long a, long b) {
+			return (a < b) ? -1 : ((a == b) ? 0 : 1);
+		}
+
+		/*
+		 * Computed in floating point so that open ends (infinite bounds) don't overflow.
+		 */
+		private static double distance(long a, long b) {
+			if (a == b) {
+				return 0;
+			}
+			return Math.abs(toDouble(a) - toDouble(b));
+		}
+
+		private static double toDouble(long t) {
+			if (t == IntervalIndex.NEG_INF) {
+				return Double.NEGATIVE_INFINITY;
+			} else if (t == IntervalIndex.POS_INF) {
+				return Double.POSITIVE_INFINITY;
+			}
+			return t;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.madeirahs.shared.Artifact;
+
+/**
+ * The changes made to a Database by a single sync. A delta lists the accession numbers that
+ * were removed and carries the Artifacts that were added or edited as a chunked store, so
+ * its size is proportional to the edit rather than to the whole Database. Layout:
+ * <pre>
+ * int magic ('MHSX'), short version, long base timestamp
+ * int removed count, then the UTF accession number of each removed Artifact
+ * chunked store of added/edited Artifacts (see {@link ChunkedStore})
+ * </pre>
+ * The base timestamp identifies the base store the delta was published against; readers skip
+ * deltas that don't belong to the base they loaded.
+ */
+class DeltaSegment {
+
+	static final int MAGIC = 0x4D485358, VERSION = 1;
+
+	final long baseTimestamp;
+	final String[] removed;
+	final ChunkedStore.Contents upserts;
+
+	private DeltaSegment(long baseTimestamp, String[] removed,
+			ChunkedStore.Contents upserts) {
+		this.baseTimestamp = baseTimestamp;
+		this.removed = removed;
+		this.upserts = upserts;
+	}
+
+	/**
+	 * Writes a delta segment to the stream. The stream is flushed but not closed.
+	 * @param out
+	 * @param store used to encode the added/edited Artifacts
+	 * @param baseTimestamp timestamp of the base store this delta applies to
+	 * @param removed accession numbers of removed Artifacts
+	 * @param upserts added or edited Artifacts, in accession order
+	 * @param timestamp sync time of this delta
+	 * @param user user that committed this delta; may be null
+	 * @throws IOException
+	 */
+	static void write(OutputStream out, ChunkedStore store, long baseTimestamp,
+			String[] removed, Artifact[] upserts, long timestamp, String user)
+			throws IOException {
+		DataOutputStream dout = new DataOutputStream(out);
+		dout.writeInt(MAGIC);
+		dout.writeShort(VERSION);
+		dout.writeLong(baseTimestamp);
+		dout.writeInt(removed.length);
+		for (String acc : removed) {
+			dout.writeUTF(acc);
+		}
+		store.write(dout, upserts, timestamp, user);
+		dout.flush();
+	}
+
+	/**
+	 * Reads a delta segment from the stream. The stream is not closed.
+	 * @param in
+	 * @param store used to decode the added/edited Artifacts
+	 * @return
+	 * @throws IOException
+	 */
+	static DeltaSegment read(InputStream in, ChunkedStore store)
+			throws IOException {
+		DataInputStream din = new DataInputStream(in);
+		if (din.readInt() != MAGIC) {
+			throw (new DatabaseException("not a database delta"));
+		}
+		int version = din.readUnsignedShort();
+		if (version > VERSION) {
+			throw (new DatabaseException("unsupported delta version: " + version));
+		}
+		long baseTimestamp = din.readLong();
+		int nremoved = din.readInt();
+		if (nremoved < 0) {
+			throw (new DatabaseException("corrupt delta removal count: "
+					+ nremoved));
+		}
+		String[] removed = new String[nremoved];
+		for (int i = 0; i < nremoved; i++) {
+			removed[i] = din.readUTF();
+		}
+		return new DeltaSegment(baseTimestamp, removed, store.read(din));
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.madeirahs.shared.Artifact;
+import org.madeirahs.shared.Artifact.StringField;
+import org.madeirahs.shared.Artifact.TimeField;
+import org.madeirahs.shared.SearchKeys;
+import org.madeirahs.shared.time.TimeSpec;
+
+/**
+ * The attributes Artifacts can be grouped by when browsing. A String facet groups Artifacts by
+ * the value of the field, ignoring case and extra whitespace; a decade facet puts an Artifact in
+ * every decade its time span touches (a span without a start or end only counts in the decade of
+ * the bound it has). Values are named as they are first found in the Database for String facets,
+ * and like "1990s" for decades.
+ *
+ * @see Database#facets(Facet)
+ */
+public enum Facet {
+	MEDIUM(StringField.MEDIUM, null), DONOR(StringField.DONOR, null), OBJECT_DECADE(
+			null, TimeField.OBJECT_DATE), SUBMISSION_DECADE(null,
+			TimeField.SUBMISSION_DATE);
+
+	private final StringField string;
+	private final TimeField time;
+
+	Facet(StringField string, TimeField time) {
+		this.string = string;
+		this.time = time;
+	}
+
+	/**
+	 * @return true if the values of this facet are decades.
+	 */
+	public boolean isDecade() {
+		return time != null;
+	}
+
+	/**
+	 * <Internal Method> Adds the keys of the groups the Artifact belongs to. Keys of String
+	 * facets are normalized values; keys of decade facets are the first year of each decade.
+	 * @param a
+	 * @param cal used to find the years of a time span, and reset by every call; may be null.
+	 * @param keys
+	 */
+	void keys(Artifact a, Calendar cal, ArrayList<String> keys) {
+		if (string != null) {
+			String norm = a.searchKeys().normalized(string);
+			if (norm != null && norm.trim().length() > 0) {
+				keys.add(norm.trim());
+			}
+			return;
+		}
+		TimeSpec ts = time.get(a);
+		if (ts == null) {
+			return;
+		}
+		long start = IntervalIndex.start(ts), end = IntervalIndex.end(ts);
+		if (start == IntervalIndex.NEG_INF) {
+			start = end;
+		} else if (end == IntervalIndex.POS_INF) {
+			end = start;
+		}
+		if (start == IntervalIndex.NEG_INF) {
+			return;
+		}
+		if (cal == null) {
+			cal = new GregorianCalendar();
+		}
+		for (int d = decade(start, cal), last = decade(end, cal); d <= last; d += 10) {
+			keys.add(String.valueOf(d));
+		}
+	}
+
+	/**
+	 * <Internal Method> Converts a value, as named by {@link #label(String, Artifact)}, to its
+	 * key.
+	 */
+	String key(String value) {
+		if (string != null) {
+			return SearchKeys.normalize(value).trim();
+		}
+		return value.endsWith("s") ? value.substring(0, value.length() - 1) : value;
+	}
+
+	/**
+	 * <Internal Method> Names the group with the given key.
+	 * @param key
+	 * @param a an Artifact in the group
+	 */
+	String label(String key, Artifact a) {
+		if (string != null) {
+			return string.get(a).trim();
+		}
+		return key + "s";
+	}
+
+	private static int decade(long millis, Calendar cal) {
+		cal.setTimeInMillis(millis);
+		int year = cal.get(Calendar.YEAR);
+		if (cal.get(Calendar.ERA) == GregorianCalendar.BC) {
+			// 1 BC is year 0
+			year = 1 - year;
+		}
+		return (int) Math.floor(year / 10.0) * 10;
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * The number of Artifacts with each value of a {@link Facet}, among the whole Database or the
+ * results of a query. Only values with at least one Artifact are listed. Decades are listed in
+ * chronological order; other values are listed most frequent first, then alphabetically.
+ *
+ * @see Database#facets(Facet) Database#facets(Facet, SearchQuery)
+ */
+public final class FacetCounts {
+
+	private final Facet facet;
+	private final String[] values;
+	private final int[] counts;
+	private final HashMap<String, Integer> byKey = new HashMap<String, Integer>();
+
+	/**
+	 * @param facet
+	 * @param keys the key of each value
+	 * @param labels the name of each value
+	 * @param counts the count of each value; values with a count of 0 are left out.
+	 */
+	FacetCounts(Facet facet, String[] keys, String[] labels, int[] counts) {
+		this.facet = facet;
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		for (int i = 0; i < keys.length; i++) {
+			if (counts[i] > 0) {
+				entries.add(new Entry(facet, keys[i], labels[i], counts[i]));
+			}
+		}
+		Collections.sort(entries);
+		this.values = new String[entries.size()];
+		this.counts = new int[entries.size()];
+		for (int i = 0; i < values.length; i++) {
+			Entry e = entries.get(i);
+			values[i] = e.label;
+			this.counts[i] = e.count;
+			byKey.put(e.key, i);
+		}
+	}
+
+	public Facet getFacet() {
+		return facet;
+	}
+
+	/**
+	 * @return the number of distinct values.
+	 */
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * @param i
+	 * @return the name of the i-th value.
+	 */
+	public String getValue(int i) {
+		return values[i];
+	}
+
+	/**
+	 * @param i
+	 * @return the number of Artifacts with the i-th value.
+	 */
+	public int getCount(int i) {
+		return counts[i];
+	}
+
+	/**
+	 * @param value a value as returned by {@link #getValue(int)}; String values are matched
+	 *        ignoring case and extra whitespace.
+	 * @return the number of Artifacts with the value, or 0 if there are none.
+	 */
+	public int getCount(String value) {
+		Integer i = byKey.get(facet.key(value));
+		return (i != null) ? counts[i] : 0;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(facet.toString()).append('{');
+		for (int i = 0; i < values.length; i++) {
+			sb.append((i > 0) ? ", " : "").append(values[i]).append('=').append(counts[i]);
+		}
+		return sb.append('}').toString();
+	}
+
+	private static final class Entry implements Comparable<Entry> {
+
+		final Facet facet;
+		final String key, label;
+		final int count;
+
+		Entry(Facet facet, String key, String label, int count) {
+			this.facet = facet;
+			this.key = key;
+			this.label = label;
+			this.count = count;
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			if (facet.isDecade()) {
+				int d = Integer.parseInt(key), od = Integer.parseInt(o.key);
+				return (d < od) ? -1 : ((d == od) ? 0 : 1);
+			}
+			if (count != o.count) {
+				return (count > o.count) ? -1 : 1;
+			}
+			return label.compareToIgnoreCase(o.label);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+
+import org.madeirahs.shared.Artifact;
+
+/**
+ * Index of the groups (see {@link Facet}) each document belongs to. Groups are numbered in the
+ * order they are first found; for each group the index keeps its key, its name, the number of
+ * documents in it and the ids of those documents in increasing order, and for each document the
+ * groups it is in. Counting the groups of a set of documents is then a single pass over their ids.
+ */
+final class FacetIndex {
+
+	private final String[] keys, labels;
+	private final HashMap<String, Integer> groups = new HashMap<String, Integer>();
+	private final int[] offsets, members;
+	private final int[][] docs;
+
+	/**
+	 * Builds the index.
+	 * @param facet
+	 * @param docs document ids are positions in this array.
+	 */
+	FacetIndex(Facet facet, Artifact[] docs) {
+		Calendar cal = new GregorianCalendar();
+		ArrayList<String> found = new ArrayList<String>();
+		ArrayList<String> keyList = new ArrayList<String>(), labelList = new ArrayList<String>();
+		offsets = new int[docs.length + 1];
+		int[] mem = new int[docs.length];
+		int n = 0;
+		for (int doc = 0; doc < docs.length; doc++) {
+			found.clear();
+			facet.keys(docs[doc], cal, found);
+			for (String k : found) {
+				Integer g = groups.get(k);
+				if (g == null) {
+					g = keyList.size();
+					groups.put(k, g);
+					keyList.add(k);
+					labelList.add(facet.label(k, docs[doc]));
+				}
+				if (n == mem.length) {
+					mem = Arrays.copyOf(mem, Math.max(8, n * 2));
+				}
+				mem[n++] = g;
+			}
+			offsets[doc + 1] = n;
+		}
+		members = Arrays.copyOf(mem, n);
+		keys = keyList.toArray(new String[keyList.size()]);
+		labels = labelList.toArray(new String[labelList.size()]);
+
+		// invert the document -> groups lists
+		int[] groupOf = new int[keys.length];
+		for (int g : members) {
+			groupOf[g]++;
+		}
+		this.docs = new int[keys.length][];
+		for (int g = 0; g < keys.length; g++) {
+			this.docs[g] = new int[groupOf[g]];
+			groupOf[g] = 0;
+		}
+		for (int doc = 0; doc < docs.length; doc++) {
+			for (int i = offsets[doc]; i < offsets[doc + 1]; i++) {
+				int g = members[i];
+				this.docs[g][groupOf[g]++] = doc;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of groups.
+	 */
+	int size() {
+		return keys.length;
+	}
+
+	String key(int group) {
+		return keys[group];
+	}
+
+	String label(int group) {
+		return labels[group];
+	}
+
+	/**
+	 * @return the ids of the documents in the group, in increasing order. Must not be modified.
+	 */
+	int[] docs(int group) {
+		return docs[group];
+	}
+
+	/**
+	 * @param key
+	 * @return the group with the given key, or -1 if no document is in it.
+	 */
+	int group(String key) {
+		Integer g = groups.get(key);
+		return (g != null) ? g : -1;
+	}
+
+	/**
+	 * Adds one to the count of each group the document is in.
+	 * @param doc
+	 * @param counts indexed by group
+	 */
+	void count(int doc, int[] counts) {
+		for (int i = offsets[doc]; i < offsets[doc + 1]; i++) {
+			counts[members[i]]++;
+		}
+	}
+
+	/**
+	 * Subtracts one from the count of each group the document is in.
+	 * @param doc
+	 * @param counts indexed by group
+	 */
+	void uncount(int doc, int[] counts) {
+		for (int i = offsets[doc]; i < offsets[doc + 1]; i++) {
+			counts[members[i]]--;
+		}
+	}
+
+	/**
+	 * @return the number of documents in each group. The caller owns the array.
+	 */
+	int[] counts() {
+		int[] counts = new int[keys.length];
+		for (int g = 0; g < counts.length; g++) {
+			counts[g] = docs[g].length;
+		}
+		return counts;
+	}
+}
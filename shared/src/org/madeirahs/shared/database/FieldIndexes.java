@@ -0,0 +1,182 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.madeirahs.shared.Artifact;
+import org.madeirahs.shared.Artifact.StringField;
+import org.madeirahs.shared.Artifact.TimeField;
+import org.madeirahs.shared.database.ArtifactSorter.Variable;
+import org.madeirahs.shared.time.TimeSpec;
+
+/**
+ * The search indexes for one version of the Database's contents. Each index is built the first
+ * time it is needed; building is idempotent, so threads that race to build the same index simply
+ * keep whichever copy is published first. Document ids in every index are positions in
+ * {@link #docs()}.
+ * <br/><br/>
+ * Snapshots created by small changes share the FieldIndexes of an earlier version and account
+ * for the Artifacts that changed since (see {@link DatabaseSnapshot}), so the indexes only need to
+ * be rebuilt after many changes.
+ */
+final class FieldIndexes {
+
+	private final AccessionIndex index;
+	private final AtomicReferenceArray<TextIndex> text = new AtomicReferenceArray<TextIndex>(
+			StringField.values().length);
+	private final AtomicReferenceArray<IntervalIndex> time = new AtomicReferenceArray<IntervalIndex>(
+			TimeField.values().length);
+	private final AtomicReferenceArray<FacetIndex> facets = new AtomicReferenceArray<FacetIndex>(
+			Facet.values().length);
+	private final AtomicReferenceArray<SortIndex> sorts = new AtomicReferenceArray<SortIndex>(
+			Variable.values().length);
+	/*
+	 * Open-addressed hash table of document ids by accession number, for find(Artifact); empty
+	 * slots are -1.
+	 */
+	private volatile int[] slots;
+
+	FieldIndexes(AccessionIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * @return the indexed Artifacts in accession order. Must not be modified.
+	 */
+	Artifact[] docs() {
+		return index.toArray();
+	}
+
+	/**
+	 * @param accNum
+	 * @return the document id of the Artifact with the given accession number, or -1 if it
+	 *         isn't indexed.
+	 */
+	int id(String accNum) {
+		return Math.max(-1, index.rank(accNum));
+	}
+
+	/**
+	 * Finds a document by identity. Unlike {@link #id(String)} this doesn't walk the accession
+	 * index, which makes it the cheaper way to look up many Artifacts.
+	 * @param a
+	 * @return the id of the given Artifact object, or -1 if it isn't one of the documents.
+	 */
+	int find(Artifact a) {
+		Artifact[] docs = docs();
+		int[] t = slots;
+		if (t == null) {
+			t = new int[Integer.highestOneBit(Math.max(1, docs.length) * 2) * 2];
+			Arrays.fill(t, -1);
+			for (int id = 0; id < docs.length; id++) {
+				int i = hash(docs[id].accNum) & (t.length - 1);
+				while (t[i] >= 0) {
+					i = (i + 1) & (t.length - 1);
+				}
+				t[i] = id;
+			}
+			slots = t;
+		}
+		for (int i = hash(a.accNum) & (t.length - 1); t[i] >= 0; i = (i + 1) & (t.length - 1)) {
+			if (docs[t[i]] == a) {
+				return t[i];
+			}
+		}
+		return -1;
+	}
+
+	private static int hash(String accNum) {
+		int h = accNum.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @param accNum
+	 * @return the id of the first document whose accession number is not less than the given one,
+	 *         or the number of documents if accNum is null.
+	 */
+	int lowerBound(String accNum) {
+		return index.lowerBound(accNum);
+	}
+
+	/**
+	 * @param field
+	 * @return the inverted index over the given field.
+	 */
+	TextIndex text(StringField field) {
+		TextIndex ti = text.get(field.ordinal());
+		if (ti == null) {
+			Artifact[] docs = docs();
+			String[][] values = new String[docs.length][];
+			for (int i = 0; i < docs.length; i++) {
+				values[i] = docs[i].searchKeys().tokens(field);
+			}
+			text.compareAndSet(field.ordinal(), null, new TextIndex(values));
+			ti = text.get(field.ordinal());
+		}
+		return ti;
+	}
+
+	/**
+	 * @param field
+	 * @return the interval index over the given field.
+	 */
+	IntervalIndex time(TimeField field) {
+		IntervalIndex ii = time.get(field.ordinal());
+		if (ii == null) {
+			Artifact[] docs = docs();
+			TimeSpec[] specs = new TimeSpec[docs.length];
+			for (int i = 0; i < docs.length; i++) {
+				specs[i] = field.get(docs[i]);
+			}
+			time.compareAndSet(field.ordinal(), null, new IntervalIndex(specs));
+			ii = time.get(field.ordinal());
+		}
+		return ii;
+	}
+
+	/**
+	 * @param facet
+	 * @return the group index of the given facet.
+	 */
+	FacetIndex facet(Facet facet) {
+		FacetIndex fi = facets.get(facet.ordinal());
+		if (fi == null) {
+			facets.compareAndSet(facet.ordinal(), null, new FacetIndex(facet, docs()));
+			fi = facets.get(facet.ordinal());
+		}
+		return fi;
+	}
+
+	/**
+	 * @param var
+	 * @return the sorted order of the documents by the given variable.
+	 */
+	SortIndex sort(Variable var) {
+		SortIndex si = sorts.get(var.ordinal());
+		if (si == null) {
+			sorts.compareAndSet(var.ordinal(), null, new SortIndex(var, docs()));
+			si = sorts.get(var.ordinal());
+		}
+		return si;
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.madeirahs.shared.time.TimeSpec;
+
+/**
+ * Index over the time spans of one TimeField. Every document's TimeSpec is treated as the closed
+ * interval [start, end] in epoch millis; a DateTime is a single point, and missing TimeFrame
+ * bounds are open-ended (negative or positive infinity). Documents without a TimeSpec aren't
+ * indexed.
+ * <br/><br/>
+ * An interval is a point (start, end) in the plane, and each supported query bounds the start on
+ * one side and the end on the other. The index answers them with two static priority search
+ * trees (one keeping the latest end at the top of each subtree, one the earliest), each in
+ * O(log n + k) time for k results.
+ */
+final class IntervalIndex {
+
+	static final long NEG_INF = Long.MIN_VALUE, POS_INF = Long.MAX_VALUE;
+
+	private final long[] starts, ends;
+	private final SearchTree latest, earliest;
+
+	/**
+	 * Builds the index.
+	 * @param specs the TimeSpec of each document; document ids are positions in this array.
+	 */
+	IntervalIndex(TimeSpec[] specs) {
+		starts = new long[specs.length];
+		ends = new long[specs.length];
+		int n = 0;
+		for (int i = 0; i < specs.length; i++) {
+			if (specs[i] != null) {
+				starts[i] = start(specs[i]);
+				ends[i] = end(specs[i]);
+				n++;
+			}
+		}
+		int[] ids = new int[n];
+		n = 0;
+		for (int i = 0; i < specs.length; i++) {
+			if (specs[i] != null) {
+				ids[n++] = i;
+			}
+		}
+		latest = new SearchTree(ids, starts, ends, true);
+		earliest = new SearchTree(ids, starts, ends, false);
+	}
+
+	/**
+	 * Finds the documents whose interval contains [qs, qe] (start &lt;= qs and end &gt;= qe).
+	 * With qs == qe this is a stabbing query for a single point.
+	 * @param qs
+	 * @param qe
+	 * @param found receives the matching document ids
+	 */
+	void enclosing(long qs, long qe, ArrayList<Integer> found) {
+		latest.query(NEG_INF, qs, qe, found);
+	}
+
+	/**
+	 * Finds the documents whose interval lies within [qs, qe] (start &gt;= qs and end &lt;= qe).
+	 * @param qs
+	 * @param qe
+	 * @param found receives the matching document ids
+	 */
+	void within(long qs, long qe, ArrayList<Integer> found) {
+		earliest.query(qs, POS_INF, qe, found);
+	}
+
+	/**
+	 * Finds the documents whose interval shares at least one instant with [qs, qe].
+	 * @param qs
+	 * @param qe
+	 * @param found receives the matching document ids
+	 */
+	void overlapping(long qs, long qe, ArrayList<Integer> found) {
+		latest.query(NEG_INF, qe, qs, found);
+	}
+
+	/**
+	 * Finds the documents related to the query span the way {@link TimeSpec#contains(TimeSpec)}
+	 * relates them: those that contain the query, and those the query contains. Each document is
+	 * reported once.
+	 * @param qs
+	 * @param qe
+	 * @param found receives the matching document ids
+	 */
+	void related(long qs, long qe, ArrayList<Integer> found) {
+		enclosing(qs, qe, found);
+		int from = found.size();
+		within(qs, qe, found);
+		// an interval equal to the query satisfies both; keep only its first report
+		for (int i = found.size() - 1; i >= from; i--) {
+			int doc = found.get(i);
+			if (starts[doc] == qs && ends[doc] == qe) {
+				found.remove(i);
+			}
+		}
+	}
+
+	long start(int doc) {
+		return starts[doc];
+	}
+
+	long end(int doc) {
+		return ends[doc];
+	}
+
+	/**
+	 * Tests the relation used by {@link #related(long, long, ArrayList)} without an index.
+	 */
+	static boolean related(long as, long ae, long qs, long qe) {
+		return (as <= qs && ae >= qe) || (as >= qs && ae <= qe);
+	}
+
+	/**
+	 * @param ts
+	 * @return the start of the TimeSpec in epoch millis, or NEG_INF if it has no start.
+	 */
+	static long start(TimeSpec ts) {
+		Date d = ts.getStartDate();
+		return (d != null) ? d.getTime() : NEG_INF;
+	}
+
+	/**
+	 * @param ts
+	 * @return the end of the TimeSpec in epoch millis, or POS_INF if it has no end.
+	 */
+	static long end(TimeSpec ts) {
+		Date d = ts.getEndDate();
+		return (d != null) ? d.getTime() : POS_INF;
+	}
+
+	/**
+	 * Static priority search tree over (start, end) points. Each node holds the point with the
+	 * greatest (or, for an "earliest" tree, smallest) end in its subtree; the remaining points are
+	 * split between the children by start. Queries bound the start to a range and the end on one
+	 * side.
+	 */
+	private static final class SearchTree {
+
+		private final long[] starts, ends;
+		private final boolean max;
+		private final int[] doc, left, right;
+		private final long[] minStart, maxStart;
+		private int size;
+
+		SearchTree(int[] ids, long[] starts, long[] ends, boolean max) {
+			this.starts = starts;
+			this.ends = ends;
+			this.max = max;
+			int n = ids.length;
+			doc = new int[n];
+			left = new int[n];
+			right = new int[n];
+			minStart = new long[n];
+			maxStart = new long[n];
+			int[] sorted = sortByStart(ids);
+			build(sorted, 0, n);
+		}
+
+		/**
+		 * Reports every point with start in [s1, s2] whose end is at least (or, for an
+		 * "earliest" tree, at most) the given bound.
+		 */
+		void query(long s1, long s2, long bound, ArrayList<Integer> found) {
+			if (size > 0) {
+				query(0, s1, s2, bound, found);
+			}
+		}
+
+		private void query(int node, long s1, long s2, long bound,
+				ArrayList<Integer> found) {
+			while (node >= 0) {
+				if (maxStart[node] < s1 || minStart[node] > s2 || !passes(node, bound)) {
+					return;
+				}
+				long s = starts[doc[node]];
+				if (s >= s1 && s <= s2) {
+					found.add(doc[node]);
+				}
+				if (left[node] >= 0) {
+					query(left[node], s1, s2, bound, found);
+				}
+				node = right[node];
+			}
+		}
+
+		private boolean passes(int node, long bound) {
+			long e = ends[doc[node]];
+			return max ? e >= bound : e <= bound;
+		}
+
+		/**
+		 * <Internal Method> Builds the subtree for sorted[from, to) and returns its node index,
+		 * or -1 if the range is empty.
+		 */
+		private int build(int[] sorted, int from, int to) {
+			if (from >= to) {
+				return -1;
+			}
+			int node = size++;
+			minStart[node] = starts[sorted[from]];
+			maxStart[node] = starts[sorted[to - 1]];
+			int top = from;
+			for (int i = from + 1; i < to; i++) {
+				long e = ends[sorted[i]], best = ends[sorted[top]];
+				if (max ? e > best : e < best) {
+					top = i;
+				}
+			}
+			doc[node] = sorted[top];
+			// remove the top point, keeping the rest in start order
+			System.arraycopy(sorted, top + 1, sorted, top, to - top - 1);
+			int mid = (from + to - 1) >>> 1;
+			left[node] = build(sorted, from, mid);
+			right[node] = build(sorted, mid, to - 1);
+			return node;
+		}
+
+		private int[] sortByStart(int[] ids) {
+			int[] sorted = ids.clone();
+			mergeSort(sorted, new int[sorted.length], 0, sorted.length);
+			return sorted;
+		}
+
+		private void mergeSort(int[] a, int[] tmp, int from, int to) {
+			if (to - from < 2) {
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			mergeSort(a, tmp, from, mid);
+			mergeSort(a, tmp, mid, to);
+			int i = from, j = mid, k = from;
+			while (i < mid && j < to) {
+				tmp[k++] = (starts[a[j]] < starts[a[i]]) ? a[j++] : a[i++];
+			}
+			while (i < mid) {
+				tmp[k++] = a[i++];
+			}
+			while (j < to) {
+				tmp[k++] = a[j++];
+			}
+			System.arraycopy(tmp, from, a, from, to - from);
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.madeirahs.shared.Artifact;
+import org.madeirahs.shared.database.DatabaseSnapshot.Hit;
+import org.madeirahs.shared.misc.Threads;
+
+/**
+ * Scores an array of Artifacts without an index, splitting it into slices that are scanned in
+ * parallel. Each slice keeps its own best results (all of them, or the top K when only K are
+ * wanted) in rank order, and the slices' results are merged at the end. The calling thread scans
+ * one slice itself, so a scan never waits on an idle pool.
+ * <br/><br/>
+ * Arrays smaller than two slices are scanned on the calling thread only. Snapshots are immutable,
+ * so slices can be read concurrently without locking.
+ */
+final class ParallelScan {
+
+	/*
+	 * Smallest slice worth handing to another thread.
+	 */
+	private static final int MIN_SLICE = 4096;
+
+	private static int PARALLELISM = Runtime.getRuntime().availableProcessors();
+	private static ExecutorService exec;
+
+	private ParallelScan() {
+	}
+
+	/**
+	 * Scores an Artifact.
+	 */
+	interface Scorer {
+
+		/**
+		 * @param a
+		 * @return the Artifact's score, or a value &lt;= 0 if it isn't relevant.
+		 */
+		int score(Artifact a);
+	}
+
+	/**
+	 * Sets the number of threads used by a scan or sort, including the calling thread.
+	 * @param nthreads
+	 */
+	static synchronized void setParallelism(int nthreads) {
+		if (nthreads < 1) {
+			throw (new IllegalArgumentException("parallelism must be positive"));
+		}
+		if (nthreads != PARALLELISM && exec != null) {
+			exec.shutdown();
+			exec = null;
+		}
+		PARALLELISM = nthreads;
+	}
+
+	static synchronized int parallelism() {
+		return PARALLELISM;
+	}
+
+	/**
+	 * <Internal Method> Returns the pool shared by parallel scans and sorts, creating it the
+	 * first time.
+	 * @return the pool, or null if work isn't split across threads.
+	 */
+	static synchronized ExecutorService pool() {
+		if (PARALLELISM > 1 && exec == null) {
+			exec = Threads.newDaemonPool("Database_search", PARALLELISM - 1);
+		}
+		return exec;
+	}
+
+	/**
+	 * Scores the candidates and ranks the relevant ones as {@link Hit}s do, most relevant first.
+	 * @param candidates
+	 * @param scorer
+	 * @param limit the maximum number of results to return
+	 * @return
+	 */
+	static Artifact[] rank(final Artifact[] candidates, final Scorer scorer,
+			final int limit) {
+		int nslices = Math.min(parallelism(), candidates.length / MIN_SLICE);
+		ExecutorService pool = (nslices > 1) ? pool() : null;
+		if (pool == null) {
+			return toArray(scan(candidates, 0, candidates.length, scorer, limit), limit);
+		}
+
+		int size = (candidates.length + nslices - 1) / nslices;
+		Hit[][] parts = new Hit[nslices][];
+		ArrayList<Future<Hit[]>> pending = new ArrayList<Future<Hit[]>>();
+		for (int i = 1; i < nslices; i++) {
+			final int start = i * size, end = Math.min(start + size, candidates.length);
+			try {
+				pending.add(pool.submit(new Callable<Hit[]>() {
+
+					@Override
+					public Hit[] call() {
+						return scan(candidates, start, end, scorer, limit);
+					}
+
+				}));
+			} catch (RejectedExecutionException e) {
+				// the pool was replaced by setParallelism; scan the slice here
+				pending.add(null);
+			}
+		}
+		parts[0] = scan(candidates, 0, size, scorer, limit);
+		for (int i = 1; i < nslices; i++) {
+			int start = i * size, end = Math.min(start + size, candidates.length);
+			Future<Hit[]> f = pending.get(i - 1);
+			parts[i] = (f != null) ? await(f, candidates, start, end, scorer, limit) : scan(
+					candidates, start, end, scorer, limit);
+		}
+		return merge(parts, limit);
+	}
+
+	/**
+	 * <Internal Method> Scores candidates[from, to) and returns the best <code>limit</code>
+	 * relevant ones in rank order.
+	 */
+	private static Hit[] scan(Artifact[] candidates, int from, int to, Scorer scorer,
+			int limit) {
+		PriorityQueue<Hit> heap = new PriorityQueue<Hit>(11, Collections.reverseOrder());
+		ArrayList<Hit> all = new ArrayList<Hit>();
+		boolean bounded = limit < to - from;
+		for (int i = from; i < to; i++) {
+			Artifact a = candidates[i];
+			int score = scorer.score(a);
+			if (score <= 0) {
+				continue;
+			}
+			if (!bounded) {
+				all.add(new Hit(a, score));
+			} else if (heap.size() < limit) {
+				heap.add(new Hit(a, score));
+			} else if (heap.peek().ranksAfter(score, a)) {
+				heap.poll();
+				heap.add(new Hit(a, score));
+			}
+		}
+		Hit[] hits = bounded ? heap.toArray(new Hit[heap.size()]) : all
+				.toArray(new Hit[all.size()]);
+		Arrays.sort(hits);
+		return hits;
+	}
+
+	/**
+	 * <Internal Method> Waits for a slice. If the calling thread is interrupted the slice is
+	 * scanned directly instead, and the interrupt is restored for the caller to handle.
+	 */
+	private static Hit[] await(Future<Hit[]> f, Artifact[] candidates, int from, int to,
+			Scorer scorer, int limit) {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			f.cancel(false);
+			Thread.currentThread().interrupt();
+			return scan(candidates, from, to, scorer, limit);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw (new IllegalStateException("search scan failed", cause));
+		}
+	}
+
+	/**
+	 * <Internal Method> Merges the sorted results of each slice, keeping the first
+	 * <code>limit</code>.
+	 */
+	private static Artifact[] merge(Hit[][] parts, int limit) {
+		int total = 0;
+		for (Hit[] p : parts) {
+			total += p.length;
+		}
+		Artifact[] found = new Artifact[Math.min(total, limit)];
+		int[] pos = new int[parts.length];
+		for (int n = 0; n < found.length; n++) {
+			int best = -1;
+			for (int i = 0; i < parts.length; i++) {
+				if (pos[i] < parts[i].length
+						&& (best < 0 || parts[i][pos[i]]
+								.compareTo(parts[best][pos[best]]) < 0)) {
+					best = i;
+				}
+			}
+			found[n] = parts[best][pos[best]++].artifact;
+		}
+		return found;
+	}
+
+	private static Artifact[] toArray(Hit[] hits, int limit) {
+		Artifact[] found = new Artifact[Math.min(hits.length, limit)];
+		for (int i = 0; i < found.length; i++) {
+			found[i] = hits[i].artifact;
+		}
+		return found;
+	}
+}
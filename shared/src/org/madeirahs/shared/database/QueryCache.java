@@ -0,0 +1,234 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.madeirahs.shared.Artifact;
+import org.madeirahs.shared.Artifact.StringField;
+import org.madeirahs.shared.Artifact.TimeField;
+import org.madeirahs.shared.time.TimeSpec;
+
+/**
+ * Least-recently-used cache of a Database's search results. Entries are keyed by the kind of
+ * search, the field and the normalized query (so queries that differ only in case, spacing or
+ * ignored words share an entry), and belong to one version of the Database: the first lookup
+ * made against a newer version drops every entry, so results never outlive the change that made
+ * them stale.
+ * <br/><br/>
+ * The cache is bounded both in entries and in approximate bytes; the byte estimate counts the
+ * keys and result arrays but not the Artifacts, which are shared with the Database. Results are
+ * handed out as copies, so callers may modify them.
+ *
+ * @see Database#getQueryCache()
+ */
+public final class QueryCache {
+
+	/*
+	 * Approximate size of an entry apart from its key and results: the map entry, the key and
+	 * array headers.
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+
+	private static volatile int MAX_ENTRIES = 256;
+	private static volatile long MAX_BYTES = 8L << 20;
+
+	// access order, so iteration starts at the least recently used entry
+	private final LinkedHashMap<String, Artifact[]> entries =
+			new LinkedHashMap<String, Artifact[]>(16, 0.75f, true);
+	private long version = -1, bytes;
+	private long hits, misses, evictions;
+
+	QueryCache() {
+	}
+
+	/**
+	 * Runs a search.
+	 */
+	interface Search {
+
+		Artifact[] run(DatabaseSnapshot snap);
+	}
+
+	/**
+	 * <Internal Method> Sets the limits of every QueryCache.
+	 * @see Database#setQueryCacheLimits(int, long)
+	 */
+	static synchronized void setLimits(int maxEntries, long maxBytes) {
+		if (maxEntries < 0 || maxBytes < 0) {
+			throw (new IllegalArgumentException("limits cannot be negative"));
+		}
+		MAX_ENTRIES = maxEntries;
+		MAX_BYTES = maxBytes;
+	}
+
+	/**
+	 * Returns the results cached under the key for the snapshot's version, or runs the search and
+	 * caches its results.
+	 * @param key as built by {@link #stringKey(StringField, String[])} or its siblings
+	 * @param snap the snapshot to search
+	 * @param search
+	 * @return a copy of the results.
+	 */
+	Artifact[] get(String key, DatabaseSnapshot snap, Search search) {
+		long v = snap.getVersion();
+		synchronized (this) {
+			Artifact[] found = lookup(key, v);
+			if (found != null) {
+				hits++;
+				return found.clone();
+			}
+			misses++;
+		}
+		Artifact[] found = search.run(snap);
+		synchronized (this) {
+			store(key, v, found);
+		}
+		return found.clone();
+	}
+
+	/**
+	 * @return the number of searches answered from the cache.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of searches that had to be run.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of entries dropped to stay within the limits. Entries dropped because the
+	 *         Database changed aren't counted.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the number of cached results.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the approximate memory used by the cached results, in bytes.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Drops every entry. The counters are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * @param field
+	 * @param terms query terms, as returned by {@link TextIndex#terms(String)}
+	 * @return the key of a String field search.
+	 */
+	static String stringKey(StringField field, String[] terms) {
+		return key("string", field, terms);
+	}
+
+	/**
+	 * @param field
+	 * @param terms the terms of the query's String representation
+	 * @return the key of a hybrid time field search.
+	 */
+	static String timeTextKey(TimeField field, String[] terms) {
+		return key("timetext", field, terms);
+	}
+
+	/**
+	 * @param field
+	 * @param qspec
+	 * @return the key of a time field search; queries covering the same span share a key.
+	 */
+	static String timeKey(TimeField field, TimeSpec qspec) {
+		return key("time", field, new String[] { String.valueOf(IntervalIndex.start(qspec)),
+				String.valueOf(IntervalIndex.end(qspec)) });
+	}
+
+	private static String key(String kind, Enum<?> field, String[] terms) {
+		StringBuilder sb = new StringBuilder(kind).append(':').append(field.name());
+		for (String t : terms) {
+			sb.append(':').append(t);
+		}
+		return sb.toString();
+	}
+
+	private Artifact[] lookup(String key, long v) {
+		if (v > version) {
+			clear();
+			version = v;
+		}
+		trim();
+		return (v == version) ? entries.get(key) : null;
+	}
+
+	private void store(String key, long v, Artifact[] found) {
+		if (v < version) {
+			// computed against a snapshot that has since been replaced
+			return;
+		} else if (v > version) {
+			clear();
+			version = v;
+		}
+		long size = size(key, found);
+		if (size <= MAX_BYTES) {
+			Artifact[] old = entries.put(key, found);
+			if (old != null) {
+				bytes -= size(key, old);
+			}
+			bytes += size;
+		}
+		trim();
+	}
+
+	/**
+	 * <Internal Method> Evicts the least recently used entries until the cache is within its
+	 * limits, which may have been lowered since the last lookup.
+	 */
+	private void trim() {
+		Iterator<Map.Entry<String, Artifact[]>> it = entries.entrySet().iterator();
+		while (entries.size() > MAX_ENTRIES || bytes > MAX_BYTES) {
+			Map.Entry<String, Artifact[]> e = it.next();
+			bytes -= size(e.getKey(), e.getValue());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	private static long size(String key, Artifact[] found) {
+		return ENTRY_OVERHEAD + 2L * key.length() + 8L * found.length;
+	}
+}
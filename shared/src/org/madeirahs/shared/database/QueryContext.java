@@ -0,0 +1,220 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.madeirahs.shared.Artifact;
+
+/**
+ * The documents a {@link SearchQuery} is evaluated over: the Artifacts of a snapshot's shared
+ * indexes, minus those changed since, plus the current versions of the changed Artifacts. Ids
+ * below <code>docs.length</code> are positions in the shared indexes; id
+ * <code>docs.length + i</code> is <code>fresh[i]</code>. A context belongs to one evaluation and
+ * isn't thread safe.
+ */
+final class QueryContext {
+
+	final FieldIndexes base;
+	final Artifact[] docs, fresh;
+
+	private final BitSet stale = new BitSet();
+	private final int size;
+	private final IdentityHashMap<SearchQuery, Matches> cache = new IdentityHashMap<SearchQuery, Matches>();
+
+	/**
+	 * @param base the shared indexes
+	 * @param changed accession numbers changed since the indexes were built
+	 * @param fresh the current versions of the changed Artifacts that still exist
+	 */
+	QueryContext(FieldIndexes base, Set<String> changed, Artifact[] fresh) {
+		this.base = base;
+		this.docs = base.docs();
+		this.fresh = fresh;
+		for (String acc : changed) {
+			int id = base.id(acc);
+			if (id >= 0) {
+				stale.set(id);
+			}
+		}
+		size = docs.length - stale.cardinality() + fresh.length;
+	}
+
+	/**
+	 * @return the number of live documents.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @param id
+	 * @return true if the indexed entry with the given id is out of date.
+	 */
+	boolean isStale(int id) {
+		return stale.get(id);
+	}
+
+	/**
+	 * @param from
+	 * @return the first stale id at or after <code>from</code>, or -1 if there are none.
+	 */
+	int nextStale(int from) {
+		return stale.nextSetBit(from);
+	}
+
+	Artifact doc(int id) {
+		return (id < docs.length) ? docs[id] : fresh[id - docs.length];
+	}
+
+	/**
+	 * @return every live document, each with a score of 0.
+	 */
+	Matches all() {
+		Matches m = new Matches(size);
+		for (int id = stale.nextClearBit(0); id < docs.length; id = stale
+				.nextClearBit(id + 1)) {
+			m.add(id, 0);
+		}
+		for (int i = 0; i < fresh.length; i++) {
+			m.add(docs.length + i, 0);
+		}
+		return m;
+	}
+
+	Matches cached(SearchQuery q) {
+		return cache.get(q);
+	}
+
+	void cache(SearchQuery q, Matches m) {
+		cache.put(q, m);
+	}
+
+	/**
+	 * A set of document ids in increasing order, each with a score. Matches are built once with
+	 * {@link #add(int, int)} and are not modified afterward; the set operations return new
+	 * instances.
+	 */
+	static final class Matches {
+
+		private int[] ids, scores;
+		private int size;
+
+		Matches(int capacity) {
+			ids = new int[capacity];
+			scores = new int[capacity];
+		}
+
+		/**
+		 * Appends a document; ids must be added in increasing order.
+		 */
+		void add(int id, int score) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, Math.max(8, size * 2));
+				scores = Arrays.copyOf(scores, ids.length);
+			}
+			ids[size] = id;
+			scores[size++] = score;
+		}
+
+		int size() {
+			return size;
+		}
+
+		int id(int i) {
+			return ids[i];
+		}
+
+		int score(int i) {
+			return scores[i];
+		}
+
+		/**
+		 * @return the documents in both sets, with their scores added.
+		 */
+		Matches intersect(Matches o) {
+			Matches m = new Matches(Math.min(size, o.size));
+			int i = 0, j = 0;
+			while (i < size && j < o.size) {
+				if (ids[i] < o.ids[j]) {
+					i++;
+				} else if (ids[i] > o.ids[j]) {
+					j++;
+				} else {
+					m.add(ids[i], scores[i++] + o.scores[j++]);
+				}
+			}
+			return m;
+		}
+
+		/**
+		 * @return the documents in either set, with the scores of those in both added.
+		 */
+		Matches union(Matches o) {
+			Matches m = new Matches(size + o.size);
+			int i = 0, j = 0;
+			while (i < size || j < o.size) {
+				if (j == o.size || (i < size && ids[i] < o.ids[j])) {
+					m.add(ids[i], scores[i++]);
+				} else if (i == size || ids[i] > o.ids[j]) {
+					m.add(o.ids[j], o.scores[j++]);
+				} else {
+					m.add(ids[i], scores[i++] + o.scores[j++]);
+				}
+			}
+			return m;
+		}
+
+		/**
+		 * @return the documents in this set that aren't in the other, with their scores unchanged.
+		 */
+		Matches subtract(Matches o) {
+			Matches m = new Matches(size);
+			int j = 0;
+			for (int i = 0; i < size; i++) {
+				while (j < o.size && o.ids[j] < ids[i]) {
+					j++;
+				}
+				if (j == o.size || o.ids[j] != ids[i]) {
+					m.add(ids[i], scores[i]);
+				}
+			}
+			return m;
+		}
+
+		/**
+		 * Tests each document against the query directly.
+		 * @return the documents that match it, with its score added.
+		 */
+		Matches filter(SearchQuery q, QueryContext ctx) {
+			Matches m = new Matches(size);
+			for (int i = 0; i < size; i++) {
+				int s = q.score(ctx.doc(ids[i]));
+				if (s >= 0) {
+					m.add(ids[i], scores[i] + s);
+				}
+			}
+			return m;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import org.madeirahs.shared.Artifact;
+
+/**
+ * One page of the results of a {@link SearchQuery}, as returned by
+ * {@link Database#search(SearchQuery, int)}. A page holds at most the requested number of
+ * results, in the same order as {@link Database#search(SearchQuery)}, along with the total number
+ * of matches and a {@link Cursor} for the page that follows.
+ */
+public final class SearchPage {
+
+	private final Artifact[] results;
+	private final int total;
+	private final Cursor next;
+
+	SearchPage(Artifact[] results, int total, Cursor next) {
+		this.results = results;
+		this.total = total;
+		this.next = next;
+	}
+
+	/**
+	 * @return the results on this page, most relevant first.
+	 */
+	public Artifact[] getResults() {
+		return results;
+	}
+
+	/**
+	 * @return the number of Artifacts matching the query, on all pages.
+	 */
+	public int getTotalHits() {
+		return total;
+	}
+
+	/**
+	 * @return true if there are results after this page.
+	 */
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	/**
+	 * @return the cursor for the next page, or null if this is the last one.
+	 * @see Database#search(Cursor)
+	 */
+	public Cursor getNext() {
+		return next;
+	}
+
+	/**
+	 * The position after the last result of a page. A cursor remembers the query, page size and
+	 * the rank of the last result rather than an offset, so the next page continues where the last
+	 * one stopped even if the Database has changed in between: results that moved ahead of the
+	 * cursor are skipped, and none are repeated.
+	 */
+	public static final class Cursor {
+
+		final SearchQuery query;
+		final int limit;
+		final int score;
+		final String accNum;
+
+		Cursor(SearchQuery query, int limit, int score, String accNum) {
+			this.query = query;
+			this.limit = limit;
+			this.score = score;
+			this.accNum = accNum;
+		}
+
+		/**
+		 * Tests whether a result with the given score and accession number ranks after the last
+		 * result of the page this cursor follows.
+		 */
+		boolean ranksAfter(int score, String accNum) {
+			if (score != this.score) {
+				return score < this.score;
+			}
+			return accNum.compareTo(this.accNum) > 0;
+		}
+	}
+}
@@ -0,0 +1,633 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.madeirahs.shared.Artifact;
+import org.madeirahs.shared.Artifact.StringField;
+import org.madeirahs.shared.Artifact.TimeField;
+import org.madeirahs.shared.database.QueryContext.Matches;
+import org.madeirahs.shared.time.TimeSpec;
+
+/**
+ * A boolean combination of field searches, run with {@link Database#search(SearchQuery)}.
+ * Leaf queries match a String field the way {@link Database#searchByField(StringField, Artifact)}
+ * does (or approximately, with {@link #fuzzy(StringField, String, int)}), or a time field the way
+ * {@link Database#searchByField(TimeField, Artifact)} does (or by overlap), and are combined with
+ * {@link #and(SearchQuery...)}, {@link #or(SearchQuery...)} and {@link #not(SearchQuery)};
+ * {@link #facet(Facet, String)} restricts a query to one value of a facet, and
+ * {@link #accessionPrefix(String)} or {@link #accessionRange(String, String)} to a range of
+ * accession numbers.
+ * <br/><br/>
+ * Every match has a relevance score: a String search scores the occurrences of its words, a time
+ * search scores 1, and a facet, accession range or negation scores 0. AND and OR add up the
+ * scores of the sub-queries an Artifact matches, so Artifacts matching more of an OR, or matching
+ * a word more often in any field, rank higher.
+ * <br/><br/>
+ * An AND is planned by estimating how many Artifacts each sub-query matches: the most selective
+ * one is looked up in its index first, and the others either intersect their own index results
+ * with it or, if they would match more Artifacts than are left, are tested against the remaining
+ * candidates directly. Queries are immutable and may be reused across snapshots.
+ */
+public abstract class SearchQuery {
+
+	SearchQuery() {
+	}
+
+	/**
+	 * Matches Artifacts whose String field contains any of the words of the text (ignoring common
+	 * words such as "the" and "of"), scored by the total number of occurrences.
+	 * @param field
+	 * @param text
+	 * @return
+	 * @see DatabaseSnapshot#searchByField(StringField, Artifact)
+	 */
+	public static SearchQuery text(StringField field, String text) {
+		if (field == null || text == null) {
+			throw (new IllegalArgumentException(
+					"initialized query value cannot be null"));
+		}
+		return new TextQuery(field, text);
+	}
+
+	/**
+	 * Matches Artifacts whose String field contains any of the words of the text, or a word
+	 * within the given number of edits (insertions, deletions or substitutions of a character) of
+	 * one, so that misspelled names still find their Artifacts. For each word an Artifact scores
+	 * <code>maxDistance + 1</code> if it contains the word and one less for every edit its closest
+	 * word needs otherwise.
+	 * @param field
+	 * @param text
+	 * @param maxDistance the greatest number of edits between a query word and a matching word;
+	 *        1 or 2 is usually enough.
+	 * @return
+	 */
+	public static SearchQuery fuzzy(StringField field, String text, int maxDistance) {
+		if (field == null || text == null) {
+			throw (new IllegalArgumentException(
+					"initialized query value cannot be null"));
+		}
+		if (maxDistance < 0) {
+			throw (new IllegalArgumentException("maximum distance cannot be negative"));
+		}
+		return new FuzzyQuery(field, text, maxDistance);
+	}
+
+	/**
+	 * Matches Artifacts whose time span contains the given span or lies within it.
+	 * @param field
+	 * @param span
+	 * @return
+	 * @see DatabaseSnapshot#searchByField(TimeField, Artifact)
+	 */
+	public static SearchQuery time(TimeField field, TimeSpec span) {
+		return timeQuery(field, span, false);
+	}
+
+	/**
+	 * Matches Artifacts whose time span shares at least one instant with the given span.
+	 * @param field
+	 * @param span
+	 * @return
+	 */
+	public static SearchQuery overlapping(TimeField field, TimeSpec span) {
+		return timeQuery(field, span, true);
+	}
+
+	/**
+	 * Matches Artifacts with the given value of a facet, such as a medium or a decade; the value
+	 * is named as by {@link FacetCounts#getValue(int)}. Matches score 0, so a facet narrows a query
+	 * without changing its ranking.
+	 * @param facet
+	 * @param value
+	 * @return
+	 */
+	public static SearchQuery facet(Facet facet, String value) {
+		if (facet == null || value == null) {
+			throw (new IllegalArgumentException(
+					"initialized query value cannot be null"));
+		}
+		return new FacetQuery(facet, facet.key(value));
+	}
+
+	/**
+	 * Matches Artifacts whose accession numbers start with the prefix. Matches score 0.
+	 * @param prefix
+	 * @return
+	 * @see DatabaseSnapshot#getByPrefix(String)
+	 */
+	public static SearchQuery accessionPrefix(String prefix) {
+		if (prefix == null) {
+			throw (new IllegalArgumentException(
+					"initialized query value cannot be null"));
+		}
+		return new AccessionQuery(prefix, AccessionIndex.prefixEnd(prefix));
+	}
+
+	/**
+	 * Matches Artifacts whose accession numbers are in the range [from, to). Matches score 0.
+	 * @param from the smallest accession number to include, or null for no lower bound
+	 * @param to the accession number to stop before, or null for no upper bound
+	 * @return
+	 * @see DatabaseSnapshot#getRange(String, String)
+	 */
+	public static SearchQuery accessionRange(String from, String to) {
+		return new AccessionQuery(from, to);
+	}
+
+	/**
+	 * Matches Artifacts that match every one of the queries.
+	 * @param queries
+	 * @return
+	 */
+	public static SearchQuery and(SearchQuery... queries) {
+		return new AndQuery(check(queries));
+	}
+
+	/**
+	 * Matches Artifacts that match at least one of the queries.
+	 * @param queries
+	 * @return
+	 */
+	public static SearchQuery or(SearchQuery... queries) {
+		return new OrQuery(check(queries));
+	}
+
+	/**
+	 * Matches Artifacts that don't match the query.
+	 * @param query
+	 * @return
+	 */
+	public static SearchQuery not(SearchQuery query) {
+		if (query == null) {
+			throw (new IllegalArgumentException("query cannot be null"));
+		}
+		return new NotQuery(query);
+	}
+
+	/**
+	 * <Internal Method> Estimates the number of Artifacts this query matches. Used only to order
+	 * the evaluation of an AND; estimates may be rough but should be cheap.
+	 */
+	abstract int estimate(QueryContext ctx);
+
+	/**
+	 * <Internal Method> Finds every Artifact in the context that matches this query, using the
+	 * indexes where possible.
+	 */
+	abstract Matches evaluate(QueryContext ctx);
+
+	/**
+	 * <Internal Method> Tests a single Artifact against this query without using an index.
+	 * @return the Artifact's score, or -1 if it doesn't match.
+	 */
+	abstract int score(Artifact a);
+
+	private static SearchQuery timeQuery(TimeField field, TimeSpec span,
+			boolean overlap) {
+		if (field == null || span == null) {
+			throw (new IllegalArgumentException(
+					"initialized query value cannot be null"));
+		}
+		return new TimeQuery(field, IntervalIndex.start(span),
+				IntervalIndex.end(span), overlap);
+	}
+
+	private static SearchQuery[] check(SearchQuery[] queries) {
+		if (queries == null || queries.length == 0) {
+			throw (new IllegalArgumentException("no queries given"));
+		}
+		for (SearchQuery q : queries) {
+			if (q == null) {
+				throw (new IllegalArgumentException("query cannot be null"));
+			}
+		}
+		return queries.clone();
+	}
+
+	private static final class TextQuery extends SearchQuery {
+
+		final StringField field;
+		final String[] terms;
+
+		TextQuery(StringField field, String text) {
+			this.field = field;
+			this.terms = TextIndex.terms(text);
+		}
+
+		@Override
+		int estimate(QueryContext ctx) {
+			return ctx.base.text(field).estimate(terms) + ctx.fresh.length;
+		}
+
+		@Override
+		Matches evaluate(QueryContext ctx) {
+			HashMap<Integer, int[]> scores = new HashMap<Integer, int[]>();
+			ctx.base.text(field).score(terms, scores);
+			int[] ids = new int[scores.size() + ctx.fresh.length];
+			int n = 0;
+			for (Integer id : scores.keySet()) {
+				if (!ctx.isStale(id)) {
+					ids[n++] = id;
+				}
+			}
+			Arrays.sort(ids, 0, n);
+			Matches m = new Matches(ids.length);
+			for (int i = 0; i < n; i++) {
+				m.add(ids[i], scores.get(ids[i])[0]);
+			}
+			for (int i = 0; i < ctx.fresh.length; i++) {
+				int s = score(ctx.fresh[i]);
+				if (s >= 0) {
+					m.add(ctx.docs.length + i, s);
+				}
+			}
+			return m;
+		}
+
+		@Override
+		int score(Artifact a) {
+			int s = TextIndex.count(a.searchKeys().normalized(field), terms);
+			return (s > 0) ? s : -1;
+		}
+	}
+
+	private static final class FuzzyQuery extends SearchQuery {
+
+		final StringField field;
+		final String[] terms;
+		final int maxDist;
+
+		FuzzyQuery(StringField field, String text, int maxDist) {
+			this.field = field;
+			this.terms = TextIndex.terms(text);
+			this.maxDist = maxDist;
+		}
+
+		/*
+		 * Finding the near tokens is most of the cost of a fuzzy query, so the estimate is the
+		 * exact count and the results are kept for evaluate.
+		 */
+		@Override
+		int estimate(QueryContext ctx) {
+			return evaluate(ctx).size();
+		}
+
+		@Override
+		Matches evaluate(QueryContext ctx) {
+			Matches m = ctx.cached(this);
+			if (m != null) {
+				return m;
+			}
+			HashMap<Integer, int[]> scores = new HashMap<Integer, int[]>();
+			ctx.base.text(field).scoreFuzzy(terms, maxDist, scores);
+			int[] ids = new int[scores.size()];
+			int n = 0;
+			for (Integer id : scores.keySet()) {
+				if (!ctx.isStale(id)) {
+					ids[n++] = id;
+				}
+			}
+			Arrays.sort(ids, 0, n);
+			m = new Matches(n + ctx.fresh.length);
+			for (int i = 0; i < n; i++) {
+				m.add(ids[i], scores.get(ids[i])[0]);
+			}
+			for (int i = 0; i < ctx.fresh.length; i++) {
+				int s = score(ctx.fresh[i]);
+				if (s >= 0) {
+					m.add(ctx.docs.length + i, s);
+				}
+			}
+			ctx.cache(this, m);
+			return m;
+		}
+
+		@Override
+		int score(Artifact a) {
+			int s = TextIndex.fuzzyCount(a.searchKeys().tokens(field), terms, maxDist);
+			return (s > 0) ? s : -1;
+		}
+	}
+
+	private static final class TimeQuery extends SearchQuery {
+
+		final TimeField field;
+		final long qs, qe;
+		final boolean overlap;
+
+		TimeQuery(TimeField field, long qs, long qe, boolean overlap) {
+			this.field = field;
+			this.qs = qs;
+			this.qe = qe;
+			this.overlap = overlap;
+		}
+
+		/*
+		 * An interval query costs about as much as its results, so the estimate is the exact
+		 * count; the results are kept for evaluate.
+		 */
+		@Override
+		int estimate(QueryContext ctx) {
+			return evaluate(ctx).size();
+		}
+
+		@Override
+		Matches evaluate(QueryContext ctx) {
+			Matches m = ctx.cached(this);
+			if (m != null) {
+				return m;
+			}
+			ArrayList<Integer> found = new ArrayList<Integer>();
+			IntervalIndex ii = ctx.base.time(field);
+			if (overlap) {
+				ii.overlapping(qs, qe, found);
+			} else {
+				ii.related(qs, qe, found);
+			}
+			int[] ids = new int[found.size()];
+			int n = 0;
+			for (int id : found) {
+				if (!ctx.isStale(id)) {
+					ids[n++] = id;
+				}
+			}
+			Arrays.sort(ids, 0, n);
+			m = new Matches(n + ctx.fresh.length);
+			for (int i = 0; i < n; i++) {
+				m.add(ids[i], 1);
+			}
+			for (int i = 0; i < ctx.fresh.length; i++) {
+				if (score(ctx.fresh[i]) >= 0) {
+					m.add(ctx.docs.length + i, 1);
+				}
+			}
+			ctx.cache(this, m);
+			return m;
+		}
+
+		@Override
+		int score(Artifact a) {
+			TimeSpec ts = field.get(a);
+			if (ts == null) {
+				return -1;
+			}
+			long as = IntervalIndex.start(ts), ae = IntervalIndex.end(ts);
+			boolean match = overlap ? as <= qe && ae >= qs : IntervalIndex.related(as,
+					ae, qs, qe);
+			return match ? 1 : -1;
+		}
+	}
+
+	private static final class FacetQuery extends SearchQuery {
+
+		final Facet facet;
+		final String key;
+
+		FacetQuery(Facet facet, String key) {
+			this.facet = facet;
+			this.key = key;
+		}
+
+		@Override
+		int estimate(QueryContext ctx) {
+			FacetIndex fi = ctx.base.facet(facet);
+			int g = fi.group(key);
+			return ((g >= 0) ? fi.docs(g).length : 0) + ctx.fresh.length;
+		}
+
+		@Override
+		Matches evaluate(QueryContext ctx) {
+			FacetIndex fi = ctx.base.facet(facet);
+			int g = fi.group(key);
+			int[] docs = (g >= 0) ? fi.docs(g) : new int[0];
+			Matches m = new Matches(docs.length + ctx.fresh.length);
+			for (int id : docs) {
+				if (!ctx.isStale(id)) {
+					m.add(id, 0);
+				}
+			}
+			for (int i = 0; i < ctx.fresh.length; i++) {
+				if (score(ctx.fresh[i]) >= 0) {
+					m.add(ctx.docs.length + i, 0);
+				}
+			}
+			return m;
+		}
+
+		@Override
+		int score(Artifact a) {
+			ArrayList<String> keys = new ArrayList<String>(1);
+			facet.keys(a, null, keys);
+			return keys.contains(key) ? 0 : -1;
+		}
+	}
+
+	/*
+	 * Document ids are positions in accession order, so the indexed matches of a range are a
+	 * single run of ids.
+	 */
+	private static final class AccessionQuery extends SearchQuery {
+
+		final String from, to;
+
+		AccessionQuery(String from, String to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		int estimate(QueryContext ctx) {
+			return end(ctx) - start(ctx) + ctx.fresh.length;
+		}
+
+		@Override
+		Matches evaluate(QueryContext ctx) {
+			int start = start(ctx), end = end(ctx);
+			Matches m = new Matches(end - start + ctx.fresh.length);
+			for (int id = start; id < end; id++) {
+				if (!ctx.isStale(id)) {
+					m.add(id, 0);
+				}
+			}
+			for (int i = 0; i < ctx.fresh.length; i++) {
+				if (score(ctx.fresh[i]) >= 0) {
+					m.add(ctx.docs.length + i, 0);
+				}
+			}
+			return m;
+		}
+
+		@Override
+		int score(Artifact a) {
+			boolean in = (from == null || a.accNum.compareTo(from) >= 0)
+					&& (to == null || a.accNum.compareTo(to) < 0);
+			return in ? 0 : -1;
+		}
+
+		private int start(QueryContext ctx) {
+			return (from != null) ? ctx.base.lowerBound(from) : 0;
+		}
+
+		private int end(QueryContext ctx) {
+			return Math.max(start(ctx), ctx.base.lowerBound(to));
+		}
+	}
+
+	private static final class AndQuery extends SearchQuery {
+
+		final SearchQuery[] queries;
+
+		AndQuery(SearchQuery[] queries) {
+			this.queries = queries;
+		}
+
+		@Override
+		int estimate(QueryContext ctx) {
+			int min = ctx.size();
+			for (SearchQuery q : queries) {
+				if (!(q instanceof NotQuery)) {
+					min = Math.min(min, q.estimate(ctx));
+				}
+			}
+			return min;
+		}
+
+		@Override
+		Matches evaluate(QueryContext ctx) {
+			// positive sub-queries, most selective first
+			ArrayList<SearchQuery> pos = new ArrayList<SearchQuery>();
+			ArrayList<NotQuery> neg = new ArrayList<NotQuery>();
+			Map<SearchQuery, Integer> est = new HashMap<SearchQuery, Integer>();
+			for (SearchQuery q : queries) {
+				if (q instanceof NotQuery) {
+					neg.add((NotQuery) q);
+				} else {
+					int e = q.estimate(ctx);
+					est.put(q, e);
+					int i = pos.size();
+					while (i > 0 && est.get(pos.get(i - 1)) > e) {
+						i--;
+					}
+					pos.add(i, q);
+				}
+			}
+
+			Matches m = pos.isEmpty() ? ctx.all() : pos.get(0).evaluate(ctx);
+			for (int i = 1; i < pos.size() && m.size() > 0; i++) {
+				SearchQuery q = pos.get(i);
+				if (est.get(q) < m.size()) {
+					m = m.intersect(q.evaluate(ctx));
+				} else {
+					m = m.filter(q, ctx);
+				}
+			}
+			for (int i = 0; i < neg.size() && m.size() > 0; i++) {
+				SearchQuery q = neg.get(i).query;
+				if (q.estimate(ctx) < m.size()) {
+					m = m.subtract(q.evaluate(ctx));
+				} else {
+					m = m.filter(neg.get(i), ctx);
+				}
+			}
+			return m;
+		}
+
+		@Override
+		int score(Artifact a) {
+			int total = 0;
+			for (SearchQuery q : queries) {
+				int s = q.score(a);
+				if (s < 0) {
+					return -1;
+				}
+				total += s;
+			}
+			return total;
+		}
+	}
+
+	private static final class OrQuery extends SearchQuery {
+
+		final SearchQuery[] queries;
+
+		OrQuery(SearchQuery[] queries) {
+			this.queries = queries;
+		}
+
+		@Override
+		int estimate(QueryContext ctx) {
+			long sum = 0;
+			for (SearchQuery q : queries) {
+				sum += q.estimate(ctx);
+			}
+			return (int) Math.min(sum, ctx.size());
+		}
+
+		@Override
+		Matches evaluate(QueryContext ctx) {
+			Matches m = queries[0].evaluate(ctx);
+			for (int i = 1; i < queries.length; i++) {
+				m = m.union(queries[i].evaluate(ctx));
+			}
+			return m;
+		}
+
+		@Override
+		int score(Artifact a) {
+			int total = -1;
+			for (SearchQuery q : queries) {
+				int s = q.score(a);
+				if (s >= 0) {
+					total = Math.max(total, 0) + s;
+				}
+			}
+			return total;
+		}
+	}
+
+	private static final class NotQuery extends SearchQuery {
+
+		final SearchQuery query;
+
+		NotQuery(SearchQuery query) {
+			this.query = query;
+		}
+
+		@Override
+		int estimate(QueryContext ctx) {
+			return Math.max(0, ctx.size() - query.estimate(ctx));
+		}
+
+		@Override
+		Matches evaluate(QueryContext ctx) {
+			return ctx.all().subtract(query.evaluate(ctx));
+		}
+
+		@Override
+		int score(Artifact a) {
+			return (query.score(a) < 0) ? 0 : -1;
+		}
+	}
+}
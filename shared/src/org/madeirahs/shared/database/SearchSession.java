@@ -0,0 +1,407 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.madeirahs.shared.Artifact;
+import org.madeirahs.shared.Artifact.StringField;
+import org.madeirahs.shared.Artifact.TimeField;
+import org.madeirahs.shared.misc.Threads;
+import org.madeirahs.shared.time.TimeSpec;
+
+/**
+ * Runs search-as-you-type queries against a Database off the event dispatch thread. Queries
+ * submitted in quick succession are debounced so that only the last one runs, queries that
+ * have been superseded are dropped (and their results, if already computed, discarded), and
+ * a query that only narrows the previous one (e.g. one more character typed) is answered by
+ * re-ranking the previous results rather than searching the whole Database again.
+ * <br/><br/>
+ * Results are delivered to the {@link Listener} on the event dispatch thread, and only for the
+ * most recently submitted query. A session uses one background thread; call {@link #close()}
+ * once it is no longer needed.
+ */
+public class SearchSession {
+
+	private static long DEBOUNCE_DELAY = 150;
+
+	private final Database db;
+	private final Listener listener;
+	private final ScheduledExecutorService exec = Threads
+			.newDaemonScheduler("Search_session");
+
+	/*
+	 * Guarded by this: the last submitted query, the Database version it was submitted against,
+	 * its sequence number, and the task that will run it.
+	 */
+	private Query submitted;
+	private long submittedVersion, generation;
+	private ScheduledFuture<?> pending;
+	private boolean closed;
+
+	/*
+	 * Results of the last query that ran; only read and written by the session thread.
+	 */
+	private Result last;
+
+	/**
+	 * Creates a new session.
+	 * @param db the Database to search
+	 * @param listener receives the results of each query
+	 */
+	public SearchSession(Database db, Listener listener) {
+		if (db == null || listener == null) {
+			throw (new NullPointerException("database and listener cannot be null"));
+		}
+		this.db = db;
+		this.listener = listener;
+	}
+
+	/**
+	 * Schedules the query to run once no other query has been submitted for the debounce delay,
+	 * replacing any query that hasn't run yet. Submitting the same query as last time (e.g. when
+	 * only the caret moved) has no effect, unless the Database has changed since.
+	 * @param query
+	 * @throws IllegalStateException if the session has been closed
+	 */
+	public synchronized void submit(final Query query) {
+		if (closed) {
+			throw (new IllegalStateException("search session is closed"));
+		}
+		long version = db.snapshot().getVersion();
+		if (query.equals(submitted) && version == submittedVersion) {
+			return;
+		}
+		submitted = query;
+		submittedVersion = version;
+		final long gen = ++generation;
+		if (pending != null) {
+			pending.cancel(false);
+		}
+		pending = exec.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				execute(query, gen);
+			}
+
+		}, DEBOUNCE_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Drops the pending query, if any, and discards the results of any query that is running.
+	 * The next submitted query will run even if it equals the last one.
+	 */
+	public synchronized void cancel() {
+		generation++;
+		submitted = null;
+		if (pending != null) {
+			pending.cancel(false);
+			pending = null;
+		}
+	}
+
+	/**
+	 * Cancels any outstanding query and stops the session's thread.
+	 */
+	public synchronized void close() {
+		cancel();
+		closed = true;
+		exec.shutdownNow();
+	}
+
+	/**
+	 * Sets how long a session waits after a query is submitted before running it, so that
+	 * quickly typed characters result in a single search. Defaults to 150 ms.
+	 * @param millis
+	 */
+	public static void setDebounceDelay(long millis) {
+		DEBOUNCE_DELAY = Math.max(0, millis);
+	}
+
+	private synchronized boolean isCurrent(long gen) {
+		return gen == generation;
+	}
+
+	/**
+	 * <Internal Method> Runs a query on the session thread and hands its results to the event
+	 * dispatch thread.
+	 */
+	private void execute(final Query query, final long gen) {
+		if (!isCurrent(gen)) {
+			return;
+		}
+		DatabaseSnapshot snap = db.snapshot();
+		Artifact[] found = null;
+		try {
+			if (last != null && last.version == snap.getVersion()) {
+				found = query.refine(last.query, last.results);
+			}
+			if (found == null) {
+				found = db.getQueryCache().get(query.cacheKey, snap, new QueryCache.Search() {
+
+					@Override
+					public Artifact[] run(DatabaseSnapshot snap) {
+						return query.search(snap);
+					}
+
+				});
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			return;
+		}
+		last = new Result(query, snap.getVersion(), found);
+		if (!isCurrent(gen)) {
+			return;
+		}
+		final Artifact[] results = found;
+		SwingUtilities.invokeLater(new Runnable() {
+
+			@Override
+			public void run() {
+				if (isCurrent(gen)) {
+					listener.searchCompleted(query, results);
+				}
+			}
+
+		});
+	}
+
+	/**
+	 * Receives search results on the event dispatch thread.
+	 */
+	public interface Listener {
+
+		/**
+		 * @param query the query that was run
+		 * @param results the relevant Artifacts, most relevant first
+		 */
+		public void searchCompleted(Query query, Artifact[] results);
+	}
+
+	/**
+	 * A search of one Artifact field. Queries are immutable, and two queries are equal if they
+	 * search the same field for the same value.
+	 */
+	public static abstract class Query {
+
+		private final String key;
+		// the normalized query, shared with the Database's own searches
+		final String cacheKey;
+
+		private Query(String key, String cacheKey) {
+			this.key = key;
+			this.cacheKey = cacheKey;
+		}
+
+		/**
+		 * A search of a String field, as by {@link Database#searchByField(StringField, Artifact)}.
+		 * @param field
+		 * @param text
+		 * @return
+		 */
+		public static Query forString(StringField field, String text) {
+			return new StringQuery(field, text);
+		}
+
+		/**
+		 * A search of a time field by time span, as by
+		 * {@link Database#searchByField(TimeField, Artifact)}.
+		 * @param field
+		 * @param time
+		 * @return
+		 */
+		public static Query forTime(TimeField field, TimeSpec time) {
+			return new TimeQuery(field, time);
+		}
+
+		/**
+		 * A search of a time field by its String representation, as by
+		 * {@link Database#searchByFieldHybrid(TimeField, Artifact)}.
+		 * @param field
+		 * @param text
+		 * @return
+		 */
+		public static Query forTimeText(TimeField field, String text) {
+			return new TimeTextQuery(field, text);
+		}
+
+		/**
+		 * Runs this query against the whole snapshot.
+		 */
+		abstract Artifact[] search(DatabaseSnapshot snap);
+
+		/**
+		 * Answers this query from the results of an earlier one against the same snapshot, if
+		 * every Artifact relevant to this query is also relevant to the earlier one.
+		 * @return the results, or null if they can't be derived from the earlier query's.
+		 */
+		abstract Artifact[] refine(Query prev, Artifact[] prevResults);
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Query && key.equals(((Query) o).key);
+		}
+
+		@Override
+		public int hashCode() {
+			return key.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return key;
+		}
+
+		/**
+		 * <Internal Method> Tests whether every Artifact that matches one of the terms also
+		 * matches one of the earlier terms. Terms match as substrings, so that's the case if each
+		 * term contains an earlier term.
+		 */
+		static boolean narrows(String[] terms, String[] prevTerms) {
+			if (prevTerms.length == 0) {
+				return false;
+			}
+			for (String t : terms) {
+				boolean found = false;
+				for (String p : prevTerms) {
+					if (t.indexOf(p) >= 0) {
+						found = true;
+						break;
+					}
+				}
+				if (!found) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class StringQuery extends Query {
+
+		final StringField field;
+		final String text;
+		final String[] terms;
+
+		StringQuery(StringField field, String text) {
+			this(field, text, TextIndex.terms(text));
+		}
+
+		private StringQuery(StringField field, String text, String[] terms) {
+			super("string:" + field + ":" + text, QueryCache.stringKey(field, terms));
+			this.field = field;
+			this.text = text;
+			this.terms = terms;
+		}
+
+		@Override
+		Artifact[] search(DatabaseSnapshot snap) {
+			Artifact query = Artifact.createGenericArtifact();
+			field.set(query, text);
+			return snap.searchByField(field, query);
+		}
+
+		@Override
+		Artifact[] refine(Query prev, Artifact[] prevResults) {
+			if (!(prev instanceof StringQuery) || ((StringQuery) prev).field != field
+					|| !narrows(terms, ((StringQuery) prev).terms)) {
+				return null;
+			}
+			return DatabaseSnapshot.rank(prevResults, field, terms);
+		}
+	}
+
+	private static final class TimeTextQuery extends Query {
+
+		final TimeField field;
+		final String text;
+		final String[] terms;
+
+		TimeTextQuery(TimeField field, String text) {
+			this(field, text, TextIndex.terms(text));
+		}
+
+		private TimeTextQuery(TimeField field, String text, String[] terms) {
+			super("timetext:" + field + ":" + text, QueryCache.timeTextKey(field, terms));
+			this.field = field;
+			this.text = text;
+			this.terms = terms;
+		}
+
+		@Override
+		Artifact[] search(DatabaseSnapshot snap) {
+			return DatabaseSnapshot.rank(snap.index.toArray(), field, terms,
+					Integer.MAX_VALUE);
+		}
+
+		@Override
+		Artifact[] refine(Query prev, Artifact[] prevResults) {
+			if (!(prev instanceof TimeTextQuery) || ((TimeTextQuery) prev).field != field
+					|| !narrows(terms, ((TimeTextQuery) prev).terms)) {
+				return null;
+			}
+			return DatabaseSnapshot.rank(prevResults, field, terms, Integer.MAX_VALUE);
+		}
+	}
+
+	private static final class TimeQuery extends Query {
+
+		final TimeField field;
+		final TimeSpec time;
+
+		TimeQuery(TimeField field, TimeSpec time) {
+			super("time:" + field + ":" + IntervalIndex.start(time) + ":"
+					+ IntervalIndex.end(time), QueryCache.timeKey(field, time));
+			this.field = field;
+			this.time = time;
+		}
+
+		@Override
+		Artifact[] search(DatabaseSnapshot snap) {
+			Artifact query = Artifact.createGenericArtifact();
+			field.set(query, time);
+			return snap.searchByField(field, query);
+		}
+
+		@Override
+		Artifact[] refine(Query prev, Artifact[] prevResults) {
+			return null;
+		}
+	}
+
+	private static final class Result {
+
+		final Query query;
+		final long version;
+		final Artifact[] results;
+
+		Result(Query query, long version, Artifact[] results) {
+			this.query = query;
+			this.version = version;
+			this.results = results;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import org.madeirahs.shared.Artifact;
+import org.madeirahs.shared.database.ArtifactSorter.Variable;
+import org.madeirahs.shared.time.TimeSpec;
+
+/**
+ * The order of a set of documents by one {@link Variable}. Each document's sort key is computed
+ * once when the index is built: String fields are case-folded so that plain String comparison
+ * orders them as <code>compareToIgnoreCase</code> does, and time fields are reduced to their start
+ * in epoch millis. Documents without a value come first; ties are broken by document id, so the
+ * order is total.
+ * <br/><br/>
+ * The index keeps the documents in sorted order along with each document's position in it, so a
+ * subset of the documents can be put in order by marking their positions and reading them back.
+ * It also numbers the distinct keys in order, which lets String keys be compared as longs when
+ * sorting by several variables.
+ */
+final class SortIndex {
+
+	private final String[] strings;
+	private final long[] times;
+	private final int[] order, rank, group;
+
+	/**
+	 * Builds the index.
+	 * @param var
+	 * @param docs document ids are positions in this array.
+	 */
+	SortIndex(Variable var, Artifact[] docs) {
+		SortKeys keys = new SortKeys(docs.length, 1);
+		if (var.string != null) {
+			strings = new String[docs.length];
+			for (int i = 0; i < docs.length; i++) {
+				strings[i] = fold(var.string.get(docs[i]));
+			}
+			times = null;
+			keys.set(0, strings, false);
+		} else {
+			times = new long[docs.length];
+			for (int i = 0; i < docs.length; i++) {
+				times[i] = start(var.time.get(docs[i]));
+			}
+			strings = null;
+			keys.set(0, times);
+		}
+		order = keys.sort();
+		rank = new int[docs.length];
+		group = new int[docs.length];
+		for (int r = 0, g = -1; r < order.length; r++) {
+			rank[order[r]] = r;
+			if (r == 0 || compare(order[r - 1], this, order[r]) != 0) {
+				g++;
+			}
+			group[order[r]] = g;
+		}
+	}
+
+	/**
+	 * @return the number of documents.
+	 */
+	int size() {
+		return order.length;
+	}
+
+	/**
+	 * @param r
+	 * @return the document at position r of the sorted order.
+	 */
+	int doc(int r) {
+		return order[r];
+	}
+
+	/**
+	 * @param doc
+	 * @return the position of the document in the sorted order.
+	 */
+	int rank(int doc) {
+		return rank[doc];
+	}
+
+	/**
+	 * @param doc
+	 * @return the number of distinct keys less than the document's.
+	 */
+	int group(int doc) {
+		return group[doc];
+	}
+
+	/**
+	 * Places a document of another index over the same Variable among this index's keys.
+	 * @param o
+	 * @param odoc
+	 * @return twice the {@link #group(int)} of the documents with an equal key if there are any,
+	 *         otherwise an odd number between those of the keys around it.
+	 */
+	long position(SortIndex o, int odoc) {
+		int lo = 0, hi = order.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(order[mid], o, odoc) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		if (lo == order.length) {
+			return (lo > 0) ? 2L * group[order[lo - 1]] + 1 : 0;
+		}
+		int g = group[order[lo]];
+		return (compare(order[lo], o, odoc) == 0) ? 2L * g : 2L * g - 1;
+	}
+
+	/**
+	 * Compares the keys of a document of this index and one of another index over the same
+	 * Variable.
+	 * @param doc
+	 * @param o
+	 * @param odoc
+	 * @return
+	 */
+	int compare(int doc, SortIndex o, int odoc) {
+		if (strings != null) {
+			String s = strings[doc], os = o.strings[odoc];
+			if (s == null || os == null) {
+				return (s == os) ? 0 : ((s == null) ? -1 : 1);
+			}
+			return s.compareTo(os);
+		}
+		long t = times[doc], ot = o.times[odoc];
+		return (t < ot) ? -1 : ((t == ot) ? 0 : 1);
+	}
+
+	/**
+	 * @param s
+	 * @return the sort key of a String value, or null if there is none.
+	 */
+	static String fold(String s) {
+		if (s == null) {
+			return null;
+		}
+		char[] c = s.toCharArray();
+		for (int i = 0; i < c.length; i++) {
+			c[i] = Character.toLowerCase(Character.toUpperCase(c[i]));
+		}
+		return new String(c);
+	}
+
+	/**
+	 * @param ts
+	 * @return the sort key of a time value; values without a start sort first.
+	 */
+	static long start(TimeSpec ts) {
+		return (ts != null) ? IntervalIndex.start(ts) : IntervalIndex.NEG_INF;
+	}
+}
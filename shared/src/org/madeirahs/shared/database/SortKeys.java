@@ -0,0 +1,270 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Precomputed sort keys for a list of items, one column per key, and a stable merge sort over
+ * them. Columns hold either longs, compared as numbers, or Strings, compared with
+ * <code>compareTo</code> (null first); items are ordered by the first column, ties by the next,
+ * and remaining ties keep their original order. Comparing two items only reads arrays, so no
+ * comparator or field accessor is called while sorting.
+ * <br/><br/>
+ * Large lists are split into runs that are sorted on separate threads (see
+ * {@link ParallelScan#pool()}) and then merged pairwise, each round of merges also running in
+ * parallel.
+ */
+final class SortKeys {
+
+	/*
+	 * Runs this short are insertion sorted; lists shorter than MIN_PARALLEL are sorted on the
+	 * calling thread only.
+	 */
+	private static final int INSERTION_SORT_MAX = 16, MIN_PARALLEL = 1 << 14;
+
+	private final int size;
+	private final long[][] longs;
+	private final String[][] strings;
+	private final boolean[] reverse;
+
+	/**
+	 * @param size the number of items
+	 * @param columns the number of keys
+	 */
+	SortKeys(int size, int columns) {
+		this.size = size;
+		this.longs = new long[columns][];
+		this.strings = new String[columns][];
+		this.reverse = new boolean[columns];
+	}
+
+	/**
+	 * Sets a column of numeric keys. To sort a column in descending order, set each key to its
+	 * complement (<code>~key</code>).
+	 * @param column
+	 * @param keys
+	 */
+	void set(int column, long[] keys) {
+		longs[column] = keys;
+	}
+
+	/**
+	 * Sets a column of String keys.
+	 * @param column
+	 * @param keys
+	 * @param reverse true to sort the column in descending order
+	 */
+	void set(int column, String[] keys, boolean reverse) {
+		strings[column] = keys;
+		this.reverse[column] = reverse;
+	}
+
+	/**
+	 * @return the items' positions in sorted order.
+	 */
+	int[] sort() {
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		int[] tmp = order.clone();
+		int nruns = Integer.highestOneBit(Math.min(ParallelScan.parallelism(), size
+				/ (MIN_PARALLEL / 2)));
+		ExecutorService pool = (nruns > 1) ? ParallelScan.pool() : null;
+		if (pool == null || size < MIN_PARALLEL) {
+			sort(order, tmp, 0, size);
+			return order;
+		}
+
+		// sort the runs into order, then merge pairs of runs until one is left, alternating
+		// between the two arrays
+		int run = (size + nruns - 1) / nruns;
+		ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+		for (int from = 0; from < size; from += run) {
+			tasks.add(new Sort(order, tmp, from, Math.min(from + run, size)));
+		}
+		runAll(pool, tasks);
+		int[] src = order, dst = tmp;
+		for (; run < size; run *= 2) {
+			tasks.clear();
+			for (int from = 0; from < size; from += 2 * run) {
+				int mid = Math.min(from + run, size), to = Math.min(from + 2 * run, size);
+				tasks.add(new Merge(src, dst, from, mid, to));
+			}
+			runAll(pool, tasks);
+			int[] t = src;
+			src = dst;
+			dst = t;
+		}
+		return src;
+	}
+
+	/**
+	 * Compares two items by their keys.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	int compare(int a, int b) {
+		for (int k = 0; k < longs.length; k++) {
+			int c;
+			if (longs[k] != null) {
+				long x = longs[k][a], y = longs[k][b];
+				c = (x < y) ? -1 : ((x == y) ? 0 : 1);
+			} else {
+				String x = strings[k][a], y = strings[k][b];
+				if (x == null || y == null) {
+					c = (x == y) ? 0 : ((x == null) ? -1 : 1);
+				} else {
+					c = x.compareTo(y);
+				}
+				if (reverse[k]) {
+					c = -c;
+				}
+			}
+			if (c != 0) {
+				return c;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * <Internal Method> Merge sorts ids[from, to); src must hold the same ids in that range.
+	 */
+	private void sort(int[] ids, int[] src, int from, int to) {
+		if (to - from <= INSERTION_SORT_MAX) {
+			for (int i = from + 1; i < to; i++) {
+				int id = ids[i], j = i;
+				for (; j > from && compareStable(ids[j - 1], id) > 0; j--) {
+					ids[j] = ids[j - 1];
+				}
+				ids[j] = id;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		// sort each half of src using ids as scratch space, then merge them into ids
+		sort(src, ids, from, mid);
+		sort(src, ids, mid, to);
+		merge(src, ids, from, mid, to);
+	}
+
+	/**
+	 * <Internal Method> Merges the sorted runs src[from, mid) and src[mid, to) into dst.
+	 */
+	private void merge(int[] src, int[] dst, int from, int mid, int to) {
+		int i = from, j = mid;
+		for (int k = from; k < to; k++) {
+			if (j == to || (i < mid && compareStable(src[i], src[j]) <= 0)) {
+				dst[k] = src[i++];
+			} else {
+				dst[k] = src[j++];
+			}
+		}
+	}
+
+	private int compareStable(int a, int b) {
+		int c = compare(a, b);
+		return (c != 0) ? c : a - b;
+	}
+
+	/**
+	 * <Internal Method> Runs the tasks on the pool, running the first (and any the pool rejects)
+	 * on the calling thread, and waits for all of them. The tasks write to shared arrays, so an
+	 * interrupt can't abandon them; it is restored once they finish.
+	 */
+	private static void runAll(ExecutorService pool, ArrayList<Runnable> tasks) {
+		ArrayList<Future<?>> pending = new ArrayList<Future<?>>();
+		for (int i = 1; i < tasks.size(); i++) {
+			try {
+				pending.add(pool.submit(tasks.get(i)));
+			} catch (RejectedExecutionException e) {
+				// the pool was replaced by setParallelism
+				tasks.get(i).run();
+			}
+		}
+		tasks.get(0).run();
+		boolean interrupted = false;
+		for (Future<?> f : pending) {
+			while (true) {
+				try {
+					f.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					} else if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw (new IllegalStateException("sort failed", cause));
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private final class Sort implements Runnable {
+
+		private final int[] ids, src;
+		private final int from, to;
+
+		Sort(int[] ids, int[] src, int from, int to) {
+			this.ids = ids;
+			this.src = src;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public void run() {
+			sort(ids, src, from, to);
+		}
+	}
+
+	private final class Merge implements Runnable {
+
+		private final int[] src, dst;
+		private final int from, mid, to;
+
+		Merge(int[] src, int[] dst, int from, int mid, int to) {
+			this.src = src;
+			this.dst = dst;
+			this.from = from;
+			this.mid = mid;
+			this.to = to;
+		}
+
+		@Override
+		public void run() {
+			merge(src, dst, from, mid, to);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Command line tool that rewrites database store-files in the current store format. Any store
+ * that {@link Database#readStore(java.io.InputStream)} understands (including legacy stores of
+ * a serialized Database) can be converted. Read and write times are printed for each file so
+ * that the old and new formats can be compared.
+ * <br/><br/>
+ * Usage: <code>StoreConverter &lt;input.store&gt; [output.store]</code><br/>
+ * If no output is given, the result is written next to the input with a ".converted" suffix.
+ */
+public class StoreConverter {
+
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("usage: StoreConverter <input"
+					+ Database.DB_SUFFIX + "> [output" + Database.DB_SUFFIX
+					+ "]");
+			System.exit(1);
+		}
+		File src = new File(args[0]);
+		File dst = new File((args.length > 1) ? args[1] : args[0]
+				+ ".converted");
+		try {
+			convert(src, dst);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Reads the store at <code>src</code> and writes it to <code>dst</code> in the current
+	 * format, then reads the result back to verify it. Timings and sizes for each step are
+	 * printed to standard output.
+	 * @param src
+	 * @param dst
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void convert(File src, File dst) throws IOException,
+			ClassNotFoundException {
+		long t0 = System.nanoTime();
+		Database db = Database.readStore(new BufferedInputStream(
+				new FileInputStream(src)));
+		long t1 = System.nanoTime();
+		db.writeStore(new BufferedOutputStream(new FileOutputStream(dst)));
+		long t2 = System.nanoTime();
+		Database check = Database.readStore(new BufferedInputStream(
+				new FileInputStream(dst)));
+		long t3 = System.nanoTime();
+		if (check.getSize() != db.getSize()) {
+			throw (new DatabaseException("verification failed: wrote "
+					+ db.getSize() + " artifacts but read back "
+					+ check.getSize()));
+		}
+
+		System.out.println("Converted " + db.getSize() + " artifacts");
+		report("read  " + src.getName(), src.length(), t1 - t0);
+		report("write " + dst.getName(), dst.length(), t2 - t1);
+		report("read  " + dst.getName(), dst.length(), t3 - t2);
+	}
+
+	private static void report(String step, long bytes, long nanos) {
+		double ms = nanos / 1e6;
+		double mbps = (bytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+		System.out.println(String.format("  %-40s %10d bytes %10.1f ms %8.2f MB/s",
+				step, bytes, ms, mbps));
+	}
+}
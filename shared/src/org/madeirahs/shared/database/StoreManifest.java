@@ -0,0 +1,158 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Lists the files that make up the published Database: one base store-file followed by the
+ * delta segments that should be applied to it, in order. The manifest is a small text file
+ * so that it can be rewritten cheaply on every sync:
+ * <pre>
+ * MHS-MANIFEST 1
+ * base &lt;name&gt; &lt;timestamp&gt; &lt;bytes&gt;
+ * delta &lt;name&gt; &lt;timestamp&gt; &lt;bytes&gt;
+ * ...
+ * </pre>
+ */
+class StoreManifest {
+
+	static final String HEADER = "MHS-MANIFEST", BASE = "base", DELTA = "delta";
+	static final int VERSION = 1;
+
+	Entry base;
+	ArrayList<Entry> deltas = new ArrayList<Entry>();
+
+	StoreManifest(Entry base) {
+		this.base = base;
+	}
+
+	/**
+	 * Reads a manifest from the stream. The stream is closed afterwards.
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	static StoreManifest read(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+				ArtifactEncoder.UTF8));
+		try {
+			String line = reader.readLine();
+			if (line == null || !line.startsWith(HEADER + " ")) {
+				throw (new DatabaseException("not a database manifest"));
+			}
+			int version = Integer.parseInt(line.substring(HEADER.length() + 1)
+					.trim());
+			if (version > VERSION) {
+				throw (new DatabaseException("unsupported manifest version: "
+						+ version));
+			}
+			StoreManifest manifest = new StoreManifest(null);
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				String[] pts = line.split("\\s+");
+				if (pts.length != 4) {
+					throw (new DatabaseException("malformed manifest entry: " + line));
+				}
+				Entry e = new Entry(pts[1], Long.parseLong(pts[2]),
+						Long.parseLong(pts[3]));
+				if (pts[0].equals(BASE)) {
+					manifest.base = e;
+				} else if (pts[0].equals(DELTA)) {
+					manifest.deltas.add(e);
+				}
+			}
+			if (manifest.base == null) {
+				throw (new DatabaseException("manifest doesn't specify a base store"));
+			}
+			return manifest;
+		} catch (NumberFormatException e) {
+			throw (new DatabaseException("malformed manifest", e));
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Writes the manifest to the stream and closes it.
+	 * @param out
+	 * @throws IOException
+	 */
+	void write(OutputStream out) throws IOException {
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(out,
+				ArtifactEncoder.UTF8));
+		pw.print(HEADER + " " + VERSION + "\n");
+		pw.print(BASE + " " + base + "\n");
+		for (Entry e : deltas) {
+			pw.print(DELTA + " " + e + "\n");
+		}
+		pw.close();
+		if (pw.checkError()) {
+			throw (new IOException("failed to write database manifest"));
+		}
+	}
+
+	/**
+	 * @return the total size in bytes of all delta segments.
+	 */
+	long deltaBytes() {
+		long total = 0;
+		for (Entry e : deltas) {
+			total += e.size;
+		}
+		return total;
+	}
+
+	/**
+	 * @return the timestamp of the most recently published file, which identifies the
+	 * current state of the published Database.
+	 */
+	long version() {
+		return deltas.isEmpty() ? base.timestamp : deltas
+				.get(deltas.size() - 1).timestamp;
+	}
+
+	static class Entry {
+
+		final String name;
+		final long timestamp, size;
+
+		Entry(String name, long timestamp, long size) {
+			this.name = name;
+			this.timestamp = timestamp;
+			this.size = size;
+		}
+
+		@Override
+		public String toString() {
+			return name + " " + timestamp + " " + size;
+		}
+	}
+}
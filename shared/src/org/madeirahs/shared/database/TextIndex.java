@@ -0,0 +1,410 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.madeirahs.shared.SearchKeys;
+
+/**
+ * Inverted index over the values of one String field. The index maps every distinct token of the
+ * normalized values (see {@link SearchKeys}) to the documents containing it and how often it
+ * occurs in each.
+ * <br/><br/>
+ * Query terms match as substrings, so a term's occurrence count in a value is the sum of its
+ * occurrences in each of the value's tokens (a term never contains whitespace and so can't span
+ * two tokens). Tokens containing a term are found through a trigram index over the vocabulary,
+ * which makes the cost of a query depend on the number of matches rather than the number of
+ * documents.
+ * <br/><br/>
+ * The trigram index also covers each token padded with a space on both sides, which lets
+ * misspelled terms be matched approximately: a token within d edits of an n-character term shares
+ * at least n - 3d of the term's padded trigrams, so only tokens that share enough trigrams (or,
+ * when that bound is useless, have a length within d of the term's) are checked by computing the
+ * edit distance.
+ */
+final class TextIndex {
+
+	/**
+	 * Query words that are ignored; must be kept sorted.
+	 */
+	static final String[] STOP_WORDS = new String[] { "a", "an", "and", "but",
+			"of", "the" };
+
+	private static final int GRAM = 3;
+	private static final int[] NONE = new int[0];
+
+	private final String[] vocab;
+	private final int[][] postings, freqs, byLength;
+	private final HashMap<String, int[]> grams = new HashMap<String, int[]>();
+
+	/**
+	 * Builds the index.
+	 * @param values the normalized tokens of each document's field value; document ids are
+	 * positions in this array.
+	 */
+	TextIndex(String[][] values) {
+		HashMap<String, ArrayList<int[]>> tokens = new HashMap<String, ArrayList<int[]>>();
+		HashMap<String, int[]> docCounts = new HashMap<String, int[]>();
+		for (int doc = 0; doc < values.length; doc++) {
+			docCounts.clear();
+			for (String tok : values[doc]) {
+				int[] c = docCounts.get(tok);
+				if (c == null) {
+					docCounts.put(tok, new int[] { 1 });
+				} else {
+					c[0]++;
+				}
+			}
+			for (Map.Entry<String, int[]> e : docCounts.entrySet()) {
+				ArrayList<int[]> list = tokens.get(e.getKey());
+				if (list == null) {
+					list = new ArrayList<int[]>();
+					tokens.put(e.getKey(), list);
+				}
+				list.add(new int[] { doc, e.getValue()[0] });
+			}
+		}
+
+		vocab = tokens.keySet().toArray(new String[tokens.size()]);
+		Arrays.sort(vocab);
+		postings = new int[vocab.length][];
+		freqs = new int[vocab.length][];
+		HashMap<String, ArrayList<Integer>> gramLists = new HashMap<String, ArrayList<Integer>>();
+		for (int id = 0; id < vocab.length; id++) {
+			ArrayList<int[]> list = tokens.get(vocab[id]);
+			postings[id] = new int[list.size()];
+			freqs[id] = new int[list.size()];
+			for (int i = 0; i < list.size(); i++) {
+				postings[id][i] = list.get(i)[0];
+				freqs[id][i] = list.get(i)[1];
+			}
+			String tok = " " + vocab[id] + " ";
+			for (int i = 0; i + GRAM <= tok.length(); i++) {
+				String g = tok.substring(i, i + GRAM);
+				ArrayList<Integer> ids = gramLists.get(g);
+				if (ids == null) {
+					ids = new ArrayList<Integer>();
+					gramLists.put(g, ids);
+				}
+				// ids are added in increasing order, so a repeated gram is always the last one
+				if (ids.isEmpty() || ids.get(ids.size() - 1) != id) {
+					ids.add(id);
+				}
+			}
+		}
+		for (Map.Entry<String, ArrayList<Integer>> e : gramLists.entrySet()) {
+			ArrayList<Integer> ids = e.getValue();
+			int[] arr = new int[ids.size()];
+			for (int i = 0; i < arr.length; i++) {
+				arr[i] = ids.get(i);
+			}
+			grams.put(e.getKey(), arr);
+		}
+		int maxLen = 0;
+		for (String tok : vocab) {
+			maxLen = Math.max(maxLen, tok.length());
+		}
+		int[] lengths = new int[maxLen + 1];
+		for (String tok : vocab) {
+			lengths[tok.length()]++;
+		}
+		byLength = new int[maxLen + 1][];
+		for (int len = 0; len <= maxLen; len++) {
+			byLength[len] = new int[lengths[len]];
+			lengths[len] = 0;
+		}
+		for (int id = 0; id < vocab.length; id++) {
+			int len = vocab[id].length();
+			byLength[len][lengths[len]++] = id;
+		}
+	}
+
+	/**
+	 * Adds the occurrence count of every term to the score of each document containing it.
+	 * @param terms query terms, as returned by {@link #terms(String)}
+	 * @param scores map of document id to score (a one element array) to add to
+	 */
+	void score(String[] terms, HashMap<Integer, int[]> scores) {
+		for (String term : terms) {
+			for (int id : tokensContaining(term)) {
+				int occ = occurrences(vocab[id], term);
+				int[] docs = postings[id], tf = freqs[id];
+				for (int i = 0; i < docs.length; i++) {
+					int[] s = scores.get(docs[i]);
+					if (s == null) {
+						scores.put(docs[i], new int[] { occ * tf[i] });
+					} else {
+						s[0] += occ * tf[i];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds how closely each document matches every term to its score: a document with a token
+	 * containing the term scores <code>maxDist + 1</code>, and one with a token d edits away from
+	 * it scores <code>maxDist + 1 - d</code>. Only the closest token of a document counts.
+	 * @param terms query terms, as returned by {@link #terms(String)}
+	 * @param maxDist the greatest number of edits (insertions, deletions or substitutions of a
+	 *        character) between a term and a matching token
+	 * @param scores map of document id to score (a one element array) to add to
+	 */
+	void scoreFuzzy(String[] terms, int maxDist, HashMap<Integer, int[]> scores) {
+		HashMap<Integer, int[]> best = new HashMap<Integer, int[]>();
+		for (String term : terms) {
+			best.clear();
+			for (int id : tokensContaining(term)) {
+				addBest(id, maxDist + 1, best);
+			}
+			for (int[] near : tokensNear(term, maxDist)) {
+				addBest(near[0], maxDist + 1 - near[1], best);
+			}
+			for (Map.Entry<Integer, int[]> e : best.entrySet()) {
+				int[] s = scores.get(e.getKey());
+				if (s == null) {
+					scores.put(e.getKey(), e.getValue());
+				} else {
+					s[0] += e.getValue()[0];
+				}
+			}
+		}
+	}
+
+	private void addBest(int id, int score, HashMap<Integer, int[]> best) {
+		for (int doc : postings[id]) {
+			int[] s = best.get(doc);
+			if (s == null) {
+				best.put(doc, new int[] { score });
+			} else if (score > s[0]) {
+				s[0] = score;
+			}
+		}
+	}
+
+	/**
+	 * <Internal Method> Finds the vocabulary tokens within maxDist edits of the term.
+	 * @return pairs of token id and edit distance.
+	 */
+	private ArrayList<int[]> tokensNear(String term, int maxDist) {
+		ArrayList<int[]> found = new ArrayList<int[]>();
+		int len = term.length();
+		String padded = " " + term + " ";
+		HashMap<String, Boolean> distinct = new HashMap<String, Boolean>();
+		for (int i = 0; i + GRAM <= padded.length(); i++) {
+			distinct.put(padded.substring(i, i + GRAM), Boolean.TRUE);
+		}
+		int min = distinct.size() - GRAM * maxDist;
+		if (min <= 0) {
+			// too few grams to filter by; check every token of a possible length
+			for (int l = Math.max(0, len - maxDist); l <= len + maxDist
+					&& l < byLength.length; l++) {
+				for (int id : byLength[l]) {
+					int d = distance(term, vocab[id], maxDist);
+					if (d <= maxDist) {
+						found.add(new int[] { id, d });
+					}
+				}
+			}
+			return found;
+		}
+		HashMap<Integer, int[]> shared = new HashMap<Integer, int[]>();
+		for (String g : distinct.keySet()) {
+			int[] ids = grams.get(g);
+			if (ids == null) {
+				continue;
+			}
+			for (int id : ids) {
+				int[] c = shared.get(id);
+				if (c == null) {
+					shared.put(id, new int[] { 1 });
+				} else {
+					c[0]++;
+				}
+			}
+		}
+		for (Map.Entry<Integer, int[]> e : shared.entrySet()) {
+			int id = e.getKey();
+			if (e.getValue()[0] >= min && Math.abs(vocab[id].length() - len) <= maxDist) {
+				int d = distance(term, vocab[id], maxDist);
+				if (d <= maxDist) {
+					found.add(new int[] { id, d });
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Estimates the number of documents containing any of the terms, as the total length of the
+	 * postings of the tokens that contain them. Documents containing several such tokens are
+	 * counted more than once.
+	 * @param terms query terms, as returned by {@link #terms(String)}
+	 * @return
+	 */
+	int estimate(String[] terms) {
+		int n = 0;
+		for (String term : terms) {
+			for (int id : tokensContaining(term)) {
+				n += postings[id].length;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * <Internal Method> Finds the ids of all vocabulary tokens that contain the term. Terms of
+	 * at least three characters are looked up by their rarest trigram; shorter ones are checked
+	 * against every token.
+	 * @param term
+	 * @return
+	 */
+	private int[] tokensContaining(String term) {
+		int[] cand = null;
+		if (term.length() >= GRAM) {
+			for (int i = 0; i + GRAM <= term.length(); i++) {
+				int[] ids = grams.get(term.substring(i, i + GRAM));
+				if (ids == null) {
+					return NONE;
+				}
+				if (cand == null || ids.length < cand.length) {
+					cand = ids;
+				}
+			}
+		}
+		int n = (cand != null) ? cand.length : vocab.length;
+		int[] found = new int[n];
+		int fc = 0;
+		for (int i = 0; i < n; i++) {
+			int id = (cand != null) ? cand[i] : i;
+			if (vocab[id].indexOf(term) >= 0) {
+				found[fc++] = id;
+			}
+		}
+		return Arrays.copyOf(found, fc);
+	}
+
+	/**
+	 * Splits a query into normalized terms, dropping stop words. Repeated terms are kept since
+	 * each one counts toward the score.
+	 * @param query
+	 * @return
+	 */
+	static String[] terms(String query) {
+		ArrayList<String> terms = new ArrayList<String>();
+		for (String s : SearchKeys.tokenize(SearchKeys.normalize(query))) {
+			if (Arrays.binarySearch(STOP_WORDS, s) < 0) {
+				terms.add(s);
+			}
+		}
+		return terms.toArray(new String[terms.size()]);
+	}
+
+	/**
+	 * Counts the occurrences of the terms in a field value without using an index.
+	 * @param norm the normalized field value; may be null.
+	 * @param terms query terms, as returned by {@link #terms(String)}
+	 * @return
+	 */
+	static int count(String norm, String[] terms) {
+		if (norm == null) {
+			return 0;
+		}
+		int total = 0;
+		for (String term : terms) {
+			total += occurrences(norm, term);
+		}
+		return total;
+	}
+
+	/**
+	 * Scores a field value against the terms as {@link #scoreFuzzy(String[], int, HashMap)}
+	 * does, without using an index.
+	 * @param tokens the tokens of the normalized field value
+	 * @param terms query terms, as returned by {@link #terms(String)}
+	 * @param maxDist
+	 * @return the score, or 0 if no term matches.
+	 */
+	static int fuzzyCount(String[] tokens, String[] terms, int maxDist) {
+		int total = 0;
+		for (String term : terms) {
+			int best = 0;
+			for (String tok : tokens) {
+				if (tok.indexOf(term) >= 0) {
+					best = maxDist + 1;
+					break;
+				}
+				best = Math.max(best, maxDist + 1 - distance(term, tok, maxDist));
+			}
+			total += best;
+		}
+		return total;
+	}
+
+	/**
+	 * Computes the edit (Levenshtein) distance between two Strings, giving up once it is known to
+	 * be more than max.
+	 * @param a
+	 * @param b
+	 * @param max
+	 * @return the distance, or max + 1 if it is greater than max.
+	 */
+	static int distance(String a, String b, int max) {
+		if (Math.abs(a.length() - b.length()) > max) {
+			return max + 1;
+		}
+		int[] prev = new int[b.length() + 1], cur = new int[b.length() + 1];
+		for (int j = 0; j <= b.length(); j++) {
+			prev[j] = j;
+		}
+		for (int i = 1; i <= a.length(); i++) {
+			cur[0] = i;
+			int rowMin = i;
+			char c = a.charAt(i - 1);
+			for (int j = 1; j <= b.length(); j++) {
+				int sub = prev[j - 1] + ((c == b.charAt(j - 1)) ? 0 : 1);
+				cur[j] = Math.min(sub, Math.min(prev[j], cur[j - 1]) + 1);
+				rowMin = Math.min(rowMin, cur[j]);
+			}
+			if (rowMin > max) {
+				return max + 1;
+			}
+			int[] t = prev;
+			prev = cur;
+			cur = t;
+		}
+		return Math.min(prev[b.length()], max + 1);
+	}
+
+	/**
+	 * <Internal Method> Counts (possibly overlapping) occurrences of the term in the String.
+	 */
+	private static int occurrences(String str, String term) {
+		int n = 0, next = -1;
+		while ((next = str.indexOf(term, next + 1)) >= 0) {
+			n++;
+		}
+		return n;
+	}
+}
@@ -27,7 +27,7 @@ public class MonitoredInStream extends InputStream {
 
 	InputStream stream;
 	ProgressMonitor prog;
-	long total, max;
+	private final ProgressCounter count;
 
 	/**
 	 * Updates the given ProgressMonitor on the progress of the given InputStream.
@@ -42,20 +42,57 @@ public class MonitoredInStream extends InputStream {
 		}
 		this.prog = prog;
 		this.stream = out;
-		this.max = max;
+		this.count = new ProgressCounter(prog, max);
+	}
+
+	/**
+	 * Sets how often the ProgressMonitor is updated: after at least <code>bytes</code> more bytes
+	 * have been read, or once <code>millis</code> have passed since the last update, whichever comes
+	 * first. The defaults are 64kB and 100ms; (0, 0) updates it on every call.
+	 * @param bytes
+	 * @param millis
+	 */
+	public void setGranularity(long bytes, long millis) {
+		count.setGranularity(bytes, millis);
 	}
 
 	@Override
 	public int read() throws IOException {
 		int nextByte = stream.read();
-		total++;
-		int p = (int) Math.round(((double) total / max) * 100);
-		prog.setProgress((p<=100) ? p:100);
+		if (nextByte >= 0) {
+			count.add(1);
+		} else {
+			count.report();
+		}
 		return nextByte;
 	}
 
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = stream.read(b, off, len);
+		if (n > 0) {
+			count.add(n);
+		} else if (n < 0) {
+			count.report();
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = stream.skip(n);
+		count.add(skipped);
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return stream.available();
+	}
+
 	@Override
 	public void close() throws IOException {
+		count.report();
 		stream.close();
 	}
 }
@@ -28,7 +28,7 @@ public class MonitoredOutStream extends OutputStream {
 
 	OutputStream stream;
 	ProgressMonitor prog;
-	long total, max;
+	private final ProgressCounter count;
 
 	/**
 	 * Updates the given ProgressMonitor on the progress of the given OutputStream.
@@ -43,19 +43,40 @@ public class MonitoredOutStream extends OutputStream {
 		}
 		this.prog = prog;
 		this.stream = out;
-		this.max = max;
+		this.count = new ProgressCounter(prog, max);
+	}
+
+	/**
+	 * Sets how often the ProgressMonitor is updated: after at least <code>bytes</code> more bytes
+	 * have been written, or once <code>millis</code> have passed since the last update, whichever
+	 * comes first. The defaults are 64kB and 100ms; (0, 0) updates it on every call.
+	 * @param bytes
+	 * @param millis
+	 */
+	public void setGranularity(long bytes, long millis) {
+		count.setGranularity(bytes, millis);
 	}
 
 	@Override
 	public void write(int b) throws IOException {
 		stream.write(b);
-		total++;
-		int p = (int) Math.round(((double) total / max) * 100);
-		prog.setProgress(p);
+		count.add(1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		stream.write(b, off, len);
+		count.add(len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		stream.flush();
 	}
 
 	@Override
 	public void close() throws IOException {
+		count.report();
 		stream.close();
 	}
 }
@@ -0,0 +1,85 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.misc;
+
+import javax.swing.ProgressMonitor;
+
+/**
+ * Counts the bytes passed through a monitored stream and reports them to a ProgressMonitor as a
+ * percentage of the expected total. Reports are coalesced: the monitor is updated once at least
+ * <code>bytes</code> more have been counted or <code>millis</code> have passed since the last
+ * update, and only when the percentage has changed.
+ */
+final class ProgressCounter {
+
+	static final long DEFAULT_BYTES = 0x10000, DEFAULT_MILLIS = 100; // 64kB, 100ms
+
+	private final ProgressMonitor prog;
+	private final long max;
+	private long total, bytes = DEFAULT_BYTES, millis = DEFAULT_MILLIS;
+	private long lastTotal, lastTime = System.currentTimeMillis();
+	private int percent = -1;
+
+	ProgressCounter(ProgressMonitor prog, long max) {
+		this.prog = prog;
+		this.max = max;
+	}
+
+	/**
+	 * @param bytes
+	 * @param millis
+	 * @see MonitoredInStream#setGranularity(long, long)
+	 */
+	void setGranularity(long bytes, long millis) {
+		if (bytes < 0 || millis < 0) {
+			throw (new IllegalArgumentException("granularity cannot be negative"));
+		}
+		this.bytes = bytes;
+		this.millis = millis;
+	}
+
+	/**
+	 * Counts <code>n</code> more bytes, updating the monitor if it's due.
+	 * @param n
+	 */
+	void add(long n) {
+		total += n;
+		if (total - lastTotal >= bytes || System.currentTimeMillis() - lastTime >= millis) {
+			report();
+		}
+	}
+
+	/**
+	 * Updates the monitor with the current count. The percentage never exceeds 100, and nothing
+	 * is reported if the total is unknown (&lt;= 0).
+	 */
+	void report() {
+		lastTotal = total;
+		lastTime = System.currentTimeMillis();
+		if (max <= 0) {
+			return;
+		}
+		int p = (int) Math.min(100, Math.round(((double) total / max) * 100));
+		if (p != percent) {
+			percent = p;
+			prog.setProgress(p);
+		}
+	}
+}
@@ -20,10 +20,45 @@
 package org.madeirahs.shared.misc;
 
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 public class Threads {
 	
 	public static void execute(Runnable r) {
 		Executors.newSingleThreadExecutor().execute(r);
 	}
+
+	/**
+	 * Creates a fixed-size pool of daemon threads, so that idle pools never keep the VM
+	 * alive. Threads are named <code>name-N</code>.
+	 * @param name prefix for the pool's thread names
+	 * @param nthreads number of threads in the pool; values < 1 are treated as 1
+	 * @return
+	 */
+	public static ExecutorService newDaemonPool(final String name, int nthreads) {
+		return Executors.newFixedThreadPool(Math.max(1, nthreads), daemonFactory(name));
+	}
+
+	/**
+	 * Creates a single daemon thread that runs delayed tasks. The thread is named
+	 * <code>name-1</code>.
+	 * @param name prefix for the thread's name
+	 * @return
+	 */
+	public static ScheduledExecutorService newDaemonScheduler(final String name) {
+		return Executors.newSingleThreadScheduledExecutor(daemonFactory(name));
+	}
+
+	private static ThreadFactory daemonFactory(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
 }
@@ -22,36 +22,82 @@ package org.madeirahs.shared.provider;
 import java.awt.image.*;
 import java.io.*;
 import java.net.*;
+import java.security.*;
 import java.util.*;
 import java.util.concurrent.*;
 
 import javax.imageio.*;
 
 import org.apache.commons.net.ftp.*;
+import org.madeirahs.shared.misc.Threads;
 
 /**
  * Implementation of DataProvider for obtaining data streams to/from a remote
  * FTP server.
+ * <br/><br/>
+ * The provider keeps a pool of up to <code>poolSize</code> sessions with the
+ * server, each its own logged-in FTPClient, so that transfers and other
+ * operations run concurrently instead of waiting on each other. Sessions are
+ * opened as they are needed and reused afterward. An open stream holds its
+ * session until it is closed; when every session is in use, other operations
+ * wait for one to be returned.
+ * <br/><br/>
+ * Each session tracks its own working directory and follows the provider's
+ * working directory the next time it is used. Idle sessions are checked
+ * periodically and any the server has dropped are discarded, to be replaced
+ * on demand.
  * 
  * @author Brian Groenke
  * 
  */
 public class FTPProvider implements DataProvider {
-	
+
+	/**
+	 * The number of sessions used by the constructors that don't specify one.
+	 */
+	public static final int DEFAULT_POOL_SIZE = 4;
+
 	private static final int SO_TIMEOUT = 0x3938700, BUFF_SIZE = 0x4000; //16kB
 
-	private FTPClient ftp = new FTPClient();
-	private String address, wkdir = "/", home = wkdir;
-	private volatile boolean available, login;
-	private Thread ka;
-	private long lastPingTime;
+	/*
+	 * Idle sessions are checked by the health task every HEALTH_INTERVAL ms (5 mins), and are
+	 * checked with a NOOP before being handed out if they've been idle for IDLE_CHECK ms.
+	 */
+	private static final long HEALTH_INTERVAL = 300000, IDLE_CHECK = 30000;
+
+	/*
+	 * Resumable transfers are attempted up to MAX_ATTEMPTS times, waiting RETRY_DELAY ms longer
+	 * before each retry. SIZE_REPLY is the reply code of a successful SIZE command.
+	 */
+	private static final int MAX_ATTEMPTS = 5, SIZE_REPLY = 213;
+	private static final long RETRY_DELAY = 2000;
+
+	/*
+	 * Number of bytes read from each end of a provider's file to identify it for resuming.
+	 */
+	private static final int ID_SAMPLE = 0x10000;
+
+	private final int poolSize;
 
 	/**
-	 * All operations using FTPClient (with the exception for initializers)
-	 * should acquire a permit from Semaphore <code>guard</code> first. One
-	 * permit is available, and it is issued on a first-in-first-out basis.
+	 * All operations using an FTPClient (with the exception for initializers)
+	 * should acquire a permit from Semaphore <code>permits</code> first, one
+	 * per session. Permits are issued on a first-in-first-out basis.
 	 */
-	private Semaphore guard = new Semaphore(1, true);
+	private final Semaphore permits;
+
+	/*
+	 * Sessions not in use, most recently used last. The deque's lock also guards the
+	 * connection settings and the health task.
+	 */
+	private final ArrayDeque<Session> idle = new ArrayDeque<Session>();
+	private String address, username, password;
+	private int generation;
+	private ScheduledExecutorService health;
+
+	private volatile String wkdir = "/", home = wkdir;
+	private volatile boolean login;
+	private volatile TransferManifest manifest = new TransferManifest(null);
 
 	private final LogoutHook EXIT_HOOK = new LogoutHook();
 
@@ -68,14 +114,16 @@ public class FTPProvider implements DataProvider {
 	 *             if the socket could not be opened.
 	 */
 	public FTPProvider(String address) throws SocketException, IOException {
-		init();
+		this.poolSize = DEFAULT_POOL_SIZE;
+		this.permits = new Semaphore(poolSize, true);
 		connect(address);
 	}
 
 	/**
 	 * Create an FTPProvider that logs into and communicates with a remote FTP
 	 * server at the corresponding <code>address</code>, <code>username</code>
-	 * and <code>password</code>.
+	 * and <code>password</code>, using up to {@link #DEFAULT_POOL_SIZE}
+	 * sessions.
 	 * 
 	 * Note: this constructor simply calls: <code>connect(address)</code>
 	 * 
@@ -94,31 +142,54 @@ public class FTPProvider implements DataProvider {
 	 */
 	public FTPProvider(String address, String username, String password)
 			throws LoginException, SocketException, IOException {
-		init();
+		this(address, username, password, DEFAULT_POOL_SIZE);
+	}
+
+	/**
+	 * Create an FTPProvider that logs into and communicates with a remote FTP
+	 * server using up to <code>poolSize</code> sessions at once. One session
+	 * is opened (and the login checked) immediately; the others are opened
+	 * when they are needed.
+	 * 
+	 * @param address
+	 *            the remote address to connect to.
+	 * @param username
+	 *            the username to login with.
+	 * @param password
+	 *            the password to login with.
+	 * @param poolSize
+	 *            the maximum number of sessions to open.
+	 * @throws LoginException
+	 *             if the login was unsuccessful.
+	 * @throws SocketException
+	 *             if the socket timeout could not be set.
+	 * @throws IOException
+	 *             if the socket could not be opened.
+	 */
+	public FTPProvider(String address, String username, String password, int poolSize)
+			throws LoginException, SocketException, IOException {
+		if (poolSize < 1) {
+			throw (new IllegalArgumentException("pool size must be positive"));
+		}
+		this.poolSize = poolSize;
+		this.permits = new Semaphore(poolSize, true);
 		connect(address, username, password);
 	}
 
 	/**
 	 * Performs a connection attempt to the specified address without sending login information.
+	 * If the provider is already connected, the current sessions are closed first.
 	 * @param address
 	 * @throws SocketException
 	 * @throws IOException
 	 */
 	protected void connect(String address) throws SocketException, IOException {
-		ftp.connect(address);
-		int reply = ftp.getReplyCode();
-		if (!FTPReply.isPositiveCompletion(reply)) {
-			throw (new IOException(
-					"connection attempted failed with reply code: " + reply));
-		}
-		this.address = address;
-		this.wkdir = ftp.printWorkingDirectory();
-		login = true;
-		initConn();
+		start(address, null, null);
 	}
 
 	/**
-	 * Attempts to login to the FTP server at the specified address.
+	 * Attempts to login to the FTP server at the specified address. If the provider is already
+	 * connected, the current sessions are closed first.
 	 * @param address
 	 * @param username
 	 * @param password
@@ -126,59 +197,46 @@ public class FTPProvider implements DataProvider {
 	 * @throws IOException
 	 */
 	protected void connect(String address, String username, String password) throws SocketException, IOException {
-		ftp.connect(address);
-		int reply = ftp.getReplyCode();
-		if (!FTPReply.isPositiveCompletion(reply)) {
-			throw (new IOException(
-					"connection attempted failed with reply code: " + reply));
-		}
-		this.address = address;
-		boolean success = ftp.login(username, password);
-		if (!success) {
-			ftp.disconnect();
-			throw (new LoginException("invalid login"));
-		} else {
-			Runtime.getRuntime().addShutdownHook(EXIT_HOOK);
-			this.wkdir = ftp.printWorkingDirectory();
-			login = true;
-			initConn();
-		}
+		start(address, username, password);
 	}
 	
 	/**
-	 * Internal initialization method called by constructors.  This is called once before
-	 * any connection attempt is made.
+	 * Internal initialization method called for each session's client.  This is called once before
+	 * the client's connection attempt is made.
+	 * @param client
 	 * @throws SocketException
 	 */
-	protected void init() throws IOException {
-		ftp.setBufferSize(BUFF_SIZE);
-		ftp.setSendBufferSize(BUFF_SIZE);
-		ftp.setReceiveBufferSize(BUFF_SIZE);
+	protected void init(FTPClient client) throws IOException {
+		client.setBufferSize(BUFF_SIZE);
+		client.setSendBufferSize(BUFF_SIZE);
+		client.setReceiveBufferSize(BUFF_SIZE);
 	}
 
 	/**
-	 * Internal connection initialization method called by connect methods. Subclasses should
-	 * also call this method if not explicitly calling super constructor. <br/>
+	 * Internal connection initialization method called for each session's client once it has
+	 * connected (and logged in, if a login was given). <br/>
 	 * <br/>
 	 * Specification:<br/>
-	 * Sets file transaction type to BINARY_FILE_TYPE, sets local passive mode
-	 * and launches FTP keepAlive thread.
+	 * Sets file transaction type to BINARY_FILE_TYPE and sets local passive mode.
 	 * 
+	 * @param client
 	 * @throws IOException
 	 */
-	protected void initConn() throws IOException {
-		ftp.setSoTimeout(SO_TIMEOUT);
-		ftp.setTcpNoDelay(false);
-		ftp.setFileTransferMode(FTPClient.BLOCK_TRANSFER_MODE);
-		ftp.enterLocalPassiveMode(); // should help to avoid any issues with
+	protected void initConn(FTPClient client) throws IOException {
+		client.setSoTimeout(SO_TIMEOUT);
+		client.setTcpNoDelay(false);
+		client.setFileTransferMode(FTPClient.BLOCK_TRANSFER_MODE);
+		client.enterLocalPassiveMode(); // should help to avoid any issues with
 		    // firewalls
-		ftp.setFileType(FTP.BINARY_FILE_TYPE); // All file transfers by
+		client.setFileType(FTP.BINARY_FILE_TYPE); // All file transfers by
 		    // FTPProvider should be binary.
+	}
 
-		ka = new Thread(new KeepAlive());
-		ka.setDaemon(true);
-		ka.setName("Ftp_keepAlive");
-		ka.start();
+	/**
+	 * @return the maximum number of sessions this provider keeps with the server.
+	 */
+	public int getPoolSize() {
+		return poolSize;
 	}
 
 	/**
@@ -187,7 +245,6 @@ public class FTPProvider implements DataProvider {
 	 * system.
 	 * 
 	 * @return the current working directory
-	 * @throws  
 	 */
 	@Override
 	public String getWorkingDir() {
@@ -205,7 +262,9 @@ public class FTPProvider implements DataProvider {
 	}
 
 	/**
-	 * Sets the working directory for this FTPProvider on the FTP server.
+	 * Sets the working directory for this FTPProvider on the FTP server. The
+	 * directory may be relative to the current one. If the server refuses the
+	 * change, the working directory is left as it was.
 	 * 
 	 * @throws IOException
 	 * 
@@ -213,14 +272,19 @@ public class FTPProvider implements DataProvider {
 	 */
 	@Override
 	public void setWorkingDir(String wkdir) throws IOException {
+		Session s = acquire();
+		boolean ok = false;
 		try {
-			guard.acquire();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+			// other sessions follow by absolute path, so resolve it on this one
+			if (s.ftp.changeWorkingDirectory(wkdir)) {
+				String dir = s.ftp.printWorkingDirectory();
+				s.dir = (dir != null) ? dir : wkdir;
+				this.wkdir = s.dir;
+			}
+			ok = true;
+		} finally {
+			release(s, ok);
 		}
-		ftp.changeWorkingDirectory(wkdir);
-		guard.release();
-		this.wkdir = wkdir;
 	}
 
 	@Override
@@ -230,60 +294,66 @@ public class FTPProvider implements DataProvider {
 
 	/**
 	 * Checks to see if this FTPProvider is connected, logged in and ready to be
-	 * used for data transfers.
+	 * used for data transfers. This waits for a session if all of them are in
+	 * use.
 	 */
 	@Override
 	public boolean isAvailable() {
+		if (!login) {
+			return false;
+		}
 		try {
-			guard.acquire();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+			release(acquire(), true);
+			return true;
+		} catch (IOException e) {
+			return false;
 		}
-		boolean available = ftp.isConnected() && ftp.isAvailable() && login;
-		guard.release();
-		return available;
 	}
 
 	/**
 	 * Fetches an input stream from the specified file on the server. Returns
 	 * null if the file doesn't exist, the stream can't be opened, or the server
 	 * sends a negative reply code. The returned InputStream will take care of
-	 * completing the transfer when you call <code>close()</code>.
+	 * completing the transfer when you call <code>close()</code>, which also
+	 * returns its session to the pool.
 	 */
 	@Override
 	public InputStream getInputStream(String fileName) throws IOException {
+		Session s = acquire();
+		InputStream in = null;
+		boolean ok = false;
 		try {
-			guard.acquire();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		InputStream in = ftp.retrieveFileStream(fileName);
-		guard.release();
-		if (in == null) {
-			return null;
+			in = s.ftp.retrieveFileStream(fileName);
+			ok = true;
+		} finally {
+			if (in == null) {
+				release(s, ok);
+			}
 		}
-		return new FtpInputStream(in);
+		return (in != null) ? new FtpInputStream(s, in) : null;
 	}
 
 	/**
 	 * Fetches an output stream to the specified file on the server. Returns
 	 * null if the stream can't be opened, or the server sends a negative reply
 	 * code. The returned OutputStream will take care of completing the transfer
-	 * when you call <code>close()</code>.
+	 * when you call <code>close()</code>, which also returns its session to the
+	 * pool.
 	 */
 	@Override
 	public OutputStream getOutputStream(String fileName) throws IOException {
+		Session s = acquire();
+		OutputStream out = null;
+		boolean ok = false;
 		try {
-			guard.acquire();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		OutputStream out = ftp.storeFileStream(fileName);
-		guard.release();
-		if (out == null) {
-			return null;
+			out = s.ftp.storeFileStream(fileName);
+			ok = true;
+		} finally {
+			if (out == null) {
+				release(s, ok);
+			}
 		}
-		return new FtpOutputStream(out);
+		return (out != null) ? new FtpOutputStream(s, out) : null;
 	}
 
 	/**
@@ -292,21 +362,16 @@ public class FTPProvider implements DataProvider {
 	 */
 	@Override
 	public BufferedImage loadImage(String fileName) throws IOException {
-		BufferedImage img = null;
-		try {
-			guard.acquire();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		InputStream in = ftp.retrieveFileStream(fileName);
-		guard.release();
+		InputStream in = getInputStream(fileName);
 		if (in == null) {
 			return null;
 		}
-		in = new BufferedInputStream(new FtpInputStream(in));
-		img = ImageIO.read(in);
-		in.close();
-		return img;
+		in = new BufferedInputStream(in);
+		try {
+			return ImageIO.read(in);
+		} finally {
+			in.close();
+		}
 	}
 
 	/**
@@ -322,23 +387,25 @@ public class FTPProvider implements DataProvider {
 
 	/**
 	 * Logout and disconnect from the server.  Note that all methods will most likely throw some sort of IOException
-	 * until <code>reconnect</code> is called.
+	 * until <code>reconnect</code> is called.  Idle sessions are closed immediately; sessions held by open
+	 * streams are closed when the streams are.
 	 * @see #reconnect(String)
 	 * @see #reconnect(String,String,String)
 	 * @throws IOException
 	 */
 	public void disconnect() throws IOException {
 		Runtime.getRuntime().removeShutdownHook(EXIT_HOOK);
-		try {
-			guard.acquire();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+		IOException err = null;
+		for (Session s : stopPool()) {
+			try {
+				logout(s);
+			} catch (IOException e) {
+				err = (err != null) ? err : e;
+			}
+		}
+		if (err != null) {
+			throw err;
 		}
-		ftp.logout();
-		ftp.disconnect();
-		guard.release();
-		login = false;
-		ka.interrupt();
 	}
 
 	/**
@@ -377,16 +444,18 @@ public class FTPProvider implements DataProvider {
 	 *            parent directories).
 	 * @return true if successful, false otherwise.
 	 */
-	public boolean mkdir(String dirPath) {
+	public boolean mkdir(final String dirPath) {
 		try {
-			guard.acquire();
-			ftp.makeDirectory(dirPath);
-			guard.release();
+			execute(new Command<Boolean>() {
+
+				@Override
+				public Boolean run(FTPClient ftp) throws IOException {
+					return ftp.makeDirectory(dirPath);
+				}
+			});
 			return true;
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
 		}
 
 		return false;
@@ -399,16 +468,18 @@ public class FTPProvider implements DataProvider {
 	 *            fully qualified or relative pathname.
 	 * @return true if successful, false otherwise.
 	 */
-	public boolean delete(String pathname) {
+	public boolean delete(final String pathname) {
 		try {
-			guard.acquire();
-			ftp.deleteFile(pathname);
-			guard.release();
+			execute(new Command<Boolean>() {
+
+				@Override
+				public Boolean run(FTPClient ftp) throws IOException {
+					return ftp.deleteFile(pathname);
+				}
+			});
 			return true;
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
 		}
 
 		return false;
@@ -420,16 +491,18 @@ public class FTPProvider implements DataProvider {
 	 * @param pathname
 	 * @return true if successful, false otherwise.
 	 */
-	public boolean rmdir(String pathname) {
+	public boolean rmdir(final String pathname) {
 		try {
-			guard.acquire();
-			ftp.removeDirectory(pathname);
-			guard.release();
+			execute(new Command<Boolean>() {
+
+				@Override
+				public Boolean run(FTPClient ftp) throws IOException {
+					return ftp.removeDirectory(pathname);
+				}
+			});
 			return true;
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
 		}
 
 		return false;
@@ -442,18 +515,19 @@ public class FTPProvider implements DataProvider {
 	 *            the directory whose contents to retrieve
 	 * @return array of file name strings in the 'dir'
 	 */
-	public String[] listNames(String dir) {
-		String[] list = null;
+	public String[] listNames(final String dir) {
 		try {
-			guard.acquire();
-			list = ftp.listNames(dir);
-			guard.release();
+			return execute(new Command<String[]>() {
+
+				@Override
+				public String[] run(FTPClient ftp) throws IOException {
+					return ftp.listNames(dir);
+				}
+			});
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
 		}
-		return list;
+		return null;
 	}
 
 	/**
@@ -463,35 +537,34 @@ public class FTPProvider implements DataProvider {
 	 *            the directory whose contents to retrieve
 	 * @return an FTPFile array representing the contents of 'dir'
 	 */
-	public FTPFile[] listFiles(String dir) {
-		FTPFile[] files = null;
+	public FTPFile[] listFiles(final String dir) {
 		try {
-			guard.acquire();
-			files = ftp.listFiles(dir);
-			guard.release();
+			return execute(new Command<FTPFile[]>() {
+
+				@Override
+				public FTPFile[] run(FTPClient ftp) throws IOException {
+					return ftp.listFiles(dir);
+				}
+			});
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
 		}
-		return files;
+		return null;
 	}
 
 	@Override
-	public boolean exists(String pathname) {
+	public boolean exists(final String pathname) {
 		try {
-			guard.acquire();
-			String stat = ftp.getStatus(pathname);
-			guard.release();
-			if (stat != null) {
-				return true;
-			} else {
-				return false;
-			}
+			String stat = execute(new Command<String>() {
+
+				@Override
+				public String run(FTPClient ftp) throws IOException {
+					return ftp.getStatus(pathname);
+				}
+			});
+			return stat != null;
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
 		}
 
 		return false;
@@ -506,9 +579,7 @@ public class FTPProvider implements DataProvider {
 	@Override
 	public long sizeOf(String fileName) {
 		try {
-			guard.acquire();
-			FTPFile f = ftp.mlistFile(fileName);
-			guard.release();
+			FTPFile f = mlist(fileName);
 			if (f == null) {
 				return -1;
 			} else {
@@ -516,8 +587,6 @@ public class FTPProvider implements DataProvider {
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
 		}
 
 		return -1;
@@ -533,18 +602,17 @@ public class FTPProvider implements DataProvider {
 	 * @return true if successful, false otherwise.
 	 */
 	@Override
-	public boolean rename(String fileName, String newTarget) throws IOException {
+	public boolean rename(final String fileName, final String newTarget) throws IOException {
 		if (!exists(fileName)) {
 			throw (new FileNotFoundException(fileName));
 		}
-		try {
-			guard.acquire();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		boolean success = ftp.rename(fileName, newTarget);
-		guard.release();
-		return success;
+		return execute(new Command<Boolean>() {
+
+			@Override
+			public Boolean run(FTPClient ftp) throws IOException {
+				return ftp.rename(fileName, newTarget);
+			}
+		});
 	}
 
 	/**
@@ -555,48 +623,765 @@ public class FTPProvider implements DataProvider {
 	 * @throws IOException
 	 */
 	public long ping() throws IOException {
-		synchronized (ftp) {
-			try {
-				guard.acquire();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+		return execute(new Command<Long>() {
+
+			@Override
+			public Long run(FTPClient ftp) throws IOException {
+				long t1 = System.currentTimeMillis();
+				ftp.feat();
+				long t2 = System.currentTimeMillis();
+				return t2 - t1;
 			}
-			long t1 = System.currentTimeMillis();
-			ftp.feat();
-			long t2 = System.currentTimeMillis();
-			guard.release();
-			return t2 - t1;
-		}
+		});
 	}
 
 	/**
 	 * Obtains the last modification time of the file.
 	 * @param fileName
-	 * @return a Calendar object representing the last modification time of the file in the local time zone.
+	 * @return a Calendar object representing the last modification time of the file in the local time zone,
+	 *         or null if it isn't known.
 	 */
 	public Calendar getLastModified(String fileName) {
-		synchronized(ftp) {
-			try {
-				guard.acquire();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-			try {
-				FTPFile file = ftp.mlistFile(fileName);
+		try {
+			FTPFile file = mlist(fileName);
+			if (file != null && file.getTimestamp() != null) {
 				Calendar time = file.getTimestamp();
 				time.setTimeZone(TimeZone.getDefault());
 				return time;
-			} catch (IOException e) {
-				e.printStackTrace();
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 
 		return null;
 	}
 
+	private FTPFile mlist(final String fileName) throws IOException {
+		return execute(new Command<FTPFile>() {
+
+			@Override
+			public FTPFile run(FTPClient ftp) throws IOException {
+				return ftp.mlistFile(fileName);
+			}
+		});
+	}
+
+	/**
+	 * Sets the file in which the progress of resumable transfers is kept, so that transfers
+	 * interrupted by the end of the program can be continued by a later one. By default progress
+	 * is only kept in memory.
+	 * @param manifest the manifest file, or null to keep progress in memory.
+	 * @see #upload(String, Source)
+	 * @see #download(String, File)
+	 */
+	public void setTransferManifest(File manifest) {
+		this.manifest = new TransferManifest(manifest);
+	}
+
+	/**
+	 * Uploads data to the specified file on the server, resuming if the transfer is
+	 * interrupted. If the connection fails, the upload is retried on a new session and
+	 * continues from the last byte the server received (as reported by SIZE), appending the rest
+	 * with APPE. An upload that failed entirely is also resumed by the next upload of the same
+	 * data to the same file, as long as the transfer manifest has a record of it.
+	 * 
+	 * @param fileName
+	 *            the remote file (relative to the working dir).
+	 * @param src
+	 *            the data to upload.
+	 * @throws IOException
+	 *             if the server refuses the file, the data source fails, or the
+	 *             transfer fails on every attempt.
+	 */
+	public void upload(String fileName, Source src) throws IOException {
+		String key = "up:" + resolve(fileName), id = src.id();
+		long length = src.length();
+		TransferManifest.Entry e = manifest.get(key);
+		boolean resume = e != null && e.matches(id, length);
+		IOException err = null;
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			try {
+				if (attempt > 0) {
+					pause(attempt);
+				}
+				long offset = resume ? remoteSize(fileName) : 0;
+				if (offset < 0 || offset > length) {
+					offset = 0;
+				}
+				manifest.put(key, new TransferManifest.Entry(id, length));
+				// once anything may have reached the server, retries continue from it
+				resume = true;
+				send(fileName, src, offset);
+				manifest.remove(key);
+				return;
+			} catch (RefusedException ex) {
+				manifest.remove(key);
+				throw ex;
+			} catch (InterruptedIOException ex) {
+				if (!isStall(ex)) {
+					throw ex;
+				}
+				err = ex;
+			} catch (IOException ex) {
+				err = ex;
+			}
+		}
+		throw err;
+	}
+
+	/**
+	 * Downloads the specified file on the server to a local file, resuming if the transfer is
+	 * interrupted. If the connection fails, the download is retried on a new session and
+	 * continues from the end of the local file (using REST). A download that failed entirely is
+	 * also resumed by the next download of the same file to the same destination, as long as the
+	 * transfer manifest has a record of it and the remote file's size hasn't changed.
+	 * 
+	 * @param fileName
+	 *            the remote file (relative to the working dir).
+	 * @param dest
+	 *            the local file to write; it is overwritten unless the download is resumed.
+	 * @throws IOException
+	 *             if the server refuses the file, the local file can't be written, or the
+	 *             transfer fails on every attempt.
+	 */
+	public void download(String fileName, File dest) throws IOException {
+		String key = "down:" + dest.getAbsolutePath();
+		long length = remoteSize(fileName);
+		String id = resolve(fileName);
+		TransferManifest.Entry e = manifest.get(key);
+		boolean resume = e != null && e.matches(id, length) && length >= 0;
+		IOException err = null;
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			try {
+				if (attempt > 0) {
+					pause(attempt);
+				}
+				long offset = (resume && dest.exists()) ? dest.length() : 0;
+				if (length >= 0 && offset > length) {
+					offset = 0;
+				}
+				manifest.put(key, new TransferManifest.Entry(id, length));
+				resume = length >= 0;
+				receive(fileName, dest, offset, length);
+				manifest.remove(key);
+				return;
+			} catch (RefusedException ex) {
+				manifest.remove(key);
+				throw ex;
+			} catch (InterruptedIOException ex) {
+				if (!isStall(ex)) {
+					throw ex;
+				}
+				err = ex;
+			} catch (IOException ex) {
+				err = ex;
+			}
+		}
+		throw err;
+	}
+
+	/**
+	 * <Internal Method> Makes one attempt at an upload, starting at <code>offset</code>.
+	 */
+	private void send(String fileName, Source src, long offset) throws IOException {
+		long length = src.length();
+		if (offset == length) {
+			// every byte reached the server before the last attempt failed
+			return;
+		}
+		Session s = acquire();
+		boolean ok = false;
+		try {
+			OutputStream out = (offset > 0) ? s.ftp.appendFileStream(fileName) : s.ftp
+					.storeFileStream(fileName);
+			if (out == null) {
+				ok = true;
+				throw (new RefusedException(fileName, s.ftp.getReplyString()));
+			}
+			long sent = offset;
+			try {
+				InputStream in = src.open(offset);
+				try {
+					sent = copy(in, out, offset);
+				} finally {
+					in.close();
+				}
+			} finally {
+				out.close();
+			}
+			ok = s.ftp.completePendingCommand();
+			if (sent != length) {
+				throw (new RefusedException(fileName, "source ended after " + sent + " of "
+						+ length + " bytes"));
+			} else if (!ok) {
+				throw (new IOException("failed to complete FTP transaction"));
+			}
+		} finally {
+			release(s, ok);
+		}
+	}
+
+	/**
+	 * <Internal Method> Makes one attempt at a download, starting at <code>offset</code>.
+	 */
+	private void receive(String fileName, File dest, long offset, long length)
+			throws IOException {
+		if (offset > 0 && offset == length) {
+			// the whole file arrived before the last attempt failed
+			return;
+		}
+		Session s = acquire();
+		boolean ok = false;
+		try {
+			s.ftp.setRestartOffset(offset);
+			InputStream in = s.ftp.retrieveFileStream(fileName);
+			s.ftp.setRestartOffset(0);
+			if (in == null) {
+				ok = true;
+				throw (new RefusedException(fileName, s.ftp.getReplyString()));
+			}
+			try {
+				if (offset > 0) {
+					RandomAccessFile f = new RandomAccessFile(dest, "rw");
+					try {
+						f.setLength(offset);
+					} finally {
+						f.close();
+					}
+				}
+				OutputStream out = new FileOutputStream(dest, offset > 0);
+				try {
+					copy(in, out, offset);
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			ok = s.ftp.completePendingCommand();
+			if (!ok) {
+				throw (new IOException("failed to complete FTP transaction"));
+			}
+		} finally {
+			release(s, ok);
+		}
+	}
+
+	/**
+	 * <Internal Method> Copies the stream.
+	 * @return the total number of bytes transferred, including <code>offset</code>.
+	 */
+	private static long copy(InputStream in, OutputStream out, long offset) throws IOException {
+		byte[] buff = new byte[BUFF_SIZE];
+		long done = offset;
+		int len;
+		while ((len = in.read(buff)) >= 0) {
+			out.write(buff, 0, len);
+			done += len;
+		}
+		return done;
+	}
+
+	/**
+	 * <Internal Method> True if the exception is a socket timeout rather than the thread being
+	 * interrupted or the transfer being cancelled, so the transfer should be retried.
+	 */
+	private static boolean isStall(InterruptedIOException ex) {
+		return ex instanceof SocketTimeoutException && !Thread.currentThread().isInterrupted();
+	}
+
+	/**
+	 * <Internal Method> Waits before retrying a failed transfer, a little longer each time.
+	 */
+	private static void pause(int attempt) throws InterruptedIOException {
+		try {
+			Thread.sleep(RETRY_DELAY * attempt);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw (new InterruptedIOException("interrupted while waiting to resume a transfer"));
+		}
+	}
+
+	/**
+	 * <Internal Method> Asks the server for a file's size with SIZE.
+	 * @return the size in bytes, or -1 if the file doesn't exist or the server can't tell.
+	 */
+	private long remoteSize(final String fileName) throws IOException {
+		return execute(new Command<Long>() {
+
+			@Override
+			public Long run(FTPClient ftp) throws IOException {
+				if (ftp.sendCommand("SIZE", fileName) == SIZE_REPLY) {
+					String reply = ftp.getReplyString().trim();
+					try {
+						return Long.parseLong(reply.substring(reply.lastIndexOf(' ') + 1));
+					} catch (NumberFormatException e) {
+						// not a size; fall through
+					}
+				}
+				return -1L;
+			}
+		});
+	}
+
+	/**
+	 * <Internal Method> Resolves a path against the working directory, so that transfers are
+	 * recorded by the file they write.
+	 */
+	private String resolve(String fileName) {
+		if (fileName.startsWith("/")) {
+			return fileName;
+		}
+		String dir = wkdir;
+		return dir.endsWith("/") ? dir + fileName : dir + "/" + fileName;
+	}
+
+	/**
+	 * Data that can be uploaded with {@link FTPProvider#upload(String, Source)}. A source must
+	 * be able to provide its data again from any offset, so an interrupted upload can continue.
+	 */
+	public interface Source {
+
+		/**
+		 * @return a String that identifies the data, used to tell whether a partial upload
+		 *         recorded earlier was of the same data. It must not contain line breaks.
+		 */
+		String id();
+
+		/**
+		 * @return the number of bytes of data.
+		 */
+		long length();
+
+		/**
+		 * @param offset
+		 * @return a stream of the data, starting <code>offset</code> bytes in.
+		 * @throws IOException
+		 */
+		InputStream open(long offset) throws IOException;
+	}
+
+	/**
+	 * @param data
+	 * @return a Source of the bytes in the array, identified by their SHA-1 digest.
+	 */
+	public static Source source(final byte[] data) {
+		MessageDigest md = sha1();
+		md.update(data);
+		final String id = "bytes:" + hex(md.digest());
+		return new Source() {
+
+			@Override
+			public String id() {
+				return id;
+			}
+
+			@Override
+			public long length() {
+				return data.length;
+			}
+
+			@Override
+			public InputStream open(long offset) {
+				return new ByteArrayInputStream(data, (int) offset, data.length - (int) offset);
+			}
+		};
+	}
+
+	/**
+	 * @param prov
+	 * @param path
+	 * @return a Source of the file at the path in the DataProvider, identified by its path,
+	 *         size, modification time (where the provider has one) and a SHA-1 digest of
+	 *         the first and last ID_SAMPLE bytes.
+	 * @throws IOException
+	 *             if the file's size can't be determined or it can't be read.
+	 */
+	public static Source source(final DataProvider prov, final String path) throws IOException {
+		final long length = prov.sizeOf(path);
+		if (length < 0) {
+			throw (new FileNotFoundException(path));
+		}
+		MessageDigest md = sha1();
+		digest(md, open(prov, path, 0));
+		if (length > ID_SAMPLE) {
+			digest(md, open(prov, path, Math.max(ID_SAMPLE, length - ID_SAMPLE)));
+		}
+		final String id = prov.getProtocolName() + ":" + path + " " + length + " "
+				+ lastModified(prov, path) + " " + hex(md.digest());
+		return new Source() {
+
+			@Override
+			public String id() {
+				return id;
+			}
+
+			@Override
+			public long length() {
+				return length;
+			}
+
+			@Override
+			public InputStream open(long offset) throws IOException {
+				return FTPProvider.open(prov, path, offset);
+			}
+		};
+	}
+
+	/**
+	 * <Internal Method> Opens the file in the provider, <code>offset</code> bytes in.
+	 */
+	private static InputStream open(DataProvider prov, String path, long offset)
+			throws IOException {
+		InputStream in = prov.getInputStream(path);
+		if (in == null) {
+			throw (new FileNotFoundException(path));
+		}
+		for (long n = offset; n > 0;) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					in.close();
+					throw (new EOFException(path + " is shorter than " + offset + " bytes"));
+				}
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+		return in;
+	}
+
+	/**
+	 * <Internal Method> Adds up to ID_SAMPLE bytes of the stream to the digest, then closes it.
+	 */
+	private static void digest(MessageDigest md, InputStream in) throws IOException {
+		try {
+			byte[] buff = new byte[BUFF_SIZE];
+			int len;
+			for (int left = ID_SAMPLE; left > 0
+					&& (len = in.read(buff, 0, Math.min(left, buff.length))) >= 0; left -= len) {
+				md.update(buff, 0, len);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * <Internal Method> The modification time of the file, or -1 if the provider can't tell.
+	 */
+	private static long lastModified(DataProvider prov, String path) {
+		if (prov instanceof FileProvider) {
+			return ((FileProvider) prov).lastModified(path);
+		} else if (prov instanceof FTPProvider) {
+			Calendar time = ((FTPProvider) prov).getLastModified(path);
+			return (time != null) ? time.getTimeInMillis() : -1;
+		}
+		return -1;
+	}
+
+	private static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-1
+			throw (new IllegalStateException(e));
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Signals that the server refused a transfer, or that its data was inconsistent; retrying
+	 * wouldn't help.
+	 */
+	private static class RefusedException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		RefusedException(String fileName, String reason) {
+			super("transfer of " + fileName + " failed: "
+					+ ((reason != null) ? reason.trim() : "refused by server"));
+		}
+	}
+
+	/**
+	 * An operation run on one session's client.
+	 */
+	private interface Command<T> {
+
+		T run(FTPClient ftp) throws IOException;
+	}
+
+	/**
+	 * <Internal Method> Runs the command on a session from the pool. A session whose command
+	 * fails with an exception is discarded.
+	 */
+	private <T> T execute(Command<T> cmd) throws IOException {
+		Session s = acquire();
+		boolean ok = false;
+		try {
+			T result = cmd.run(s.ftp);
+			ok = true;
+			return result;
+		} finally {
+			release(s, ok);
+		}
+	}
+
+	/**
+	 * <Internal Method> Takes a session from the pool, waiting for one if all are in use and
+	 * opening a new one if none are idle. The session is checked if it has been idle for a
+	 * while, and moved to the provider's working directory if it isn't there already.
+	 * @return the session, which must be returned with {@link #release(Session, boolean)}.
+	 * @throws IOException if the provider is disconnected or a session couldn't be opened.
+	 */
+	private Session acquire() throws IOException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw (new InterruptedIOException("interrupted while waiting for an FTP session"));
+		}
+		Session s = null;
+		boolean ok = false;
+		try {
+			synchronized (idle) {
+				if (!login) {
+					throw (new IOException("FTPProvider is not connected"));
+				}
+				s = idle.pollLast();
+			}
+			if (s != null && !isAlive(s)) {
+				close(s);
+				s = null;
+			}
+			if (s == null) {
+				s = open();
+			}
+			String dir = wkdir;
+			if (!dir.equals(s.dir)) {
+				if (!s.ftp.changeWorkingDirectory(dir)) {
+					throw (new IOException("could not change to working directory " + dir));
+				}
+				s.dir = dir;
+			}
+			ok = true;
+			return s;
+		} finally {
+			if (!ok) {
+				if (s != null) {
+					close(s);
+				}
+				permits.release();
+			}
+		}
+	}
+
+	/**
+	 * <Internal Method> Returns a session to the pool, or closes it if it failed or belongs to
+	 * an earlier connection.
+	 */
+	private void release(Session s, boolean ok) {
+		s.lastUsed = System.currentTimeMillis();
+		synchronized (idle) {
+			if (ok && login && s.generation == generation) {
+				idle.addLast(s);
+				s = null;
+			}
+		}
+		if (s != null) {
+			close(s);
+		}
+		permits.release();
+	}
+
+	private static boolean isAlive(Session s) {
+		if (!s.ftp.isConnected()) {
+			return false;
+		}
+		if (System.currentTimeMillis() - s.lastUsed < IDLE_CHECK) {
+			return true;
+		}
+		try {
+			return s.ftp.sendNoOp();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * <Internal Method> Opens and logs in a new session with the current connection settings.
+	 */
+	private Session open() throws IOException {
+		String address, username, password;
+		int generation;
+		synchronized (idle) {
+			address = this.address;
+			username = this.username;
+			password = this.password;
+			generation = this.generation;
+		}
+		FTPClient client = new FTPClient();
+		boolean ok = false;
+		try {
+			init(client);
+			client.connect(address);
+			int reply = client.getReplyCode();
+			if (!FTPReply.isPositiveCompletion(reply)) {
+				throw (new IOException(
+						"connection attempted failed with reply code: " + reply));
+			}
+			if (username != null && !client.login(username, password)) {
+				throw (new LoginException("invalid login"));
+			}
+			initConn(client);
+			Session s = new Session(client, generation);
+			s.dir = client.printWorkingDirectory();
+			ok = true;
+			return s;
+		} finally {
+			if (!ok && client.isConnected()) {
+				try {
+					client.disconnect();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * <Internal Method> Closes a session without logging out.
+	 */
+	private static void close(Session s) {
+		try {
+			s.ftp.disconnect();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * <Internal Method> Logs out of a session if it's still connected, and closes it. Sessions
+	 * the server has already dropped are just closed.
+	 */
+	private static void logout(Session s) throws IOException {
+		try {
+			if (s.ftp.isConnected()) {
+				s.ftp.logout();
+			}
+		} catch (IOException e) {
+			// the session is closed below either way
+		}
+		s.ftp.disconnect();
+	}
+
+	/**
+	 * <Internal Method> Connects with new settings, replacing the current sessions. The first
+	 * session is opened here, so a bad address or login fails immediately.
+	 */
+	private void start(String address, String username, String password) throws IOException {
+		if (login) {
+			disconnect();
+		}
+		synchronized (idle) {
+			this.address = address;
+			this.username = username;
+			this.password = password;
+			generation++;
+		}
+		Session s = open();
+		synchronized (idle) {
+			idle.addLast(s);
+			this.wkdir = (s.dir != null) ? s.dir : "/";
+			s.dir = this.wkdir;
+			login = true;
+			health = Threads.newDaemonScheduler("Ftp_health");
+			health.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					checkIdle();
+				}
+
+			}, HEALTH_INTERVAL, HEALTH_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+		Runtime.getRuntime().addShutdownHook(EXIT_HOOK);
+	}
+
+	/**
+	 * <Internal Method> Marks the provider disconnected and stops the health checks.
+	 * @return the idle sessions, which are no longer in the pool.
+	 */
+	private List<Session> stopPool() {
+		synchronized (idle) {
+			login = false;
+			generation++;
+			if (health != null) {
+				health.shutdownNow();
+				health = null;
+			}
+			List<Session> sessions = new ArrayList<Session>(idle);
+			idle.clear();
+			return sessions;
+		}
+	}
+
+	/**
+	 * <Internal Method> Sends a NOOP on each session that has been idle since the last check,
+	 * discarding those that fail. Sessions in use are skipped.
+	 */
+	private void checkIdle() {
+		long since = System.currentTimeMillis() - HEALTH_INTERVAL / 2;
+		while (permits.tryAcquire()) {
+			Session s = null;
+			synchronized (idle) {
+				if (idle.peekFirst() != null && idle.peekFirst().lastUsed < since) {
+					s = idle.pollFirst();
+				}
+			}
+			if (s == null) {
+				permits.release();
+				return;
+			}
+			boolean ok;
+			try {
+				ok = s.ftp.sendNoOp();
+			} catch (IOException e) {
+				ok = false;
+			}
+			release(s, ok);
+		}
+	}
+
+	/**
+	 * One connection to the server and its state.
+	 */
+	private static final class Session {
+
+		final FTPClient ftp;
+		final int generation;
+		String dir;
+		volatile long lastUsed = System.currentTimeMillis();
+
+		Session(FTPClient ftp, int generation) {
+			this.ftp = ftp;
+			this.generation = generation;
+		}
+	}
+
 	/**
 	 * OutputStream returned by the <code>getOutputStream(String)</code> of this
-	 * class. It takes care of extra operations needed when closing the stream.
+	 * class. It takes care of extra operations needed when closing the stream,
+	 * and holds its session until then.
 	 * 
 	 * @author Brian Groenke
 	 * 
@@ -604,29 +1389,27 @@ public class FTPProvider implements DataProvider {
 	protected class FtpOutputStream extends OutputStream {
 
 		private OutputStream out;
-		private boolean locked;
+		private Session session;
 
-		public FtpOutputStream(OutputStream out) {
+		FtpOutputStream(Session session, OutputStream out) {
 			if (out == null) {
 				throw (new IllegalArgumentException("stream cannot be null"));
 			}
 			
 			this.out = out;
+			this.session = session;
 		}
 
 		@Override
 		public void write(int b) throws IOException {
-			if(!locked) {
-				try {
-					guard.acquire();
-					locked = true;
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
 			out.write(b);
 		}
 
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
 		@Override
 		public void flush() throws IOException {
 			out.flush();
@@ -634,17 +1417,21 @@ public class FTPProvider implements DataProvider {
 
 		@Override
 		public void close() throws IOException {
-			out.close();
-			
-			boolean fail = false;
-			if (ftp == null || !ftp.completePendingCommand()) {
-				fail = true;
+			if (session == null) {
+				return;
 			}
+			Session s = session;
+			session = null;
 			
-			guard.release();
-			locked = false;
+			boolean ok = false;
+			try {
+				out.close();
+				ok = s.ftp.completePendingCommand();
+			} finally {
+				release(s, ok);
+			}
 			
-			if(fail)
+			if(!ok)
 			    throw (new IOException("failed to complete FTP transaction"));
 		}
 
@@ -652,7 +1439,8 @@ public class FTPProvider implements DataProvider {
 
 	/**
 	 * InputStream returned by the <code>getInputStream(String)</code> of this
-	 * class. It takes care of extra operations needed when closing the stream.
+	 * class. It takes care of extra operations needed when closing the stream,
+	 * and holds its session until then.
 	 * 
 	 * @author Brian Groenke
 	 * 
@@ -660,38 +1448,40 @@ public class FTPProvider implements DataProvider {
 	protected class FtpInputStream extends InputStream {
 
 		private InputStream in;
-		private boolean locked;
+		private Session session;
 
-		public FtpInputStream(InputStream in) {
+		FtpInputStream(Session session, InputStream in) {
 			this.in = in;
+			this.session = session;
 		}
 
 		@Override
 		public int read() throws IOException {
-			if(!locked) {
-				try {
-					guard.acquire();
-					locked = true;
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
 			return in.read();
 		}
 
 		@Override
-		public void close() throws IOException {
-			in.close();
+		public int read(byte[] b, int off, int len) throws IOException {
+			return in.read(b, off, len);
+		}
 
-			boolean fail = false;
-			if (ftp == null || !ftp.completePendingCommand()) {
-				fail = true;
+		@Override
+		public void close() throws IOException {
+			if (session == null) {
+				return;
 			}
+			Session s = session;
+			session = null;
 
-			guard.release();
-			locked = false;
+			boolean ok = false;
+			try {
+				in.close();
+				ok = s.ftp.completePendingCommand();
+			} finally {
+				release(s, ok);
+			}
 
-			if(fail)
+			if(!ok)
 				throw (new IOException("failed to complete FTP transaction"));
 		}
 
@@ -723,46 +1513,15 @@ public class FTPProvider implements DataProvider {
 
 	private class LogoutHook extends Thread {
 
-		public LogoutHook() {
-			super(new Runnable() {
-
-				@Override
-				public void run() {
-					try {
-						login = false;
-						ka.interrupt();
-						ftp.logout();
-						ftp.disconnect();
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				}
-
-			});
-		}
-	}
-
-	private class KeepAlive implements Runnable {
-
-		public static final int INTERVAL = 0x493E0; // specified time in
-		// milliseconds | currently
-		// set to 5 mins (300,000ms)
-
 		@Override
 		public void run() {
-			while (login) {
+			for (Session s : stopPool()) {
 				try {
-					ftp.setSoTimeout((int) (INTERVAL * 1.5));
-					lastPingTime = ping();
-					Thread.sleep(INTERVAL); // wait set amount of time - see
-					// INTERVAL field above
+					logout(s);
 				} catch (IOException e) {
 					e.printStackTrace();
-				} catch (InterruptedException e) {
-					// we really don't care
 				}
 			}
 		}
-
 	}
 }
@@ -163,6 +163,19 @@ public class FileProvider implements DataProvider {
 		return size;
 	}
 
+	/**
+	 * @param fileName
+	 * @return the time the file was last modified, in milliseconds since the epoch, or 0 if
+	 *         it doesn't exist.
+	 */
+	public long lastModified(String fileName) {
+		File f = listings.get(fileName);
+		if (f == null) {
+			f = new File(wdir + File.separator + fileName);
+		}
+		return f.lastModified();
+	}
+
 	/**
 	 * @param fileName
 	 *            when using FileProvider, the first parameter (the current file
@@ -0,0 +1,145 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.provider;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Records the progress of resumable transfers so that an interrupted transfer can be continued,
+ * even by a later run of the program. Each entry identifies the data being transferred, so that a
+ * transfer is only resumed into a partial file of the same data; where to resume from is taken
+ * from the partial file itself. If the manifest has a file it is saved after every change;
+ * otherwise it lasts as long as its FTPProvider.
+ */
+final class TransferManifest {
+
+	private final File file;
+	private final Properties entries = new Properties();
+
+	/**
+	 * @param file where the manifest is kept, or null to keep it in memory only. Entries
+	 *        already in the file are loaded; an unreadable file is ignored.
+	 */
+	TransferManifest(File file) {
+		this.file = file;
+		if (file != null && file.exists()) {
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					entries.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				entries.clear();
+			}
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return the entry for the transfer, or null if there is none.
+	 */
+	synchronized Entry get(String key) {
+		return Entry.parse(entries.getProperty(key));
+	}
+
+	synchronized void put(String key, Entry e) {
+		entries.setProperty(key, e.toString());
+		save();
+	}
+
+	synchronized void remove(String key) {
+		if (entries.remove(key) != null) {
+			save();
+		}
+	}
+
+	/**
+	 * <Internal Method> Writes the entries to a temporary file and moves it over the manifest,
+	 * so a crash never leaves a half-written manifest behind. Failures are reported but not
+	 * thrown; the worst case is that a transfer starts over.
+	 */
+	private void save() {
+		if (file == null) {
+			return;
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				entries.store(out, "FTPProvider transfers");
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+				throw (new IOException("could not replace " + file));
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * The state of one transfer.
+	 */
+	static final class Entry {
+
+		final String id;
+		final long length;
+
+		/**
+		 * @param id identifies the data being transferred
+		 * @param length the total number of bytes, or -1 if it isn't known
+		 */
+		Entry(String id, long length) {
+			this.id = id;
+			this.length = length;
+		}
+
+		/**
+		 * @param id
+		 * @param length
+		 * @return true if this entry belongs to the same data.
+		 */
+		boolean matches(String id, long length) {
+			return this.id.equals(id) && this.length == length;
+		}
+
+		@Override
+		public String toString() {
+			return length + " " + id;
+		}
+
+		static Entry parse(String s) {
+			if (s == null) {
+				return null;
+			}
+			String[] pts = s.split(" ", 2);
+			try {
+				return (pts.length == 2) ? new Entry(pts[1], Long.parseLong(pts[0])) : null;
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+}
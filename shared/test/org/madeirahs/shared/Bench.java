@@ -0,0 +1,198 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared;
+
+import java.lang.management.*;
+import java.text.*;
+import java.util.*;
+
+import org.madeirahs.shared.time.*;
+
+/**
+ * Helpers shared by the benchmarks in the test tree. Benchmarks are plain main classes, run with
+ * <code>ant bench -Dbench=&lt;class&gt; [-Dbench.args=...]</code>; each prints one line per
+ * case with the median of its measured runs.
+ *
+ * @author Brian Groenke
+ *
+ */
+public final class Bench {
+
+	public static final int WARMUPS = 3, RUNS = 5;
+
+	private static final String[] WORDS = { "oak", "chair", "letter", "quilt", "photograph",
+			"madeira", "cincinnati", "school", "church", "railroad", "farm", "uniform", "map",
+			"ledger", "portrait", "bottle", "lantern", "bible", "plow", "sign", "trunk", "doll",
+			"button", "medal", "postcard", "newspaper", "clock", "desk", "bell", "wagon" };
+
+	/*
+	 * Results are stored here so that the JIT can't discard the work being measured.
+	 */
+	public static volatile Object sink;
+
+	private Bench() {
+	}
+
+	/**
+	 * Something to measure.
+	 */
+	public static interface Task {
+
+		void run() throws Exception;
+	}
+
+	/**
+	 * Runs the task {@link #WARMUPS} times, then {@link #RUNS} times while timing each run.
+	 * @param task
+	 * @return the median time of the measured runs in milliseconds
+	 * @throws Exception
+	 */
+	public static double time(Task task) throws Exception {
+		return time(WARMUPS, RUNS, task);
+	}
+
+	public static double time(int warmups, int runs, Task task) throws Exception {
+		for (int i = 0; i < warmups; i++) {
+			task.run();
+		}
+		double[] times = new double[runs];
+		for (int i = 0; i < runs; i++) {
+			long t0 = System.nanoTime();
+			task.run();
+			times[i] = (System.nanoTime() - t0) / 1e6;
+		}
+		Arrays.sort(times);
+		return times[runs / 2];
+	}
+
+	/**
+	 * Collects garbage and resets the peak usage of each heap pool, so that {@link #peakHeap()}
+	 * reports the peak of what runs next.
+	 */
+	public static void resetPeakHeap() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * @return the sum of the peak usage of each heap pool since {@link #resetPeakHeap()}, in
+	 *         bytes. Pools peak at different times, so this is an upper bound.
+	 */
+	public static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * @return heap in use after a collection, in bytes.
+	 */
+	public static long usedHeap() {
+		System.gc();
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * @param args
+	 * @param i
+	 * @param def
+	 * @return the i-th argument as an int, or <code>def</code> if there isn't one.
+	 */
+	public static int arg(String[] args, int i, int def) {
+		return (args.length > i && args[i].length() > 0) ? Integer.parseInt(args[i]) : def;
+	}
+
+	/**
+	 * Parses sizes given as a comma separated list, e.g. "10000,100000".
+	 */
+	public static int[] sizes(String[] args, int i, int... def) {
+		if (args.length <= i || args[i].length() == 0) {
+			return def;
+		}
+		String[] pts = args[i].split(",");
+		int[] sizes = new int[pts.length];
+		for (int j = 0; j < pts.length; j++) {
+			sizes[j] = Integer.parseInt(pts[j].trim());
+		}
+		return sizes;
+	}
+
+	/**
+	 * Generates a catalog of Artifacts in accession order. Titles, descriptions and donors are
+	 * drawn from a small vocabulary, and dates are spread over two centuries, so that searches
+	 * and sorts see realistic duplication.
+	 * @param n
+	 * @param seed
+	 * @return
+	 */
+	public static Artifact[] artifacts(int n, long seed) {
+		Random r = new Random(seed);
+		DateFormat day = new SimpleDateFormat("MM/dd/yyyy"), year = new SimpleDateFormat("yyyy");
+		long base = -5364662400000L; // 1800
+		long span = 200L * 365 * 86400000L;
+		Artifact[] data = new Artifact[n];
+		for (int i = 0; i < n; i++) {
+			long start = base + (long) (r.nextDouble() * span);
+			TimeSpec obj = (i % 3 == 0) ? new DateTime(new Date(start), year) : new TimeFrame(
+					new Date(start), new Date(start + (long) (r.nextDouble() * span / 20)), day);
+			Artifact a = new Artifact(obj, new DateTime(new Date(base + span
+					+ (long) (r.nextDouble() * span / 10)), day), "Donor " + r.nextInt(n / 10 + 1),
+					words(r, 3), WORDS[r.nextInt(WORDS.length)], String.format("%04d.%03d",
+							i / 1000, i % 1000), words(r, 12));
+			data[i] = a;
+		}
+		return data;
+	}
+
+	private static String words(Random r, int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(WORDS[r.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Prints one result line, aligned in columns.
+	 */
+	public static void report(String name, Object... values) {
+		StringBuilder sb = new StringBuilder(String.format("%-32s", name));
+		for (Object v : values) {
+			sb.append(String.format((v instanceof Double) ? "%14.2f" : "%14s", v));
+		}
+		System.out.println(sb);
+	}
+
+	public static String mb(long bytes) {
+		return String.format("%.1f MB", bytes / 1048576.0);
+	}
+}
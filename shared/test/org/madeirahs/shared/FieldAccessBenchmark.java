@@ -0,0 +1,148 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared;
+
+import java.lang.reflect.*;
+
+import org.madeirahs.shared.Artifact.StringField;
+import org.madeirahs.shared.Artifact.TimeField;
+
+/**
+ * Compares reading and writing Artifact fields through the typed {@link StringField} and
+ * {@link TimeField} accessors with the reflective path they replaced, which looked the field up
+ * with <code>getClass().getField(name)</code> on every access. A variant that looks the Field
+ * up once is included to separate the lookup from the reflective access itself. Reads only
+ * test the value for null, so that the cost of touching the value isn't measured.
+ * <br/><br/>
+ * Usage: <code>FieldAccessBenchmark [artifacts]</code> (default 100000)
+ *
+ * @author Brian Groenke
+ *
+ */
+public class FieldAccessBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int n = Bench.arg(args, 0, 100000);
+		final Artifact[] data = Bench.artifacts(n, n);
+		System.out.println(n + " artifacts, ns per access");
+		Bench.report("field", "typed", "reflective", "cached Field");
+		for (final StringField f : StringField.values()) {
+			final Field field = Artifact.class.getField(f.getFieldName());
+			Bench.report(f + " get", perOp(n, new Bench.Task() {
+
+				@Override
+				public void run() {
+					int found = 0;
+					for (Artifact a : data) {
+						found += (f.get(a) != null) ? 1 : 0;
+					}
+					Bench.sink = found;
+				}
+			}), perOp(n, new Bench.Task() {
+
+				@Override
+				public void run() throws Exception {
+					int found = 0;
+					for (Artifact a : data) {
+						found += (a.getClass().getField(f.getFieldName()).get(a) != null) ? 1 : 0;
+					}
+					Bench.sink = found;
+				}
+			}), perOp(n, new Bench.Task() {
+
+				@Override
+				public void run() throws Exception {
+					int found = 0;
+					for (Artifact a : data) {
+						found += (field.get(a) != null) ? 1 : 0;
+					}
+					Bench.sink = found;
+				}
+			}));
+		}
+		for (final TimeField f : TimeField.values()) {
+			final Field field = Artifact.class.getField(f.getFieldName());
+			Bench.report(f + " get", perOp(n, new Bench.Task() {
+
+				@Override
+				public void run() {
+					int found = 0;
+					for (Artifact a : data) {
+						found += (f.get(a) != null) ? 1 : 0;
+					}
+					Bench.sink = found;
+				}
+			}), perOp(n, new Bench.Task() {
+
+				@Override
+				public void run() throws Exception {
+					int found = 0;
+					for (Artifact a : data) {
+						found += (a.getClass().getField(f.getFieldName()).get(a) != null) ? 1 : 0;
+					}
+					Bench.sink = found;
+				}
+			}), perOp(n, new Bench.Task() {
+
+				@Override
+				public void run() throws Exception {
+					int found = 0;
+					for (Artifact a : data) {
+						found += (field.get(a) != null) ? 1 : 0;
+					}
+					Bench.sink = found;
+				}
+			}));
+		}
+		final StringField f = StringField.TITLE;
+		final Field field = Artifact.class.getField(f.getFieldName());
+		Bench.report(f + " set", perOp(n, new Bench.Task() {
+
+			@Override
+			public void run() {
+				for (Artifact a : data) {
+					f.set(a, a.title);
+				}
+			}
+		}), perOp(n, new Bench.Task() {
+
+			@Override
+			public void run() throws Exception {
+				for (Artifact a : data) {
+					a.getClass().getField(f.getFieldName()).set(a, a.title);
+					a.invalidateSearchKeys();
+				}
+			}
+		}), perOp(n, new Bench.Task() {
+
+			@Override
+			public void run() throws Exception {
+				for (Artifact a : data) {
+					field.set(a, a.title);
+					a.invalidateSearchKeys();
+				}
+			}
+		}));
+	}
+
+	private static double perOp(int n, Bench.Task task) throws Exception {
+		return Bench.time(10, 15, task) * 1e6 / n;
+	}
+}
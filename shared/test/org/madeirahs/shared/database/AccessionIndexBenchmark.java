@@ -0,0 +1,157 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.*;
+
+import org.madeirahs.shared.*;
+import org.madeirahs.shared.misc.*;
+
+/**
+ * Measures inserting, looking up and removing Artifacts in random order through an
+ * {@link AccessionIndex} and through Database, against the sorted array that Database used to
+ * keep: each add copied the array to grow it, and each remove sorted it twice. Array removes
+ * are measured over the first {@link #ARRAY_REMOVES} Artifacts only, since removing them all
+ * takes minutes.
+ * <br/><br/>
+ * Usage: <code>AccessionIndexBenchmark [artifacts]</code> (default 100000)
+ *
+ * @author Brian Groenke
+ *
+ */
+public class AccessionIndexBenchmark {
+
+	private static final int ARRAY_REMOVES = 1000;
+
+	public static void main(String[] args) throws Exception {
+		int n = Bench.arg(args, 0, 100000);
+		final Artifact[] sorted = Bench.artifacts(n, n);
+		final Artifact[] shuffled = sorted.clone();
+		Collections.shuffle(Arrays.asList(shuffled), new Random(n));
+
+		System.out.println(n + " artifacts, random order");
+		Bench.report("operation", "ms", "ns/op");
+		report("index build (sorted)", n, Bench.time(new Bench.Task() {
+
+			@Override
+			public void run() {
+				Bench.sink = AccessionIndex.build(sorted);
+			}
+		}));
+		report("index put", n, Bench.time(new Bench.Task() {
+
+			@Override
+			public void run() {
+				Bench.sink = insert(shuffled);
+			}
+		}));
+		final AccessionIndex full = insert(shuffled);
+		report("index get", n, Bench.time(new Bench.Task() {
+
+			@Override
+			public void run() {
+				int found = 0;
+				for (Artifact a : shuffled) {
+					if (full.get(a.accNum) != null) {
+						found++;
+					}
+				}
+				Bench.sink = found;
+			}
+		}));
+		report("index remove", n, Bench.time(new Bench.Task() {
+
+			@Override
+			public void run() {
+				AccessionIndex index = full;
+				for (Artifact a : shuffled) {
+					index = index.remove(a.accNum);
+				}
+				Bench.sink = index;
+			}
+		}));
+		report("Database add + remove", 2 * n, Bench.time(new Bench.Task() {
+
+			@Override
+			public void run() throws DuplicateArtifactException {
+				Database db = new Database();
+				for (Artifact a : shuffled) {
+					db.add(a);
+				}
+				for (Artifact a : shuffled) {
+					db.remove(a);
+				}
+				Bench.sink = db;
+			}
+		}));
+		report("array add (before)", n, Bench.time(0, 1, new Bench.Task() {
+
+			@Override
+			public void run() {
+				Bench.sink = arrayAdd(shuffled);
+			}
+		}));
+		report("array remove (before)", ARRAY_REMOVES, Bench.time(0, 1, new Bench.Task() {
+
+			@Override
+			public void run() {
+				Artifact[] data = sorted.clone();
+				for (int i = 0; i < ARRAY_REMOVES; i++) {
+					data = arrayRemove(data, shuffled[i]);
+				}
+				Bench.sink = data;
+			}
+		}));
+	}
+
+	private static AccessionIndex insert(Artifact[] data) {
+		AccessionIndex index = AccessionIndex.EMPTY;
+		for (Artifact a : data) {
+			index = index.put(a);
+		}
+		return index;
+	}
+
+	private static Artifact[] arrayAdd(Artifact[] added) {
+		Artifact[] data = new Artifact[0];
+		for (Artifact a : added) {
+			int at = -(Arrays.binarySearch(data, a) + 1);
+			Artifact[] grown = new Artifact[data.length + 1];
+			System.arraycopy(data, 0, grown, 0, at);
+			grown[at] = a;
+			System.arraycopy(data, at, grown, at + 1, data.length - at);
+			data = grown;
+		}
+		return data;
+	}
+
+	private static Artifact[] arrayRemove(Artifact[] data, Artifact a) {
+		int pos = Arrays.binarySearch(data, a);
+		data[pos] = null;
+		Arrays.sort(data, new PushNullComparator<Artifact>());
+		data = Arrays.copyOf(data, data.length - 1);
+		Arrays.sort(data);
+		return data;
+	}
+
+	private static void report(String name, int ops, double ms) {
+		Bench.report(name, ms, ms * 1e6 / ops);
+	}
+}
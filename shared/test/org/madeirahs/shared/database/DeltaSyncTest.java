@@ -0,0 +1,243 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import org.madeirahs.shared.*;
+import org.madeirahs.shared.provider.*;
+
+/**
+ * Tests publishing a Database as a base store plus delta segments and loading it back with
+ * {@link Database#getInstance(String, DataProvider, javax.swing.ProgressMonitor)}, using a
+ * FileProvider on a temporary directory.
+ *
+ * @author Brian Groenke
+ *
+ */
+public class DeltaSyncTest {
+
+	private static final double COMPACT_RATIO = 0.5;
+	private static final int MAX_DELTAS = 32;
+
+	private File dir;
+	private String loc, archive;
+	private FileProvider prov = new FileProvider();
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("deltasync", "");
+		dir.delete();
+		archive = new File(dir, "archive").getPath();
+		loc = dir.getPath();
+		assertTrue(new File(archive).mkdirs());
+		// never compact unless a test asks for it
+		Database.setCompactionThreshold(1000, 1000);
+	}
+
+	@After
+	public void tearDown() {
+		Database.setCompactionThreshold(COMPACT_RATIO, MAX_DELTAS);
+		delete(dir);
+	}
+
+	@Test
+	public void deltaAppliedOnLoad() throws Exception {
+		Database db = new Database();
+		Artifact[] data = StoreFormatTest.artifacts(200);
+		for (Artifact a : data) {
+			db.add(a);
+		}
+		db.sync(loc, archive, prov, "first", null);
+		assertEquals(0, manifest().deltas.size());
+
+		Database d = Database.getInstance(loc, prov, null);
+		StoreFormatTest.assertArtifacts(data, d.getData());
+		Artifact edited = new Artifact(data[10]);
+		edited.title = "edited";
+		d.addAndOverwrite(edited);
+		d.remove(data[20]);
+		d.add(artifact("9999.001"));
+		d.sync(loc, archive, prov, "second", null);
+
+		StoreManifest m = manifest();
+		assertEquals(1, m.deltas.size());
+		assertTrue(m.deltas.get(0).size < new File(dir, m.base.name).length());
+		Database loaded = Database.getInstance(loc, prov, null);
+		assertEquals("second", loaded.getUser());
+		assertEquals(200, loaded.getSize());
+		assertEquals("edited", get(loaded, data[10].accNum).title);
+		assertNull(get(loaded, data[20].accNum));
+		assertNotNull(get(loaded, "9999.001"));
+		StoreFormatTest.assertArtifact(data[11], get(loaded, data[11].accNum));
+	}
+
+	/**
+	 * Deltas published against a base that has since been replaced are skipped.
+	 */
+	@Test
+	public void deltaForOtherBaseSkipped() throws Exception {
+		Database db = new Database();
+		db.add(artifact("0001"));
+		db.sync(loc, archive, prov, null, null);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DeltaSegment.write(bytes, new ChunkedStore(6, 16, Executors.newSingleThreadExecutor(),
+				1), 1L, new String[] { "0001" }, new Artifact[] { artifact("0002") }, 2L, null);
+		writeFile(new File(dir, "stale" + Database.DB_DELTA_SUFFIX), bytes.toByteArray());
+		StoreManifest m = manifest();
+		m.deltas.add(new StoreManifest.Entry("stale" + Database.DB_DELTA_SUFFIX, 2L, bytes
+				.size()));
+		m.write(new FileOutputStream(new File(dir, Database.DB_MANIFEST)));
+
+		Database loaded = Database.getInstance(loc, prov, null);
+		assertEquals(1, loaded.getSize());
+		assertNotNull(get(loaded, "0001"));
+	}
+
+	@Test
+	public void noChangesPublishesNothing() throws Exception {
+		Database db = new Database();
+		db.add(artifact("0001"));
+		db.sync(loc, archive, prov, "first", null);
+		Database d = Database.getInstance(loc, prov, null);
+		String before = listing();
+		long time = d.getTimestamp();
+		d.sync(loc, archive, prov, "second", null);
+		d.sync(loc, archive, prov, "second", null);
+		assertEquals(before, listing());
+		assertEquals(time, d.getTimestamp());
+		assertEquals(0, manifest().deltas.size());
+	}
+
+	@Test
+	public void compactsAfterMaxDeltas() throws Exception {
+		Database.setCompactionThreshold(1000, 2);
+		Database db = new Database();
+		db.add(artifact("0000"));
+		db.sync(loc, archive, prov, null, null);
+		Database d = Database.getInstance(loc, prov, null);
+		for (int i = 1; i <= 3; i++) {
+			d.add(artifact("000" + i));
+			d.sync(loc, archive, prov, null, null);
+			assertEquals((i < 3) ? i : 0, manifest().deltas.size());
+		}
+		assertEquals(4, Database.getInstance(loc, prov, null).getSize());
+		assertEquals(2, dir.list(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(Database.DB_SUFFIX) || name.endsWith(Database.DB_DELTA_SUFFIX)
+						|| name.equals(Database.DB_MANIFEST);
+			}
+		}).length);
+	}
+
+	/**
+	 * Changes made while a sync is uploading are not part of it, and are published by the next
+	 * sync rather than lost.
+	 */
+	@Test(timeout = 30000)
+	public void changesDuringSyncKept() throws Exception {
+		Database db = new Database();
+		db.add(artifact("0001"));
+		db.add(artifact("0002"));
+		db.sync(loc, archive, prov, null, null);
+		final Database d = Database.getInstance(loc, prov, null);
+		d.add(artifact("0003"));
+		FileProvider writer = new FileProvider() {
+
+			private boolean done;
+
+			@Override
+			public OutputStream getOutputStream(String fileName) throws IOException {
+				if (!done) {
+					done = true;
+					try {
+						d.add(artifact("0004"));
+						d.remove(artifact("0001"));
+					} catch (DuplicateArtifactException e) {
+						throw (new IOException(e));
+					}
+				}
+				return super.getOutputStream(fileName);
+			}
+		};
+		d.sync(loc, archive, writer, null, null);
+		Database first = Database.getInstance(loc, prov, null);
+		assertNotNull(get(first, "0003"));
+		assertNull(get(first, "0004"));
+		assertNotNull(get(first, "0001"));
+
+		d.sync(loc, archive, prov, null, null);
+		Database second = Database.getInstance(loc, prov, null);
+		assertNotNull(get(second, "0004"));
+		assertNull(get(second, "0001"));
+		assertEquals(3, second.getSize());
+	}
+
+	private StoreManifest manifest() throws IOException {
+		return StoreManifest.read(new FileInputStream(new File(dir, Database.DB_MANIFEST)));
+	}
+
+	private String listing() {
+		String[] names = dir.list();
+		Arrays.sort(names);
+		String[] archived = new File(archive).list();
+		Arrays.sort(archived);
+		return Arrays.toString(names) + Arrays.toString(archived);
+	}
+
+	private static Artifact get(Database db, String acc) {
+		int i = db.contains(artifact(acc));
+		return (i >= 0) ? db.getData()[i] : null;
+	}
+
+	private static Artifact artifact(String acc) {
+		Artifact a = Artifact.createGenericArtifact();
+		a.accNum = acc;
+		a.title = "Artifact " + acc;
+		return a;
+	}
+
+	private static void writeFile(File f, byte[] data) throws IOException {
+		OutputStream out = new FileOutputStream(f);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File c : children) {
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.text.*;
+import java.util.*;
+
+import org.madeirahs.shared.*;
+import org.madeirahs.shared.Artifact.TimeField;
+import org.madeirahs.shared.time.*;
+
+/**
+ * Measures TimeField searches on a large catalog: building the {@link IntervalIndex}, querying
+ * it directly, a linear scan of the same intervals for comparison, and complete (ranked)
+ * searches through {@link DatabaseSnapshot#searchByField(TimeField, Artifact)}. Queries are
+ * single days and 30 day frames at random dates.
+ * <br/><br/>
+ * Usage: <code>IntervalIndexBenchmark [artifacts] [queries]</code> (default 1000000, 20). A
+ * million artifacts need about 2 GB of heap.
+ *
+ * @author Brian Groenke
+ *
+ */
+public class IntervalIndexBenchmark {
+
+	private static final long DAY = 86400000L;
+
+	public static void main(String[] args) throws Exception {
+		int n = Bench.arg(args, 0, 1000000), nq = Bench.arg(args, 1, 20);
+		Artifact[] data = Bench.artifacts(n, n);
+		final TimeSpec[] specs = new TimeSpec[n];
+		for (int i = 0; i < n; i++) {
+			specs[i] = data[i].objDate;
+		}
+		final Artifact[] points = queries(data, nq, 0, 1), frames = queries(data, nq, 30, 2);
+
+		System.out.println(n + " artifacts, " + nq + " queries of each kind");
+		Bench.report("operation", "ms");
+		Bench.report("index build", Bench.time(1, 3, new Bench.Task() {
+
+			@Override
+			public void run() {
+				Bench.sink = new IntervalIndex(specs);
+			}
+		}));
+		final IntervalIndex index = new IntervalIndex(specs);
+		final long[] starts = new long[n], ends = new long[n];
+		for (int i = 0; i < n; i++) {
+			starts[i] = index.start(i);
+			ends[i] = index.end(i);
+		}
+		for (final Artifact[] queries : new Artifact[][] { points, frames }) {
+			String kind = (queries == points) ? "day" : "30 days";
+			final int[] hits = new int[1];
+			Bench.report("index related, " + kind, perQuery(queries, new Bench.Task() {
+
+				@Override
+				public void run() {
+					hits[0] = 0;
+					for (Artifact q : queries) {
+						ArrayList<Integer> found = new ArrayList<Integer>();
+						index.related(IntervalIndex.start(q.objDate), IntervalIndex.end(q.objDate),
+								found);
+						hits[0] += found.size();
+					}
+				}
+			}), "hits/query", hits[0] / queries.length);
+			Bench.report("linear scan, " + kind, perQuery(queries, new Bench.Task() {
+
+				@Override
+				public void run() {
+					int found = 0;
+					for (Artifact q : queries) {
+						long qs = IntervalIndex.start(q.objDate), qe = IntervalIndex.end(q.objDate);
+						for (int i = 0; i < starts.length; i++) {
+							if (IntervalIndex.related(starts[i], ends[i], qs, qe)) {
+								found++;
+							}
+						}
+					}
+					Bench.sink = found;
+				}
+			}));
+		}
+
+		Database db = new Database();
+		for (Artifact a : data) {
+			db.addAndOverwrite(a);
+		}
+		data = null;
+		final DatabaseSnapshot snap = db.snapshot();
+		long t0 = System.nanoTime();
+		snap.searchByField(TimeField.OBJECT_DATE, points[0]);
+		Bench.report("first search (builds index)", (System.nanoTime() - t0) / 1e6);
+		for (final Artifact[] queries : new Artifact[][] { points, frames }) {
+			Bench.report("searchByField, " + ((queries == points) ? "day" : "30 days"), perQuery(
+					queries, new Bench.Task() {
+
+						@Override
+						public void run() {
+							for (Artifact q : queries) {
+								Bench.sink = snap.searchByField(TimeField.OBJECT_DATE, q);
+							}
+						}
+					}));
+		}
+	}
+
+	private static double perQuery(Artifact[] queries, Bench.Task task) throws Exception {
+		return Bench.time(task) / queries.length;
+	}
+
+	/*
+	 * Queries start on the start date of random artifacts, so that every query has hits.
+	 */
+	private static Artifact[] queries(Artifact[] data, int nq, int days, long seed) {
+		Random r = new Random(seed);
+		DateFormat fmt = new SimpleDateFormat("MM/dd/yyyy");
+		Artifact[] queries = new Artifact[nq];
+		for (int i = 0; i < nq; i++) {
+			Date start = data[r.nextInt(data.length)].objDate.getStartDate();
+			queries[i] = Artifact.createGenericArtifact();
+			queries[i].objDate = (days == 0) ? new DateTime(start, fmt) : new TimeFrame(start,
+					new Date(start.getTime() + days * DAY), fmt);
+		}
+		return queries;
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import org.madeirahs.shared.*;
+import org.madeirahs.shared.Artifact.StringField;
+import org.madeirahs.shared.Artifact.TimeField;
+
+/**
+ * Measures how unindexed scans scale with the number of threads given to {@link ParallelScan}:
+ * a String field scan that ranks every match, one that matches nothing, and a top-50 scan of a
+ * time field's text, each over the whole catalog with parallelism 1 through N.
+ * <br/><br/>
+ * Usage: <code>ParallelScanBenchmark [artifacts] [max threads]</code> (default 1000000, and
+ * the number of available processors but at least 4). A million artifacts need about 2 GB of
+ * heap.
+ *
+ * @author Brian Groenke
+ *
+ */
+public class ParallelScanBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int n = Bench.arg(args, 0, 1000000);
+		int cpus = Runtime.getRuntime().availableProcessors();
+		int max = Bench.arg(args, 1, Math.max(cpus, 4));
+		final Artifact[] data = Bench.artifacts(n, n);
+		final String[] common = TextIndex.terms("bottle"), none = TextIndex.terms("zeppelin"),
+				year = TextIndex.terms("1850");
+		// search keys are built lazily; build them outside the measurements
+		DatabaseSnapshot.rank(data, StringField.DESCRIPTION, common);
+		DatabaseSnapshot.rank(data, TimeField.OBJECT_DATE, year, 50);
+
+		System.out.println(n + " artifacts, " + cpus + " available processor(s)");
+		Bench.report("threads", "common ms", "speedup", "no match ms", "speedup", "top 50 ms",
+				"speedup");
+		double[] base = null;
+		try {
+			for (int p = 1; p <= max; p++) {
+				ParallelScan.setParallelism(p);
+				double[] t = new double[3];
+				t[0] = Bench.time(new Bench.Task() {
+
+					@Override
+					public void run() {
+						Bench.sink = DatabaseSnapshot.rank(data, StringField.DESCRIPTION, common);
+					}
+				});
+				t[1] = Bench.time(new Bench.Task() {
+
+					@Override
+					public void run() {
+						Bench.sink = DatabaseSnapshot.rank(data, StringField.DESCRIPTION, none);
+					}
+				});
+				t[2] = Bench.time(new Bench.Task() {
+
+					@Override
+					public void run() {
+						Bench.sink = DatabaseSnapshot.rank(data, TimeField.OBJECT_DATE, year, 50);
+					}
+				});
+				if (base == null) {
+					base = t;
+				}
+				Bench.report(String.valueOf(p), t[0], base[0] / t[0], t[1], base[1] / t[1], t[2],
+						base[2] / t[2]);
+			}
+		} finally {
+			ParallelScan.setParallelism(cpus);
+		}
+	}
+}
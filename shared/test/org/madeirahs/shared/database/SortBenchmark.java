@@ -0,0 +1,94 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.*;
+
+import org.madeirahs.shared.*;
+import org.madeirahs.shared.database.ArtifactSorter.Mode;
+import org.madeirahs.shared.database.ArtifactSorter.Variable;
+
+/**
+ * Measures sorting a shuffled copy of the whole catalog by each {@link Variable}, and by a mix
+ * of keys (medium, then object date in reverse, then title), three ways: with the
+ * {@link ArtifactSorter} comparator, with {@link ArtifactSorter#sort(Artifact[])} (which sorts
+ * columns of keys through {@link SortKeys}), and with the snapshot's shared sort orders through
+ * {@link DatabaseSnapshot#sort(Artifact[], ArtifactSorter)}.
+ * <br/><br/>
+ * Usage: <code>SortBenchmark [sizes]</code> (default 10000,100000,1000000). A million artifacts
+ * need about 2 GB of heap.
+ *
+ * @author Brian Groenke
+ *
+ */
+public class SortBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = Bench.sizes(args, 0, 10000, 100000, 1000000);
+		System.out.println(Runtime.getRuntime().availableProcessors() + " available processor(s)");
+		Bench.report("artifacts, keys", "comparator", "key columns", "snapshot");
+		for (int n : sizes) {
+			Artifact[] data = Bench.artifacts(n, n);
+			Database db = new Database();
+			for (Artifact a : data) {
+				db.addAndOverwrite(a);
+			}
+			DatabaseSnapshot snap = db.snapshot();
+			Collections.shuffle(Arrays.asList(data), new Random(n));
+			for (Variable v : Variable.values()) {
+				run(n + ", " + v, data, snap, new ArtifactSorter(v, Mode.FORWARD));
+			}
+			run(n + ", mixed", data, snap, new ArtifactSorter(Variable.MEDIUM, Mode.FORWARD)
+					.thenBy(Variable.OBJ_DATE, Mode.REVERSE).thenBy(Variable.TITLE, Mode.FORWARD));
+		}
+	}
+
+	private static void run(String name, final Artifact[] data, final DatabaseSnapshot snap,
+			final ArtifactSorter sorter) throws Exception {
+		// large sorts take seconds each with the comparator
+		int warmups = (data.length > 100000) ? 1 : Bench.WARMUPS;
+		int runs = (data.length > 100000) ? 3 : Bench.RUNS;
+		Bench.report(name, Bench.time(warmups, runs, new Bench.Task() {
+
+			@Override
+			public void run() {
+				Artifact[] copy = data.clone();
+				Arrays.sort(copy, sorter);
+				Bench.sink = copy;
+			}
+		}), Bench.time(warmups, runs, new Bench.Task() {
+
+			@Override
+			public void run() {
+				Artifact[] copy = data.clone();
+				sorter.sort(copy);
+				Bench.sink = copy;
+			}
+		}), Bench.time(warmups, runs, new Bench.Task() {
+
+			@Override
+			public void run() {
+				Artifact[] copy = data.clone();
+				sorter.sort(snap, copy);
+				Bench.sink = copy;
+			}
+		}));
+	}
+}
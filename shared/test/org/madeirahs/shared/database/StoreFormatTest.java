@@ -0,0 +1,327 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+import org.junit.*;
+import org.madeirahs.shared.*;
+import org.madeirahs.shared.time.*;
+import org.madeirahs.shared.v3d.*;
+
+/**
+ * Round-trip tests for the store-file formats: the compact record format, the chunked store
+ * container and the legacy store of a serialized Database.
+ *
+ * @author Brian Groenke
+ *
+ */
+public class StoreFormatTest {
+
+	/*
+	 * A store written by the original serialized-Database code; see legacyStore().
+	 */
+	private static final String LEGACY_STORE = "legacy.store";
+
+	private ExecutorService exec;
+
+	@Before
+	public void setUp() {
+		exec = Executors.newFixedThreadPool(2);
+	}
+
+	@After
+	public void tearDown() {
+		exec.shutdownNow();
+	}
+
+	@Test
+	public void encodeThenDecode() throws Exception {
+		Artifact[] data = artifacts(50);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ArtifactEncoder enc = new ArtifactEncoder(bytes);
+		enc.writeHeader(42L, "curator");
+		enc.writeRecords(data, 0, 20);
+		enc.writeRecords(data, 20, 30);
+		enc.flush();
+
+		ArtifactDecoder dec = new ArtifactDecoder(new ByteArrayInputStream(bytes.toByteArray()));
+		dec.readHeader();
+		assertEquals(ArtifactEncoder.FORMAT_VERSION, dec.getVersion());
+		assertEquals(42L, dec.getTimestamp());
+		assertEquals("curator", dec.getUser());
+		Artifact[] first = dec.readRecords(), second = dec.readRecords();
+		assertEquals(20, first.length);
+		assertEquals(30, second.length);
+		for (int i = 0; i < 20; i++) {
+			assertArtifact(data[i], first[i]);
+		}
+		for (int i = 0; i < 30; i++) {
+			assertArtifact(data[20 + i], second[i]);
+		}
+	}
+
+	/**
+	 * Fields missing from a block's schema keep their defaults, and fields the decoder
+	 * doesn't know are skipped.
+	 */
+	@Test
+	public void decodeSkipsUnknownFields() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(2);
+		writeString(out, "accNum");
+		out.writeByte(ArtifactEncoder.TYPE_STRING);
+		writeString(out, "addedLater");
+		out.writeByte(ArtifactEncoder.TYPE_STRING);
+		out.writeByte(2); // record count
+		for (int i = 0; i < 2; i++) {
+			writeString(out, "2001.00" + i);
+			writeString(out, "ignored " + i);
+		}
+
+		Artifact[] read = new ArtifactDecoder(new ByteArrayInputStream(bytes.toByteArray()))
+				.readRecords();
+		assertEquals(2, read.length);
+		assertEquals("2001.001", read[1].accNum);
+		assertNull(read[1].title);
+		assertFalse(read[1].is3DSupported());
+	}
+
+	@Test(expected = DatabaseException.class)
+	public void decodeRejectsOtherData() throws Exception {
+		new ArtifactDecoder(new ByteArrayInputStream(new byte[16])).readHeader();
+	}
+
+	@Test
+	public void legacyStore() throws Exception {
+		Database db = Database.readStore(getClass().getResourceAsStream(LEGACY_STORE));
+		assertEquals(12, db.getSize());
+		assertEquals(1234567890000L, db.getTimestamp());
+		assertEquals("legacy", db.getUser());
+		Artifact[] data = db.getData();
+		for (int i = 0; i < data.length; i++) {
+			int n = i + 1;
+			Artifact a = data[i];
+			assertEquals(String.format("1990.001.%03d", n), a.accNum);
+			assertEquals("Legacy artifact " + n, a.title);
+			assertEquals("Donor " + n, a.donor);
+			assertEquals(n * 100000000000L, a.objDate.getStartDate().getTime());
+			assertEquals((n % 2 == 0) ? n * 2000000000L : n * 1000000000L, a.subDate
+					.getEndDate().getTime());
+			assertEquals((n % 3 == 0) ? 2 : 0, a.filenames.length);
+		}
+	}
+
+	/**
+	 * A legacy store converted to the current format reads back the same.
+	 */
+	@Test
+	public void legacyStoreConverted() throws Exception {
+		Database legacy = Database.readStore(getClass().getResourceAsStream(LEGACY_STORE));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		legacy.writeStore(bytes);
+		byte[] store = bytes.toByteArray();
+		assertEquals(ChunkedStore.MAGIC, new DataInputStream(new ByteArrayInputStream(store))
+				.readInt());
+
+		Database converted = Database.readStore(new ByteArrayInputStream(store));
+		assertEquals(legacy.getTimestamp(), converted.getTimestamp());
+		assertEquals(legacy.getUser(), converted.getUser());
+		assertArtifacts(legacy.getData(), converted.getData());
+	}
+
+	/**
+	 * Stores written as a zip entry holding a single compact record block are still read.
+	 */
+	@Test
+	public void compactZipStore() throws Exception {
+		Artifact[] data = artifacts(25);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(bytes);
+		zip.putNextEntry(new ZipEntry("1" + Database.DB_ENTRY_SUFFIX));
+		ArtifactEncoder enc = new ArtifactEncoder(zip);
+		enc.writeHeader(7L, null);
+		enc.writeRecords(data, 0, data.length);
+		enc.flush();
+		zip.close();
+
+		Database db = Database.readStore(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(7L, db.getTimestamp());
+		assertNull(db.getUser());
+		assertArtifacts(data, db.getData());
+	}
+
+	@Test
+	public void chunkedStore() throws Exception {
+		Artifact[] data = artifacts(1000);
+		byte[] store = writeChunked(data, 64);
+		ChunkedStore.Contents read = new ChunkedStore(6, 64, exec, 2)
+				.read(new ByteArrayInputStream(store));
+		assertEquals(99L, read.timestamp);
+		assertEquals("writer", read.user);
+		assertArtifacts(data, read.data);
+
+		ChunkedStore.Contents empty = new ChunkedStore(6, 64, exec, 2)
+				.read(new ByteArrayInputStream(writeChunked(new Artifact[0], 64)));
+		assertEquals(0, empty.data.length);
+	}
+
+	/**
+	 * Each field of the index footer is checked against the frames that were read.
+	 */
+	@Test
+	public void chunkedStoreIndexVerified() throws Exception {
+		byte[] store = writeChunked(artifacts(300), 100);
+		int trailer = store.length - 12;
+		long indexOffset = readLong(store, trailer);
+		int entries = (int) indexOffset + 4;
+		// chunk count, then the offset, length and count of each chunk, then the index offset
+		int[] fields = { (int) indexOffset, entries, entries + 8, entries + 12,
+				entries + 16 + 8, trailer };
+		for (int field : fields) {
+			byte[] corrupt = store.clone();
+			corrupt[field + ((field == trailer || field == entries) ? 7 : 3)] ^= 1;
+			try {
+				new ChunkedStore(6, 100, exec, 2).read(new ByteArrayInputStream(corrupt));
+				fail("index field at " + field + " was not verified");
+			} catch (DatabaseException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void chunkedStoreCorruptFrame() throws Exception {
+		byte[] store = writeChunked(artifacts(300), 100);
+		int trailer = store.length - 12;
+		int entries = (int) readLong(store, trailer) + 4;
+		// flip a byte in the middle of the second chunk's deflated data
+		int frame = (int) readLong(store, entries + 16);
+		int len = readInt(store, frame);
+		byte[] corrupt = store.clone();
+		corrupt[frame + 8 + len / 2] ^= 0x5A;
+		try {
+			Database.readStore(new ByteArrayInputStream(corrupt));
+			fail("corrupt frame was read");
+		} catch (IOException e) {
+			// expected: inflating or decoding fails
+		}
+
+		byte[] truncated = Arrays.copyOf(store, frame + 8 + len / 2);
+		try {
+			Database.readStore(new ByteArrayInputStream(truncated));
+			fail("truncated store was read");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private byte[] writeChunked(Artifact[] data, int chunkSize) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new ChunkedStore(6, chunkSize, exec, 2).write(bytes, data, 99L, "writer");
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Builds Artifacts in accession order that exercise every field type: nulls, non-ASCII
+	 * text, both kinds of TimeSpec, forced time values, file lists and V3D bundles.
+	 */
+	static Artifact[] artifacts(int n) throws V3DException {
+		SimpleDateFormat day = new SimpleDateFormat("MM/dd/yyyy"), year = new SimpleDateFormat(
+				"yyyy");
+		Artifact[] data = new Artifact[n];
+		for (int i = 0; i < n; i++) {
+			TimeSpec obj = (i % 2 == 0) ? new DateTime(new Date(i * 86400000L * 365), year)
+					: new TimeFrame(new Date(i * 1000L), new Date(i * 2000L), day);
+			if (i % 5 == 0) {
+				obj.forcedValue = "circa " + (1900 + i);
+			}
+			Artifact a = new Artifact(obj, new DateTime(new Date(i * 60000L), day),
+					(i % 7 == 0) ? null : "Donor " + i, "T\u00edtulo \u00e9\u4e2d " + i, "Medium",
+					String.format("%04d.%03d", i / 100, i % 100), "Description " + i);
+			if (i % 3 == 0) {
+				a.configureMultiImage(new String[] { "rsc/a" + i + ".jpg", "rsc/b" + i + ".jpg" });
+			}
+			if (i % 11 == 0) {
+				a.configure3D(new V3DBundle("f" + i, "r" + i, "b" + i, "l" + i));
+			}
+			data[i] = a;
+		}
+		return data;
+	}
+
+	static void assertArtifacts(Artifact[] expected, Artifact[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertArtifact(expected[i], actual[i]);
+		}
+	}
+
+	static void assertArtifact(Artifact e, Artifact a) {
+		assertEquals(e.accNum, a.accNum);
+		assertEquals(e.title, a.title);
+		assertEquals(e.donor, a.donor);
+		assertEquals(e.medium, a.medium);
+		assertEquals(e.desc, a.desc);
+		assertTime(e.objDate, a.objDate);
+		assertTime(e.subDate, a.subDate);
+		assertArrayEquals(e.filenames, a.filenames);
+		assertArrayEquals(e.fieldValues, a.fieldValues);
+		assertEquals(e.is3DSupported(), a.is3DSupported());
+		if (e.bundle != null) {
+			assertArrayEquals(e.bundle.getFinalImageArray(), a.bundle.getFinalImageArray());
+			assertEquals(e.bundle.getBundleType(), a.bundle.getBundleType());
+		}
+	}
+
+	private static void assertTime(TimeSpec e, TimeSpec a) {
+		if (e == null) {
+			assertNull(a);
+			return;
+		}
+		assertEquals(e.getClass(), a.getClass());
+		assertEquals(e.getStartDate(), a.getStartDate());
+		assertEquals(e.getEndDate(), a.getEndDate());
+		assertEquals(e.forcedValue, a.forcedValue);
+		assertEquals(e.syntaxString, a.syntaxString);
+		assertEquals(e.toString(), a.toString());
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes("UTF-8");
+		out.writeByte(b.length + 1); // short strings fit in one varint byte
+		out.write(b);
+	}
+
+	private static long readLong(byte[] b, int off) throws IOException {
+		return new DataInputStream(new ByteArrayInputStream(b, off, 8)).readLong();
+	}
+
+	private static int readInt(byte[] b, int off) throws IOException {
+		return new DataInputStream(new ByteArrayInputStream(b, off, 4)).readInt();
+	}
+}
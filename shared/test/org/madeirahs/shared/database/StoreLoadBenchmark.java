@@ -0,0 +1,136 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+import org.madeirahs.shared.*;
+
+/**
+ * Measures the time until a Database read from a store-file is ready to use, and the peak heap
+ * used while reading it, for the legacy serialized format, the single compact zip entry and the
+ * current chunked format.
+ * <br/><br/>
+ * Usage: <code>StoreLoadBenchmark [artifacts]</code> (default 50000). Run with a fixed -Xmx so
+ * that the peak heap figures are comparable.
+ *
+ * @author Brian Groenke
+ *
+ */
+public class StoreLoadBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int n = Bench.arg(args, 0, 50000);
+		File dir = File.createTempFile("storeload", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			Map<String, File> stores = new LinkedHashMap<String, File>();
+			Artifact[] data = Bench.artifacts(n, n);
+			stores.put("legacy (serialized)", writeLegacy(data, new File(dir, "legacy.store")));
+			stores.put("compact zip", writeCompact(data, new File(dir, "compact.store")));
+			stores.put("chunked", writeChunked(data, new File(dir, "chunked.store")));
+			data = null;
+
+			System.out.println(n + " artifacts, max heap "
+					+ Bench.mb(Runtime.getRuntime().maxMemory()) + ", "
+					+ Runtime.getRuntime().availableProcessors() + " cpu(s)");
+			Bench.report("format", "size", "ready ms", "peak heap", "retained");
+			for (Map.Entry<String, File> e : stores.entrySet()) {
+				load(e.getKey(), e.getValue());
+			}
+		} finally {
+			for (File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	private static void load(String name, final File store) throws Exception {
+		for (int i = 0; i < Bench.WARMUPS; i++) {
+			Bench.sink = read(store);
+		}
+		Bench.sink = null;
+		double[] times = new double[Bench.RUNS];
+		long[] peaks = new long[Bench.RUNS];
+		long idle = Bench.usedHeap(), retained = 0;
+		for (int i = 0; i < Bench.RUNS; i++) {
+			Bench.resetPeakHeap();
+			long t0 = System.nanoTime();
+			Database db = read(store);
+			times[i] = (System.nanoTime() - t0) / 1e6;
+			peaks[i] = Bench.peakHeap() - idle;
+			retained = Bench.usedHeap() - idle;
+			Bench.sink = db;
+			Bench.sink = null;
+		}
+		Arrays.sort(times);
+		Arrays.sort(peaks);
+		Bench.report(name, Bench.mb(store.length()), times[Bench.RUNS / 2],
+				Bench.mb(peaks[Bench.RUNS / 2]), Bench.mb(retained));
+	}
+
+	/*
+	 * Ready means the first search can be answered without further loading.
+	 */
+	private static Database read(File store) throws Exception {
+		Database db = Database.readStore(new FileInputStream(store));
+		db.getRange("0000", "0001");
+		return db;
+	}
+
+	private static File writeLegacy(Artifact[] data, File f) throws IOException {
+		Database db = new Database();
+		for (Artifact a : data) {
+			db.addAndOverwrite(a);
+		}
+		ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(
+				new FileOutputStream(f)));
+		zip.putNextEntry(new ZipEntry("1" + Database.DB_ENTRY_SUFFIX));
+		ObjectOutputStream out = new ObjectOutputStream(zip);
+		out.writeObject(db);
+		out.close();
+		return f;
+	}
+
+	private static File writeCompact(Artifact[] data, File f) throws IOException {
+		ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(
+				new FileOutputStream(f)));
+		zip.putNextEntry(new ZipEntry("1" + Database.DB_ENTRY_SUFFIX));
+		ArtifactEncoder enc = new ArtifactEncoder(zip);
+		enc.writeHeader(1L, null);
+		enc.writeRecords(data, 0, data.length);
+		enc.flush();
+		zip.close();
+		return f;
+	}
+
+	private static File writeChunked(Artifact[] data, File f) throws IOException {
+		Database db = new Database();
+		for (Artifact a : data) {
+			db.addAndOverwrite(a);
+		}
+		db.writeStore(new BufferedOutputStream(new FileOutputStream(f)));
+		return f;
+	}
+}
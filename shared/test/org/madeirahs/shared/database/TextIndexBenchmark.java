@@ -0,0 +1,168 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.database;
+
+import java.util.*;
+
+import org.madeirahs.shared.*;
+
+/**
+ * Measures fuzzy matching in a {@link TextIndex} with a large vocabulary of distinct tokens,
+ * against checking the edit distance to every token of the vocabulary. Tokens are pronounceable
+ * made-up words of 3 to 21 letters, and each query term is a vocabulary token with one or two
+ * random edits.
+ * <br/><br/>
+ * Usage: <code>TextIndexBenchmark [tokens] [queries]</code> (default 500000, 50)
+ *
+ * @author Brian Groenke
+ *
+ */
+public class TextIndexBenchmark {
+
+	private static final String[] SYLLABLES = { "ba", "ca", "de", "fi", "go", "hu", "ja", "ke",
+			"li", "mo", "nu", "pa", "qui", "ro", "si", "tu", "va", "we", "xo", "yi", "za", "ber",
+			"con", "dor", "ell", "fan", "gis", "hol", "ing", "ton", "ville", "str", "ash", "ey" };
+
+	private static final int TOKENS_PER_DOC = 4;
+
+	public static void main(String[] args) throws Exception {
+		int nvocab = Bench.arg(args, 0, 500000), nq = Bench.arg(args, 1, 50);
+		Random r = new Random(nvocab);
+		final String[] vocab = vocabulary(nvocab, r);
+		int ndocs = nvocab / 2;
+		final String[][] values = new String[ndocs][TOKENS_PER_DOC];
+		for (int doc = 0; doc < ndocs; doc++) {
+			// every token occurs at least once
+			values[doc][0] = vocab[2 * doc];
+			values[doc][1] = vocab[2 * doc + 1];
+			for (int i = 2; i < TOKENS_PER_DOC; i++) {
+				values[doc][i] = vocab[r.nextInt(nvocab)];
+			}
+		}
+
+		System.out.println(nvocab + " distinct tokens in " + ndocs + " documents, " + nq
+				+ " queries");
+		Bench.report("operation", "ms");
+		Bench.report("index build", Bench.time(1, 3, new Bench.Task() {
+
+			@Override
+			public void run() {
+				Bench.sink = new TextIndex(values);
+			}
+		}));
+		final TextIndex index = new TextIndex(values);
+		for (final int edits : new int[] { 1, 2 }) {
+			final String[][] queries = new String[nq][];
+			for (int i = 0; i < nq; i++) {
+				queries[i] = TextIndex.terms(misspell(vocab[r.nextInt(nvocab)], edits, r));
+			}
+			String kind = (edits == 1) ? "1 edit" : edits + " edits";
+			final int[] hits = new int[1];
+			Bench.report("exact (substring), " + kind, perQuery(nq, new Bench.Task() {
+
+				@Override
+				public void run() {
+					for (String[] q : queries) {
+						HashMap<Integer, int[]> scores = new HashMap<Integer, int[]>();
+						index.score(q, scores);
+						Bench.sink = scores;
+					}
+				}
+			}));
+			Bench.report("fuzzy, " + kind, perQuery(nq, new Bench.Task() {
+
+				@Override
+				public void run() {
+					hits[0] = 0;
+					for (String[] q : queries) {
+						HashMap<Integer, int[]> scores = new HashMap<Integer, int[]>();
+						index.scoreFuzzy(q, edits, scores);
+						hits[0] += scores.size();
+					}
+				}
+			}), "hits/query", hits[0] / nq);
+			Bench.report("full vocabulary scan, " + kind, perQuery(nq, new Bench.Task() {
+
+				@Override
+				public void run() {
+					int found = 0;
+					for (String[] q : queries) {
+						for (String term : q) {
+							for (String tok : vocab) {
+								if (TextIndex.distance(term, tok, edits) <= edits) {
+									found++;
+								}
+							}
+						}
+					}
+					Bench.sink = found;
+				}
+			}));
+		}
+	}
+
+	private static double perQuery(int nq, Bench.Task task) throws Exception {
+		return Bench.time(task) / nq;
+	}
+
+	private static String[] vocabulary(int n, Random r) {
+		HashSet<String> seen = new HashSet<String>();
+		String[] vocab = new String[n];
+		int count = 0;
+		while (count < n) {
+			StringBuilder sb = new StringBuilder();
+			int syllables = 1 + r.nextInt(4);
+			for (int i = 0; i < syllables; i++) {
+				sb.append(SYLLABLES[r.nextInt(SYLLABLES.length)]);
+			}
+			if (r.nextInt(3) == 0) {
+				sb.append((char) ('a' + r.nextInt(26)));
+			}
+			String tok = sb.toString();
+			if (tok.length() >= 3 && seen.add(tok)) {
+				vocab[count++] = tok;
+			}
+		}
+		return vocab;
+	}
+
+	private static String misspell(String tok, int edits, Random r) {
+		StringBuilder sb = new StringBuilder(tok);
+		for (int i = 0; i < edits; i++) {
+			int at = r.nextInt(sb.length());
+			char c = (char) ('a' + r.nextInt(26));
+			switch (r.nextInt(3)) {
+			case 0:
+				sb.setCharAt(at, c);
+				break;
+			case 1:
+				sb.insert(at, c);
+				break;
+			default:
+				if (sb.length() > 3) {
+					sb.deleteCharAt(at);
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb.toString();
+	}
+}
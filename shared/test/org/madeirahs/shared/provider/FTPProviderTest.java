@@ -0,0 +1,212 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.provider;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.commons.net.ftp.*;
+import org.junit.*;
+import org.mockftpserver.fake.*;
+import org.mockftpserver.fake.filesystem.*;
+
+/**
+ * Integration tests for the FTPProvider session pool, run against an in-process FTP server
+ * listening on a local port.
+ *
+ * @author Brian Groenke
+ *
+ */
+public class FTPProviderTest {
+
+	private static final String USER = "user", PASS = "pass", HOME = "/data";
+	private static final int POOL_SIZE = 4, THREADS = 12, FILE_SIZE = 0x20000;
+
+	/*
+	 * FTPProvider connects to the default FTP port, so the test provider sets the server's
+	 * port on each client before it connects.
+	 */
+	private static volatile int port;
+
+	private FakeFtpServer server;
+	private FileSystem fs;
+	private FTPProvider prov;
+
+	@Before
+	public void setUp() throws Exception {
+		fs = new UnixFakeFileSystem();
+		fs.add(new DirectoryEntry(HOME));
+		server = startServer(0);
+		port = server.getServerControlPort();
+		prov = new LocalProvider(POOL_SIZE);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		prov.disconnect();
+		server.stop();
+	}
+
+	/**
+	 * Writes and reads back a different file from more threads than there are sessions, so
+	 * that threads wait for and reuse pooled sessions.
+	 */
+	@Test(timeout = 60000)
+	public void concurrentTransfers() throws Exception {
+		final byte[][] data = new byte[THREADS][];
+		Random r = new Random(THREADS);
+		for (int i = 0; i < THREADS; i++) {
+			data[i] = new byte[FILE_SIZE];
+			r.nextBytes(data[i]);
+		}
+		List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>();
+		for (int i = 0; i < THREADS; i++) {
+			final int n = i;
+			tasks.add(new Callable<byte[]>() {
+
+				@Override
+				public byte[] call() throws IOException {
+					OutputStream out = prov.getOutputStream("f" + n + ".bin");
+					assertNotNull(out);
+					try {
+						out.write(data[n]);
+					} finally {
+						out.close();
+					}
+					return read(prov.getInputStream("f" + n + ".bin"));
+				}
+			});
+		}
+		ExecutorService exec = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<byte[]>> results = exec.invokeAll(tasks);
+			for (int i = 0; i < THREADS; i++) {
+				assertArrayEquals("read back f" + i, data[i], results.get(i).get());
+				assertArrayEquals("stored f" + i, data[i], stored(HOME + "/f" + i + ".bin"));
+			}
+		} finally {
+			exec.shutdownNow();
+		}
+		assertEquals(THREADS, prov.listNames(HOME).length);
+	}
+
+	/**
+	 * Commands must not wait for (or interleave with) a transfer that is in progress on
+	 * another session.
+	 */
+	@Test(timeout = 30000)
+	public void commandsDuringOpenTransfer() throws Exception {
+		OutputStream out = prov.getOutputStream("open.bin");
+		assertNotNull(out);
+		try {
+			out.write(new byte[FILE_SIZE]);
+			assertTrue(prov.mkdir(HOME + "/sub"));
+			assertNotNull(prov.listNames(HOME));
+			assertTrue(prov.isAvailable());
+		} finally {
+			out.close();
+		}
+		assertTrue(fs.exists(HOME + "/sub"));
+		assertEquals(FILE_SIZE, stored(HOME + "/open.bin").length);
+	}
+
+	/**
+	 * Idle sessions left over from before the server went away must be dropped rather than
+	 * reused forever. The first command may still fail on a stale session.
+	 */
+	@Test(timeout = 60000)
+	public void recoversAfterServerRestart() throws Exception {
+		for (int i = 0; i < POOL_SIZE; i++) {
+			assertNotNull(prov.listNames(HOME));
+		}
+		server.stop();
+		server = startServer(port);
+		fs.add(new FileEntry(HOME + "/after.txt", "restarted"));
+		String[] names = null;
+		for (int i = 0; i <= POOL_SIZE && names == null; i++) {
+			names = prov.listNames(HOME);
+		}
+		assertNotNull("no session recovered after restart", names);
+		assertEquals("restarted", new String(read(prov.getInputStream("after.txt")), "UTF-8"));
+	}
+
+	/**
+	 * A resumable upload completes against a server without SIZE support, starting over
+	 * rather than appending to a file of unknown length.
+	 */
+	@Test(timeout = 60000)
+	public void resumableUploadWithoutSize() throws Exception {
+		byte[] data = new byte[FILE_SIZE * 3];
+		new Random(7).nextBytes(data);
+		prov.upload("up.par", FTPProvider.source(data));
+		assertArrayEquals(data, stored(HOME + "/up.par"));
+		assertTrue(prov.rename("up.par", "up.bin"));
+		assertArrayEquals(data, stored(HOME + "/up.bin"));
+	}
+
+	private FakeFtpServer startServer(int controlPort) {
+		FakeFtpServer s = new FakeFtpServer();
+		s.setServerControlPort(controlPort);
+		s.addUserAccount(new UserAccount(USER, PASS, HOME));
+		s.setFileSystem(fs);
+		s.start();
+		while (!s.isStarted()) {
+			Thread.yield();
+		}
+		return s;
+	}
+
+	private byte[] stored(String path) throws IOException {
+		FileEntry e = (FileEntry) fs.getEntry(path);
+		assertNotNull(path + " not stored", e);
+		return read(e.createInputStream());
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		assertNotNull(in);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			byte[] buff = new byte[0x4000];
+			int len;
+			while ((len = in.read(buff)) >= 0) {
+				bytes.write(buff, 0, len);
+			}
+		} finally {
+			in.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	private static class LocalProvider extends FTPProvider {
+
+		LocalProvider(int poolSize) throws IOException {
+			super("localhost", USER, PASS, poolSize);
+		}
+
+		@Override
+		protected void init(FTPClient client) throws IOException {
+			super.init(client);
+			client.setDefaultPort(port);
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ *  The MHS-Collections Project shared library is intended for use by both the applet
+ *  and editor software in the interest of code consistency.
+ *  Copyright (c) 2012-2016 Madeira Historical Society (developed by Brian Groenke)
+ *
+ *  This library is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.madeirahs.shared.provider;
+
+import java.io.*;
+import java.util.*;
+
+import javax.swing.*;
+
+import org.apache.commons.net.ftp.*;
+import org.madeirahs.shared.*;
+import org.madeirahs.shared.misc.*;
+import org.mockftpserver.fake.*;
+import org.mockftpserver.fake.filesystem.*;
+
+/**
+ * Measures download and upload throughput through FTPProvider against the same in-process FTP
+ * server as {@link FTPProviderTest}, with and without the bulk read/write paths. The "before"
+ * transfers reproduce the old stream wrappers: every array read or write is broken into
+ * single-byte calls, and the ProgressMonitor is updated for every byte. The "after" transfers
+ * go through {@link MonitoredInStream} and {@link MonitoredOutStream} as Database does. Both
+ * copy through a 5kB buffer, like the Database download and upload paths.
+ * <br/><br/>
+ * Usage: <code>FTPTransferBenchmark [megabytes]</code> (default 32)
+ *
+ * @author Brian Groenke
+ *
+ */
+public class FTPTransferBenchmark {
+
+	private static final String USER = "user", PASS = "pass", HOME = "/data", FILE = "bench.bin";
+	private static final int BUFF_SIZE = 5120;
+
+	private static volatile int port;
+
+	public static void main(String[] args) throws Exception {
+		int size = Bench.arg(args, 0, 32) << 20;
+		final byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+
+		FileSystem fs = new UnixFakeFileSystem();
+		fs.add(new DirectoryEntry(HOME));
+		FakeFtpServer server = new FakeFtpServer();
+		server.setServerControlPort(0);
+		server.addUserAccount(new UserAccount(USER, PASS, HOME));
+		server.setFileSystem(fs);
+		server.start();
+		while (!server.isStarted()) {
+			Thread.yield();
+		}
+		port = server.getServerControlPort();
+		final FTPProvider prov = new LocalProvider();
+		final ProgressMonitor prog = new ProgressMonitor(null, "benchmark", null, 0, 100);
+		// never pop up; only the cost of the updates is wanted
+		prog.setMillisToDecideToPopup(Integer.MAX_VALUE);
+		try {
+			System.out.println((size >> 20) + " MB per transfer, localhost");
+			Bench.report("transfer", "MB/s");
+			Bench.report("upload, before", mbps(size, Bench.time(1, 3, new Bench.Task() {
+
+				@Override
+				public void run() throws IOException {
+					copy(new ByteArrayInputStream(data), new PerByteOutStream(prov
+							.getOutputStream(FILE), prog, data.length));
+				}
+			})));
+			Bench.report("upload, after", mbps(size, Bench.time(1, 3, new Bench.Task() {
+
+				@Override
+				public void run() throws IOException {
+					copy(new ByteArrayInputStream(data), new MonitoredOutStream(prov
+							.getOutputStream(FILE), prog, data.length));
+				}
+			})));
+			if (prov.sizeOf(FILE) != size) {
+				throw (new IOException("uploaded " + prov.sizeOf(FILE) + " of " + size
+						+ " bytes"));
+			}
+			Bench.report("download, before", mbps(size, Bench.time(1, 3, new Bench.Task() {
+
+				@Override
+				public void run() throws IOException {
+					copy(new PerByteInStream(prov.getInputStream(FILE), prog, data.length),
+							new ByteArrayOutputStream(data.length));
+				}
+			})));
+			Bench.report("download, after", mbps(size, Bench.time(1, 3, new Bench.Task() {
+
+				@Override
+				public void run() throws IOException {
+					copy(new MonitoredInStream(prov.getInputStream(FILE), prog, data.length),
+							new ByteArrayOutputStream(data.length));
+				}
+			})));
+		} finally {
+			prov.disconnect();
+			server.stop();
+		}
+	}
+
+	private static double mbps(int size, double ms) {
+		return (size / 1048576.0) / (ms / 1000);
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		try {
+			byte[] buff = new byte[BUFF_SIZE];
+			int len;
+			while ((len = in.read(buff)) >= 0) {
+				out.write(buff, 0, len);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	/**
+	 * The download path as it was: InputStream's array read calls read() for each byte, and
+	 * each byte updates the monitor.
+	 */
+	private static class PerByteInStream extends InputStream {
+
+		private final InputStream in;
+		private final ProgressMonitor prog;
+		private final long max;
+		private long total;
+
+		PerByteInStream(InputStream in, ProgressMonitor prog, long max) {
+			this.in = in;
+			this.prog = prog;
+			this.max = max;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			total++;
+			int p = (int) Math.round(((double) total / max) * 100);
+			prog.setProgress((p <= 100) ? p : 100);
+			return b;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * The upload path as it was: OutputStream's array write calls write(int) for each byte, and
+	 * each byte updates the monitor.
+	 */
+	private static class PerByteOutStream extends OutputStream {
+
+		private final OutputStream out;
+		private final ProgressMonitor prog;
+		private final long max;
+		private long total;
+
+		PerByteOutStream(OutputStream out, ProgressMonitor prog, long max) {
+			this.out = out;
+			this.prog = prog;
+			this.max = max;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			total++;
+			int p = (int) Math.round(((double) total / max) * 100);
+			prog.setProgress(p);
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	private static class LocalProvider extends FTPProvider {
+
+		LocalProvider() throws IOException {
+			super("localhost", USER, PASS, 1);
+		}
+
+		@Override
+		protected void init(FTPClient client) throws IOException {
+			super.init(client);
+			client.setDefaultPort(port);
+		}
+	}
+}